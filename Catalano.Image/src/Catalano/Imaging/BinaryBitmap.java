@@ -0,0 +1,511 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+package Catalano.Imaging;
+
+import Catalano.Core.FloatPoint;
+
+/**
+ * Binary image with 64 pixels per long.
+ * 
+ * <p> The pixel (x, y) is the bit y % 64 of the word y / 64 of the row x, the bits after the width are always 0.
+ * The logical operators work on whole words. The morphology shifts whole rows: the square structuring element
+ * is split in a horizontal and a vertical segment and each segment is built by doubling, so the cost grows
+ * with the logarithm of the radius. The area and the statistics count the bits of the words. </p>
+ * 
+ * <p> The pixels are set if the gray value is at least the threshold (default 1). </p>
+ * 
+ * <p><li>Coordinate System: Matrix.
+ * 
+ * @author Diego Catalano
+ */
+public class BinaryBitmap {
+    
+    // Bits of the word whose index has the bit b set.
+    private static final long[] PLANES = {
+        0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+        0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L
+    };
+    
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final long last;
+    private long[] data;
+
+    /**
+     * Initialize a new instance of the BinaryBitmap class, all the pixels are 0.
+     * @param width Width.
+     * @param height Height.
+     */
+    public BinaryBitmap(int width, int height) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("The size must be at least 1x1.");
+        
+        this.width = width;
+        this.height = height;
+        this.stride = (width + 63) >>> 6;
+        this.last = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+        this.data = new long[stride * height];
+    }
+    
+    /**
+     * Initialize a new instance of the BinaryBitmap class.
+     * @param binaryBitmap Binary image to copy.
+     */
+    public BinaryBitmap(BinaryBitmap binaryBitmap) {
+        this(binaryBitmap.width, binaryBitmap.height);
+        System.arraycopy(binaryBitmap.data, 0, data, 0, data.length);
+    }
+    
+    /**
+     * Initialize a new instance of the BinaryBitmap class, the pixels different of 0 are set.
+     * @param fastBitmap Grayscale image.
+     */
+    public BinaryBitmap(FastBitmap fastBitmap) {
+        this(fastBitmap, 1);
+    }
+    
+    /**
+     * Initialize a new instance of the BinaryBitmap class.
+     * @param fastBitmap Grayscale image.
+     * @param threshold The pixels with gray value greater or equal are set.
+     */
+    public BinaryBitmap(FastBitmap fastBitmap, int threshold) {
+        this(fastBitmap.getWidth(), fastBitmap.getHeight());
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("Binary bitmap only works with grayscale images.");
+        
+        byte[] gray = fastBitmap.getGrayData();
+        for (int i = 0; i < height; i++) {
+            int row = i * width;
+            int o = i * stride;
+            for (int w = 0; w < stride; w++) {
+                int start = row + (w << 6);
+                long word = 0;
+                for (int p = Math.min(row + width, start + 64) - 1; p >= start; p--)
+                    word = word << 1 | ((gray[p] & 0xFF) >= threshold ? 1 : 0);
+                data[o + w] = word;
+            }
+        }
+    }
+
+    /**
+     * Get width.
+     * @return Width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get height.
+     * @return Height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the number of words of a row.
+     * @return Stride.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Get the words of the image, row by row.
+     * @return Words.
+     */
+    public long[] getData() {
+        return data;
+    }
+    
+    /**
+     * Get a pixel.
+     * @param x X axis coordinate.
+     * @param y Y axis coordinate.
+     * @return True if the pixel is set.
+     */
+    public boolean get(int x, int y){
+        return (data[x * stride + (y >>> 6)] >>> (y & 63) & 1L) != 0;
+    }
+    
+    /**
+     * Set a pixel.
+     * @param x X axis coordinate.
+     * @param y Y axis coordinate.
+     * @param value Value of the pixel.
+     */
+    public void set(int x, int y, boolean value){
+        int k = x * stride + (y >>> 6);
+        if (value)
+            data[k] |= 1L << (y & 63);
+        else
+            data[k] &= ~(1L << (y & 63));
+    }
+    
+    /**
+     * Convert to a grayscale image, 255 for the pixels set and 0 for the others.
+     * @return Grayscale image.
+     */
+    public FastBitmap toFastBitmap(){
+        FastBitmap fastBitmap = new FastBitmap(width, height, FastBitmap.ColorSpace.Grayscale);
+        byte[] gray = fastBitmap.getGrayData();
+        for (int i = 0; i < height; i++) {
+            int o = i * stride;
+            for (int w = 0; w < stride; w++) {
+                long word = data[o + w];
+                int base = i * width + (w << 6);
+                int n = Math.min(64, width - (w << 6));
+                for (int k = 0; k < n; k++)
+                    gray[base + k] = (byte)-(int)(word >>> k & 1L);
+            }
+        }
+        return fastBitmap;
+    }
+    
+    /**
+     * Logical operator "and" with another image.
+     * @param binaryBitmap Binary image of the same size.
+     */
+    public void And(BinaryBitmap binaryBitmap){
+        long[] b = Check(binaryBitmap);
+        for (int i = 0; i < data.length; i++)
+            data[i] &= b[i];
+    }
+    
+    /**
+     * Logical operator "or" with another image.
+     * @param binaryBitmap Binary image of the same size.
+     */
+    public void Or(BinaryBitmap binaryBitmap){
+        long[] b = Check(binaryBitmap);
+        for (int i = 0; i < data.length; i++)
+            data[i] |= b[i];
+    }
+    
+    /**
+     * Logical operator "xor" with another image.
+     * @param binaryBitmap Binary image of the same size.
+     */
+    public void Xor(BinaryBitmap binaryBitmap){
+        long[] b = Check(binaryBitmap);
+        for (int i = 0; i < data.length; i++)
+            data[i] ^= b[i];
+    }
+    
+    /**
+     * Logical operator "nand" with another image.
+     * @param binaryBitmap Binary image of the same size.
+     */
+    public void Nand(BinaryBitmap binaryBitmap){
+        long[] b = Check(binaryBitmap);
+        for (int i = 0; i < data.length; i++)
+            data[i] = ~(data[i] & b[i]);
+        Mask(data);
+    }
+    
+    /**
+     * Logical operator "nor" with another image.
+     * @param binaryBitmap Binary image of the same size.
+     */
+    public void Nor(BinaryBitmap binaryBitmap){
+        long[] b = Check(binaryBitmap);
+        for (int i = 0; i < data.length; i++)
+            data[i] = ~(data[i] | b[i]);
+        Mask(data);
+    }
+    
+    /**
+     * Logical operator "not", invert the image.
+     */
+    public void Not(){
+        for (int i = 0; i < data.length; i++)
+            data[i] = ~data[i];
+        Mask(data);
+    }
+    
+    /**
+     * Binary dilatation with a square structuring element.
+     * The pixels outside of the image are 0.
+     * @param radius Radius.
+     */
+    public void Dilatation(int radius){
+        radius = Math.max(1, radius);
+        int length = radius + 1;
+        
+        // Each segment is the union of the half segment before and the half segment after the pixel.
+        long[] row = new long[stride];
+        for (int i = 0; i < height; i++) {
+            int o = i * stride;
+            System.arraycopy(data, o, row, 0, stride);
+            Segment(data, o, length, false);
+            Segment(row, 0, length, true);
+            for (int w = 0; w < stride; w++)
+                data[o + w] |= row[w];
+        }
+        
+        long[] copy = data.clone();
+        Segment(data, length, false);
+        Segment(copy, length, true);
+        for (int i = 0; i < data.length; i++)
+            data[i] |= copy[i];
+    }
+    
+    /**
+     * Binary dilatation with a structuring element.
+     * The pixels outside of the image are 0. As in BinaryDilatation, the pixels set are kept even if the center of the structuring element is 0.
+     * @param se Structuring element: 1 - to process the neighbor, 0 - to skip it.
+     */
+    public void Dilatation(int[][] se){
+        long[] src = data;
+        data = src.clone();
+        int ci = (se.length - 1) / 2;
+        int cj = (se[0].length - 1) / 2;
+        
+        for (int a = 0; a < se.length; a++) {
+            for (int b = 0; b < se[a].length; b++) {
+                if (se[a][b] != 1) continue;
+                
+                int di = a - ci;
+                int dj = b - cj;
+                for (int i = Math.max(0, di); i < Math.min(height, height + di); i++) {
+                    int o = i * stride;
+                    int so = (i - di) * stride;
+                    for (int w = 0; w < stride; w++)
+                        data[o + w] |= Shifted(src, so, w, dj);
+                }
+            }
+        }
+        Mask(data);
+    }
+    
+    /**
+     * Binary erosion with a square structuring element.
+     * The pixels outside of the image are 1.
+     * @param radius Radius.
+     */
+    public void Erosion(int radius){
+        Not();
+        Dilatation(radius);
+        Not();
+    }
+    
+    /**
+     * Binary erosion with a structuring element.
+     * The pixels outside of the image are 1. As in BinaryErosion, the pixels not set are kept even if the center of the structuring element is 0.
+     * @param se Structuring element: 1 - to process the neighbor, 0 - to skip it.
+     */
+    public void Erosion(int[][] se){
+        Not();
+        Dilatation(se);
+        Not();
+    }
+    
+    /**
+     * Binary opening with a square structuring element, erosion followed by dilatation.
+     * @param radius Radius.
+     */
+    public void Opening(int radius){
+        Erosion(radius);
+        Dilatation(radius);
+    }
+    
+    /**
+     * Binary opening with a structuring element, erosion followed by dilatation.
+     * @param se Structuring element: 1 - to process the neighbor, 0 - to skip it.
+     */
+    public void Opening(int[][] se){
+        Erosion(se);
+        Dilatation(se);
+    }
+    
+    /**
+     * Binary closing with a square structuring element, dilatation followed by erosion.
+     * @param radius Radius.
+     */
+    public void Closing(int radius){
+        Dilatation(radius);
+        Erosion(radius);
+    }
+    
+    /**
+     * Binary closing with a structuring element, dilatation followed by erosion.
+     * @param se Structuring element: 1 - to process the neighbor, 0 - to skip it.
+     */
+    public void Closing(int[][] se){
+        Dilatation(se);
+        Erosion(se);
+    }
+    
+    /**
+     * Get the number of pixels set.
+     * @return Area.
+     */
+    public int getArea(){
+        int area = 0;
+        for (int i = 0; i < data.length; i++)
+            area += Long.bitCount(data[i]);
+        return area;
+    }
+    
+    /**
+     * Get the number of pixels set of each row.
+     * @return Horizontal projection.
+     */
+    public int[] getRowProjection(){
+        int[] count = new int[height];
+        for (int i = 0; i < height; i++) {
+            int o = i * stride;
+            for (int w = 0; w < stride; w++)
+                count[i] += Long.bitCount(data[o + w]);
+        }
+        return count;
+    }
+    
+    /**
+     * Get the number of pixels set of each column.
+     * @return Vertical projection.
+     */
+    public int[] getColumnProjection(){
+        int[] count = new int[width];
+        for (int i = 0; i < height; i++) {
+            int o = i * stride;
+            for (int w = 0; w < stride; w++) {
+                long word = data[o + w];
+                int base = w << 6;
+                while (word != 0) {
+                    count[base + Long.numberOfTrailingZeros(word)]++;
+                    word &= word - 1;
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Get the centroid of the pixels set.
+     * @return Centroid, null if no pixel is set.
+     */
+    public FloatPoint getCentroid(){
+        long area = 0, sx = 0, sy = 0;
+        for (int i = 0; i < height; i++) {
+            int o = i * stride;
+            for (int w = 0; w < stride; w++) {
+                long word = data[o + w];
+                if (word == 0) continue;
+                
+                int n = Long.bitCount(word);
+                area += n;
+                sx += (long)i * n;
+                
+                // The sum of the positions of the bits, one bit plane of the position at a time.
+                long s = (long)(w << 6) * n;
+                for (int b = 0; b < PLANES.length; b++)
+                    s += (long)Long.bitCount(word & PLANES[b]) << b;
+                sy += s;
+            }
+        }
+        
+        if (area == 0) return null;
+        return new FloatPoint((float)((double)sx / area), (float)((double)sy / area));
+    }
+    
+    private long[] Check(BinaryBitmap binaryBitmap){
+        if (binaryBitmap.width != width || binaryBitmap.height != height)
+            throw new IllegalArgumentException("The images must have the same size.");
+        return binaryBitmap.data;
+    }
+    
+    /**
+     * Clear the bits after the width.
+     */
+    private void Mask(long[] a){
+        if (last == -1L) return;
+        for (int k = stride - 1; k < a.length; k += stride)
+            a[k] &= last;
+    }
+    
+    /**
+     * Word of a row, 0 outside of the row.
+     */
+    private long Word(long[] a, int o, int w){
+        return w >= 0 && w < stride ? a[o + w] : 0;
+    }
+    
+    /**
+     * Word w of the row shifted by s columns: the pixel y of the result is the pixel y - s of the row.
+     */
+    private long Shifted(long[] a, int o, int w, int s){
+        if (s >= 0){
+            int ws = s >>> 6, bs = s & 63;
+            long v = Word(a, o, w - ws) << bs;
+            if (bs != 0) v |= Word(a, o, w - ws - 1) >>> (64 - bs);
+            return v;
+        }
+        
+        s = -s;
+        int ws = s >>> 6, bs = s & 63;
+        long v = Word(a, o, w + ws) >>> bs;
+        if (bs != 0) v |= Word(a, o, w + ws + 1) << (64 - bs);
+        return v;
+    }
+    
+    /**
+     * Union of the segment of the length along the row, starting at each pixel (forward) or ending at each pixel.
+     * The segment is doubled until it reaches the length.
+     */
+    private void Segment(long[] a, int o, int length, boolean backward){
+        for (int covered = 1; covered < length; ) {
+            int s = Math.min(covered, length - covered);
+            if (backward){
+                for (int w = stride - 1; w >= 0; w--)
+                    a[o + w] |= Shifted(a, o, w, s);
+                a[o + stride - 1] &= last;
+            }
+            else{
+                for (int w = 0; w < stride; w++)
+                    a[o + w] |= Shifted(a, o, w, -s);
+            }
+            covered += s;
+        }
+    }
+    
+    /**
+     * Union of the segment of the length along the columns, starting at each row (forward) or ending at each row.
+     */
+    private void Segment(long[] a, int length, boolean backward){
+        for (int covered = 1; covered < length; ) {
+            int s = Math.min(covered, length - covered);
+            int offset = s * stride;
+            if (backward){
+                for (int k = a.length - 1; k >= offset; k--)
+                    a[k] |= a[k - offset];
+            }
+            else{
+                for (int k = 0; k < a.length - offset; k++)
+                    a[k] |= a[k + offset];
+            }
+            covered += s;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Concurrent;
+
+import java.io.File;
+
+/**
+ * Failure of one file in the batch processing.
+ * @author Diego Catalano
+ */
+public class BatchError {
+
+    private File file;
+    private BatchProcessor.Stage stage;
+    private Throwable exception;
+
+    /**
+     * Get the file.
+     * @return File.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the stage where the file failed.
+     * @return Stage.
+     */
+    public BatchProcessor.Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * Get the exception.
+     * @return Exception.
+     */
+    public Throwable getException() {
+        return exception;
+    }
+
+    /**
+     * Initializes a new instance of the BatchError class.
+     * @param file File.
+     * @param stage Stage where the file failed.
+     * @param exception Exception.
+     */
+    public BatchError(File file, BatchProcessor.Stage stage, Throwable exception) {
+        this.file = file;
+        this.stage = stage;
+        this.exception = exception;
+    }
+
+    @Override
+    public String toString() {
+        return file + " (" + stage + "): " + exception;
+    }
+}
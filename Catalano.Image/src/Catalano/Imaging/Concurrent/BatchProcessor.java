@@ -0,0 +1,490 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Concurrent;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Imaging.IApplyInPlace;
+import Catalano.Imaging.Parsers.PortableAnymapReader;
+import Catalano.Imaging.Parsers.PortableAnymapWriter;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Batch processing of images with a pipeline of three stages.
+ *
+ * <p>The files are decoded, processed by the filter and encoded by separate pools of threads, connected by
+ * bounded queues. The decoding and the encoding overlap the filtering, and the queues limit the number of
+ * images in memory: when a stage is slower, the previous stages wait.</p>
+ *
+ * <p>A file that fails in any stage, even for an error like the lack of memory, is reported and the batch
+ * continues with the other files.
+ * The filter is shared by the processing threads, so it must not keep the state of an image between calls.</p>
+ *
+ * <pre>
+ * FiltersSequence fs = new FiltersSequence();
+ * fs.add(new Grayscale());
+ * fs.add(new Blur());
+ *
+ * BatchProcessor batch = new BatchProcessor(fs, BatchProcessor.Format.PNG);
+ * BatchReport report = batch.Process(new File("input"), new File("output"));
+ * System.out.println(report);
+ * </pre>
+ *
+ * @author Diego Catalano
+ */
+public class BatchProcessor {
+
+    /**
+     * Stage of the pipeline.
+     */
+    public static enum Stage {
+
+        /**
+         * Read and decode the file.
+         */
+        Decode,
+
+        /**
+         * Apply the filter.
+         */
+        Process,
+
+        /**
+         * Encode and write the file.
+         */
+        Encode
+    };
+
+    /**
+     * Format of the output files.
+     */
+    public static enum Format {
+
+        /**
+         * Bitmap.
+         */
+        BMP("bmp"),
+
+        /**
+         * Portable Network Graphics.
+         */
+        PNG("png"),
+
+        /**
+         * JPEG.
+         */
+        JPG("jpg"),
+
+        /**
+         * Graphics Interchange Format.
+         */
+        GIF("gif"),
+
+        /**
+         * PGM, PPM or PAM, written by the memory-mapped writer.
+         */
+        PNM("pnm");
+
+        private final String extension;
+
+        private Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Get the extension of the files.
+         * @return Extension.
+         */
+        public String getExtension() {
+            return extension;
+        }
+    };
+
+    // Extensions of the input files.
+    private static final List<String> EXTENSIONS = Arrays.asList("bmp", "png", "jpg", "jpeg", "gif", "pgm", "ppm", "pnm", "pam");
+
+    // End of the queue.
+    private static final Item END = new Item(null, null);
+
+    private IApplyInPlace filter;
+    private Format format;
+    private float quality = 0.9f;
+    private boolean recursive = true;
+    private int[] threads = new int[3];
+    private int capacity;
+
+    /**
+     * Get the filter.
+     * @return Filter.
+     */
+    public IApplyInPlace getFilter() {
+        return filter;
+    }
+
+    /**
+     * Get the format of the output files.
+     * @return Format.
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Get the quality of the JPEG files.
+     * @return Quality.
+     */
+    public float getQuality() {
+        return quality;
+    }
+
+    /**
+     * Set the quality of the JPEG files.
+     * @param quality Quality, between 0 and 1.
+     */
+    public void setQuality(float quality) {
+        this.quality = Math.max(0, Math.min(1, quality));
+    }
+
+    /**
+     * Check if the sub directories are processed.
+     * @return True if the sub directories are processed.
+     */
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * Set if the sub directories are processed.
+     * @param recursive True if the sub directories are processed.
+     */
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    /**
+     * Get the number of threads of the stage.
+     * @param stage Stage.
+     * @return Number of threads.
+     */
+    public int getThreads(Stage stage) {
+        return threads[stage.ordinal()];
+    }
+
+    /**
+     * Set the number of threads of the stage.
+     * @param stage Stage.
+     * @param threads Number of threads.
+     */
+    public void setThreads(Stage stage, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Each stage needs at least one thread.");
+        this.threads[stage.ordinal()] = threads;
+    }
+
+    /**
+     * Get the capacity of the queues between the stages.
+     * @return Capacity.
+     */
+    public int getQueueCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Set the capacity of the queues between the stages.
+     * At most the capacity of the two queues plus one image per thread are in memory.
+     * @param capacity Capacity.
+     */
+    public void setQueueCapacity(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Initializes a new instance of the BatchProcessor class.
+     * @param filter Filter, null to convert only the format.
+     * @param format Format of the output files.
+     */
+    public BatchProcessor(IApplyInPlace filter, Format format) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.filter = filter;
+        this.format = format;
+        this.threads[Stage.Decode.ordinal()] = Math.max(1, Math.min(4, cores / 2));
+        this.threads[Stage.Process.ordinal()] = cores;
+        this.threads[Stage.Encode.ordinal()] = Math.max(1, Math.min(4, cores / 2));
+        this.capacity = 2 * cores;
+    }
+
+    /**
+     * Process the images of the directory.
+     * The output files keep the relative path of the input files, with the extension of the format.
+     * @param input Input directory.
+     * @param output Output directory.
+     * @return Report.
+     */
+    public BatchReport Process(File input, File output){
+        if (!input.isDirectory())
+            throw new IllegalArgumentException("The input must be a directory.");
+
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        Collect(input, "", files, names);
+
+        List<Item> items = new ArrayList<Item>(files.size());
+        for (int i = 0; i < files.size(); i++)
+            items.add(new Item(files.get(i), new File(output, names.get(i))));
+        return Run(items);
+    }
+
+    /**
+     * Process the images.
+     * The output files have the name of the input files, with the extension of the format.
+     * @param files Input files.
+     * @param output Output directory.
+     * @return Report.
+     */
+    public BatchReport Process(List<File> files, File output){
+        List<Item> items = new ArrayList<Item>(files.size());
+        for (File f : files)
+            items.add(new Item(f, new File(output, Rename(f.getName()))));
+        return Run(items);
+    }
+
+    private void Collect(File directory, String prefix, List<File> files, List<String> names){
+        File[] lst = directory.listFiles();
+        if (lst == null) return;
+        Arrays.sort(lst);
+
+        for (File f : lst) {
+            if (f.isDirectory()){
+                if (recursive)
+                    Collect(f, prefix + f.getName() + File.separator, files, names);
+            }
+            else{
+                String name = f.getName();
+                int dot = name.lastIndexOf('.');
+                if (dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase())){
+                    files.add(f);
+                    names.add(prefix + Rename(name));
+                }
+            }
+        }
+    }
+
+    private String Rename(String name){
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + "." + format.getExtension();
+    }
+
+    private BatchReport Run(final List<Item> items){
+        final BlockingQueue<Item> decoded = new ArrayBlockingQueue<Item>(capacity);
+        final BlockingQueue<Item> processed = new ArrayBlockingQueue<Item>(capacity);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicLongArray count = new AtomicLongArray(3);
+        final AtomicLongArray busy = new AtomicLongArray(3);
+        final List<BatchError> errors = Collections.synchronizedList(new ArrayList<BatchError>());
+
+        long start = System.nanoTime();
+
+        Thread[] decoders = Start(Stage.Decode, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = next.getAndIncrement(); i < items.size(); i = next.getAndIncrement()) {
+                        Item item = items.get(i);
+                        long t = System.nanoTime();
+                        try {
+                            item.image = Decode(item.input);
+                            count.incrementAndGet(Stage.Decode.ordinal());
+                        } catch (Throwable e) {
+                            errors.add(new BatchError(item.input, Stage.Decode, e));
+                            continue;
+                        } finally {
+                            busy.addAndGet(Stage.Decode.ordinal(), System.nanoTime() - t);
+                        }
+                        decoded.put(item);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        Thread[] processors = Start(Stage.Process, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Item item = decoded.take(); item != END; item = decoded.take()) {
+                        long t = System.nanoTime();
+                        try {
+                            if (filter != null)
+                                filter.applyInPlace(item.image);
+                            count.incrementAndGet(Stage.Process.ordinal());
+                        } catch (Throwable e) {
+                            errors.add(new BatchError(item.input, Stage.Process, e));
+                            continue;
+                        } finally {
+                            busy.addAndGet(Stage.Process.ordinal(), System.nanoTime() - t);
+                        }
+                        processed.put(item);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        Thread[] encoders = Start(Stage.Encode, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Item item = processed.take(); item != END; item = processed.take()) {
+                        long t = System.nanoTime();
+                        try {
+                            Encode(item.image, item.output);
+                            count.incrementAndGet(Stage.Encode.ordinal());
+                        } catch (Throwable e) {
+                            errors.add(new BatchError(item.input, Stage.Encode, e));
+                        } finally {
+                            item.image = null;
+                            busy.addAndGet(Stage.Encode.ordinal(), System.nanoTime() - t);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        // Each stage ends after the previous one, one end mark per thread.
+        try {
+            Join(decoders);
+            for (int i = 0; i < processors.length; i++)
+                decoded.put(END);
+            Join(processors);
+            for (int i = 0; i < encoders.length; i++)
+                processed.put(END);
+            Join(encoders);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long[] c = new long[3];
+        long[] b = new long[3];
+        for (int i = 0; i < 3; i++) {
+            c[i] = count.get(i);
+            b[i] = busy.get(i);
+        }
+
+        List<BatchError> lst = new ArrayList<BatchError>(errors);
+        return new BatchReport(items.size(), elapsed, c, b, threads.clone(), Collections.unmodifiableList(lst));
+    }
+
+    private Thread[] Start(Stage stage, Runnable worker){
+        Thread[] t = new Thread[threads[stage.ordinal()]];
+        for (int i = 0; i < t.length; i++) {
+            t[i] = new Thread(worker, "Batch" + stage + "-" + i);
+            t[i].start();
+        }
+        return t;
+    }
+
+    private static void Join(Thread[] t) throws InterruptedException {
+        for (int i = 0; i < t.length; i++) {
+            t[i].join();
+        }
+    }
+
+    private static FastBitmap Decode(File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".pgm") || name.endsWith(".ppm") || name.endsWith(".pnm") || name.endsWith(".pam"))
+            return PortableAnymapReader.Load(file.getPath());
+
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+            throw new IOException("Unsupported image format.");
+        return new FastBitmap(image);
+    }
+
+    private void Encode(FastBitmap fastBitmap, File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+            throw new IOException("Can't create the directory " + parent + ".");
+
+        if (format == Format.PNM){
+            PortableAnymapWriter.Save(fastBitmap, file.getPath());
+            return;
+        }
+
+        BufferedImage image = fastBitmap.toBufferedImage();
+        if (format == Format.JPG){
+            Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName("jpg");
+            if (!it.hasNext())
+                throw new IOException("No writer for " + format + ".");
+
+            ImageWriter writer = it.next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+
+            file.delete();
+            ImageOutputStream out = ImageIO.createImageOutputStream(file);
+            try {
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                out.close();
+                writer.dispose();
+            }
+        }
+        else if (!ImageIO.write(image, format.getExtension(), file)){
+            throw new IOException("No writer for " + format + ".");
+        }
+    }
+
+    private static class Item {
+        final File input;
+        final File output;
+        FastBitmap image;
+
+        Item(File input, File output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+}
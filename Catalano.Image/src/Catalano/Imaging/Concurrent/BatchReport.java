@@ -0,0 +1,139 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Concurrent;
+
+import java.util.List;
+
+/**
+ * Report of the batch processing.
+ *
+ * <p>The busy time of a stage is the sum of the time spent by its threads on the files, without the time
+ * waiting the queues. The throughput of a stage is the number of files per second that its threads can sustain,
+ * the slowest stage limits the throughput of the pipeline.</p>
+ *
+ * @author Diego Catalano
+ */
+public class BatchReport {
+
+    private int files;
+    private long elapsed;
+    private long[] count;
+    private long[] busy;
+    private int[] threads;
+    private List<BatchError> errors;
+
+    BatchReport(int files, long elapsed, long[] count, long[] busy, int[] threads, List<BatchError> errors) {
+        this.files = files;
+        this.elapsed = elapsed;
+        this.count = count;
+        this.busy = busy;
+        this.threads = threads;
+        this.errors = errors;
+    }
+
+    /**
+     * Get the number of input files.
+     * @return Number of files.
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * Get the number of files processed through all the stages.
+     * @return Number of files.
+     */
+    public long getSucceeded() {
+        return count[BatchProcessor.Stage.Encode.ordinal()];
+    }
+
+    /**
+     * Get the number of files failed.
+     * @return Number of files.
+     */
+    public int getFailed() {
+        return errors.size();
+    }
+
+    /**
+     * Get the errors.
+     * @return Errors.
+     */
+    public List<BatchError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Get the elapsed time.
+     * @return Elapsed time in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsed / 1000000;
+    }
+
+    /**
+     * Get the files per second of the pipeline.
+     * @return Throughput.
+     */
+    public double getThroughput() {
+        return elapsed == 0 ? 0 : getSucceeded() * 1e9 / elapsed;
+    }
+
+    /**
+     * Get the number of files completed by the stage.
+     * @param stage Stage.
+     * @return Number of files.
+     */
+    public long getCount(BatchProcessor.Stage stage) {
+        return count[stage.ordinal()];
+    }
+
+    /**
+     * Get the busy time of the stage, summed over its threads.
+     * @param stage Stage.
+     * @return Busy time in milliseconds.
+     */
+    public long getBusyTime(BatchProcessor.Stage stage) {
+        return busy[stage.ordinal()] / 1000000;
+    }
+
+    /**
+     * Get the files per second that the threads of the stage can sustain.
+     * @param stage Stage.
+     * @return Throughput.
+     */
+    public double getThroughput(BatchProcessor.Stage stage) {
+        int s = stage.ordinal();
+        return busy[s] == 0 ? 0 : count[s] * threads[s] * 1e9 / busy[s];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d files, %d succeeded, %d failed in %d ms (%.1f files/s)", files, getSucceeded(), getFailed(), getElapsedTime(), getThroughput()));
+        for (BatchProcessor.Stage stage : BatchProcessor.Stage.values()) {
+            sb.append(String.format("%n%s: %d files, %d threads, busy %d ms, %.1f files/s",
+                    stage, getCount(stage), threads[stage.ordinal()], getBusyTime(stage), getThroughput(stage)));
+        }
+        return sb.toString();
+    }
+}
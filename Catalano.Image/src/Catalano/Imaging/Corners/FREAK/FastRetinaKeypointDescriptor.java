@@ -39,7 +39,6 @@ package Catalano.Imaging.Corners.FREAK;
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.Tools.IntegralImage;
 import Catalano.Math.Constants;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -55,7 +54,6 @@ public class FastRetinaKeypointDescriptor {
     private boolean isExtended;
     private FastBitmap Image;
     public IntegralImage Integral;
-    FastRetinaKeypoint temp;
 
     public boolean IsOrientationNormal() {
         return isOrientationNormal;
@@ -91,100 +89,135 @@ public class FastRetinaKeypointDescriptor {
         this.pattern = pattern;
     }
     
-        public void Compute(List<FastRetinaKeypoint> points)
+        /**
+         * Compute the descriptors of the points.
+         * The points which the pattern doesn't fit inside the image are removed.
+         * The descriptors are extracted in parallel and packed 64 bits per long in one contiguous buffer,
+         * the byte descriptor of each point is also assigned.
+         * @param points Points.
+         * @return Packed descriptors, in the same order of the points.
+         */
+        public PackedDescriptors Compute(List<FastRetinaKeypoint> points)
         {
             final int CV_FREAK_SMALLEST_KP_SIZE = FastRetinaKeypointPattern.Size;
             final int CV_FREAK_NB_SCALES = FastRetinaKeypointPattern.Scales;
-            final int CV_FREAK_NB_ORIENTATION = FastRetinaKeypointPattern.Orientations;
 
             int[] patternSizes = pattern.patternSizes;
-            int[] pointsValues = pattern.pointsValues;
-            FastRetinaKeypointPattern.OrientationPair[] orientationPairs = pattern.orientationPairs;
-            FastRetinaKeypointPattern.DescriptionPair[] descriptionPairs = pattern.descriptionPairs;
             double step = pattern.step;
 
-
             // used to save pattern scale index corresponding to each keypoints
-            ArrayList<Integer> scaleIndex = new ArrayList<Integer>(points.size());
-            for (int i = 0; i < points.size(); i++)
-                scaleIndex.add(0);
+            int[] scaleIndex = new int[points.size()];
 
 
             // 1. Compute the scale index corresponding to the keypoint
             //  size and remove keypoints which are close to the border
             //
-            if (isScaleNormal)
+            int fixedScale = Math.max((int)(Constants.Log3 * step + 0.5), 0);
+            int count = 0;
+            for (int k = 0; k < points.size(); k++)
             {
-                for (int k = points.size() - 1; k >= 0; k--)
+                FastRetinaKeypoint p = points.get(k);
+                int scale;
+                if (isScaleNormal)
                 {
-                    // Is k non-zero? If so, decrement it and continue.
-                    double ratio = points.get(k).scale / CV_FREAK_SMALLEST_KP_SIZE;
-                    scaleIndex.set(k, Math.max((int)(Math.log(ratio) * step + 0.5), 0));
-
-                    if (scaleIndex.get(k) >= CV_FREAK_NB_SCALES)
-                        scaleIndex.set(k, CV_FREAK_NB_SCALES - 1);
-
-                    // Check if the description at this position and scale fits inside the image
-                    if ((points.get(k).x <= patternSizes[scaleIndex.get(k)]) ||
-                         points.get(k).y <= patternSizes[scaleIndex.get(k)] ||
-                         points.get(k).x >= Image.getHeight()- patternSizes[scaleIndex.get(k)] ||
-                         points.get(k).y >= Image.getWidth()- patternSizes[scaleIndex.get(k)])
-                    {
-                        points.remove(k);  // No, it doesn't. Remove the point.
-                        scaleIndex.remove(k);
-                    }
+                    double ratio = p.scale / CV_FREAK_SMALLEST_KP_SIZE;
+                    scale = Math.max((int)(Math.log(ratio) * step + 0.5), 0);
                 }
-            }
-
-            else // if (!IsScaleNormal)
-            {
-                int scale = Math.max((int)(Constants.Log3 * step + 0.5), 0);
-
-                for (int k = points.size() - 1; k >= 0; k--)
+                else
                 {
                     // equivalent to the formule when the scale is normalized with
                     // a constant size of keypoints[k].size = 3 * SMALLEST_KP_SIZE
+                    scale = fixedScale;
+                }
 
-                    scaleIndex.set(k, scale);
-                    if (scaleIndex.get(k) >= CV_FREAK_NB_SCALES)
-                        scaleIndex.set(k, CV_FREAK_NB_SCALES - 1);
+                if (scale >= CV_FREAK_NB_SCALES)
+                    scale = CV_FREAK_NB_SCALES - 1;
 
-                    if ((points.get(k).x <= patternSizes[scaleIndex.get(k)]) ||
-                         points.get(k).y <= patternSizes[scaleIndex.get(k)] ||
-                         points.get(k).x >= Image.getHeight()- patternSizes[scaleIndex.get(k)] ||
-                         points.get(k).y >= Image.getWidth()- patternSizes[scaleIndex.get(k)])
-                    {
-                        points.remove(k);
-                        scaleIndex.remove(k);
-                    }
-                }
+                // Check if the description at this position and scale fits inside the image
+                if ((p.x <= patternSizes[scale]) ||
+                     p.y <= patternSizes[scale] ||
+                     p.x >= Image.getHeight()- patternSizes[scale] ||
+                     p.y >= Image.getWidth()- patternSizes[scale])
+                    continue; // No, it doesn't. Remove the point.
+
+                points.set(count, p);
+                scaleIndex[count++] = scale;
             }
+            while (points.size() > count)
+                points.remove(points.size() - 1);
 
 
             // 2. Allocate descriptor memory, estimate
             //    orientations, and extract descriptors
             //
+            final List<FastRetinaKeypoint> list = points;
+            final int[] scales = scaleIndex;
+            final PackedDescriptors descriptors = new PackedDescriptors(count, isExtended ? 1024 : 512);
+
+            int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), count / 64));
+            if (cores == 1){
+                Compute(list, scales, descriptors, 0, count);
+            }
+            else{
+                Thread[] t = new Thread[cores];
+                int part = count / cores;
+                for (int i = 0; i < cores; i++) {
+                    final int start = i * part;
+                    final int end = i == cores - 1 ? count : start + part;
+                    t[i] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Compute(list, scales, descriptors, start, end);
+                        }
+                    });
+                    t[i].start();
+                }
+
+                try {
+                    for (int i = 0; i < cores; i++) {
+                        t[i].join();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            return descriptors;
+        }
+
+        /**
+         * Extract the descriptors of the points in the range [start, end).
+         */
+        private void Compute(List<FastRetinaKeypoint> points, int[] scaleIndex, PackedDescriptors descriptors, int start, int end)
+        {
+            final int CV_FREAK_NB_ORIENTATION = FastRetinaKeypointPattern.Orientations;
+
+            // Each range has its own intensity values.
+            int[] pointsValues = new int[FastRetinaKeypointPattern.Points];
+            FastRetinaKeypointPattern.OrientationPair[] orientationPairs = pattern.orientationPairs;
+            FastRetinaKeypointPattern.DescriptionPair[] descriptionPairs = pattern.descriptionPairs;
+
+            long[] data = descriptors.getData();
+            int words = descriptors.getWords();
 
             // For each interest (key/corners) point
-            for (int k = 0; k < points.size(); k++)
+            for (int k = start; k < end; k++)
             {
+                FastRetinaKeypoint point = points.get(k);
                 int thetaIndex = 0;
 
                 // Estimate orientation
                 if (!isOrientationNormal)
                 {
                     // Orientation is not normalized, assign 0.
-                    temp = points.get(k);
-                    temp.setOrientation(0);
-                    thetaIndex = 0;
-                    points.set(k, temp);
+                    point.setOrientation(0);
                 }
 
                 else // if (IsOrientationNormal)
                 {
                     // Get intensity values in the unrotated patch
                     for (int i = 0; i < pointsValues.length; i++)
-                        pointsValues[i] = mean(points.get(k).x, points.get(k).y, scaleIndex.get(k), 0, i);
+                        pointsValues[i] = mean(point.x, point.y, scaleIndex[k], 0, i);
 
                     int a = 0, b = 0;
                     for (int m = 0; m < orientationPairs.length; m++)
@@ -195,10 +228,8 @@ public class FastRetinaKeypointDescriptor {
                         b += delta * (p.weight_dy) / 2048;
                     }
 
-                    temp = points.get(k);
-                    temp.setOrientation(Math.atan2(b, a) * (180.0 / Math.PI));
-                    points.set(k, temp);
-                    thetaIndex = (int)(CV_FREAK_NB_ORIENTATION * points.get(k).getOrientation() * (1 / 360.0) + 0.5);
+                    point.setOrientation(Math.atan2(b, a) * (180.0 / Math.PI));
+                    thetaIndex = (int)(CV_FREAK_NB_ORIENTATION * point.getOrientation() * (1 / 360.0) + 0.5);
 
                     if (thetaIndex < 0) // bound in interval
                         thetaIndex += CV_FREAK_NB_ORIENTATION;
@@ -208,48 +239,39 @@ public class FastRetinaKeypointDescriptor {
 
                 // Extract descriptor at the computed orientation
                 for (int i = 0; i < pointsValues.length; i++)
-                    pointsValues[i] = mean(points.get(k).x, points.get(k).y, scaleIndex.get(k), thetaIndex, i);
+                    pointsValues[i] = mean(point.x, point.y, scaleIndex[k], thetaIndex, i);
 
 
                 // Extract either the standard descriptors of 512-bits (64 bytes)
                 //   or the extended descriptors of 1024-bits (128 bytes) length.
                 //
+                int offset = k * words;
                 if (!isExtended)
                 {
-                    temp = points.get(k);
-                    temp.setDescriptor(new byte[64]);
                     for (int m = 0; m < descriptionPairs.length; m++)
                     {
                         FastRetinaKeypointPattern.DescriptionPair p = descriptionPairs[m];
-                        byte[] descriptor = temp.getDescriptor();
-
                         if (pointsValues[p.i] > pointsValues[p.j])
-                            descriptor[m / 8] |= (byte)(1 << m % 8);
-                        else descriptor[m / 8] &= (byte)~(1 << m % 8);
-
+                            data[offset + (m >> 6)] |= 1L << (m & 63);
                     }
                 }
 
                 else // if (Extended)
                 {
-                    temp = points.get(k);
-                    temp.setDescriptor(new byte[128]);
                     for (int i = 1, m = 0; i < pointsValues.length; i++)
                     {
                         for (int j = 0; j < i; j++, m++)
                         {
-                            byte[] descriptor = temp.getDescriptor();
-
                             if (pointsValues[i] > pointsValues[j])
-                                descriptor[m / 8] |= (byte)(1 << m % 8);
-                            else descriptor[m / 8] &= (byte)~(1 << m % 8);
+                                data[offset + (m >> 6)] |= 1L << (m & 63);
                         }
                     }
                 }
+
+                point.setDescriptor(descriptors.toBytes(k));
             }
         }
 
-
         private int mean(double kx, double ky, int scale, int orientation, int pointIndex)
         {
             final int CV_FREAK_NB_ORIENTATION = FastRetinaKeypointPattern.Orientations;
@@ -76,6 +76,8 @@ public class FastRetinaKeypointDetector {
 
     private FastRetinaKeypointDescriptor descriptor;
 
+    private PackedDescriptors descriptors;
+
     public ICornersDetector Detector;
     
     public ICornersFeatureDetector FDetector;
@@ -92,6 +94,14 @@ public class FastRetinaKeypointDetector {
         return descriptor;
     }
     
+    /**
+     * Get the packed descriptors of the last processed image.
+     * @return Packed descriptors, in the same order of the points.
+     */
+    public PackedDescriptors getPackedDescriptors() {
+        return descriptors;
+    }
+    
     public FastRetinaKeypointDetector(ICornersDetector cornerDetector){
         this.Detector = cornerDetector;
     }
@@ -134,9 +144,10 @@ public class FastRetinaKeypointDetector {
 
         // 3. Compute feature descriptors if required
         descriptor = null;
+        descriptors = null;
         if (featureType != FastRetinaKeypointDescriptorType.None){
             descriptor = GetDescriptor();
-            descriptor.Compute(features);
+            descriptors = descriptor.Compute(features);
         }
         return features;
     }
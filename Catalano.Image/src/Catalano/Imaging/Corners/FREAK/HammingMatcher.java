@@ -0,0 +1,479 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Corners.FREAK;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hamming matcher for binary descriptors.
+ *
+ * <p>Each query descriptor is matched with its nearest train descriptor.
+ * The ratio test rejects the match when the nearest is not clearly better than the second nearest,
+ * and the cross-check rejects the match when another query is nearer of the train descriptor.</p>
+ *
+ * <p>The brute-force method compares all the pairs. The multi-index hashing method splits the descriptors
+ * in 16-bit substrings, each one indexed in its own table: if two descriptors are at distance d, at least one
+ * substring differs at most in floor(d / substrings) bits, so only the buckets near the query are probed.
+ * The search radius grows until the result is exact, and falls back to a linear scan for far queries.
+ * Both methods give the same matches (ties go to the lowest index), the queries are matched in parallel.</p>
+ *
+ * References: M. Norouzi, A. Punjani and D. J. Fleet, "Fast Search in Hamming Space with Multi-Index Hashing", CVPR 2012.
+ *
+ * @author Diego Catalano
+ */
+public class HammingMatcher {
+
+    /**
+     * Search method.
+     */
+    public static enum Method {
+        /**
+         * Compare all the pairs.
+         */
+        BruteForce,
+        /**
+         * Multi-index hashing.
+         */
+        MultiIndexHashing
+    };
+
+    /**
+     * Match between a query and a train descriptor.
+     */
+    public static class Match {
+
+        /**
+         * Index of the query descriptor.
+         */
+        public int query;
+
+        /**
+         * Index of the train descriptor.
+         */
+        public int train;
+
+        /**
+         * Hamming distance.
+         */
+        public int distance;
+
+        /**
+         * Initializes a new instance of the Match class.
+         * @param query Index of the query descriptor.
+         * @param train Index of the train descriptor.
+         * @param distance Hamming distance.
+         */
+        public Match(int query, int train, int distance) {
+            this.query = query;
+            this.train = train;
+            this.distance = distance;
+        }
+    }
+
+    // Bit masks with 0, 1 and 2 bits set in 16 bits.
+    private static final int[][] masks = Masks(2);
+
+    private Method method = Method.MultiIndexHashing;
+    private double ratio = 1;
+    private boolean crossCheck = false;
+    private int maxDistance = Integer.MAX_VALUE;
+
+    /**
+     * Get the search method.
+     * @return Search method.
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Set the search method.
+     * @param method Search method.
+     */
+    public void setMethod(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * Get the ratio between the nearest and the second nearest distance.
+     * @return Ratio.
+     */
+    public double getRatio() {
+        return ratio;
+    }
+
+    /**
+     * Set the ratio between the nearest and the second nearest distance.
+     * The match is accepted only if nearest &lt; ratio * second nearest. 1 disables the test.
+     * @param ratio Ratio in the range (0..1].
+     */
+    public void setRatio(double ratio) {
+        if (ratio <= 0 || ratio > 1)
+            throw new IllegalArgumentException("The ratio must be in the range (0..1].");
+        this.ratio = ratio;
+    }
+
+    /**
+     * Check if the cross-check is enabled.
+     * @return True if the cross-check is enabled, otherwise false.
+     */
+    public boolean isCrossCheck() {
+        return crossCheck;
+    }
+
+    /**
+     * Enable the cross-check.
+     * @param crossCheck True if the query must be also the nearest of the train descriptor.
+     */
+    public void setCrossCheck(boolean crossCheck) {
+        this.crossCheck = crossCheck;
+    }
+
+    /**
+     * Get the maximum distance of a match.
+     * @return Maximum distance.
+     */
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Set the maximum distance of a match.
+     * @param maxDistance Maximum distance.
+     */
+    public void setMaxDistance(int maxDistance) {
+        this.maxDistance = Math.max(0, maxDistance);
+    }
+
+    /**
+     * Initializes a new instance of the HammingMatcher class.
+     */
+    public HammingMatcher() {}
+
+    /**
+     * Initializes a new instance of the HammingMatcher class.
+     * @param method Search method.
+     */
+    public HammingMatcher(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * Initializes a new instance of the HammingMatcher class.
+     * @param method Search method.
+     * @param ratio Ratio between the nearest and the second nearest distance.
+     * @param crossCheck True if the query must be also the nearest of the train descriptor.
+     */
+    public HammingMatcher(Method method, double ratio, boolean crossCheck) {
+        this.method = method;
+        setRatio(ratio);
+        this.crossCheck = crossCheck;
+    }
+
+    /**
+     * Match the descriptors of the points.
+     * @param query Query points.
+     * @param train Train points.
+     * @return List of matches.
+     */
+    public List<Match> Match(List<FastRetinaKeypoint> query, List<FastRetinaKeypoint> train){
+        return Match(PackedDescriptors.FromKeypoints(query), PackedDescriptors.FromKeypoints(train));
+    }
+
+    /**
+     * Match the descriptors.
+     * @param query Query descriptors.
+     * @param train Train descriptors.
+     * @return List of matches, ordered by query.
+     */
+    public List<Match> Match(final PackedDescriptors query, final PackedDescriptors train){
+
+        if (query.getCount() > 0 && train.getCount() > 0 && query.getWords() != train.getWords())
+            throw new IllegalArgumentException("The descriptors must have the same length.");
+
+        final int count = query.getCount();
+        final int[] trainIndex = new int[count];
+        final int[] distance = new int[count];
+
+        if (count == 0 || train.getCount() == 0)
+            return new ArrayList<Match>();
+
+        final Index trainTable = method == Method.MultiIndexHashing ? new Index(train) : null;
+        final Index queryTable = method == Method.MultiIndexHashing && crossCheck ? new Index(query) : null;
+
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), count / 64));
+        if (cores == 1){
+            Match(query, train, trainTable, queryTable, trainIndex, distance, 0, count);
+        }
+        else{
+            Thread[] t = new Thread[cores];
+            int part = count / cores;
+            for (int i = 0; i < cores; i++) {
+                final int start = i * part;
+                final int end = i == cores - 1 ? count : start + part;
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Match(query, train, trainTable, queryTable, trainIndex, distance, start, end);
+                    }
+                });
+                t[i].start();
+            }
+
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        List<Match> matches = new ArrayList<Match>();
+        for (int i = 0; i < count; i++)
+            if (trainIndex[i] >= 0)
+                matches.add(new Match(i, trainIndex[i], distance[i]));
+
+        return matches;
+    }
+
+    /**
+     * Match the queries in the range [start, end).
+     */
+    private void Match(PackedDescriptors query, PackedDescriptors train, Index trainTable, Index queryTable, int[] trainIndex, int[] distance, int start, int end){
+
+        long[] q = query.getData();
+        int words = query.getWords();
+
+        // Stamps of the visited candidates
+        int[] trainStamp = new int[train.getCount()];
+        int[] queryStamp = queryTable == null ? null : new int[query.getCount()];
+        int[] nearest = new int[3];
+
+        for (int i = start; i < end; i++) {
+            trainIndex[i] = -1;
+
+            // Nearest and second nearest
+            int bound = trainTable == null
+                    ? Scan(q, i * words, train, nearest)
+                    : Search(q, i * words, train, trainTable, trainStamp, i + 1, nearest);
+
+            int best = nearest[0];
+            int d = nearest[1];
+            if (best < 0 || d > maxDistance) continue;
+
+            // Ratio test, the second nearest is at least bound + 1 when it wasn't found.
+            if (ratio < 1){
+                double second = nearest[2] == Integer.MAX_VALUE ? bound + 1 : nearest[2];
+                if (d >= ratio * second) continue;
+            }
+
+            // Cross-check: no other query is nearer of the train descriptor.
+            if (crossCheck){
+                boolean nearer = queryTable == null
+                        ? Nearer(train.getData(), best * words, query, d)
+                        : Nearer(train.getData(), best * words, query, queryTable, queryStamp, i + 1, d);
+                if (nearer) continue;
+            }
+
+            trainIndex[i] = best;
+            distance[i] = d;
+        }
+    }
+
+    /**
+     * Linear scan: nearest index, nearest distance and second nearest distance.
+     * @return Distance up to the set is complete.
+     */
+    private int Scan(long[] q, int offset, PackedDescriptors train, int[] nearest){
+        long[] t = train.getData();
+        int words = train.getWords();
+        int best = -1;
+        int d1 = Integer.MAX_VALUE;
+        int d2 = Integer.MAX_VALUE;
+
+        for (int j = 0; j < train.getCount(); j++) {
+            int d = PackedDescriptors.Distance(q, offset, t, j * words, words);
+            if (d < d1){
+                d2 = d1;
+                d1 = d;
+                best = j;
+            }
+            else if (d < d2){
+                d2 = d;
+            }
+        }
+
+        nearest[0] = best;
+        nearest[1] = d1;
+        nearest[2] = d2;
+        return words * 64;
+    }
+
+    /**
+     * Multi-index hashing search: nearest index, nearest distance and second nearest distance.
+     * @return Distance up to the set is complete.
+     */
+    private int Search(long[] q, int offset, PackedDescriptors train, Index table, int[] stamp, int id, int[] nearest){
+        long[] t = train.getData();
+        int words = train.getWords();
+        int substrings = table.substrings;
+        int best = -1;
+        int d1 = Integer.MAX_VALUE;
+        int d2 = Integer.MAX_VALUE;
+
+        for (int r = 0; r < masks.length; r++) {
+            for (int s = 0; s < substrings; s++) {
+                int key = Substring(q, offset, s);
+                int[] offsets = table.offsets[s];
+                int[] ids = table.ids[s];
+                for (int m = 0; m < masks[r].length; m++) {
+                    int bucket = key ^ masks[r][m];
+                    for (int k = offsets[bucket]; k < offsets[bucket + 1]; k++) {
+                        int j = ids[k];
+                        if (stamp[j] == id) continue;
+                        stamp[j] = id;
+
+                        int d = PackedDescriptors.Distance(q, offset, t, j * words, words);
+                        if (d < d1 || (d == d1 && j < best)){
+                            d2 = d1;
+                            d1 = d;
+                            best = j;
+                        }
+                        else if (d < d2){
+                            d2 = d;
+                        }
+                    }
+                }
+            }
+
+            // All the descriptors up to this distance were found.
+            int bound = substrings * (r + 1) - 1;
+            if (d2 <= bound || (d1 > bound && bound >= maxDistance) || (d1 <= bound && (ratio == 1 || d1 < ratio * (bound + 1)))){
+                nearest[0] = d1 <= bound ? best : -1;
+                nearest[1] = d1;
+                nearest[2] = d2 <= bound ? d2 : Integer.MAX_VALUE;
+                return bound;
+            }
+        }
+
+        // Far query
+        return Scan(q, offset, train, nearest);
+    }
+
+    /**
+     * Check by linear scan if any query is nearer than the distance.
+     */
+    private boolean Nearer(long[] t, int offset, PackedDescriptors query, int distance){
+        long[] q = query.getData();
+        int words = query.getWords();
+        for (int j = 0; j < query.getCount(); j++)
+            if (PackedDescriptors.Distance(t, offset, q, j * words, words) < distance)
+                return true;
+        return false;
+    }
+
+    /**
+     * Check by multi-index hashing if any query is nearer than the distance.
+     */
+    private boolean Nearer(long[] t, int offset, PackedDescriptors query, Index table, int[] stamp, int id, int distance){
+        long[] q = query.getData();
+        int words = query.getWords();
+        int substrings = table.substrings;
+
+        for (int r = 0; r < masks.length; r++) {
+            for (int s = 0; s < substrings; s++) {
+                int key = Substring(t, offset, s);
+                int[] offsets = table.offsets[s];
+                int[] ids = table.ids[s];
+                for (int m = 0; m < masks[r].length; m++) {
+                    int bucket = key ^ masks[r][m];
+                    for (int k = offsets[bucket]; k < offsets[bucket + 1]; k++) {
+                        int j = ids[k];
+                        if (stamp[j] == id) continue;
+                        stamp[j] = id;
+                        if (PackedDescriptors.Distance(t, offset, q, j * words, words) < distance)
+                            return true;
+                    }
+                }
+            }
+
+            // All the queries nearer than the distance were found.
+            if (substrings * (r + 1) - 1 >= distance - 1)
+                return false;
+        }
+
+        return Nearer(t, offset, query, distance);
+    }
+
+    private static int Substring(long[] data, int offset, int s){
+        return (int)(data[offset + (s >> 2)] >>> ((s & 3) * 16)) & 0xFFFF;
+    }
+
+    private static int[][] Masks(int radius){
+        int[][] m = new int[radius + 1][];
+        for (int r = 0; r <= radius; r++) {
+            int n = 0;
+            for (int v = 0; v < 65536; v++)
+                if (Integer.bitCount(v) == r) n++;
+            m[r] = new int[n];
+            n = 0;
+            for (int v = 0; v < 65536; v++)
+                if (Integer.bitCount(v) == r) m[r][n++] = v;
+        }
+        return m;
+    }
+
+    /**
+     * Hash tables of the 16-bit substrings, stored as offsets and sorted ids.
+     */
+    private static class Index {
+
+        int substrings;
+        int[][] offsets;
+        int[][] ids;
+
+        Index(PackedDescriptors d) {
+            long[] data = d.getData();
+            int words = d.getWords();
+            int count = d.getCount();
+
+            substrings = words * 4;
+            offsets = new int[substrings][65537];
+            ids = new int[substrings][count];
+
+            for (int s = 0; s < substrings; s++) {
+                int[] o = offsets[s];
+                for (int i = 0; i < count; i++)
+                    o[Substring(data, i * words, s) + 1]++;
+                for (int k = 0; k < 65536; k++)
+                    o[k + 1] += o[k];
+
+                int[] next = new int[65536];
+                System.arraycopy(o, 0, next, 0, 65536);
+                for (int i = 0; i < count; i++)
+                    ids[s][next[Substring(data, i * words, s)]++] = i;
+            }
+        }
+    }
+}
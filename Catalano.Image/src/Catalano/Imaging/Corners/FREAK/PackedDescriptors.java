@@ -0,0 +1,156 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Corners.FREAK;
+
+import java.util.List;
+
+/**
+ * Packed binary descriptors.
+ * The descriptors are stored one after the other in a contiguous buffer, 64 bits per long.
+ * Bit m of a descriptor is the bit (m % 64) of the word (m / 64), the same order of the byte descriptors.
+ * @author Diego Catalano
+ */
+public class PackedDescriptors {
+
+    private long[] data;
+    private int count;
+    private int words;
+
+    /**
+     * Get the number of descriptors.
+     * @return Number of descriptors.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of words (longs) of each descriptor.
+     * @return Number of words.
+     */
+    public int getWords() {
+        return words;
+    }
+
+    /**
+     * Get the buffer of the descriptors.
+     * @return Buffer.
+     */
+    public long[] getData() {
+        return data;
+    }
+
+    /**
+     * Initializes a new instance of the PackedDescriptors class.
+     * @param count Number of descriptors.
+     * @param bits Number of bits of each descriptor.
+     */
+    public PackedDescriptors(int count, int bits) {
+        this(new long[count * ((bits + 63) / 64)], count, (bits + 63) / 64);
+    }
+
+    /**
+     * Initializes a new instance of the PackedDescriptors class.
+     * @param data Buffer of the descriptors.
+     * @param count Number of descriptors.
+     * @param words Number of words (longs) of each descriptor.
+     */
+    public PackedDescriptors(long[] data, int count, int words) {
+        if (data.length < count * words)
+            throw new IllegalArgumentException("The buffer must have at least count * words elements.");
+        this.data = data;
+        this.count = count;
+        this.words = words;
+    }
+
+    /**
+     * Pack the byte descriptors of the points.
+     * @param points Points.
+     * @return Packed descriptors.
+     */
+    public static PackedDescriptors FromKeypoints(List<FastRetinaKeypoint> points){
+        int bytes = points.isEmpty() ? 0 : points.get(0).getDescriptor().length;
+        PackedDescriptors d = new PackedDescriptors(points.size(), bytes * 8);
+        for (int i = 0; i < points.size(); i++) {
+            byte[] descriptor = points.get(i).getDescriptor();
+            if (descriptor.length != bytes)
+                throw new IllegalArgumentException("All the descriptors must have the same length.");
+            int offset = i * d.words;
+            for (int j = 0; j < bytes; j++)
+                d.data[offset + (j >> 3)] |= (descriptor[j] & 0xFFL) << ((j & 7) * 8);
+        }
+        return d;
+    }
+
+    /**
+     * Get a copy of the descriptor.
+     * @param index Index of the descriptor.
+     * @return Descriptor.
+     */
+    public long[] get(int index){
+        long[] descriptor = new long[words];
+        System.arraycopy(data, index * words, descriptor, 0, words);
+        return descriptor;
+    }
+
+    /**
+     * Set the descriptor.
+     * @param index Index of the descriptor.
+     * @param descriptor Descriptor.
+     */
+    public void set(int index, long[] descriptor){
+        System.arraycopy(descriptor, 0, data, index * words, words);
+    }
+
+    /**
+     * Get the descriptor as bytes.
+     * @param index Index of the descriptor.
+     * @return Descriptor.
+     */
+    public byte[] toBytes(int index){
+        byte[] descriptor = new byte[words * 8];
+        int offset = index * words;
+        for (int j = 0; j < descriptor.length; j++)
+            descriptor[j] = (byte)(data[offset + (j >> 3)] >>> ((j & 7) * 8));
+        return descriptor;
+    }
+
+    /**
+     * Compute the Hamming distance between two descriptors.
+     * @param index Index of the descriptor.
+     * @param other Other descriptors.
+     * @param otherIndex Index of the other descriptor.
+     * @return Hamming distance.
+     */
+    public int Distance(int index, PackedDescriptors other, int otherIndex){
+        if (words != other.words)
+            throw new IllegalArgumentException("The descriptors must have the same length.");
+        return Distance(data, index * words, other.data, otherIndex * words, words);
+    }
+
+    static int Distance(long[] a, int offsetA, long[] b, int offsetB, int words){
+        int d = 0;
+        for (int i = 0; i < words; i++)
+            d += Long.bitCount(a[offsetA + i] ^ b[offsetB + i]);
+        return d;
+    }
+}
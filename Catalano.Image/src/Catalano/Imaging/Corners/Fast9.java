@@ -60,6 +60,7 @@ package Catalano.Imaging.Corners;
 
 import Catalano.Imaging.FastBitmap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -167,13 +168,33 @@ public class Fast9 implements ICornersFeatureDetector{
     
     private List<FeaturePoint> detect(FastBitmap fb, int threshold){
         
-        ArrayList<FeaturePoint> corners = new ArrayList<FeaturePoint>();
+        int[] c = Detect(fb, 0, fb.getHeight());
+        
+        ArrayList<FeaturePoint> corners = new ArrayList<FeaturePoint>(c.length / 3);
+        for (int i = 0; i < c.length; i += 3)
+            corners.add(new FeaturePoint(c[i], c[i + 1], c[i + 2]));
+        
+        Collections.sort(corners, Collections.reverseOrder());
+        return corners;
+    }
+    
+    /**
+     * Detect the corners in the rows [startRow, endRow) of a grayscale image.
+     * Each call has its own buffer, so the image can be split in strips processed in parallel.
+     * @param fb Grayscale image.
+     * @param startRow First row.
+     * @param endRow Last row, exclusive.
+     * @return Corners as (x, y, score) triplets in raster order.
+     */
+    int[] Detect(FastBitmap fb, int startRow, int endRow){
+        
+        int[] corners = new int[3 * 256];
         
         int width = fb.getWidth();
         int height = fb.getHeight();
         int count = 0;
         
-        for (int i = 3; i < height - 3; ++i) {
+        for (int i = Math.max(3, startRow); i < Math.min(height - 3, endRow); ++i) {
                 for (int j = 3; j < width - 3; ++j) {
                     int cb = fb.getGray(i, j) + threshold;
                     int c_b = fb.getGray(i, j) - threshold;
@@ -3080,19 +3101,15 @@ public class Fast9 implements ICornersFeatureDetector{
                         else
                             continue;
 
-                        corners.add(new FeaturePoint(i, j));
-                        count++;
+                        if (count == corners.length)
+                            corners = Arrays.copyOf(corners, 2 * count);
+                        corners[count++] = i;
+                        corners[count++] = j;
+                        corners[count++] = cornerScore(fb, i, j);
                 }
         }
         
-        for (int i = 0; i < count; ++i) {
-                int x = corners.get(i).x;
-                int y = corners.get(i).y;
-                
-                corners.get(i).score = (cornerScore(fb, x, y));
-        }
-        Collections.sort(corners, Collections.reverseOrder());
-        return corners;
+        return Arrays.copyOf(corners, count);
     }
     
     private int cornerScore(FastBitmap fastBitmap, int posx, int posy){
@@ -23,10 +23,17 @@
 package Catalano.Imaging.Corners;
 
 import Catalano.Imaging.FastBitmap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Features from Accelerated Segment Test (FAST) corners detector.
+ * 
+ * <p>The image is split in horizontal strips detected in parallel, each strip with its own corner buffer.
+ * The non-maximum suppression compares each corner only with the corners of the neighbor grid buckets,
+ * and the optional retention grid keeps the best N corners of each cell, for an uniform distribution of the corners.</p>
+ * 
  * @author Diego Catalano
  */
 public class FastCornersDetector implements ICornersFeatureDetector{
@@ -35,6 +42,8 @@ public class FastCornersDetector implements ICornersFeatureDetector{
     private int threshold = 20;
     private boolean suppress = true;
     private Algorithm algorithm = Algorithm.FAST_9;
+    private int cellSize = 0;
+    private int maxPerCell = 0;
 
     /**
      * Get Threshold.
@@ -92,6 +101,34 @@ public class FastCornersDetector implements ICornersFeatureDetector{
         this.algorithm = algorithm;
     }
 
+    /**
+     * Get the size of the cells of the retention grid.
+     * @return Size of the cells, in pixels.
+     */
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Get the maximum number of corners in each cell of the retention grid.
+     * @return Maximum number of corners.
+     */
+    public int getMaxPerCell() {
+        return maxPerCell;
+    }
+
+    /**
+     * Set the retention grid, only the N strongest corners of each cell are kept.
+     * @param cellSize Size of the cells, in pixels. 0 disables the grid.
+     * @param maxPerCell Maximum number of corners in each cell.
+     */
+    public void setRetentionGrid(int cellSize, int maxPerCell) {
+        if (cellSize < 0 || maxPerCell < 0)
+            throw new IllegalArgumentException("The size of the cells and the maximum number of corners must be positive.");
+        this.cellSize = cellSize;
+        this.maxPerCell = maxPerCell;
+    }
+
     /**
      * Initializes a new instance of the FastCornersDetector class.
      */
@@ -138,15 +175,197 @@ public class FastCornersDetector implements ICornersFeatureDetector{
     @Override
     public List<FeaturePoint> ProcessImage(FastBitmap fastBitmap){
         
-        switch (algorithm){
-            case FAST_9:
-                Fast9 fast9 = new Fast9(threshold, suppress);
-                return fast9.ProcessImage(fastBitmap);
-            case FAST_12:
-                Fast12 fast12 = new Fast12(threshold, suppress);
-                return fast12.ProcessImage(fastBitmap);
+        int[] corners = Detect(fastBitmap);
+        
+        List<FeaturePoint> lst = new ArrayList<FeaturePoint>(corners.length / 3);
+        for (int i = 0; i < corners.length; i += 3)
+            lst.add(new FeaturePoint(corners[i], corners[i + 1], corners[i + 2]));
+        
+        return lst;
+    }
+    
+    /**
+     * Detect the corners.
+     * @param fastBitmap Image to be processed.
+     * @return Corners as (x, y, score) triplets, sorted by score in descending order.
+     */
+    public int[] Detect(FastBitmap fastBitmap){
+        
+        final FastBitmap gray;
+        if (fastBitmap.isGrayscale()){
+            gray = fastBitmap;
+        }
+        else{
+            gray = new FastBitmap(fastBitmap);
+            gray.toGrayscale();
+        }
+        
+        final int width = gray.getWidth();
+        final int height = gray.getHeight();
+        
+        // 1. Detect the corners in strips
+        final Fast9 fast9 = new Fast9(threshold, false);
+        final Fast12 fast12 = new Fast12(threshold, false);
+        
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 32));
+        final int[][] strips = new int[cores][];
+        
+        Thread[] t = new Thread[cores];
+        int part = height / cores;
+        for (int i = 0; i < cores; i++) {
+            final int index = i;
+            final int start = i * part;
+            final int end = i == cores - 1 ? height : start + part;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    strips[index] = algorithm == Algorithm.FAST_9 ? fast9.Detect(gray, start, end) : fast12.Detect(gray, start, end);
+                }
+            });
+        }
+        Run(t);
+        
+        int size = 0;
+        for (int i = 0; i < cores; i++)
+            size += strips[i].length;
+        
+        final int[] corners = new int[size];
+        size = 0;
+        for (int i = 0; i < cores; i++) {
+            System.arraycopy(strips[i], 0, corners, size, strips[i].length);
+            size += strips[i].length;
         }
-        return null;
+        final int count = size / 3;
         
+        // 2. Non-maximum suppression
+        final boolean[] keep = new boolean[count];
+        if (suppress){
+            final int[][] buckets = Buckets(corners, count, width, height, 2);
+            
+            cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), count / 1024));
+            t = new Thread[cores];
+            part = count / cores;
+            for (int i = 0; i < cores; i++) {
+                final int start = i * part;
+                final int end = i == cores - 1 ? count : start + part;
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Suppress(corners, buckets, width, 2, keep, start, end);
+                    }
+                });
+            }
+            Run(t);
+        }
+        else{
+            Arrays.fill(keep, true);
+        }
+        
+        // 3. Sort by score (stable) and keep the best corners of each cell
+        int[] histogram = new int[257];
+        for (int i = 0; i < count; i++)
+            if (keep[i]) histogram[255 - Math.min(255, corners[i * 3 + 2]) + 1]++;
+        for (int i = 0; i < 256; i++)
+            histogram[i + 1] += histogram[i];
+        
+        int[] order = new int[histogram[256]];
+        for (int i = 0; i < count; i++)
+            if (keep[i]) order[histogram[255 - Math.min(255, corners[i * 3 + 2])]++] = i;
+        
+        int[] cells = null;
+        int cellCols = 0;
+        if (cellSize > 0 && maxPerCell > 0){
+            cellCols = (width + cellSize - 1) / cellSize;
+            cells = new int[((height + cellSize - 1) / cellSize) * cellCols];
+        }
+        
+        int[] result = new int[order.length * 3];
+        int n = 0;
+        for (int i = 0; i < order.length; i++) {
+            int c = order[i] * 3;
+            if (cells != null){
+                int cell = (corners[c] / cellSize) * cellCols + corners[c + 1] / cellSize;
+                if (cells[cell] == maxPerCell) continue;
+                cells[cell]++;
+            }
+            result[n++] = corners[c];
+            result[n++] = corners[c + 1];
+            result[n++] = corners[c + 2];
+        }
+        
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+    
+    /**
+     * Group the corners in square buckets of 2^shift pixels, stored as offsets and corner indexes.
+     */
+    private static int[][] Buckets(int[] corners, int count, int width, int height, int shift){
+        int rows = (height >> shift) + 1;
+        int cols = (width >> shift) + 1;
+        
+        int[] offsets = new int[rows * cols + 1];
+        for (int i = 0; i < count; i++)
+            offsets[(corners[i * 3] >> shift) * cols + (corners[i * 3 + 1] >> shift) + 1]++;
+        for (int i = 0; i < rows * cols; i++)
+            offsets[i + 1] += offsets[i];
+        
+        int[] next = Arrays.copyOf(offsets, rows * cols);
+        int[] index = new int[count];
+        for (int i = 0; i < count; i++)
+            index[next[(corners[i * 3] >> shift) * cols + (corners[i * 3 + 1] >> shift)]++] = i;
+        
+        return new int[][] {offsets, index};
+    }
+    
+    /**
+     * Keep the corners in the range [start, end) that no neighbor in the 3x3 window has a greater score.
+     */
+    private static void Suppress(int[] corners, int[][] buckets, int width, int shift, boolean[] keep, int start, int end){
+        int[] offsets = buckets[0];
+        int[] index = buckets[1];
+        int cols = (width >> shift) + 1;
+        int rows = (offsets.length - 1) / cols;
+        
+        for (int k = start; k < end; k++) {
+            int x = corners[k * 3];
+            int y = corners[k * 3 + 1];
+            int score = corners[k * 3 + 2];
+            
+            int r0 = Math.max(0, (x - 1) >> shift), r1 = Math.min(rows - 1, (x + 1) >> shift);
+            int c0 = Math.max(0, (y - 1) >> shift), c1 = Math.min(cols - 1, (y + 1) >> shift);
+            
+            boolean max = true;
+            for (int r = r0; r <= r1 && max; r++) {
+                for (int c = c0; c <= c1 && max; c++) {
+                    int b = r * cols + c;
+                    for (int i = offsets[b]; i < offsets[b + 1]; i++) {
+                        int o = index[i] * 3;
+                        if (Math.abs(corners[o] - x) <= 1 && Math.abs(corners[o + 1] - y) <= 1 && corners[o + 2] > score){
+                            max = false;
+                            break;
+                        }
+                    }
+                }
+            }
+            keep[k] = max;
+        }
+    }
+    
+    private static void Run(Thread[] t){
+        if (t.length == 1){
+            t[0].run();
+            return;
+        }
+        
+        for (int i = 0; i < t.length; i++)
+            t[i].start();
+        
+        try {
+            for (int i = 0; i < t.length; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
     }
 }
\ No newline at end of file
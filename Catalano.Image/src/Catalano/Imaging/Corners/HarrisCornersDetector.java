@@ -29,16 +29,28 @@ import Catalano.Core.IntPoint;
 import Catalano.Imaging.FastBitmap;
 import Catalano.Math.Constants;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Harris Corners Detector.
+ * 
+ * <p>The response is computed in one row-streaming pass: the gradient products of each row are smoothed
+ * horizontally into a rolling buffer of 2 * radius + 1 rows, and each output row is smoothed vertically
+ * from the buffer and turned into the response. The image is split in strips processed in parallel,
+ * and only the pixels above the threshold are checked by the non-maximum suppression.</p>
+ * 
  * @author Diego Catalano
  */
 public class HarrisCornersDetector implements ICornersDetector{
     
-    public enum HarrisCornerMeasure {Harris, Noble};
-    HarrisCornerMeasure algo;
+    /**
+     * Corner measure.
+     * Harris: det(M) - k * trace(M)^2.
+     * Noble: det(M) / trace(M).
+     * ShiTomasi: minimum eigenvalue of M.
+     */
+    public enum HarrisCornerMeasure {Harris, Noble, ShiTomasi};
     
     // Harris parameters
     private HarrisCornerMeasure measure = HarrisCornerMeasure.Harris;
@@ -131,6 +143,7 @@ public class HarrisCornersDetector implements ICornersDetector{
      */
     public void setSigma(double sigma) {
         this.sigma = sigma;
+        createGaussian();
     }
 
     /**
@@ -228,8 +241,14 @@ public class HarrisCornersDetector implements ICornersDetector{
     }
     
     private void createGaussian(){
-        double[] kernel = new Catalano.Math.Functions.Gaussian(sigma).Kernel1D(size);
-        this.kernel = ArraysUtil.toFloat(kernel);
+        if (sigma > 0.0){
+            double[] kernel = new Catalano.Math.Functions.Gaussian(sigma).Kernel1D(size);
+            this.kernel = ArraysUtil.toFloat(kernel);
+        }
+        else{
+            // No smoothing
+            this.kernel = new float[] {1};
+        }
     }
     
 
@@ -247,129 +266,220 @@ public class HarrisCornersDetector implements ICornersDetector{
             gray.toGrayscale();
         }
         
-        int width = gray.getWidth();
-        int height = gray.getHeight();
+        final byte[] pixels = gray.getGrayData();
+        final int width = gray.getWidth();
+        final int height = gray.getHeight();
         
-        // 1. Calculate partial differences
-        float[][] diffx = new float[height][width];
-        float[][] diffy = new float[height][width];
-        float[][] diffxy = new float[height][width];
+        // 1. Compute Harris Corner Response Map, only the responses above the threshold are kept
+        final float[] map = new float[width * height];
         
-        for (int i = 1; i < height - 1; i++) {
-            for (int j = 1; j < width - 1; j++) {
-                int p1 = gray.getGray(i - 1, j + 1);
-                int p2 = gray.getGray(i, j + 1);
-                int p3 = gray.getGray(i + 1, j + 1);
-                int p4 = gray.getGray(i - 1, j - 1);
-                int p5 = gray.getGray(i, j - 1);
-                int p6 = gray.getGray(i + 1, j - 1);
-                int p7 = gray.getGray(i + 1, j);
-                int p8 = gray.getGray(i - 1, j);
-                
-                float h = ((p1 + p2 + p3) - (p4 + p5 + p6)) * 0.166666667f;
-                float v = ((p6 + p7 + p3) - (p4 + p8 + p1)) * 0.166666667f;
-                
-                diffx[i][j] = h * h;
-                diffy[i][j] = v * v;
-                diffxy[i][j] = h * v;
-            }
-        }
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 32));
+        final int[][] candidates = new int[cores][];
+        final int[][] corners = new int[cores][];
         
-        // 2. Smooth the diff images
-        if (sigma > 0.0)
-        {
-            float[][] temp = new float[height][width];
-
-            // Convolve with Gaussian kernel
-            convolve(diffx, temp, kernel);
-            convolve(diffy, temp, kernel);
-            convolve(diffxy, temp, kernel);
+        Thread[] t = new Thread[cores];
+        int part = height / cores;
+        for (int i = 0; i < cores; i++) {
+            final int index = i;
+            final int start = i * part;
+            final int end = i == cores - 1 ? height : start + part;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    candidates[index] = Response(pixels, width, height, map, start, end);
+                }
+            });
         }
+        Run(t);
         
-        // 3. Compute Harris Corner Response Map
-        float[][] map = new float[height][width];
-        
-        float M, A, B, C;
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                A = diffx[i][j];
-                B = diffy[i][j];
-                C = diffxy[i][j];
-                if (measure == HarrisCornerMeasure.Harris){
-                    M = (A * B - C * C) - (k * ((A + B) * (A + B)));
-                }
-                else{
-                    M = (A * B - C * C) / (A + B + Constants.SingleEpsilon);
+        // 2. Suppress non-maximum points
+        for (int i = 0; i < cores; i++) {
+            final int index = i;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    corners[index] = Suppress(map, width, candidates[index]);
                 }
-                
-                if (M > threshold)
-                    map[i][j] = M;
-                
-            }
+            });
         }
+        Run(t);
         
-        // 4. Suppress non-maximum points
         ArrayList<IntPoint> cornersList = new ArrayList<IntPoint>();
+        for (int i = 0; i < cores; i++) {
+            for (int j = 0; j < corners[i].length; j++) {
+                cornersList.add(new IntPoint(corners[i][j] / width, corners[i][j] % width));
+            }
+        }
+        
+        return cornersList;
+    }
+    
+    /**
+     * Compute the response of the rows [start, end).
+     * @return Index of the pixels above the threshold, inside the suppression window.
+     */
+    private int[] Response(byte[] pixels, int width, int height, float[] map, int start, int end){
+        
+        int radius = kernel.length / 2;
+        int window = kernel.length;
+        
+        // Gradient products of one row
+        float[] dx = new float[width];
+        float[] dy = new float[width];
+        float[] dxy = new float[width];
+        
+        // Rolling buffer of the horizontally smoothed products
+        float[] sx = new float[window * width];
+        float[] sy = new float[window * width];
+        float[] sxy = new float[window * width];
         
-        for (int x = suppression, maxX = height - suppression; x < maxX; x++) {
-            for (int y = suppression, maxY = width - suppression; y < maxY; y++) {
-                float currentValue = map[x][y];
+        int[] candidates = new int[256];
+        int count = 0;
+        
+        int first = Math.max(0, start - radius);
+        int last = Math.min(height, end + radius);
+        
+        for (int g = first; g < last; g++) {
+            
+            // Calculate partial differences
+            Products(pixels, width, height, g, dx, dy, dxy);
+            
+            // Smooth horizontally
+            int slot = (g % window) * width;
+            for (int y = radius; y < width - radius; y++) {
+                float vx = 0, vy = 0, vxy = 0;
+                for (int k = 0; k < window; k++) {
+                    vx += dx[y + k - radius] * kernel[k];
+                    vy += dy[y + k - radius] * kernel[k];
+                    vxy += dxy[y + k - radius] * kernel[k];
+                }
+                sx[slot + y] = vx;
+                sy[slot + y] = vy;
+                sxy[slot + y] = vxy;
+            }
+            
+            // The output row is complete when its last row of the window is smoothed.
+            int x = g - radius;
+            if (x < Math.max(start, radius) || x >= end) continue;
+            
+            boolean nms = x >= suppression && x < height - suppression;
+            for (int y = radius; y < width - radius; y++) {
                 
-                // for each windows' row
-                for (int i = -suppression; (currentValue != 0) && (i <= suppression); i++) {
-                    
-                    // for each windows' pixel
-                    for (int j = -suppression; j <= suppression; j++) {
-                        if (map[x + i][y + j] > currentValue){
-                            currentValue = 0;
-                            break;
-                        }
-                    }
+                // Smooth vertically
+                float A = 0, B = 0, C = 0;
+                for (int k = 0; k < window; k++) {
+                    int o = ((x + k - radius) % window) * width + y;
+                    A += sx[o] * kernel[k];
+                    B += sy[o] * kernel[k];
+                    C += sxy[o] * kernel[k];
+                }
+                
+                float M;
+                switch (measure){
+                    case Harris:
+                        M = (A * B - C * C) - (k * ((A + B) * (A + B)));
+                        break;
+                    case Noble:
+                        M = (A * B - C * C) / (A + B + Constants.SingleEpsilon);
+                        break;
+                    default:
+                        M = ((A + B) - (float)Math.sqrt((A - B) * (A - B) + 4 * C * C)) * 0.5f;
+                        break;
                 }
                 
-                // check if this point is really interesting
-                if (currentValue != 0){
-                    cornersList.add(new IntPoint(x, y));
+                if (M > threshold){
+                    map[x * width + y] = M;
+                    if (nms && y >= suppression && y < width - suppression){
+                        if (count == candidates.length)
+                            candidates = Arrays.copyOf(candidates, 2 * count);
+                        candidates[count++] = x * width + y;
+                    }
                 }
             }
         }
         
-        return cornersList;
+        return Arrays.copyOf(candidates, count);
     }
     
     /**
-     * Convolution with decomposed 1D kernel.
-     * @param image Original image.
-     * @param temp Temporary image.
-     * @param kernel Kernel.
+     * Gradient products of the row, zero at the borders.
      */
-    private void convolve(float[][] image, float[][] temp, float[] kernel){
-        int width = image[0].length;
-        int height = image.length;
-        int radius = kernel.length / 2;
+    private static void Products(byte[] pixels, int width, int height, int x, float[] dx, float[] dy, float[] dxy){
+        Arrays.fill(dx, 0);
+        Arrays.fill(dy, 0);
+        Arrays.fill(dxy, 0);
+        if (x == 0 || x == height - 1) return;
         
-        for (int x = 0; x < height; x++){
-            for (int y = radius; y < width - radius; y++){
-                float v = 0;
-                for (int k = 0; k < kernel.length; k++){
-                    v += image[x][y + k - radius] * kernel[k];
+        int up = (x - 1) * width;
+        int center = x * width;
+        int down = (x + 1) * width;
+        for (int j = 1; j < width - 1; j++) {
+            int p1 = pixels[up + j + 1] & 0xFF;
+            int p2 = pixels[center + j + 1] & 0xFF;
+            int p3 = pixels[down + j + 1] & 0xFF;
+            int p4 = pixels[up + j - 1] & 0xFF;
+            int p5 = pixels[center + j - 1] & 0xFF;
+            int p6 = pixels[down + j - 1] & 0xFF;
+            int p7 = pixels[down + j] & 0xFF;
+            int p8 = pixels[up + j] & 0xFF;
+            
+            float h = ((p1 + p2 + p3) - (p4 + p5 + p6)) * 0.166666667f;
+            float v = ((p6 + p7 + p3) - (p4 + p8 + p1)) * 0.166666667f;
+            
+            dx[j] = h * h;
+            dy[j] = v * v;
+            dxy[j] = h * v;
+        }
+    }
+    
+    /**
+     * Keep the candidates that no pixel in the suppression window has a greater response.
+     */
+    private int[] Suppress(float[] map, int width, int[] candidates){
+        int[] corners = new int[candidates.length];
+        int count = 0;
+        
+        for (int c = 0; c < candidates.length; c++) {
+            int x = candidates[c] / width;
+            int y = candidates[c] % width;
+            float currentValue = map[candidates[c]];
+            
+            // for each windows' row
+            for (int i = -suppression; (currentValue != 0) && (i <= suppression); i++) {
+                
+                // for each windows' pixel
+                int row = (x + i) * width + y;
+                for (int j = -suppression; j <= suppression; j++) {
+                    if (map[row + j] > currentValue){
+                        currentValue = 0;
+                        break;
+                    }
                 }
-                temp[x][y] = v;
             }
+            
+            // check if this point is really interesting
+            if (currentValue != 0)
+                corners[count++] = candidates[c];
         }
-
-
-        for (int y = 0; y < width; y++)
-        {
-            for (int x = radius; x < height - radius; x++)
-            {
-                float v = 0;
-                for (int k = 0; k < kernel.length; k++){
-                    v += temp[x + k - radius][y] * kernel[k];
-                }
-                
-                image[x][y] = v;
+        
+        return Arrays.copyOf(corners, count);
+    }
+    
+    private static void Run(Thread[] t){
+        if (t.length == 1){
+            t[0].run();
+            return;
+        }
+        
+        for (int i = 0; i < t.length; i++)
+            t[i].start();
+        
+        try {
+            for (int i = 0; i < t.length; i++) {
+                t[i].join();
             }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
     }
 }
\ No newline at end of file
@@ -23,6 +23,8 @@ package Catalano.Imaging;
 
 import Catalano.Core.IntPoint;
 import Catalano.Imaging.Filters.Grayscale;
+import Catalano.Imaging.Parsers.PortableAnymapReader;
+import Catalano.Imaging.Parsers.PortableAnymapWriter;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.Toolkit;
@@ -168,6 +170,14 @@ public class FastBitmap {
      */
     public FastBitmap(String pathname){
         try {
+            String name = pathname.toLowerCase();
+            if (name.endsWith(".pgm") || name.endsWith(".ppm") || name.endsWith(".pnm") || name.endsWith(".pam")){
+                // Decoded straight in the raster, without ImageIO.
+                this.bufferedImage = PortableAnymapReader.Load(pathname).bufferedImage;
+                refresh();
+                setCoordinateSystem(CoordinateSystem.Matrix);
+                return;
+            }
             this.bufferedImage = ImageIO.read(new File(pathname));
             prepare();
         } catch (IOException ex) {
@@ -1371,6 +1381,18 @@ public class FastBitmap {
         }
     }
     
+    /**
+     * Save FastBitmap as PGM (grayscale), PPM (rgb) or PAM (argb).
+     * @param pathname Path name.
+     */
+    public void saveAsPNM(String pathname){
+        try {
+            PortableAnymapWriter.Save(this, pathname);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+    
     /**
      * Save FastBitmap as GIF.
      * @param pathname Path name.
@@ -0,0 +1,502 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+package Catalano.Imaging.Filters;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Imaging.IApplyInPlace;
+import java.util.Arrays;
+
+/**
+ * Anisotropic Kuwahara filter.
+ * 
+ * <p>Generalization of the Kuwahara filter that smooths along the local structure of the image. The orientation and the
+ * anisotropy are estimated from the smoothed structure tensor, the window is an ellipse aligned with the structure and
+ * divided in 8 sectors with polynomial weights. The output is the mean of the sectors weighted by the inverse of their
+ * standard deviation, so the edges are preserved without the block artifacts of the quadrants.
+ * A large alpha gives circular windows, the generalized Kuwahara filter.</p>
+ * 
+ * <p>The windows are computed once for 32 orientations and 9 levels of anisotropy, with the weights of the sectors
+ * of each sample, and the rows are filtered in parallel.</p>
+ * 
+ * <p>References: Kyprianidis J. E., Kang H., Dollner J. "Image and video abstraction by anisotropic Kuwahara filtering."
+ * Computer Graphics Forum 28, 7 (2009).</p>
+ * 
+ * @see Kuwahara
+ * @author Diego Catalano
+ */
+public class AnisotropicKuwahara implements IApplyInPlace{
+    
+    private static final int SECTORS = 8;
+    private static final int ORIENTATIONS = 32;
+    private static final int ANISOTROPIES = 9;
+    
+    private int radius = 6;
+    private double sharpness = 8;
+    private double alpha = 1;
+    private double sigma = 2;
+
+    /**
+     * Get the radius of the window.
+     * @return Radius.
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Set the radius of the window.
+     * @param radius Radius.
+     */
+    public void setRadius(int radius) {
+        this.radius = Math.max(1, radius);
+    }
+
+    /**
+     * Get the sharpness of the output.
+     * @return Sharpness.
+     */
+    public double getSharpness() {
+        return sharpness;
+    }
+
+    /**
+     * Set the sharpness of the output, the exponent of the weights of the sectors.
+     * @param sharpness Sharpness.
+     */
+    public void setSharpness(double sharpness) {
+        this.sharpness = Math.max(0, sharpness);
+    }
+
+    /**
+     * Get the tuning of the eccentricity.
+     * @return Alpha.
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Set the tuning of the eccentricity, a large alpha gives circular windows.
+     * @param alpha Alpha.
+     */
+    public void setAlpha(double alpha) {
+        if (alpha <= 0)
+            throw new IllegalArgumentException("Alpha must be greater than 0.");
+        this.alpha = alpha;
+    }
+
+    /**
+     * Get the standard deviation of the smoothing of the structure tensor.
+     * @return Sigma.
+     */
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * Set the standard deviation of the smoothing of the structure tensor.
+     * @param sigma Sigma.
+     */
+    public void setSigma(double sigma) {
+        this.sigma = Math.max(0, sigma);
+    }
+
+    /**
+     * Initialize a new instance of the AnisotropicKuwahara class.
+     */
+    public AnisotropicKuwahara() {}
+
+    /**
+     * Initialize a new instance of the AnisotropicKuwahara class.
+     * @param radius Radius of the window.
+     */
+    public AnisotropicKuwahara(int radius) {
+        setRadius(radius);
+    }
+
+    /**
+     * Initialize a new instance of the AnisotropicKuwahara class.
+     * @param radius Radius of the window.
+     * @param sharpness Sharpness of the output.
+     * @param alpha Tuning of the eccentricity.
+     */
+    public AnisotropicKuwahara(int radius, double sharpness, double alpha) {
+        setRadius(radius);
+        setSharpness(sharpness);
+        setAlpha(alpha);
+    }
+
+    @Override
+    public void applyInPlace(FastBitmap fastBitmap) {
+        
+        if (!fastBitmap.isGrayscale() && !fastBitmap.isRGB())
+            throw new IllegalArgumentException("Anisotropic Kuwahara only works with grayscale or rgb images.");
+        
+        final int width = fastBitmap.getWidth();
+        final int height = fastBitmap.getHeight();
+        final byte[] gray = fastBitmap.isGrayscale() ? fastBitmap.getGrayData() : null;
+        final int[] rgb = gray == null ? fastBitmap.getRGBData() : null;
+        final int channels = gray != null ? 1 : 3;
+        
+        // Planes in [0, 1].
+        final int size = width * height;
+        final float[][] planes = new float[channels][size];
+        final float[] lum = channels == 1 ? planes[0] : new float[size];
+        for (int i = 0; i < size; i++) {
+            if (gray != null){
+                planes[0][i] = (gray[i] & 0xFF) / 255f;
+            }
+            else{
+                int c = rgb[i];
+                planes[0][i] = (c >> 16 & 0xFF) / 255f;
+                planes[1][i] = (c >> 8 & 0xFF) / 255f;
+                planes[2][i] = (c & 0xFF) / 255f;
+                lum[i] = 0.2125f * planes[0][i] + 0.7154f * planes[1][i] + 0.0721f * planes[2][i];
+            }
+        }
+        
+        final float[] E = new float[size];
+        final float[] F = new float[size];
+        final float[] G = new float[size];
+        final float[] tmp = new float[3 * size];
+        final float[] kernel = Kernel(sigma);
+        
+        // Structure tensor of the Sobel derivatives, smoothed by the gaussian.
+        Parallel(height, new Rows() {
+            @Override
+            void Run(int start, int end) {
+                Tensor(lum, width, height, start, end, E, F, G);
+            }
+        });
+        Parallel(height, new Rows() {
+            @Override
+            void Run(int start, int end) {
+                Smooth(kernel, width, height, start, end, true, new float[][] {E, F, G}, tmp);
+            }
+        });
+        Parallel(height, new Rows() {
+            @Override
+            void Run(int start, int end) {
+                Smooth(kernel, width, height, start, end, false, new float[][] {E, F, G}, tmp);
+            }
+        });
+        
+        final Window[] windows = Windows();
+        Parallel(height, new Rows() {
+            @Override
+            void Run(int start, int end) {
+                Filter(planes, E, F, G, windows, width, height, start, end, gray, rgb);
+            }
+        });
+    }
+    
+    private void Filter(float[][] planes, float[] E, float[] F, float[] G, Window[] windows, int width, int height, int start, int end, byte[] gray, int[] rgb){
+        int channels = planes.length;
+        double[] m = new double[SECTORS * channels];
+        double[] s = new double[SECTORS * channels];
+        double[] wsum = new double[SECTORS];
+        double[] out = new double[channels];
+        
+        for (int i = start; i < end; i++) {
+            for (int j = 0; j < width; j++) {
+                int p = i * width + j;
+                double e = E[p], f = F[p], g = G[p];
+                
+                // Orientation of the minor eigenvector and anisotropy.
+                double root = Math.sqrt((e - g) * (e - g) + 4 * f * f);
+                double l1 = 0.5 * (e + g + root);
+                double l2 = 0.5 * (e + g - root);
+                double tx = l1 - e;
+                double ty = -f;
+                double phi = tx * tx + ty * ty > 0 ? Math.atan2(ty, tx) : Math.PI / 2;
+                double A = l1 + l2 > 0 ? (l1 - l2) / (l1 + l2) : 0;
+                
+                int o = (int)Math.round(phi / Math.PI * ORIENTATIONS);
+                o = ((o % ORIENTATIONS) + ORIENTATIONS) % ORIENTATIONS;
+                int an = (int)Math.round(A * (ANISOTROPIES - 1));
+                Window win = windows[o * ANISOTROPIES + an];
+                
+                Arrays.fill(wsum, 0);
+                Arrays.fill(m, 0);
+                Arrays.fill(s, 0);
+                
+                int ext = win.extent;
+                boolean inside = i - ext >= 0 && i + ext < height && j - ext >= 0 && j + ext < width;
+                for (int n = 0; n < win.dx.length; n++) {
+                    int q = inside ? p + win.dy[n] * width + win.dx[n]
+                            : Math.min(height - 1, Math.max(0, i + win.dy[n])) * width + Math.min(width - 1, Math.max(0, j + win.dx[n]));
+                    if (channels == 1){
+                        double v = planes[0][q];
+                        double v2 = v * v;
+                        for (int t = win.start[n]; t < win.start[n + 1]; t++) {
+                            int k = win.sector[t];
+                            double wk = win.weight[t];
+                            wsum[k] += wk;
+                            m[k] += v * wk;
+                            s[k] += v2 * wk;
+                        }
+                    }
+                    else{
+                        double r = planes[0][q], gr = planes[1][q], bl = planes[2][q];
+                        double r2 = r * r, g2 = gr * gr, b2 = bl * bl;
+                        for (int t = win.start[n]; t < win.start[n + 1]; t++) {
+                            int k = win.sector[t];
+                            int kc = 3 * k;
+                            double wk = win.weight[t];
+                            wsum[k] += wk;
+                            m[kc] += r * wk;
+                            m[kc + 1] += gr * wk;
+                            m[kc + 2] += bl * wk;
+                            s[kc] += r2 * wk;
+                            s[kc + 1] += g2 * wk;
+                            s[kc + 2] += b2 * wk;
+                        }
+                    }
+                }
+                
+                double total = 0;
+                for (int c = 0; c < channels; c++)
+                    out[c] = 0;
+                for (int k = 0; k < SECTORS; k++) {
+                    if (wsum[k] == 0) continue;
+                    double sigma2 = 0;
+                    for (int c = 0; c < channels; c++) {
+                        int kc = k * channels + c;
+                        m[kc] /= wsum[k];
+                        sigma2 += Math.abs(s[kc] / wsum[k] - m[kc] * m[kc]);
+                    }
+                    double wk = 1 / (1 + Math.pow(255 * sigma2, 0.5 * sharpness));
+                    total += wk;
+                    for (int c = 0; c < channels; c++)
+                        out[c] += m[k * channels + c] * wk;
+                }
+                
+                if (gray != null){
+                    gray[p] = (byte)Clamp(out[0] / total);
+                }
+                else{
+                    rgb[p] = (rgb[p] & 0xFF000000) | Clamp(out[0] / total) << 16 | Clamp(out[1] / total) << 8 | Clamp(out[2] / total);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Window of an orientation and an anisotropy, the samples of the ellipse with the weights of their sectors.
+     */
+    private static class Window {
+        int extent;
+        int[] dx, dy;
+        int[] start;
+        byte[] sector;
+        float[] weight;
+    }
+    
+    private Window[] Windows(){
+        Window[] windows = new Window[ORIENTATIONS * ANISOTROPIES];
+        double zeta = 2.0 / radius;
+        double sin = Math.sin(Math.PI / SECTORS);
+        double eta = (zeta + Math.cos(Math.PI / SECTORS)) / (sin * sin);
+        double half = Math.sqrt(0.5);
+        double[] w = new double[SECTORS];
+        
+        for (int o = 0; o < ORIENTATIONS; o++) {
+            double phi = Math.PI * o / ORIENTATIONS;
+            double cos = Math.cos(phi), sinp = Math.sin(phi);
+            for (int an = 0; an < ANISOTROPIES; an++) {
+                double A = (double)an / (ANISOTROPIES - 1);
+                double a = radius * Math.max(0.1, Math.min(2, (alpha + A) / alpha));
+                double b = radius * Math.max(0.1, Math.min(2, alpha / (alpha + A)));
+                
+                // Ellipse to the disk of radius 0.5.
+                double s00 = 0.5 / a * cos, s01 = 0.5 / a * sinp;
+                double s10 = -0.5 / b * sinp, s11 = 0.5 / b * cos;
+                int maxX = (int)Math.sqrt(a * a * cos * cos + b * b * sinp * sinp);
+                int maxY = (int)Math.sqrt(a * a * sinp * sinp + b * b * cos * cos);
+                
+                int cap = (2 * maxX + 1) * (2 * maxY + 1);
+                int[] dx = new int[cap], dy = new int[cap], start = new int[cap + 1];
+                byte[] sector = new byte[cap * SECTORS];
+                float[] weight = new float[cap * SECTORS];
+                int n = 0, t = 0;
+                
+                for (int y = -maxY; y <= maxY; y++) {
+                    for (int x = -maxX; x <= maxX; x++) {
+                        double vx = s00 * x + s01 * y;
+                        double vy = s10 * x + s11 * y;
+                        double d2 = vx * vx + vy * vy;
+                        if (d2 > 0.25) continue;
+                        
+                        // Polynomial weights of the sectors.
+                        double vxx = zeta - eta * vx * vx;
+                        double vyy = zeta - eta * vy * vy;
+                        double z;
+                        z = Math.max(0, vy + vxx); w[0] = z * z;
+                        z = Math.max(0, -vx + vyy); w[2] = z * z;
+                        z = Math.max(0, -vy + vxx); w[4] = z * z;
+                        z = Math.max(0, vx + vyy); w[6] = z * z;
+                        double rx = half * (vx - vy);
+                        double ry = half * (vx + vy);
+                        vxx = zeta - eta * rx * rx;
+                        vyy = zeta - eta * ry * ry;
+                        z = Math.max(0, ry + vxx); w[1] = z * z;
+                        z = Math.max(0, -rx + vyy); w[3] = z * z;
+                        z = Math.max(0, -ry + vxx); w[5] = z * z;
+                        z = Math.max(0, rx + vyy); w[7] = z * z;
+                        double sum = 0;
+                        for (int k = 0; k < SECTORS; k++)
+                            sum += w[k];
+                        if (sum == 0) continue;
+                        
+                        double gauss = Math.exp(-3.125 * d2) / sum;
+                        dx[n] = x;
+                        dy[n] = y;
+                        start[n] = t;
+                        for (int k = 0; k < SECTORS; k++) {
+                            if (w[k] == 0) continue;
+                            sector[t] = (byte)k;
+                            weight[t++] = (float)(w[k] * gauss);
+                        }
+                        n++;
+                    }
+                }
+                start[n] = t;
+                
+                Window win = new Window();
+                win.extent = Math.max(maxX, maxY);
+                win.dx = Arrays.copyOf(dx, n);
+                win.dy = Arrays.copyOf(dy, n);
+                win.start = Arrays.copyOf(start, n + 1);
+                win.sector = Arrays.copyOf(sector, t);
+                win.weight = Arrays.copyOf(weight, t);
+                windows[o * ANISOTROPIES + an] = win;
+            }
+        }
+        return windows;
+    }
+    
+    private static int Clamp(double v){
+        int c = (int)(v * 255 + 0.5);
+        return c < 0 ? 0 : c > 255 ? 255 : c;
+    }
+    
+    /**
+     * Products of the Sobel derivatives, x along the columns and y along the rows.
+     */
+    private static void Tensor(float[] lum, int width, int height, int start, int end, float[] E, float[] F, float[] G){
+        for (int i = start; i < end; i++) {
+            int up = Math.max(i - 1, 0) * width;
+            int row = i * width;
+            int down = Math.min(i + 1, height - 1) * width;
+            for (int j = 0; j < width; j++) {
+                int l = Math.max(j - 1, 0);
+                int r = Math.min(j + 1, width - 1);
+                float fx = (lum[up + r] + 2 * lum[row + r] + lum[down + r] - lum[up + l] - 2 * lum[row + l] - lum[down + l]) * 0.25f;
+                float fy = (lum[down + l] + 2 * lum[down + j] + lum[down + r] - lum[up + l] - 2 * lum[up + j] - lum[up + r]) * 0.25f;
+                E[row + j] = fx * fx;
+                F[row + j] = fx * fy;
+                G[row + j] = fy * fy;
+            }
+        }
+    }
+    
+    /**
+     * Separable gaussian, the horizontal pass writes the buffer and the vertical pass reads it.
+     */
+    private static void Smooth(float[] kernel, int width, int height, int start, int end, boolean horizontal, float[][] planes, float[] tmp){
+        int r = kernel.length / 2;
+        int size = width * height;
+        for (int c = 0; c < planes.length; c++) {
+            float[] p = planes[c];
+            int base = c * size;
+            for (int i = start; i < end; i++) {
+                int row = i * width;
+                for (int j = 0; j < width; j++) {
+                    float sum = 0;
+                    if (horizontal){
+                        for (int k = -r; k <= r; k++)
+                            sum += kernel[k + r] * p[row + Math.min(width - 1, Math.max(0, j + k))];
+                        tmp[base + row + j] = sum;
+                    }
+                    else{
+                        for (int k = -r; k <= r; k++)
+                            sum += kernel[k + r] * tmp[base + Math.min(height - 1, Math.max(0, i + k)) * width + j];
+                        p[row + j] = sum;
+                    }
+                }
+            }
+        }
+    }
+    
+    private static float[] Kernel(double sigma){
+        int r = (int)Math.ceil(3 * sigma);
+        float[] kernel = new float[2 * r + 1];
+        if (r == 0){
+            kernel[0] = 1;
+            return kernel;
+        }
+        double sum = 0;
+        for (int k = -r; k <= r; k++) {
+            kernel[k + r] = (float)Math.exp(-k * k / (2 * sigma * sigma));
+            sum += kernel[k + r];
+        }
+        for (int k = 0; k < kernel.length; k++)
+            kernel[k] /= sum;
+        return kernel;
+    }
+    
+    /**
+     * Range of rows processed by a thread.
+     */
+    private static abstract class Rows {
+        abstract void Run(int start, int end);
+    }
+    
+    private static void Parallel(final int height, final Rows rows){
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 16));
+        if (cores == 1){
+            rows.Run(0, height);
+            return;
+        }
+        
+        Thread[] t = new Thread[cores];
+        int part = height / cores;
+        for (int i = 0; i < cores; i++) {
+            final int start = i * part;
+            final int end = i == cores - 1 ? height : start + part;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    rows.Run(start, end);
+                }
+            });
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -26,18 +26,21 @@ package Catalano.Imaging.Filters;
 
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
+import java.util.Arrays;
 
 /**
  * Canny edge detector.
  * The filter searches for objects' edges by applying Canny edge detector. The implementation follows Bill Green's Canny edge detection tutorial.
  * 
- * <p>The implemented canny edge detector has one difference with the above linked algorithm.
- * The difference is in hysteresis step, which is a bit simplified (getting faster as a result).
- * On the hysteresis step each pixel is compared with two threshold values: HighThreshold and LowThreshold.
+ * <p>The image is processed in horizontal strips in parallel. Gaussian blur, gradient and non-maximum suppression
+ * are computed in rolling buffers of a few rows, so no intermediate image is allocated.</p>
+ * 
+ * <p>On the hysteresis step each pixel is compared with two threshold values: HighThreshold and LowThreshold.
  * If pixel's value is greater or equal to HighThreshold, then it is kept as edge pixel.
- * If pixel's value is greater or equal to LowThreshold, then it is kept as edge pixel only if there is at least one neighbouring pixel (8 neighbours are checked)
- * which has value greater or equal to HighThreshold; otherwise it is none edge pixel.
- * In the case if pixel's value is less than LowThreshold, then it is marked as none edge immediately. </p>
+ * If pixel's value is greater or equal to LowThreshold, then it is kept as edge pixel only if it is connected (8 neighbours)
+ * to a pixel which has value greater or equal to HighThreshold; otherwise it is none edge pixel.
+ * In the case if pixel's value is less than LowThreshold, then it is marked as none edge immediately.
+ * The connected pixels are found by union-find, the labels of the strips are stitched at the boundaries.</p>
  * 
  * <p><li>Supported types: Grayscale.
  * <br><li>Coordinate System: Matrix.
@@ -166,124 +169,446 @@ public class CannyEdgeDetector implements IApplyInPlace{
             int width = fastBitmap.getWidth();
             int height = fastBitmap.getHeight();
             
-            int gx, gy;
-            double orientation, toAngle = 180.0 / Math.PI;
-            float leftPixel = 0, rightPixel = 0;
+            int[][] kernel = new GaussianBlur(sigma, size).CreateKernel();
+            int div = 0;
+            for (int i = 0; i < kernel.length; i++)
+                for (int j = 0; j < kernel[0].length; j++)
+                    div += kernel[i][j];
+            
+            // Strips of rows, each one keeps only a few rows in memory.
+            int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 32));
+            int part = height / cores;
+            int halo = kernel.length / 2 + 2;
             
-            // STEP 1 - Apply Gaussian Blur
-            FastBitmap blurredImage = new FastBitmap(fastBitmap);
-            GaussianBlur g = new GaussianBlur(sigma, size);
-            g.applyInPlace(blurredImage);
+            Strip[] strips = new Strip[cores];
+            for (int i = 0; i < cores; i++) {
+                int start = i * part;
+                int end = i == cores - 1 ? height : start + part;
+                strips[i] = new Strip(fastBitmap, kernel, div, start, end, halo);
+            }
             
-            int[] orients = new int[width * height];
-            float[][] gradients = new float[width][height];
+            // STEP 1 - Maximum gradient, used to normalize the magnitudes.
+            run(strips, Strip.MAX_GRADIENT);
             float maxGradient = Float.NEGATIVE_INFINITY;
+            for (Strip strip : strips)
+                maxGradient = Math.max(maxGradient, strip.maxGradient);
             
-            // STEP 2 - calculate magnitude and edge orientation
-            int p = 0;
+            // STEP 2 - Gaussian blur, gradient, non maximum suppression and labeling of the candidates.
+            for (Strip strip : strips)
+                strip.maxGradient = maxGradient;
+            run(strips, Strip.SUPPRESSION);
             
-            for (int x = 1; x < height - 1; x++) {
-                for (int y = 1; y < width - 1; y++, p++) {
-                    int p1 = blurredImage.getGray(x - 1, y + 1);
-                    int p2 = blurredImage.getGray(x + 1, y + 1);
-                    int p3 = blurredImage.getGray(x - 1, y - 1);
-                    int p4 = blurredImage.getGray(x + 1, y - 1);
-                    int p5 = blurredImage.getGray(x, y + 1);
-                    int p6 = blurredImage.getGray(x, y - 1);
-                    int p7 = blurredImage.getGray(x - 1, y);
-                    int p8 = blurredImage.getGray(x + 1, y);
-                    
-                    gx = p1 + p2 - p3 - p4 + 2 * (p5 - p6);
-                    
-                    gy = p3 + p1 - p4 - p2 + 2 * (p7 - p8);
-                    
-                    
-                    // get gradient value
-                    gradients[y][x] = (float) Math.sqrt( gx * gx + gy * gy );
-                    if ( gradients[y][x] > maxGradient )
-                        maxGradient = gradients[y][x];
-
-                    // --- get orientation
-                    if ( gx == 0 )
-                    {
-                        // can not divide by zero
-                        orientation = ( gy == 0 ) ? 0 : 90;
+            // STEP 3 - Stitch the labels of the strips, keep the components with a strong edge.
+            int labels = 0;
+            for (Strip strip : strips) {
+                strip.offset = labels;
+                labels += strip.labels;
+            }
+            
+            int[] parent = new int[labels + 1];
+            boolean[] strong = new boolean[labels + 1];
+            for (Strip strip : strips) {
+                for (int l = 1; l <= strip.labels; l++) {
+                    parent[strip.offset + l] = strip.offset + strip.parent[l];
+                    strong[strip.offset + l] = strip.strong[l];
+                }
+            }
+            
+            for (int i = 1; i < cores; i++) {
+                int[] up = strips[i - 1].lastRow;
+                int[] down = strips[i].firstRow;
+                for (int j = 0; j < width; j++) {
+                    if (down[j] == 0) continue;
+                    for (int k = Math.max(0, j - 1); k <= Math.min(width - 1, j + 1); k++) {
+                        if (up[k] != 0)
+                            union(parent, strips[i - 1].offset + up[k], strips[i].offset + down[j]);
                     }
-                    else
-                    {
-                        double div = (double) gy / gx;
+                }
+            }
+            
+            for (int l = 1; l <= labels; l++) {
+                if (strong[l]) strong[find(parent, l)] = true;
+            }
+            
+            boolean[] keep = new boolean[labels + 1];
+            for (int l = 1; l <= labels; l++) {
+                keep[l] = strong[find(parent, l)];
+            }
+            
+            // STEP 4 - Hysteresis Threshold
+            for (Strip strip : strips)
+                strip.keep = keep;
+            run(strips, Strip.HYSTERESIS);
+        }
+        else{
+            throw new IllegalArgumentException("CannyEdgeDetector only works in grayscale images.");
+        }
+    }
+    
+    private void run(Strip[] strips, int step){
+        
+        if (strips.length == 1){
+            strips[0].run(step);
+            return;
+        }
+        
+        Thread[] t = new Thread[strips.length];
+        for (int i = 0; i < strips.length; i++) {
+            t[i] = new Thread(new Run(strips[i], step));
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < strips.length; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    private static int find(int[] parent, int x){
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+    
+    private static void union(int[] parent, int a, int b){
+        a = find(parent, a);
+        b = find(parent, b);
+        if (a < b) parent[b] = a;
+        else if (b < a) parent[a] = b;
+    }
+    
+    private class Run implements Runnable {
+        
+        private Strip strip;
+        private int step;
 
-                        // handle angles of the 2nd and 4th quads
-                        if ( div < 0 )
-                        {
-                            orientation = 180 - Math.atan( -div ) * toAngle;
-                        }
-                        // handle angles of the 1st and 3rd quads
-                        else
-                        {
-                            orientation = Math.atan( div ) * toAngle;
-                        }
+        public Run(Strip strip, int step) {
+            this.strip = strip;
+            this.step = step;
+        }
 
-                        // get closest angle from 0, 45, 90, 135 set
-                        if ( orientation < 22.5 )
-                            orientation = 0;
-                        else if ( orientation < 67.5 )
-                            orientation = 45;
-                        else if ( orientation < 112.5 )
-                            orientation = 90;
-                        else if ( orientation < 157.5 )
-                            orientation = 135;
-                        else orientation = 0;
-                    }
+        @Override
+        public void run() {
+            strip.run(step);
+        }
+    }
+    
+    /**
+     * Horizontal strip of the image.
+     * Gaussian blur, gradient and non maximum suppression are computed in rolling buffers of a few rows.
+     * The candidates of the hysteresis are labeled by union-find, the labels are computed again
+     * (with the same order) in the last step, so the label image is never stored.
+     */
+    private class Strip {
+        
+        static final int MAX_GRADIENT = 0;
+        static final int SUPPRESSION = 1;
+        static final int HYSTERESIS = 2;
+        
+        private byte[] pixels;
+        private int width, height;
+        private int[][] kernel;
+        private int div, radius;
+        private int start, end;
+        
+        // Rows of the neighbor strips, copied before any strip writes.
+        private byte[][] halo;
+        private int haloStart;
+        
+        // Rolling buffers.
+        private int[][] input;
+        private int[] inputRow;
+        private int[][] blur = new int[3][];
+        private int[] blurRow = {-1, -1, -1};
+        private float[][] gradient = new float[3][];
+        private int[][] orientation = new int[3][];
+        private int[] gradientRow = {-1, -1, -1};
+        
+        float maxGradient = Float.NEGATIVE_INFINITY;
+        
+        // Union-find of the candidates.
+        int labels;
+        int offset;
+        int[] parent = new int[256];
+        boolean[] strong = new boolean[256];
+        int[] firstRow, lastRow;
+        boolean[] keep;
 
-                    // save orientation
-                    orients[p] = (int)orientation;
+        public Strip(FastBitmap fastBitmap, int[][] kernel, int div, int start, int end, int halo) {
+            this.pixels = fastBitmap.getGrayData();
+            this.width = fastBitmap.getWidth();
+            this.height = fastBitmap.getHeight();
+            this.kernel = kernel;
+            this.div = div;
+            this.radius = kernel.length / 2;
+            this.start = start;
+            this.end = end;
+            
+            this.haloStart = Math.max(0, start - halo);
+            int haloEnd = Math.min(height, end + halo);
+            this.halo = new byte[haloEnd - haloStart][];
+            for (int i = haloStart; i < haloEnd; i++) {
+                if (i < start || i >= end){
+                    this.halo[i - haloStart] = new byte[width];
+                    System.arraycopy(pixels, i * width, this.halo[i - haloStart], 0, width);
                 }
             }
             
-            p = 0;
-            
-            // STEP 3 - suppress non maximums
-            for (int x = 1; x < height - 1; x++) {
-                for (int y = 1; y < width - 1; y++, p++) {
-                    // get two adjacent pixels
-                    switch ( orients[p] )
-                    {
-                        case 0:
-                            leftPixel  = gradients[y - 1][x];
-                            rightPixel = gradients[y + 1][x];
-                            break;
-                        case 45:
-                            leftPixel  = gradients[y - 1][x + 1];
-                            rightPixel = gradients[y + 1][x - 1];
-                            break;
-                        case 90:
-                            leftPixel  = gradients[y][x + 1];
-                            rightPixel = gradients[y][x - 1];
-                            break;
-                        case 135:
-                            leftPixel  = gradients[y + 1][x + 1];
-                            rightPixel = gradients[y - 1][x - 1];
-                            break;
+            int lines = kernel.length;
+            this.input = new int[lines][width + 2 * radius];
+            this.inputRow = new int[lines];
+            Arrays.fill(inputRow, -1);
+            for (int i = 0; i < 3; i++) {
+                blur[i] = new int[width];
+                gradient[i] = new float[width];
+                orientation[i] = new int[width];
+            }
+        }
+        
+        public void run(int step){
+            switch (step){
+                case MAX_GRADIENT:
+                    for (int x = Math.max(1, start); x < Math.min(end, height - 1); x++) {
+                        float[] g = gradient(x);
+                        for (int y = 1; y < width - 1; y++) {
+                            if (g[y] > maxGradient) maxGradient = g[y];
+                        }
                     }
-                    // compare current pixels value with adjacent pixels
-                    if ( ( gradients[y][x] < leftPixel ) || ( gradients[y][x] < rightPixel ) )
-                    {
-                        fastBitmap.setGray(x, y, 0);
+                    break;
+                case SUPPRESSION:
+                    suppression();
+                    break;
+                case HYSTERESIS:
+                    hysteresis();
+                    break;
+            }
+        }
+        
+        /**
+         * Input row, padded with the replicated borders.
+         */
+        private int[] input(int row){
+            int slot = row % input.length;
+            if (inputRow[slot] != row){
+                int[] in = input[slot];
+                if (row >= start && row < end){
+                    for (int y = 0, o = row * width; y < width; y++, o++)
+                        in[y + radius] = pixels[o] & 0xFF;
+                }
+                else{
+                    byte[] h = halo[row - haloStart];
+                    for (int y = 0; y < width; y++)
+                        in[y + radius] = h[y] & 0xFF;
+                }
+                for (int y = 0; y < radius; y++) {
+                    in[y] = in[radius];
+                    in[width + radius + y] = in[width + radius - 1];
+                }
+                inputRow[slot] = row;
+            }
+            return input[slot];
+        }
+        
+        private int[] blur(int row){
+            int slot = row % 3;
+            if (blurRow[slot] != row){
+                int[] b = blur[slot];
+                Arrays.fill(b, 0);
+                for (int i = 0; i < kernel.length; i++) {
+                    int[] in = input(Math.max(0, Math.min(height - 1, row + i - radius)));
+                    int[] k = kernel[i];
+                    for (int y = 0; y < width; y++) {
+                        int sum = 0;
+                        for (int j = 0; j < k.length; j++) {
+                            sum += k[j] * in[y + j];
+                        }
+                        b[y] += sum;
                     }
-                    else
-                    {
-                        fastBitmap.setGray(x, y, (int)( gradients[y][x] / maxGradient * 255 ));
+                }
+                for (int y = 0; y < width; y++) {
+                    int gray = b[y] / div;
+                    b[y] = gray > 255 ? 255 : gray < 0 ? 0 : gray;
+                }
+                blurRow[slot] = row;
+            }
+            return blur[slot];
+        }
+        
+        private float[] gradient(int row){
+            int slot = row % 3;
+            if (gradientRow[slot] != row){
+                float[] g = gradient[slot];
+                int[] o = orientation[slot];
+                Arrays.fill(g, 0);
+                if (row > 0 && row < height - 1){
+                    int[] up = blur(row - 1);
+                    int[] center = blur(row);
+                    int[] down = blur(row + 1);
+                    for (int y = 1; y < width - 1; y++) {
+                        int gx = up[y + 1] + down[y + 1] - up[y - 1] - down[y - 1] + 2 * (center[y + 1] - center[y - 1]);
+                        int gy = up[y - 1] + up[y + 1] - down[y - 1] - down[y + 1] + 2 * (up[y] - down[y]);
+                        
+                        g[y] = (float) Math.sqrt(gx * gx + gy * gy);
+                        o[y] = orientation(gx, gy);
                     }
                 }
+                gradientRow[slot] = row;
             }
+            return gradient[slot];
+        }
+        
+        private void suppression(){
+            int[] prev = new int[width];
+            int[] curr = new int[width];
+            int low = lowThreshold;
+            int high = highThreshold;
             
-            // STEP 4 - Hysteresis Threshold
-            HysteresisThreshold threshold = new HysteresisThreshold(lowThreshold, highThreshold);
-            threshold.applyInPlace(fastBitmap);
+            for (int x = start; x < end; x++) {
+                int offset = x * width;
+                
+                // The input row is kept by the rolling buffer before being overwritten.
+                input(x);
+                
+                if (x == 0 || x == height - 1){
+                    Arrays.fill(pixels, offset, offset + width, (byte)0);
+                }
+                else{
+                    float[] up = gradient(x - 1);
+                    float[] g = gradient(x);
+                    float[] down = gradient(x + 1);
+                    int[] o = orientation[x % 3];
+                    
+                    pixels[offset] = 0;
+                    pixels[offset + width - 1] = 0;
+                    for (int y = 1; y < width - 1; y++) {
+                        float leftPixel = 0, rightPixel = 0;
+                        switch (o[y]){
+                            case 0:
+                                leftPixel  = g[y - 1];
+                                rightPixel = g[y + 1];
+                                break;
+                            case 45:
+                                leftPixel  = down[y - 1];
+                                rightPixel = up[y + 1];
+                                break;
+                            case 90:
+                                leftPixel  = down[y];
+                                rightPixel = up[y];
+                                break;
+                            case 135:
+                                leftPixel  = down[y + 1];
+                                rightPixel = up[y - 1];
+                                break;
+                        }
+                        if (g[y] < leftPixel || g[y] < rightPixel)
+                            pixels[offset + y] = 0;
+                        else
+                            pixels[offset + y] = (byte)(int)(g[y] / maxGradient * 255);
+                    }
+                }
+                
+                // Label the candidates of the row.
+                for (int y = 0; y < width; y++) {
+                    int v = pixels[offset + y] & 0xFF;
+                    curr[y] = v >= low ? label(prev, curr, y) : 0;
+                    if (curr[y] != 0 && v >= high)
+                        strong[curr[y]] = true;
+                }
+                
+                if (x == start) firstRow = curr.clone();
+                int[] temp = prev; prev = curr; curr = temp;
+            }
+            lastRow = prev;
+            
+            for (int l = 1; l <= labels; l++) {
+                if (strong[l]) strong[find(parent, l)] = true;
             }
-        else{
-            throw new IllegalArgumentException("CannyEdgeDetector only works in grayscale images.");
         }
+        
+        private void hysteresis(){
+            int[] prev = new int[width];
+            int[] curr = new int[width];
+            int low = lowThreshold;
+            int count = labels;
+            labels = 0;
+            
+            for (int x = start; x < end; x++) {
+                int offset = x * width;
+                for (int y = 0; y < width; y++) {
+                    int v = pixels[offset + y] & 0xFF;
+                    curr[y] = v >= low ? replay(prev, curr, y) : 0;
+                    if (curr[y] == 0 || !keep[this.offset + curr[y]])
+                        pixels[offset + y] = 0;
+                }
+                int[] temp = prev; prev = curr; curr = temp;
+            }
+            labels = count;
+        }
+        
+        /**
+         * 8-connected label of the pixel, the provisional label of the first labeled neighbor.
+         */
+        private int label(int[] prev, int[] curr, int y){
+            int l = neighbor(prev, curr, y);
+            if (l == 0){
+                l = ++labels;
+                if (l == parent.length){
+                    parent = Arrays.copyOf(parent, l * 2);
+                    strong = Arrays.copyOf(strong, l * 2);
+                }
+                parent[l] = l;
+                return l;
+            }
+            
+            if (y > 0 && curr[y - 1] != 0) union(parent, l, curr[y - 1]);
+            if (y > 0 && prev[y - 1] != 0) union(parent, l, prev[y - 1]);
+            if (prev[y] != 0) union(parent, l, prev[y]);
+            if (y < width - 1 && prev[y + 1] != 0) union(parent, l, prev[y + 1]);
+            return l;
+        }
+        
+        private int replay(int[] prev, int[] curr, int y){
+            int l = neighbor(prev, curr, y);
+            return l == 0 ? ++labels : l;
+        }
+        
+        private int neighbor(int[] prev, int[] curr, int y){
+            if (y > 0 && curr[y - 1] != 0) return curr[y - 1];
+            if (y > 0 && prev[y - 1] != 0) return prev[y - 1];
+            if (prev[y] != 0) return prev[y];
+            if (y < width - 1 && prev[y + 1] != 0) return prev[y + 1];
+            return 0;
+        }
+    }
+    
+    /**
+     * Closest angle from 0, 45, 90, 135 set.
+     */
+    private static int orientation(int gx, int gy){
+        if (gx == 0)
+            return gy == 0 ? 0 : 90;
+        
+        double div = (double) gy / gx;
+        
+        // handle angles of the 2nd and 4th quads
+        if (div < 0){
+            div = -div;
+            if (div > TAN67) return 90;
+            if (div > TAN22) return 135;
+            return 0;
+        }
+        
+        // handle angles of the 1st and 3rd quads
+        if (div < TAN22) return 0;
+        if (div < TAN67) return 45;
+        return 90;
     }
+    
+    private static final double TAN22 = Math.tan(Math.toRadians(22.5));
+    private static final double TAN67 = Math.tan(Math.toRadians(67.5));
 }
@@ -0,0 +1,575 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+package Catalano.Imaging.Filters;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Imaging.IApplyInPlace;
+import Catalano.Imaging.Tools.ColorPalette;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Color Quantization.
+ * 
+ * <p>Reduces the colors of the image to a palette computed by median cut, octree or k-means. The histogram
+ * of the colors is computed in parallel with 5 bits per channel and the palette is computed from the histogram,
+ * so the cost of the palette doesn't depend on the size of the image.</p>
+ * 
+ * <p>The pixels are mapped to the palette in parallel strips, by the inverse colormap of 32x32x32 cells of the
+ * palette, or by the k-d tree of the palette for the exact nearest color. The Floyd-Steinberg dithering
+ * is pipelined by rows, each row starts as soon as the previous row has diffused the error of the next pixels.</p>
+ * 
+ * @author Diego Catalano
+ */
+public class ColorQuantization implements IApplyInPlace{
+    
+    /**
+     * Algorithm of the palette.
+     */
+    public static enum Algorithm {
+        
+        /**
+         * Median cut, split the box with more colors at the median of the longest side.
+         */
+        MedianCut,
+        
+        /**
+         * Octree, merge the leaves with less pixels of the deepest level.
+         */
+        Octree,
+        
+        /**
+         * K-Means on the histogram, initialized by the median cut.
+         */
+        KMeans
+    };
+    
+    private Algorithm algorithm = Algorithm.MedianCut;
+    private int colors = 256;
+    private boolean dithering = false;
+    private boolean inverseColormap = true;
+    private int maxIterations = 10;
+    private ColorPalette palette;
+
+    /**
+     * Get the algorithm of the palette.
+     * @return Algorithm.
+     */
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Set the algorithm of the palette.
+     * @param algorithm Algorithm.
+     */
+    public void setAlgorithm(Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Get the maximum number of colors.
+     * @return Number of colors.
+     */
+    public int getColors() {
+        return colors;
+    }
+
+    /**
+     * Set the maximum number of colors.
+     * @param colors Number of colors, between 1 and 256.
+     */
+    public void setColors(int colors) {
+        this.colors = Math.max(1, Math.min(256, colors));
+    }
+
+    /**
+     * Check if the Floyd-Steinberg dithering is used.
+     * @return True if the dithering is used.
+     */
+    public boolean isDithering() {
+        return dithering;
+    }
+
+    /**
+     * Set if the Floyd-Steinberg dithering is used.
+     * @param dithering True if the dithering is used.
+     */
+    public void setDithering(boolean dithering) {
+        this.dithering = dithering;
+    }
+
+    /**
+     * Check if the pixels are mapped by the inverse colormap.
+     * @return True for the inverse colormap, false for the exact nearest color.
+     */
+    public boolean isInverseColormap() {
+        return inverseColormap;
+    }
+
+    /**
+     * Set if the pixels are mapped by the inverse colormap.
+     * @param inverseColormap True for the inverse colormap, false for the exact nearest color.
+     */
+    public void setInverseColormap(boolean inverseColormap) {
+        this.inverseColormap = inverseColormap;
+    }
+
+    /**
+     * Get the maximum number of iterations of the k-means.
+     * @return Maximum iterations.
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Set the maximum number of iterations of the k-means.
+     * @param maxIterations Maximum iterations.
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = Math.max(1, maxIterations);
+    }
+
+    /**
+     * Get the fixed palette.
+     * @return Palette, null if the palette is computed from the image.
+     */
+    public ColorPalette getPalette() {
+        return palette;
+    }
+
+    /**
+     * Set the fixed palette.
+     * @param palette Palette, null to compute the palette from the image.
+     */
+    public void setPalette(ColorPalette palette) {
+        this.palette = palette;
+    }
+
+    /**
+     * Initialize a new instance of the ColorQuantization class.
+     */
+    public ColorQuantization() {}
+    
+    /**
+     * Initialize a new instance of the ColorQuantization class.
+     * @param colors Maximum number of colors.
+     */
+    public ColorQuantization(int colors) {
+        setColors(colors);
+    }
+    
+    /**
+     * Initialize a new instance of the ColorQuantization class.
+     * @param colors Maximum number of colors.
+     * @param algorithm Algorithm of the palette.
+     */
+    public ColorQuantization(int colors, Algorithm algorithm) {
+        setColors(colors);
+        this.algorithm = algorithm;
+    }
+    
+    /**
+     * Initialize a new instance of the ColorQuantization class.
+     * @param palette Fixed palette.
+     */
+    public ColorQuantization(ColorPalette palette) {
+        this.palette = palette;
+    }
+    
+    /**
+     * Compute the palette of the image, without change it.
+     * @param fastBitmap Image.
+     * @return Palette with at most the number of colors.
+     */
+    public ColorPalette ComputePalette(FastBitmap fastBitmap){
+        RgbHistogram histogram = RgbHistogram.Compute(fastBitmap);
+        switch(algorithm){
+            case Octree:
+                return Octree(histogram);
+            case KMeans:
+                return KMeans(histogram);
+            default:
+                return new MedianCut(colors).ComputePalette(histogram);
+        }
+    }
+
+    @Override
+    public void applyInPlace(FastBitmap fastBitmap) {
+        if (!fastBitmap.isGrayscale() && !fastBitmap.isRGB() && !fastBitmap.isARGB())
+            throw new IllegalArgumentException("Color quantization only works with grayscale, rgb or argb images.");
+        
+        final ColorPalette p = palette != null ? palette : ComputePalette(fastBitmap);
+        final int width = fastBitmap.getWidth();
+        final int height = fastBitmap.getHeight();
+        final byte[] gray = fastBitmap.isGrayscale() ? fastBitmap.getGrayData() : null;
+        final int[] rgb = gray == null ? fastBitmap.getRGBData() : null;
+        
+        if (dithering){
+            Dither(p, gray, rgb, width, height);
+            return;
+        }
+        
+        final int size = width * height;
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), size / 65536));
+        if (cores == 1){
+            Map(p, gray, rgb, 0, size);
+            return;
+        }
+        
+        Thread[] t = new Thread[cores];
+        int part = size / cores;
+        for (int i = 0; i < cores; i++) {
+            final int start = i * part;
+            final int end = i == cores - 1 ? size : start + part;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Map(p, gray, rgb, start, end);
+                }
+            });
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    private void Map(ColorPalette p, byte[] gray, int[] rgb, int start, int end){
+        Mapper mapper = new Mapper(p, inverseColormap);
+        if (gray != null){
+            // Few levels, all of them are mapped once.
+            byte[] lut = new byte[256];
+            for (int i = 0; i < 256; i++)
+                lut[i] = (byte)Gray(p.getColor(mapper.Index(i << 16 | i << 8 | i)));
+            for (int i = start; i < end; i++)
+                gray[i] = lut[gray[i] & 0xFF];
+        }
+        else{
+            for (int i = start; i < end; i++) {
+                int c = rgb[i];
+                rgb[i] = (c & 0xFF000000) | p.getColor(mapper.Index(c & 0xFFFFFF));
+            }
+        }
+    }
+    
+    /**
+     * Floyd-Steinberg dithering, the rows are assigned to the threads in round robin.
+     * The row i waits the row i - 1 to pass the pixel j + 1 before to process the pixel j.
+     */
+    private void Dither(final ColorPalette p, final byte[] gray, final int[] rgb, final int width, final int height){
+        final int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 16));
+        
+        // Error diffused to the rows in progress, in 1/16, with one pixel of border.
+        final int[][] errors = new int[cores + 1][3 * (width + 2)];
+        final AtomicIntegerArray progress = new AtomicIntegerArray(height);
+        
+        if (cores == 1){
+            Dither(p, gray, rgb, width, height, 0, 1, errors, progress);
+            return;
+        }
+        
+        Thread[] t = new Thread[cores];
+        for (int i = 0; i < cores; i++) {
+            final int first = i;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Dither(p, gray, rgb, width, height, first, cores, errors, progress);
+                }
+            });
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    private void Dither(ColorPalette p, byte[] gray, int[] rgb, int width, int height, int first, int step, int[][] errors, AtomicIntegerArray progress){
+        Mapper mapper = new Mapper(p, inverseColormap);
+        int ring = errors.length;
+        
+        for (int i = first; i < height; i += step) {
+            int[] cur = errors[i % ring];
+            int[] next = errors[(i + 1) % ring];
+            
+            // The last reader of the buffer was the row i + 1 - ring, processed before by this thread.
+            Arrays.fill(next, 0);
+            
+            int ready = i == 0 ? width : progress.get(i - 1);
+            int er = 0, eg = 0, eb = 0;
+            int row = i * width;
+            
+            for (int j = 0; j < width; j++) {
+                int need = Math.min(j + 2, width);
+                while (ready < need) {
+                    Thread.yield();
+                    ready = progress.get(i - 1);
+                }
+                
+                int k = 3 * (j + 1);
+                int c, r, g, b;
+                if (gray != null){
+                    c = 0;
+                    r = g = b = gray[row + j] & 0xFF;
+                }
+                else{
+                    c = rgb[row + j];
+                    r = c >> 16 & 0xFF;
+                    g = c >> 8 & 0xFF;
+                    b = c & 0xFF;
+                }
+                r = Clamp(r + (cur[k] + er + 8 >> 4));
+                g = Clamp(g + (cur[k + 1] + eg + 8 >> 4));
+                b = Clamp(b + (cur[k + 2] + eb + 8 >> 4));
+                
+                int q = p.getColor(mapper.Index(r << 16 | g << 8 | b));
+                int dr = r - (q >> 16 & 0xFF);
+                int dg = g - (q >> 8 & 0xFF);
+                int db = b - (q & 0xFF);
+                
+                er = 7 * dr;
+                eg = 7 * dg;
+                eb = 7 * db;
+                next[k - 3] += 3 * dr;
+                next[k - 2] += 3 * dg;
+                next[k - 1] += 3 * db;
+                next[k] += 5 * dr;
+                next[k + 1] += 5 * dg;
+                next[k + 2] += 5 * db;
+                next[k + 3] += dr;
+                next[k + 4] += dg;
+                next[k + 5] += db;
+                
+                if (gray != null)
+                    gray[row + j] = (byte)Gray(q);
+                else
+                    rgb[row + j] = (c & 0xFF000000) | q;
+                
+                if ((j & 63) == 63)
+                    progress.set(i, j + 1);
+            }
+            progress.set(i, width);
+        }
+    }
+    
+    private static int Clamp(int v){
+        return v < 0 ? 0 : v > 255 ? 255 : v;
+    }
+    
+    private static int Gray(int c){
+        return ((c >> 16 & 0xFF) + (c >> 8 & 0xFF) + (c & 0xFF) + 1) / 3;
+    }
+    
+    /**
+     * Octree of the histogram, 5 levels of one bit per channel.
+     * The deepest nodes with less pixels are merged until the leaves fit the number of colors.
+     */
+    private ColorPalette Octree(RgbHistogram histogram){
+        Node root = new Node(0);
+        List<List<Node>> levels = new ArrayList<List<Node>>();
+        for (int i = 0; i < 5; i++)
+            levels.add(new ArrayList<Node>());
+        levels.get(0).add(root);
+        
+        int leaves = 0;
+        for (int bin = 0; bin < RgbHistogram.SIZE; bin++) {
+            int n = histogram.count[bin];
+            if (n == 0) continue;
+            
+            int r = bin & 31, g = bin >> 5 & 31, b = bin >> 10;
+            Node node = root;
+            node.Add(histogram, bin);
+            for (int level = 0; level < 5; level++) {
+                int shift = 4 - level;
+                int child = (r >> shift & 1) << 2 | (g >> shift & 1) << 1 | (b >> shift & 1);
+                if (node.children[child] == null){
+                    node.children[child] = new Node(level + 1);
+                    node.size++;
+                    if (level + 1 < 5)
+                        levels.get(level + 1).add(node.children[child]);
+                    else
+                        leaves++;
+                }
+                node = node.children[child];
+                node.Add(histogram, bin);
+            }
+        }
+        
+        Comparator<Node> byCount = new Comparator<Node>() {
+            @Override
+            public int compare(Node a, Node b) {
+                return a.count < b.count ? -1 : a.count > b.count ? 1 : 0;
+            }
+        };
+        
+        // The children of the nodes of a level are leaves after the reduction of the deeper levels.
+        for (int level = 4; level >= 0 && leaves > colors; level--) {
+            List<Node> nodes = levels.get(level);
+            Collections.sort(nodes, byCount);
+            for (int i = 0; i < nodes.size() && leaves > colors; i++) {
+                Node node = nodes.get(i);
+                leaves -= node.size - 1;
+                node.children = null;
+            }
+        }
+        
+        List<Integer> lst = new ArrayList<Integer>(leaves);
+        root.Leaves(lst);
+        int[] c = new int[lst.size()];
+        for (int i = 0; i < c.length; i++)
+            c[i] = lst.get(i);
+        return new ColorPalette(c);
+    }
+    
+    /**
+     * K-Means of the bins of the histogram weighted by the pixels, from the median cut palette.
+     */
+    private ColorPalette KMeans(RgbHistogram histogram){
+        int[] bins = new int[RgbHistogram.SIZE];
+        int[] means = new int[RgbHistogram.SIZE];
+        int n = 0;
+        for (int bin = 0; bin < RgbHistogram.SIZE; bin++) {
+            if (histogram.count[bin] != 0){
+                bins[n] = bin;
+                means[n++] = histogram.Mean(bin);
+            }
+        }
+        
+        int[] centers = new MedianCut(colors).ComputePalette(histogram).getColors();
+        int k = centers.length;
+        long[] count = new long[k];
+        long[] red = new long[k];
+        long[] green = new long[k];
+        long[] blue = new long[k];
+        
+        for (int it = 0; it < maxIterations; it++) {
+            ColorPalette p = new ColorPalette(centers);
+            Arrays.fill(count, 0);
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            
+            for (int i = 0; i < n; i++) {
+                int c = p.Nearest(means[i]);
+                int bin = bins[i];
+                count[c] += histogram.count[bin];
+                red[c] += histogram.red[bin];
+                green[c] += histogram.green[bin];
+                blue[c] += histogram.blue[bin];
+            }
+            
+            boolean changed = false;
+            for (int c = 0; c < k; c++) {
+                if (count[c] == 0) continue;
+                long h = count[c] / 2;
+                int center = (int)((red[c] + h) / count[c]) << 16 | (int)((green[c] + h) / count[c]) << 8 | (int)((blue[c] + h) / count[c]);
+                if (center != centers[c]){
+                    centers[c] = center;
+                    changed = true;
+                }
+            }
+            if (!changed) break;
+        }
+        
+        return new ColorPalette(centers);
+    }
+    
+    /**
+     * Node of the octree, with the sum of the pixels of the subtree.
+     */
+    private static class Node {
+        int level;
+        int size;
+        long count, red, green, blue;
+        Node[] children;
+        
+        Node(int level){
+            this.level = level;
+            if (level < 5)
+                children = new Node[8];
+        }
+        
+        void Add(RgbHistogram histogram, int bin){
+            count += histogram.count[bin];
+            red += histogram.red[bin];
+            green += histogram.green[bin];
+            blue += histogram.blue[bin];
+        }
+        
+        void Leaves(List<Integer> lst){
+            if (children == null){
+                long h = count / 2;
+                lst.add((int)((red + h) / count) << 16 | (int)((green + h) / count) << 8 | (int)((blue + h) / count));
+                return;
+            }
+            for (Node child : children)
+                if (child != null) child.Leaves(lst);
+        }
+    }
+    
+    /**
+     * Index of the palette by the inverse colormap, or by the k-d tree with a cache of the recent colors.
+     */
+    private static class Mapper {
+        private final ColorPalette palette;
+        private final boolean inverse;
+        private int[] keys;
+        private int[] values;
+        
+        Mapper(ColorPalette palette, boolean inverse){
+            this.palette = palette;
+            this.inverse = inverse;
+            if (!inverse){
+                keys = new int[4096];
+                values = new int[4096];
+                Arrays.fill(keys, -1);
+            }
+        }
+        
+        int Index(int rgb){
+            if (inverse)
+                return palette.Lookup(rgb);
+            
+            int h = (rgb * 0x9E3779B1) >>> 20;
+            if (keys[h] != rgb){
+                keys[h] = rgb;
+                values[h] = palette.Nearest(rgb);
+            }
+            return values[h];
+        }
+    }
+}
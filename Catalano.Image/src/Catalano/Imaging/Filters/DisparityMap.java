@@ -7,15 +7,153 @@
 package Catalano.Imaging.Filters;
 
 import Catalano.Imaging.FastBitmap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Disparity map of a rectified stereo pair by block matching.
+ *
+ * <p>The cost of a disparity is the sum of absolute differences between the block of the left image and the block
+ * of the right image moved to the left. The differences of each disparity are computed once per pixel and aggregated
+ * with running sums along the columns and the rows, so the cost does not depend on the size of the block.
+ * The blocks are clipped at the borders of the image. The image is split in bands of rows matched in parallel
+ * and the disparity is refined to sub-pixel with the equiangular line fitting.</p>
+ *
+ * <p>The left-right check discards the disparities (-1) that do not agree with the matching from the right image.
+ * The semi-global matching adds to the costs the smoothness penalties aggregated along five paths (left, right,
+ * up-left, up and up-right) in a single pass. The vertical paths of each band start {@value #WARM} rows above it.</p>
  *
  * @author Diego Catalano
  */
 public class DisparityMap {
     
+    private static final int BAND = 64;
+    private static final int WARM = 32;
+    
     private int sizeBlock = 15;
     private int distance = 64;
+    private boolean leftRightCheck = false;
+    private int maxDifference = 1;
+    private boolean semiGlobal = false;
+    private int smallPenalty = 8;
+    private int largePenalty = 32;
+
+    /**
+     * Get the size of the blocks.
+     * @return Size block.
+     */
+    public int getSizeBlock() {
+        return sizeBlock;
+    }
+
+    /**
+     * Set the size of the blocks.
+     * The blocks are centered, an even size is rounded up to the next odd size.
+     * @param sizeBlock Size block.
+     */
+    public void setSizeBlock(int sizeBlock) {
+        if (sizeBlock < 1)
+            throw new IllegalArgumentException("Size block must be at least 1.");
+        this.sizeBlock = sizeBlock | 1;
+    }
+
+    /**
+     * Get the maximum disparity.
+     * @return Distance.
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    /**
+     * Set the maximum disparity.
+     * @param distance Distance.
+     */
+    public void setDistance(int distance) {
+        if (distance < 1)
+            throw new IllegalArgumentException("Distance must be at least 1.");
+        this.distance = distance;
+    }
+
+    /**
+     * Check if the left-right consistency check is enabled.
+     * @return True if the left-right check is enabled.
+     */
+    public boolean isLeftRightCheck() {
+        return leftRightCheck;
+    }
+
+    /**
+     * Enable the left-right consistency check.
+     * @param leftRightCheck True to discard the disparities that do not agree with the right image.
+     */
+    public void setLeftRightCheck(boolean leftRightCheck) {
+        this.leftRightCheck = leftRightCheck;
+    }
+
+    /**
+     * Get the maximum difference between the left and the right disparities.
+     * @return Maximum difference.
+     */
+    public int getMaxDifference() {
+        return maxDifference;
+    }
+
+    /**
+     * Set the maximum difference between the left and the right disparities.
+     * @param maxDifference Maximum difference.
+     */
+    public void setMaxDifference(int maxDifference) {
+        this.maxDifference = Math.max(0, maxDifference);
+    }
+
+    /**
+     * Check if the semi-global matching is enabled.
+     * @return True if the semi-global matching is enabled.
+     */
+    public boolean isSemiGlobal() {
+        return semiGlobal;
+    }
+
+    /**
+     * Enable the semi-global matching.
+     * @param semiGlobal True to aggregate the smoothness penalties along the paths.
+     */
+    public void setSemiGlobal(boolean semiGlobal) {
+        this.semiGlobal = semiGlobal;
+    }
+
+    /**
+     * Get the penalty of a change of disparity of 1, per pixel of the block.
+     * @return Small penalty.
+     */
+    public int getSmallPenalty() {
+        return smallPenalty;
+    }
+
+    /**
+     * Set the penalty of a change of disparity of 1, per pixel of the block.
+     * @param smallPenalty Small penalty.
+     */
+    public void setSmallPenalty(int smallPenalty) {
+        this.smallPenalty = Math.max(0, smallPenalty);
+    }
+
+    /**
+     * Get the penalty of a change of disparity greater than 1, per pixel of the block.
+     * @return Large penalty.
+     */
+    public int getLargePenalty() {
+        return largePenalty;
+    }
+
+    /**
+     * Set the penalty of a change of disparity greater than 1, per pixel of the block.
+     * @param largePenalty Large penalty.
+     */
+    public void setLargePenalty(int largePenalty) {
+        this.largePenalty = Math.max(0, largePenalty);
+    }
 
     /**
      * Disparity Map.
@@ -24,73 +162,379 @@ public class DisparityMap {
     
     /**
      * Disparity Map.
-     * @param sizeBlock Size block.
+     * @param sizeBlock Size block, an even size is rounded up to the next odd size.
      */
     public DisparityMap(int sizeBlock){
-        this.sizeBlock = sizeBlock;
+        setSizeBlock(sizeBlock);
     }
     
+    /**
+     * Disparity Map.
+     * @param sizeBlock Size block, an even size is rounded up to the next odd size.
+     * @param distance Maximum disparity.
+     */
+    public DisparityMap(int sizeBlock, int distance){
+        setSizeBlock(sizeBlock);
+        setDistance(distance);
+    }
+    
+    /**
+     * Compute the disparity map, the images are not modified.
+     * @param left Left image, grayscale or rgb.
+     * @param right Right image, grayscale or rgb.
+     * @return Disparity of each pixel of the left image, -1 if discarded by the left-right check.
+     */
     public double[][] Process(FastBitmap left, FastBitmap right){
         
-        if(left.isRGB())
-            left.toGrayscale();
+        if (left.getWidth() != right.getWidth() || left.getHeight() != right.getHeight())
+            throw new IllegalArgumentException("The images must have the same size.");
         
-        if(right.isRGB())
-            right.toGrayscale();
+        final int width = left.getWidth();
+        final int height = left.getHeight();
+        final int[] l = Intensity(left);
+        final int[] r = Intensity(right);
         
-        int width = left.getWidth();
-        int height = left.getHeight();
+        final double[][] map = new double[height][width];
+        final int bands = (height + BAND - 1) / BAND;
+        final AtomicInteger next = new AtomicInteger();
         
-        double[][] map = new double[height][width];
-        
-        for (int i = 0; i < height - sizeBlock; i++) {
-            for (int j = 0; j < width - sizeBlock; j++) {
-                
-                double min = Double.MAX_VALUE;
-                double z = 0;
-                
-                //Get left block
-                FastBitmap a = getSubimage(left, i, j, sizeBlock, sizeBlock);
-                for (int k = j - distance; k < j; k++) {
-                    if(k < width-sizeBlock & k > 0){
-                        FastBitmap b = getSubimage(right, i, k, sizeBlock, sizeBlock);
-                        
-                        double dist = PearsonDistance(a,b);
-                        if(dist <= min){
-                            min = dist;
-                            z = Math.abs(j-k);
-                        }
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), bands));
+        if (cores == 1){
+            new Matcher(l, r, width, height).Run(next, bands, map);
+        }
+        else{
+            Thread[] t = new Thread[cores];
+            for (int i = 0; i < cores; i++) {
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        new Matcher(l, r, width, height).Run(next, bands, map);
                     }
+                });
+                t[i].start();
+            }
+
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
                 }
-                
-                map[i+sizeBlock][j+sizeBlock] = z;
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
         }
         
         return map;
     }
     
-    private double PearsonDistance(FastBitmap a, FastBitmap b){
-        int size = sizeBlock*sizeBlock;
-        double[] x = new double[size];
-        double[] y = new double[size];
-        for (int i = 0; i < size; i++) {
-            x[i] = a.getGray(i);
-            y[i] = b.getGray(i);
+    private static int[] Intensity(FastBitmap fastBitmap){
+        int[] v = new int[fastBitmap.getSize()];
+        if (fastBitmap.isGrayscale()){
+            byte[] gray = fastBitmap.getGrayData();
+            for (int i = 0; i < v.length; i++)
+                v[i] = gray[i] & 0xFF;
+        }
+        else if (fastBitmap.isRGB() || fastBitmap.isARGB()){
+            int[] rgb = fastBitmap.getRGBData();
+            for (int i = 0; i < v.length; i++) {
+                int c = rgb[i];
+                v[i] = (int)((c >> 16 & 0xFF) * 0.2125 + (c >> 8 & 0xFF) * 0.7154 + (c & 0xFF) * 0.0721 + 0.5);
+            }
+        }
+        else{
+            throw new IllegalArgumentException("Disparity map only works in grayscale and rgb images.");
         }
-        return 1 - Catalano.Statistics.Correlations.PearsonCorrelation(x, y);
+        return v;
     }
     
-    private FastBitmap getSubimage(FastBitmap fastBitmap, int x, int y, int width, int height){
-        FastBitmap copy = new FastBitmap(sizeBlock,sizeBlock,FastBitmap.ColorSpace.Grayscale);
+    /**
+     * Sub-pixel offset of the minimum from the costs of the neighbors.
+     */
+    private static double Equiangular(int prev, int center, int next){
+        int den = 2 * (Math.max(prev, next) - center);
+        if (den <= 0) return 0;
+        double offset = (double)(prev - next) / den;
+        return Math.max(-0.5, Math.min(0.5, offset));
+    }
+    
+    /**
+     * Buffers of a thread, the costs are stored pixel by pixel: j * disparities + d.
+     */
+    private class Matcher {
+        
+        final int[] left, right;
+        final int width, height, disparities, radius;
+        final boolean sgm = semiGlobal, check = leftRightCheck;
+        final int p1, p2, maxDiff = maxDifference;
+        
+        final int[] columns, cost;
+        final int[] best, bestRight;
+        
+        // Semi-global matching.
+        int[][] up, upPrev, upMin, upMinPrev;
+        int[] sum, horizontal, horizontalPrev;
         
-        for (int i = x; i < x + height; i++) {
-            for (int j = y; j < y + width; j++) {
-                copy.setGray(i-x, j-y, fastBitmap.getGray(i, j));
+        Matcher(int[] left, int[] right, int width, int height){
+            this.left = left;
+            this.right = right;
+            this.width = width;
+            this.height = height;
+            this.disparities = Math.min(distance, width - 1) + 1;
+            this.radius = sizeBlock / 2;
+            this.p1 = smallPenalty * sizeBlock * sizeBlock;
+            this.p2 = Math.max(p1, largePenalty * sizeBlock * sizeBlock);
+            
+            int size = width * disparities;
+            this.columns = new int[size];
+            this.cost = new int[size];
+            this.best = new int[width];
+            this.bestRight = new int[width];
+            
+            if (sgm){
+                up = new int[3][size];
+                upPrev = new int[3][size];
+                upMin = new int[3][width];
+                upMinPrev = new int[3][width];
+                sum = new int[size];
+                horizontal = new int[disparities];
+                horizontalPrev = new int[disparities];
             }
         }
         
-        return copy;
+        void Run(AtomicInteger next, int bands, double[][] map){
+            int b;
+            while ((b = next.getAndIncrement()) < bands) {
+                int start = b * BAND;
+                int end = Math.min(height, start + BAND);
+                int first = sgm ? Math.max(0, start - WARM) : start;
+                
+                Arrays.fill(columns, 0);
+                for (int i = Math.max(0, first - radius); i <= Math.min(height - 1, first + radius); i++)
+                    Differences(i, 1);
+                
+                for (int i = first; i < end; i++) {
+                    if (i > first){
+                        if (i + radius < height && i - radius - 1 >= 0)
+                            Slide(i + radius, i - radius - 1);
+                        else if (i + radius < height)
+                            Differences(i + radius, 1);
+                        else if (i - radius - 1 >= 0)
+                            Differences(i - radius - 1, -1);
+                    }
+                    
+                    Rows();
+                    int[] c = cost;
+                    if (sgm){
+                        Aggregate(i == first);
+                        c = sum;
+                    }
+                    if (i >= start)
+                        Select(c, map[i]);
+                }
+            }
+        }
+        
+        /**
+         * Add the absolute differences of a row to the sums of the columns.
+         */
+        private void Differences(int row, int sign){
+            int D = disparities;
+            int o = row * width;
+            for (int j = 0; j < width; j++) {
+                int v = left[o + j];
+                int base = j * D;
+                int m = Math.min(j, D - 1);
+                int p = o + j;
+                for (int d = 0; d <= m; d++)
+                    columns[base + d] += sign * Math.abs(v - right[p - d]);
+                
+                // The right image is clamped to its first column.
+                if (m < D - 1){
+                    int diff = sign * Math.abs(v - right[o]);
+                    for (int d = m + 1; d < D; d++)
+                        columns[base + d] += diff;
+                }
+            }
+        }
+        
+        /**
+         * Add the differences of a row and remove the differences of another row in a single pass.
+         */
+        private void Slide(int add, int sub){
+            int D = disparities;
+            int oa = add * width;
+            int os = sub * width;
+            for (int j = 0; j < width; j++) {
+                int va = left[oa + j];
+                int vs = left[os + j];
+                int base = j * D;
+                int m = Math.min(j, D - 1);
+                int pa = oa + j;
+                int ps = os + j;
+                for (int d = 0; d <= m; d++)
+                    columns[base + d] += Math.abs(va - right[pa - d]) - Math.abs(vs - right[ps - d]);
+                
+                if (m < D - 1){
+                    int diff = Math.abs(va - right[oa]) - Math.abs(vs - right[os]);
+                    for (int d = m + 1; d < D; d++)
+                        columns[base + d] += diff;
+                }
+            }
+        }
+        
+        /**
+         * Running sums of the columns along the row.
+         */
+        private void Rows(){
+            int D = disparities;
+            for (int d = 0; d < D; d++)
+                cost[d] = 0;
+            for (int j = 0; j <= Math.min(radius, width - 1); j++) {
+                int base = j * D;
+                for (int d = 0; d < D; d++)
+                    cost[d] += columns[base + d];
+            }
+            
+            for (int j = 1; j < width; j++) {
+                int base = j * D;
+                int prev = base - D;
+                int add = j + radius < width ? (j + radius) * D : -1;
+                int sub = j - radius - 1 >= 0 ? (j - radius - 1) * D : -1;
+                if (add >= 0 && sub >= 0){
+                    for (int d = 0; d < D; d++)
+                        cost[base + d] = cost[prev + d] + columns[add + d] - columns[sub + d];
+                }
+                else if (add >= 0){
+                    for (int d = 0; d < D; d++)
+                        cost[base + d] = cost[prev + d] + columns[add + d];
+                }
+                else if (sub >= 0){
+                    for (int d = 0; d < D; d++)
+                        cost[base + d] = cost[prev + d] - columns[sub + d];
+                }
+                else{
+                    System.arraycopy(cost, prev, cost, base, D);
+                }
+            }
+        }
+        
+        /**
+         * Aggregate the costs of the row along the five paths.
+         */
+        private void Aggregate(boolean top){
+            int D = disparities;
+            
+            int[][] t = up; up = upPrev; upPrev = t;
+            t = upMin; upMin = upMinPrev; upMinPrev = t;
+            
+            for (int j = 0; j < width; j++) {
+                int base = j * D;
+                for (int k = 0; k < 3; k++) {
+                    int pj = j + k - 1;
+                    if (top || pj < 0 || pj >= width)
+                        upMin[k][j] = Start(base, up[k], base);
+                    else
+                        upMin[k][j] = Path(base, upPrev[k], pj * D, upMinPrev[k][pj], up[k], base);
+                }
+                
+                int[] a = up[0], b = up[1], c = up[2];
+                for (int d = 0; d < D; d++)
+                    sum[base + d] = a[base + d] + b[base + d] + c[base + d];
+            }
+            
+            // Left to right.
+            int min = 0;
+            for (int j = 0; j < width; j++) {
+                int[] h = horizontal; horizontal = horizontalPrev; horizontalPrev = h;
+                int base = j * D;
+                min = j == 0 ? Start(base, horizontal, 0) : Path(base, horizontalPrev, 0, min, horizontal, 0);
+                for (int d = 0; d < D; d++)
+                    sum[base + d] += horizontal[d];
+            }
+            
+            // Right to left.
+            for (int j = width - 1; j >= 0; j--) {
+                int[] h = horizontal; horizontal = horizontalPrev; horizontalPrev = h;
+                int base = j * D;
+                min = j == width - 1 ? Start(base, horizontal, 0) : Path(base, horizontalPrev, 0, min, horizontal, 0);
+                for (int d = 0; d < D; d++)
+                    sum[base + d] += horizontal[d];
+            }
+        }
+        
+        private int Start(int cb, int[] out, int ob){
+            int min = Integer.MAX_VALUE;
+            for (int d = 0; d < disparities; d++) {
+                int v = cost[cb + d];
+                out[ob + d] = v;
+                if (v < min) min = v;
+            }
+            return min;
+        }
+        
+        private int Path(int cb, int[] prev, int pb, int minPrev, int[] out, int ob){
+            int D = disparities;
+            int jump = minPrev + p2;
+            int min = Integer.MAX_VALUE;
+            for (int d = 0; d < D; d++) {
+                int v = Math.min(prev[pb + d], jump);
+                if (d > 0) v = Math.min(v, prev[pb + d - 1] + p1);
+                if (d < D - 1) v = Math.min(v, prev[pb + d + 1] + p1);
+                v += cost[cb + d] - minPrev;
+                out[ob + d] = v;
+                if (v < min) min = v;
+            }
+            return min;
+        }
+        
+        /**
+         * Winner takes all, left-right check and sub-pixel refinement.
+         */
+        private void Select(int[] c, double[] out){
+            int D = disparities;
+            for (int j = 0; j < width; j++) {
+                int base = j * D;
+                int m = Math.min(j, D - 1);
+                int bd = 0;
+                int bc = c[base];
+                for (int d = 1; d <= m; d++) {
+                    if (c[base + d] < bc){
+                        bc = c[base + d];
+                        bd = d;
+                    }
+                }
+                best[j] = bd;
+            }
+            
+            if (check){
+                // The pixel j of the right image is the pixel j + d of the left image.
+                for (int j = 0; j < width; j++) {
+                    int m = Math.min(width - 1 - j, D - 1);
+                    int bd = 0;
+                    int bc = c[j * D];
+                    for (int d = 1; d <= m; d++) {
+                        int v = c[(j + d) * D + d];
+                        if (v < bc){
+                            bc = v;
+                            bd = d;
+                        }
+                    }
+                    bestRight[j] = bd;
+                }
+            }
+            
+            for (int j = 0; j < width; j++) {
+                int d = best[j];
+                if (check && Math.abs(bestRight[j - d] - d) > maxDiff){
+                    out[j] = -1;
+                    continue;
+                }
+                
+                int base = j * D + d;
+                if (d > 0 && d < Math.min(j, D - 1))
+                    out[j] = d + Equiangular(c[base - 1], c[base], c[base + 1]);
+                else
+                    out[j] = d;
+            }
+        }
     }
-    
-}
\ No newline at end of file
+}
@@ -23,6 +23,7 @@ package Catalano.Imaging.Filters;
 import Catalano.Core.IntPoint;
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
+import Catalano.Imaging.Tools.BinaryLookupTable;
 import java.util.ArrayList;
 
 /**
@@ -46,6 +47,11 @@ public class ExtractBoundary implements IApplyInPlace{
         Dilatation
     };
     private Algorithm algorithm = Algorithm.Erosion;
+    private final int[][] kernel = {
+        {1, 1, 1},
+        {1, 1, 1},
+        {1, 1, 1}
+    };
     private ArrayList<IntPoint> points;
 
     /**
@@ -63,20 +69,17 @@ public class ExtractBoundary implements IApplyInPlace{
     
     @Override
     public void applyInPlace(FastBitmap fastBitmap){
-        FastBitmap l = new FastBitmap(fastBitmap);
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("Extract Boundary only works in grayscale images.");
         
         if (algorithm == Algorithm.Erosion) {
-            BinaryErosion ero = new BinaryErosion();
-            ero.applyInPlace(l);
+            // Foreground pixels with a background neighbor.
+            BinaryLookupTable.FromErosion(kernel).apply(fastBitmap, true, true, 255, 0);
         }
         else{
-            BinaryDilatation dil = new BinaryDilatation();
-            dil.applyInPlace(l);
+            // Background pixels with a foreground neighbor.
+            BinaryLookupTable.FromDilatation(kernel).apply(fastBitmap, false, false, 255, 0);
         }
-        
-        Difference dif = new Difference(fastBitmap);
-        dif.applyInPlace(l);
-        fastBitmap.setImage(l);
     }
     
     /**
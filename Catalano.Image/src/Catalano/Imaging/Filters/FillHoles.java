@@ -24,11 +24,15 @@
 
 package Catalano.Imaging.Filters;
 
+import Catalano.Core.IntRange;
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
+import java.util.Arrays;
 
 /**
  * Fill holes in objects in binary image.
+ * <br> The background connected to the border of the image is flood filled from the border, the background
+ * pixels not reached are holes. The background is 4-connected.
  * @author Diego Catalano
  */
 public class FillHoles implements IApplyInPlace{
@@ -42,7 +46,7 @@ public class FillHoles implements IApplyInPlace{
     
     /**
      * Initialize a new instance of the FillHoles class.
-     * @param minArea Minimum area of a hole to fill.
+     * @param minArea Holes with a lower area are filled, 0 fills all the holes.
      */
     public FillHoles(int minArea) {
         this.minArea = Math.max(0, minArea);
@@ -50,6 +54,7 @@ public class FillHoles implements IApplyInPlace{
 
     /**
      * Minimum area of a hole.
+     * Holes with a lower area are filled, 0 fills all the holes.
      * @return Area.
      */
     public int getMinArea() {
@@ -58,21 +63,59 @@ public class FillHoles implements IApplyInPlace{
 
     /**
      * Minimum area of a hole.
+     * Holes with a lower area are filled, 0 fills all the holes.
      * @param minArea Area.
      */
     public void setMinArea(int minArea) {
-        this.minArea = minArea;
+        this.minArea = Math.max(0, minArea);
     }
     
     @Override
     public void applyInPlace(FastBitmap fastBitmap){
         
-        Invert inv = new Invert();
-        inv.applyInPlace(fastBitmap);
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("Fill holes only works in grayscale images.");
+        
+        int width = fastBitmap.getWidth();
+        int height = fastBitmap.getHeight();
+        byte[] data = fastBitmap.getGrayData();
+        
+        // The background pixels of the border are the seeds.
+        int[] seeds = new int[2 * (width + height)];
+        int n = 0;
+        for (int j = 0; j < width; j++) {
+            if (data[j] == 0) seeds[n++] = j;
+            if (data[(height - 1) * width + j] == 0) seeds[n++] = (height - 1) * width + j;
+        }
+        for (int i = 0; i < height; i++) {
+            if (data[i * width] == 0) seeds[n++] = i * width;
+            if (data[i * width + width - 1] == 0) seeds[n++] = i * width + width - 1;
+        }
         
-        BlobsFiltering bf = new BlobsFiltering(minArea);
-        bf.applyInPlace(fastBitmap);
-        inv.applyInPlace(fastBitmap);
+        ScanlineFill fill = new ScanlineFill(fastBitmap, new IntRange(0, 0), false);
+        fill.Fill(Arrays.copyOf(seeds, n));
+        byte[] mask = fill.mask;
         
+        if (minArea == 0){
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == 0 && mask[i] == 0)
+                    data[i] = (byte)255;
+            }
+        }
+        else{
+            ScanlineFill.IntStack spans = new ScanlineFill.IntStack();
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] != 0 || mask[i] != 0) continue;
+                
+                spans.size = 0;
+                if (fill.Fill(i, spans) < minArea){
+                    for (int k = 0; k < spans.size; k += 3) {
+                        int offset = spans.data[k] * width;
+                        for (int j = spans.data[k + 1]; j <= spans.data[k + 2]; j++)
+                            data[offset + j] = (byte)255;
+                    }
+                }
+            }
+        }
     }
 }
\ No newline at end of file
@@ -22,14 +22,16 @@
 package Catalano.Imaging.Filters;
 
 import Catalano.Core.IntPoint;
+import Catalano.Core.IntRange;
 import Catalano.Imaging.Color;
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
-import java.util.LinkedList;
 
 /**
  * Flood Fill filter.
  * The purpose of Flood Fill is to color an entire area of connected pixels with the same color.
+ * <br> The area is filled span by span with a scanline algorithm, the pixels whose channels differ from the
+ * start point by at most the tolerance are filled. The area can also be filled into a mask, without modifying the image.
  * @author Diego Catalano
  */
 public class FloodFill implements IApplyInPlace{
@@ -60,6 +62,7 @@ public class FloodFill implements IApplyInPlace{
     IntPoint startPoint;
     private Color replace;
     private int gray;
+    private int tolerance = 0;
     
     /**
      * Initialize a new instance of the FloodFill class.
@@ -156,6 +159,7 @@ public class FloodFill implements IApplyInPlace{
      */
     public FloodFill(int x, int y, int gray, Algorithm algorithm){
         this.startPoint = new IntPoint(x, y);
+        this.gray = gray;
         this.algorithm = algorithm;
     }
     
@@ -196,6 +200,22 @@ public class FloodFill implements IApplyInPlace{
     public void setAlgorithm(Algorithm algorithm) {
         this.algorithm = algorithm;
     }
+
+    /**
+     * Get the maximum difference of each channel from the start point.
+     * @return Tolerance.
+     */
+    public int getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Set the maximum difference of each channel from the start point.
+     * @param tolerance Tolerance [0..255].
+     */
+    public void setTolerance(int tolerance) {
+        this.tolerance = Math.max(0, Math.min(255, tolerance));
+    }
     
     /**
      * Sets RGB.
@@ -226,178 +246,93 @@ public class FloodFill implements IApplyInPlace{
     
     @Override
     public void applyInPlace(FastBitmap fastBitmap){
+        applyInPlace(fastBitmap, new IntPoint[0]);
+    }
+    
+    /**
+     * Fill the area of the start point and the areas of the points.
+     * The areas are compared with the color of the start point and the points are filled in parallel.
+     * @param fastBitmap Image to be processed.
+     * @param points Points.
+     */
+    public void applyInPlace(FastBitmap fastBitmap, IntPoint... points){
+        byte[] mask = Fill(fastBitmap, points);
         
-        if(fastBitmap.isRGB()){
-            int width = fastBitmap.getWidth();
-            int height = fastBitmap.getHeight();
-            LinkedList<IntPoint> examList = new LinkedList();
-
-            Color old = new Color(fastBitmap.getRGB(startPoint));
-
-            switch(algorithm){
-                case FourWay:
-                    if (!Color.isEqual(old, replace)) {
-                        examList.addFirst(new IntPoint(startPoint));
-                        
-                        while (examList.size() > 0) {
-                            IntPoint p = examList.removeLast();
-                            Color temp = new Color(fastBitmap.getRGB(p));
-
-                            if (Color.isEqual(old, temp)) {
-                                int x = p.x;
-                                int y = p.y;
-
-                                fastBitmap.setRGB(x, y, replace);
-
-                                if (y-1 >= 0) {
-                                    examList.addFirst(new IntPoint(x,y-1));        // check west neighbor
-                                }
-                                if (y+1 < width) {
-                                    examList.addFirst(new IntPoint(x,y+1));        // check east neighbor
-                                }
-                                if (x+1 < height) {
-                                    examList.addFirst(new IntPoint(x+1,y));        // check south neighbor
-                                }
-                                if (x-1 >= 0) {
-                                    examList.addFirst(new IntPoint(x-1,y));        // check north neighbor
-                                }
-                            }
-                        }
-                    }
-                    break;
-
-                case EightWay:
-                    if (!Color.isEqual(old, replace)) {
-                        examList.addFirst(new IntPoint(startPoint));
-                        while (examList.size() > 0) {
-                            IntPoint p = examList.removeFirst();
-                            Color temp = new Color(fastBitmap.getRGB(p));
-
-                            if (Color.isEqual(old, temp)) {
-                                int x = p.x;
-                                int y = p.y;
-
-                                fastBitmap.setRGB(x, y, replace);
-
-                                if ((x-1 >= 0) && (y-1 >= 0)) {
-                                    examList.addFirst(new IntPoint(x-1,y-1));        // check north-west neighbor
-                                }
-                                if (x-1 >= 0) {
-                                    examList.addFirst(new IntPoint(x-1,y));        // check north neighbor
-                                }
-                                if ((x+1 < height) && (y+1 < width)) {
-                                    examList.addFirst(new IntPoint(x+1,y+1));        // check north-east neighbor
-                                }
-                                if (y-1 >= 0) {
-                                    examList.addFirst(new IntPoint(x,y-1));        // check west neighbor
-                                }
-                                if (y+1 < width) {
-                                    examList.addFirst(new IntPoint(x,y+1));        // check east neighbor
-                                }
-                                if ((x+1 < height) && (y-1 >= 0)) {
-                                    examList.addFirst(new IntPoint(x+1,y-1));        // check south-west neighbor
-                                }
-                                if (x+1 < height) {
-                                    examList.addFirst(new IntPoint(x+1,y));        // check south neighbor
-                                }
-                                if ((x+1 < height) && (y+1 < width)) {
-                                    examList.addFirst(new IntPoint(x+1,y+1));        // check south-east neighbor
-                                }
-                            }
-                        }
-                    }
-                    break;
+        if (fastBitmap.isRGB()){
+            int[] rgb = fastBitmap.getRGBData();
+            int color = replace.r << 16 | replace.g << 8 | replace.b;
+            for (int i = 0; i < mask.length; i++) {
+                if (mask[i] != 0)
+                    rgb[i] = (rgb[i] & 0xFF000000) | color;
             }
         }
-        else if (fastBitmap.isGrayscale()){
-            int width = fastBitmap.getWidth();
-            int height = fastBitmap.getHeight();
-            LinkedList<IntPoint> examList = new LinkedList();
-
-            int iGray = fastBitmap.getGray(startPoint);
-            
-            int _gray = gray;
-            int _Gray = _gray;
-
-
-            switch(algorithm){
-                case FourWay:
-                    if (iGray != _Gray) {
-                        examList.addFirst(new IntPoint(startPoint));
-                        while (examList.size() > 0) {
-                            IntPoint p = examList.removeLast();
-                            _gray = fastBitmap.getGray(p.x, p.y);
-                            _Gray = _gray;
-
-                            if (_Gray == iGray) {
-                                int x = p.x;
-                                int y = p.y;
-
-                                fastBitmap.setGray(x, y, gray);
-
-                                if (y-1 > 0) {
-                                    examList.addFirst(new IntPoint(x,y-1));        // check west neighbor
-                                }
-                                if (y+1 < width) {
-                                    examList.addFirst(new IntPoint(x,y+1));        // check east neighbor
-                                }
-                                if (x+1 < height) {
-                                    examList.addFirst(new IntPoint(x+1,y));        // check south neighbor
-                                }
-                                if (x-1 > 0) {
-                                    examList.addFirst(new IntPoint(x-1,y));        // check north neighbor
-                                }
-                            }
-                        }
-                    }
-                    break;
-
-                case EightWay:
-                    if (iGray != _Gray) {
-                        examList.addFirst(new IntPoint(startPoint));
-                        while (examList.size() > 0) {
-                            IntPoint p = examList.pop();
-                            _gray = fastBitmap.getGray(p.x, p.y);
-                            _Gray = _gray;
-
-                            if (_Gray == iGray) {
-                                int x = p.x;
-                                int y = p.y;
-
-                                fastBitmap.setGray(x, y, gray);
-
-                                if ((x-1 > 0) && (y-1 > 0)) {
-                                    examList.addFirst(new IntPoint(x-1,y-1));        // check north-west neighbor
-                                }
-                                if (x-1 > 0) {
-                                    examList.addFirst(new IntPoint(x-1,y));        // check north neighbor
-                                }
-                                if ((x+1 < height) && (y+1 < width)) {
-                                    examList.addFirst(new IntPoint(x+1,y+1));        // check north-east neighbor
-                                }
-                                if (y-1 > 0) {
-                                    examList.addFirst(new IntPoint(x,y-1));        // check west neighbor
-                                }
-                                if (y+1 < width) {
-                                    examList.addFirst(new IntPoint(x,y+1));        // check east neighbor
-                                }
-                                if ((x+1 < height) && (y-1 > 0)) {
-                                    examList.addFirst(new IntPoint(x+1,y-1));        // check south-west neighbor
-                                }
-                                if (x+1 < height) {
-                                    examList.addFirst(new IntPoint(x+1,y));        // check south neighbor
-                                }
-                                if ((x+1 < height) && (y+1 < width)) {
-                                    examList.addFirst(new IntPoint(x+1,y+1));        // check south-east neighbor
-                                }
-                            }
-                        }
-                    }
-                    break;
+        else{
+            byte[] data = fastBitmap.getGrayData();
+            byte g = (byte)gray;
+            for (int i = 0; i < mask.length; i++) {
+                if (mask[i] != 0)
+                    data[i] = g;
             }
         }
-        else{
+    }
+    
+    /**
+     * Compute the area of the start point, the image is not modified.
+     * @param fastBitmap Image.
+     * @return Grayscale mask, 255 in the area and 0 outside.
+     */
+    public FastBitmap Mask(FastBitmap fastBitmap){
+        return Mask(fastBitmap, new IntPoint[0]);
+    }
+    
+    /**
+     * Compute the area of the start point and the areas of the points, the image is not modified.
+     * The areas are compared with the color of the start point and the points are filled in parallel.
+     * @param fastBitmap Image.
+     * @param points Points.
+     * @return Grayscale mask, 255 in the areas and 0 outside.
+     */
+    public FastBitmap Mask(FastBitmap fastBitmap, IntPoint... points){
+        byte[] mask = Fill(fastBitmap, points);
+        
+        FastBitmap fb = new FastBitmap(fastBitmap.getWidth(), fastBitmap.getHeight(), FastBitmap.ColorSpace.Grayscale);
+        byte[] data = fb.getGrayData();
+        for (int i = 0; i < mask.length; i++) {
+            if (mask[i] != 0)
+                data[i] = (byte)255;
+        }
+        return fb;
+    }
+    
+    private byte[] Fill(FastBitmap fastBitmap, IntPoint[] points){
+        if (!fastBitmap.isRGB() && !fastBitmap.isGrayscale())
             throw new IllegalArgumentException("Flood fill only works in RGB and grayscale images.");
+        
+        int width = fastBitmap.getWidth();
+        int height = fastBitmap.getHeight();
+        int[] seeds = new int[points.length + 1];
+        for (int i = 0; i < seeds.length; i++) {
+            IntPoint p = i == 0 ? startPoint : points[i - 1];
+            if (p.x < 0 || p.x >= height || p.y < 0 || p.y >= width)
+                throw new IllegalArgumentException("The point must be inside the image.");
+            seeds[i] = p.x * width + p.y;
         }
+        
+        boolean eightWay = algorithm == Algorithm.EightWay;
+        ScanlineFill fill;
+        if (fastBitmap.isRGB()){
+            int c = fastBitmap.getRGBData()[seeds[0]];
+            fill = new ScanlineFill(fastBitmap, Range(c >> 16 & 0xFF), Range(c >> 8 & 0xFF), Range(c & 0xFF), eightWay);
+        }
+        else{
+            fill = new ScanlineFill(fastBitmap, Range(fastBitmap.getGrayData()[seeds[0]] & 0xFF), eightWay);
+        }
+        
+        fill.Fill(seeds);
+        return fill.mask;
+    }
+    
+    private IntRange Range(int value){
+        return new IntRange(Math.max(0, value - tolerance), Math.min(255, value + tolerance));
     }
 }
\ No newline at end of file
@@ -98,7 +98,11 @@ public class GaussianBlur implements IApplyInPlace{
         c.applyInPlace(fastBitmap);
     }
     
-    private int[][] CreateKernel(){
+    /**
+     * Create the integer kernel used by the convolution.
+     * @return Kernel.
+     */
+    int[][] CreateKernel(){
         Gaussian g = new Gaussian(sigma);
         double[][] k = g.Kernel2D(size);
         int[][] kint = new int[k.length][k[0].length];
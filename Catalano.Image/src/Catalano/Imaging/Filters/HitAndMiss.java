@@ -23,10 +23,12 @@ package Catalano.Imaging.Filters;
 
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
+import Catalano.Imaging.Tools.BinaryLookupTable;
 import java.util.List;
 
 /**
  * Hit-And-Miss Transform.
+ * 3x3 structuring elements are precomputed in a 256-entry look-up table.
  * @author Diego Catalano
  */
 public class HitAndMiss implements IApplyInPlace{
@@ -107,8 +109,7 @@ public class HitAndMiss implements IApplyInPlace{
      * @param logic Logic.
      */
     public HitAndMiss(List<int[][]> kernels, Logic logic){
-        this.kernels = kernels;
-        this.logic = logic;
+        this(kernels, logic, Mode.HitAndMiss);
     }
     
     /**
@@ -135,10 +136,23 @@ public class HitAndMiss implements IApplyInPlace{
             throw new IllegalArgumentException("The image must be in grayscale.");
         
         if(kernels != null){
-            apply(fastBitmap, kernels);
+            if(isSupported(kernels)){
+                BinaryLookupTable lut = BinaryLookupTable.FromKernels(kernels, logic == Logic.And);
+                apply(fastBitmap, lut, kernels.get(0)[1][1]);
+            }
+            else{
+                apply(fastBitmap, kernels);
+            }
+            return;
+        }
+        
+        if(BinaryLookupTable.isSupported(kernel)){
+            apply(fastBitmap, BinaryLookupTable.FromKernel(kernel), kernel[1][1]);
+            return;
         }
         
         FastBitmap copy = new FastBitmap(fastBitmap);
+        if(mode == Mode.HitAndMiss) fastBitmap.Clear();
         
         int width = fastBitmap.getWidth();
         int height = fastBitmap.getHeight();
@@ -170,33 +184,78 @@ public class HitAndMiss implements IApplyInPlace{
                             }
                         }
                     }
-                    if(hits == 9) fastBitmap.setGray(x, y, p);
+                    if(hits == kernel.length * kernel[0].length) fastBitmap.setGray(x, y, p);
                 }
             }
         }
     }
     
+    /**
+     * 3x3 structuring elements are evaluated by a single look-up per pixel.
+     * As in the generic path, the pixels in the border of the image never match.
+     */
+    private void apply(FastBitmap fastBitmap, BinaryLookupTable lut, int center){
+        
+        // Only foreground pixels are tested.
+        if(center == 0){
+            if(mode == Mode.HitAndMiss) fastBitmap.Clear();
+            return;
+        }
+        
+        int width = fastBitmap.getWidth();
+        int height = fastBitmap.getHeight();
+        byte[] pixels = fastBitmap.getGrayData();
+        byte[] copy = pixels.clone();
+        
+        if(mode == Mode.HitAndMiss)
+            lut.apply(fastBitmap, true, false, 255, 0);
+        else
+            lut.apply(fastBitmap, true, false, 0, -1);
+        
+        // Border pixels: cleared in hit-and-miss mode, otherwise kept.
+        int last = (height - 1) * width;
+        for (int j = 0; j < width; j++) {
+            pixels[j] = mode == Mode.HitAndMiss ? 0 : copy[j];
+            pixels[last + j] = mode == Mode.HitAndMiss ? 0 : copy[last + j];
+        }
+        for (int i = 0; i < height; i++) {
+            int offset = i * width;
+            pixels[offset] = mode == Mode.HitAndMiss ? 0 : copy[offset];
+            pixels[offset + width - 1] = mode == Mode.HitAndMiss ? 0 : copy[offset + width - 1];
+        }
+    }
+    
+    private boolean isSupported(List<int[][]> kernels){
+        int center = kernels.get(0)[1][1];
+        for (int[][] se : kernels) {
+            if(!BinaryLookupTable.isSupported(se) || se[1][1] != center) return false;
+        }
+        return true;
+    }
+    
     private void apply(FastBitmap fastBitmap, List<int[][]> kernels){
         if(!fastBitmap.isGrayscale())
             throw new IllegalArgumentException("The image must be in grayscale.");
         
         FastBitmap copy = new FastBitmap(fastBitmap);
+        if(mode == Mode.HitAndMiss) fastBitmap.Clear();
         
         int width = fastBitmap.getWidth();
         int height = fastBitmap.getHeight();
         int l;
         
         int p = mode == Mode.HitAndMiss ? 255 : 0;
-        int pMatches = logic == Logic.And ? 9*kernels.size() : 9;
+        int pMatches = logic == Logic.And ? kernels.size() : 1;
         
         int Xline,Yline;
-        int lines = CalcLines(kernel);
         for (int x = 0; x < height; x++) {
             for (int y = 0; y < width; y++) {
                 l = copy.getGray(x, y);
                 if (l == 255) {
+                    int matches = 0;
                     for (int[][] se : kernels) {
                         int hits = 0;
+                        int lines = CalcLines(se);
                         for (int i = 0; i < se.length; i++) {
                             Xline = x + (i-lines);
                             for (int j = 0; j < se[0].length; j++) {
@@ -214,7 +273,8 @@ public class HitAndMiss implements IApplyInPlace{
                                 }
                             }
                         }
-                        if(hits == pMatches){
+                        if(hits == se.length * se[0].length) matches++;
+                        if(matches == pMatches){
                             fastBitmap.setGray(x, y, p);
                             break;
                         }
@@ -51,56 +51,55 @@ public class ImageQuantization implements IApplyInPlace{
         
         if (fastBitmap.isGrayscale()) {
             
+            byte[] gray = fastBitmap.getGrayData();
             int maxG = 0;
-            int size = fastBitmap.getSize();
-            for (int i = 0; i < size; i++) {
-                maxG = Math.max(maxG, fastBitmap.getGray(i));
+            for (int i = 0; i < gray.length; i++) {
+                maxG = Math.max(maxG, gray[i] & 0xFF);
             }
             
-            int div = maxG / (level - 1);
-            for (int i = 0; i < size; i++) {
-                
-                int g = fastBitmap.getGray(i) / div * div;
-                g = g > 255 ? 255 : g;
-                g = g < 0 ? 0 : g;
-                
-                fastBitmap.setGray(i, g);
+            byte[] lut = Levels(maxG);
+            for (int i = 0; i < gray.length; i++) {
+                gray[i] = lut[gray[i] & 0xFF];
             }
             
         }
         else if(fastBitmap.isRGB()){
             
+            int[] rgb = fastBitmap.getRGBData();
             int maxR, maxG, maxB;
             maxR = maxG = maxB = 0;
-            int size = fastBitmap.getSize();
-            for (int i = 0; i < size; i++) {
-                maxR = Math.max(maxR, fastBitmap.getRed(i));
-                maxG = Math.max(maxG, fastBitmap.getRed(i));
-                maxB = Math.max(maxB, fastBitmap.getRed(i));
+            for (int i = 0; i < rgb.length; i++) {
+                int c = rgb[i];
+                maxR = Math.max(maxR, c >> 16 & 0xFF);
+                maxG = Math.max(maxG, c >> 8 & 0xFF);
+                maxB = Math.max(maxB, c & 0xFF);
             }
             
-            int divR = maxR / (level - 1);
-            int divG = maxG / (level - 1);
-            int divB = maxB / (level - 1);
-            for (int i = 0; i < size; i++) {
-                
-                int r = fastBitmap.getRed(i) / divR * divR;
-                int g = fastBitmap.getGreen(i) / divG * divG;
-                int b = fastBitmap.getBlue(i) / divB * divB;
-                
-                r = r > 255 ? 255 : r;
-                r = r < 0 ? 0 : r;
-                
-                g = g > 255 ? 255 : g;
-                g = g < 0 ? 0 : g;
-                
-                
-                b = b > 255 ? 255 : b;
-                b = b < 0 ? 0 : b;
-                
-                fastBitmap.setRGB(i, r, g, b);
+            byte[] lutR = Levels(maxR);
+            byte[] lutG = Levels(maxG);
+            byte[] lutB = Levels(maxB);
+            for (int i = 0; i < rgb.length; i++) {
+                int c = rgb[i];
+                int r = lutR[c >> 16 & 0xFF] & 0xFF;
+                int g = lutG[c >> 8 & 0xFF] & 0xFF;
+                int b = lutB[c & 0xFF] & 0xFF;
+                rgb[i] = (c & 0xFF000000) | r << 16 | g << 8 | b;
             }
             
         }
     }
+    
+    /**
+     * Look-up table of the levels of a channel.
+     * @param max Maximum value of the channel.
+     * @return Look-up table.
+     */
+    private byte[] Levels(int max){
+        int div = Math.max(1, max / Math.max(1, level - 1));
+        byte[] lut = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            lut[i] = (byte)Math.min(255, i / div * div);
+        }
+        return lut;
+    }
 }
\ No newline at end of file
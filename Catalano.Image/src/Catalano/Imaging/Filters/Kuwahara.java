@@ -26,15 +26,40 @@ package Catalano.Imaging.Filters;
 
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Kuwahara filter is able to apply smoothing on the image while preserving the edges.
+ * 
+ * <p>The mean and the variance of the four quadrants are computed in constant time from the integral images
+ * of the values and of the squared values, so the cost doesn't depend on the window size. The integral
+ * images are built for strips of rows, which are processed in parallel.</p>
+ * 
+ * @see AnisotropicKuwahara
  * @author Diego Catalano
  */
 public class Kuwahara implements IApplyInPlace{
     
+    private static final int STRIP = 64;
+    
     private int windowSize = 5;
 
+    /**
+     * Get the window size.
+     * @return Window size.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Set the window size.
+     * @param windowSize Window size, between 5 and 511.
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(5, Math.min(511, windowSize));
+    }
+
     /**
      * Initialize a new instance of the Kuwahara class.
      * Default window size is 5x5;
@@ -46,178 +71,152 @@ public class Kuwahara implements IApplyInPlace{
      * @param windowSize Window size.
      */
     public Kuwahara(int windowSize) {
-        this.windowSize = Math.max(windowSize, 5);
+        setWindowSize(windowSize);
     }
 
     @Override
     public void applyInPlace(FastBitmap fastBitmap) {
         
-        int width = fastBitmap.getWidth();
-        int height = fastBitmap.getHeight();
-        int size2 = (windowSize+1)/2;
-        int offset = (windowSize-1)/2;
+        if (!fastBitmap.isGrayscale() && !fastBitmap.isRGB())
+            throw new IllegalArgumentException("Kuwahara only works with grayscale or rgb images.");
         
-        FastBitmap copy = new FastBitmap(fastBitmap);
+        final int width = fastBitmap.getWidth();
+        final int height = fastBitmap.getHeight();
+        final int offset = (windowSize-1)/2;
+        final byte[] gray = fastBitmap.isGrayscale() ? fastBitmap.getGrayData() : null;
+        final int[] rgb = gray == null ? fastBitmap.getRGBData() : null;
+        final byte[] grayCopy = gray != null ? gray.clone() : null;
+        final int[] rgbCopy = rgb != null ? rgb.clone() : null;
         
-        if (fastBitmap.isRGB()) {
-            int width2 = width+offset;
-            int height2 = height+offset;
-            float[][][] mean = new float[width2][height2][3];
-            float[][][] variance = new float[width2][height2][3];
-            double sumR, sum2R;
-            double sumG, sum2G;
-            double sumB, sum2B;
-            int n, r,g,b, xbase, ybase;
-            for (int y1=0-offset; y1<0+height; y1++) {
-                for (int x1=0-offset; x1<0+width; x1++) {
-                    sumR=sumG=sumB=0;
-                    sum2R=sum2G=sum2B=0;
-                    n=0;
-                    for (int x2=x1; x2<x1+size2; x2++) {
-                        for (int y2=y1; y2<y1+size2; y2++) {
-                            if(x2 > 0 && x2 < width && y2 > 0 && y2 < height){
-                                r = copy.getRed(y2, x2);
-                                g = copy.getGreen(y2, x2);
-                                b = copy.getBlue(y2, x2);
-                                
-                                sumR += r;
-                                sum2R += r*r;
-                                
-                                sumG += g;
-                                sum2G += g*g;
-                                
-                                sumB += b;
-                                sum2B += b*b;
-                                
-                                n++;
-                            }
-                            else{
-                                n++;
-                            }
-                        }
-                    }
-                    mean[x1+offset][y1+offset][0] = (float)(sumR/n);
-                    mean[x1+offset][y1+offset][1] = (float)(sumG/n);
-                    mean[x1+offset][y1+offset][2] = (float)(sumB/n);
-                    
-                    variance[x1+offset][y1+offset][0] = (float)(sum2R-sumR*sumR/n);
-                    variance[x1+offset][y1+offset][1] = (float)(sum2G-sumG*sumG/n);
-                    variance[x1+offset][y1+offset][2] = (float)(sum2B-sumB*sumB/n);
+        final int strips = (height + STRIP - 1) / STRIP;
+        final AtomicInteger next = new AtomicInteger();
+        
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                Strip strip = new Strip(width, Math.min(height, STRIP + 2 * offset), gray != null ? 1 : 3);
+                int k;
+                while ((k = next.getAndIncrement()) < strips) {
+                    int start = k * STRIP;
+                    int end = Math.min(height, start + STRIP);
+                    strip.Load(grayCopy, rgbCopy, width, Math.max(0, start - offset), Math.min(height, end + offset));
+                    Filter(strip, gray, rgb, width, height, offset, start, end);
                 }
             }
-            
-            int xbase2=0, ybase2=0;
-            float var, min;
-            for (int y1=0; y1<0+height; y1++) {
-                for (int x1=0; x1<0+width; x1++) {
-                    
-                    //Red channel
-                    min = Float.MAX_VALUE;
-                    xbase = x1; ybase=y1;
-                    var = variance[xbase][ybase][0];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    xbase = x1+offset;
-                    var = variance[xbase][ybase][0];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    ybase = y1+offset;
-                    var = variance[xbase][ybase][0];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    xbase = x1; 
-                    var = variance[xbase][ybase][0];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    
-                    r = (int)(mean[xbase2][ybase2][0]+0.5);
-                    
-                    //Green channel
-                    min = Float.MAX_VALUE;
-                    xbase = x1; ybase=y1;
-                    var = variance[xbase][ybase][1];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    xbase = x1+offset;
-                    var = variance[xbase][ybase][1];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    ybase = y1+offset;
-                    var = variance[xbase][ybase][1];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    xbase = x1; 
-                    var = variance[xbase][ybase][1];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    
-                    g = (int)(mean[xbase2][ybase2][1]+0.5);
-                    
-                    //Blue channel
-                    min = Float.MAX_VALUE;
-                    xbase = x1; ybase=y1;
-                    var = variance[xbase][ybase][2];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    xbase = x1+offset;
-                    var = variance[xbase][ybase][2];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    ybase = y1+offset;
-                    var = variance[xbase][ybase][2];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    xbase = x1; 
-                    var = variance[xbase][ybase][2];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    
-                    b = (int)(mean[xbase2][ybase2][2]+0.5);
-
-                    fastBitmap.setRGB(y1, x1, r, g, b);
-                }
+        };
+        
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), strips));
+        if (cores == 1){
+            task.run();
+            return;
+        }
+        
+        Thread[] t = new Thread[cores];
+        for (int i = 0; i < cores; i++) {
+            t[i] = new Thread(task);
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
             }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
-        else if(fastBitmap.isGrayscale()){
-            int width2 = width+offset;
-            int height2 = height+offset;
-            float[][] mean = new float[width2][height2];
-            float[][] variance = new float[width2][height2];
-            double sum, sum2;
-            int n, v=0, xbase, ybase;
-            for (int y1=0-offset; y1<0+height; y1++) {
-                for (int x1=0-offset; x1<0+width; x1++) {
-                    sum=0; sum2=0; n=0;
-                    for (int x2=x1; x2<x1+size2; x2++) {
-                        for (int y2=y1; y2<y1+size2; y2++) {
-                            if(x2 > 0 && x2 < width && y2 > 0 && y2 < height){
-                                v = copy.getGray(y2, x2);
-                                sum += v;
-                                sum2 += v*v;
-                                n++;
-                            }
-                            else{
-                                v = 0;
-                                sum += v;
-                                sum2 += v*v;
-                                n++;
-                            }
+    }
+    
+    private void Filter(Strip strip, byte[] gray, int[] rgb, int width, int height, int offset, int start, int end){
+        int channels = strip.channels;
+        int[] out = new int[3];
+        
+        for (int i = start; i < end; i++) {
+            int top = Math.max(0, i - offset);
+            int bottom = Math.min(height - 1, i + offset);
+            for (int j = 0; j < width; j++) {
+                int left = Math.max(0, j - offset);
+                int right = Math.min(width - 1, j + offset);
+                
+                // All the quadrants have the same size inside the image.
+                boolean full = i - offset >= 0 && i + offset < height && j - offset >= 0 && j + offset < width;
+                
+                for (int c = 0; c < channels; c++) {
+                    // Top-left, top-right, bottom-right and bottom-left quadrants, the first with the minimum variance.
+                    // The variances and the means are rounded to float as the previous filter, so the ties resolve the same.
+                    float min = Float.MAX_VALUE;
+                    float mean = 0;
+                    for (int q = 0; q < 4; q++) {
+                        int r0 = q < 2 ? top : i;
+                        int r1 = q < 2 ? i : bottom;
+                        int c0 = q == 0 || q == 3 ? left : j;
+                        int c1 = q == 0 || q == 3 ? j : right;
+                        
+                        int n = (r1 - r0 + 1) * (c1 - c0 + 1);
+                        double sum = strip.Sum(strip.sum[c], r0, c0, r1, c1);
+                        double sum2 = strip.Sum(strip.sum2[c], r0, c0, r1, c1) & 0xFFFFFFFFL;
+                        float var = full ? (float)(sum2 - sum * sum / n) : (float)((sum2 - sum * sum / n) / n);
+                        if (var < min){
+                            min = var;
+                            mean = (float)(sum / n);
                         }
                     }
-                    mean[x1+offset][y1+offset] = (float)(sum/n);
-                    variance[x1+offset][y1+offset] = (float)(sum2-sum*sum/n);
+                    out[c] = (int)(mean + 0.5);
                 }
+                
+                if (gray != null)
+                    gray[i * width + j] = (byte)out[0];
+                else
+                    rgb[i * width + j] = (rgb[i * width + j] & 0xFF000000) | out[0] << 16 | out[1] << 8 | out[2];
             }
-            
-            int xbase2=0, ybase2=0;
-            float var, min;
-            for (int y1=0; y1<0+height; y1++) {
-                for (int x1=0; x1<0+width; x1++) {
-                    min = Float.MAX_VALUE;
-                    xbase = x1; ybase=y1;
-                    var = variance[xbase][ybase];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    xbase = x1+offset;
-                    var = variance[xbase][ybase];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    ybase = y1+offset;
-                    var = variance[xbase][ybase];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-                    xbase = x1; 
-                    var = variance[xbase][ybase];
-                    if (var<min) {min= var; xbase2=xbase; ybase2=ybase;}
-
-                    fastBitmap.setGray(y1, x1, (int)(mean[xbase2][ybase2]+0.5));
+        }
+    }
+    
+    /**
+     * Integral images of a strip of rows, of the values and of the squared values.
+     * The sums are kept in int, the overflow of the integral cancels out in the sums of the quadrants.
+     */
+    private static class Strip {
+        final int channels;
+        final int stride;
+        final int[][] sum;
+        final int[][] sum2;
+        int first;
+        
+        Strip(int width, int rows, int channels){
+            this.channels = channels;
+            this.stride = width + 1;
+            this.sum = new int[channels][(rows + 1) * stride];
+            this.sum2 = new int[channels][(rows + 1) * stride];
+        }
+        
+        void Load(byte[] gray, int[] rgb, int width, int first, int last){
+            this.first = first;
+            for (int i = first; i < last; i++) {
+                int row = (i - first + 1) * stride;
+                int up = row - stride;
+                for (int c = 0; c < channels; c++) {
+                    int[] s = sum[c];
+                    int[] s2 = sum2[c];
+                    int shift = 16 - 8 * c;
+                    int rs = 0, rs2 = 0;
+                    for (int j = 0; j < width; j++) {
+                        int v = gray != null ? gray[i * width + j] & 0xFF : rgb[i * width + j] >> shift & 0xFF;
+                        rs += v;
+                        rs2 += v * v;
+                        s[row + j + 1] = s[up + j + 1] + rs;
+                        s2[row + j + 1] = s2[up + j + 1] + rs2;
+                    }
                 }
             }
         }
+        
+        /**
+         * Sum of the rectangle, rows and columns of the image, inclusive.
+         */
+        int Sum(int[] s, int r0, int c0, int r1, int c1){
+            int a = (r0 - first) * stride;
+            int b = (r1 - first + 1) * stride;
+            return s[b + c1 + 1] - s[b + c0] - s[a + c1 + 1] + s[a + c0];
+        }
     }
 }
\ No newline at end of file
@@ -26,17 +26,115 @@ package Catalano.Imaging.Filters;
 
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Mean Shift filter.
  * <br /> Mean Shift filter can be used for edge-preserving smoothing or for segmentation. Important edges of an image might be easier detected after mean shift filtering.
  * <br /> It uses a circular flat kernel and the color distance is calculated in the YIQ-color space.
+ * 
+ * <p>The rows are processed in parallel. By default each window is scanned directly, row by row of the disc. The
+ * grid mode sorts the pixels in spatial cells and color bins, the window of each iteration only visits the cells
+ * around the center and the bins within the color distance, and the bins inside both are added by their sums. The
+ * grid only competes with the direct scan for large radii on few flat colors, on photos and noisy images it is slower.</p>
+ * 
+ * <p>Two approximations can be enabled for previews. The mode cache stores the mode reached by each position, and a
+ * pixel stops as soon as its path meets a stored mode of similar color. The seed step computes the modes of a
+ * downsampled grid of seeds only, and each pixel takes the mode of the near seed with the most similar color.</p>
+ * 
  * @author Diego Catalano
  */
 public class MeanShift implements IApplyInPlace{
     
+    private static final int BLOCK = 32;
+    
     private int radius;
     private float colorDistance;
+    private boolean grid = false;
+    private boolean modeCache = false;
+    private int seedStep = 1;
+
+    /**
+     * Get the radius of the spatial window.
+     * @return Radius.
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Set the radius of the spatial window.
+     * @param radius Radius.
+     */
+    public void setRadius(int radius) {
+        this.radius = Math.max(0, radius);
+    }
+
+    /**
+     * Get the color distance.
+     * @return Color distance.
+     */
+    public float getColorDistance() {
+        return colorDistance;
+    }
+
+    /**
+     * Set the color distance.
+     * @param colorDistance Color distance.
+     */
+    public void setColorDistance(float colorDistance) {
+        this.colorDistance = Math.max(0, colorDistance);
+    }
+
+    /**
+     * Check if the windows are found through the grid.
+     * @return True if the grid is used.
+     */
+    public boolean isGrid() {
+        return grid;
+    }
+
+    /**
+     * Set if the windows are found through the grid of spatial cells and color bins, radius of 8 or more.
+     * Only competes with the direct scan for large radii on few flat colors, slower on photos and noisy images.
+     * @param grid True if the grid is used.
+     */
+    public void setGrid(boolean grid) {
+        this.grid = grid;
+    }
+
+    /**
+     * Check if the modes are cached.
+     * @return True if the modes are cached.
+     */
+    public boolean isModeCache() {
+        return modeCache;
+    }
+
+    /**
+     * Set if the modes are cached, the pixels stop when their path meets a mode of similar color.
+     * @param modeCache True if the modes are cached.
+     */
+    public void setModeCache(boolean modeCache) {
+        this.modeCache = modeCache;
+    }
+
+    /**
+     * Get the distance between the seeds.
+     * @return Seed step.
+     */
+    public int getSeedStep() {
+        return seedStep;
+    }
+
+    /**
+     * Set the distance between the seeds, 1 computes the mode of all the pixels.
+     * @param seedStep Seed step.
+     */
+    public void setSeedStep(int seedStep) {
+        this.seedStep = Math.max(1, seedStep);
+    }
 
     /**
      * Initialize a new instance of the MeanShift class.
@@ -49,182 +147,549 @@ public class MeanShift implements IApplyInPlace{
      * @param colorDistance Color distance.
      */
     public MeanShift(int radius, float colorDistance) {
-        this.radius = radius;
-        this.colorDistance = colorDistance;
+        setRadius(radius);
+        setColorDistance(colorDistance);
     }
 
     @Override
     public void applyInPlace(FastBitmap fastBitmap) {
         
-        int width = fastBitmap.getWidth();
-        int height = fastBitmap.getHeight();
+        if (!fastBitmap.isRGB() && !fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("Mean Shift only works with grayscale or rgb images.");
         
-        if (fastBitmap.isRGB()) {
-            float[][][] pixelsF = new float[height][width][3];
-
-            int r,g,b;
-            for (int x = 0; x < height; x++) {
-                for (int y = 0; y < width; y++) {
-                    r = fastBitmap.getRed(x, y);
-                    g = fastBitmap.getGreen(x, y);
-                    b = fastBitmap.getBlue(x, y);
-
-                    // You can use ColorConverter.RGBtoYIQ but you need to multiply the result with 255.
-                    // In this way its more fast because we spend less processor.
-                    pixelsF[x][y][0] = 0.299f  *r + 0.587f *g + 0.114f  *b;
-                    pixelsF[x][y][1] = 0.5957f *r - 0.2744f*g - 0.3212f *b;
-                    pixelsF[x][y][2] = 0.2114f *r - 0.5226f*g + 0.3111f *b;
-                }
+        final int width = fastBitmap.getWidth();
+        final int height = fastBitmap.getHeight();
+        final byte[] gray = fastBitmap.isGrayscale() ? fastBitmap.getGrayData() : null;
+        final int[] rgb = gray == null ? fastBitmap.getRGBData() : null;
+        
+        // You can use ColorConverter.RGBtoYIQ but you need to multiply the result with 255.
+        int size = width * height;
+        float[] Y = new float[size];
+        float[] I = new float[size];
+        float[] Q = gray == null ? new float[size] : I;
+        for (int i = 0; i < size; i++) {
+            if (gray != null){
+                Y[i] = gray[i] & 0xFF;
             }
-
-            float shift;
-            int iters;
-
-            for (int x = 0; x < height; x++) {
-                for (int y = 0; y < width; y++) {
-                    int yc = y;
-                    int xc = x;
-                    int xcOld, ycOld;
-                    float YcOld, IcOld, QcOld;
-                    float[] yiq = pixelsF[x][y];
-                    float Yc = yiq[0];
-                    float Ic = yiq[1];
-                    float Qc = yiq[2];
-
-                    iters = 0;
-                    do {
-                        xcOld = xc;
-                        ycOld = yc;
-                        YcOld = Yc;
-                        IcOld = Ic;
-                        QcOld = Qc;
-
-                        float mx = 0;
-                        float my = 0;
-                        float mY = 0;
-                        float mI = 0;
-                        float mQ = 0;
-                        int num=0;
-
-                        int radius2 = radius * radius;
-                        float colorDistance2 = colorDistance * colorDistance;
-                        for (int rx=-radius; rx <= radius; rx++) {
-                                int x2 = xc + rx; 
-                                if (x2 >= 0 && x2 < height) {
-                                        for (int ry=-radius; ry <= radius; ry++) {
-                                                int y2 = yc + ry; 
-                                                if (y2 >= 0 && y2 < width) {
-                                                        if (rx*rx + ry*ry <= radius2) {
-                                                                yiq = pixelsF[x2][y2];
-
-                                                                float Y2 = yiq[0];
-                                                                float I2 = yiq[1];
-                                                                float Q2 = yiq[2];
-
-                                                                float dY = Yc - Y2;
-                                                                float dI = Ic - I2;
-                                                                float dQ = Qc - Q2;
-
-                                                                if (dY*dY+dI*dI+dQ*dQ <= colorDistance2) {
-                                                                        mx += x2;
-                                                                        my += y2;
-                                                                        mY += Y2;
-                                                                        mI += I2;
-                                                                        mQ += Q2;
-                                                                        num++;
-                                                                }
-                                                        }
-                                                }
-                                        }
+            else{
+                int c = rgb[i];
+                int r = c >> 16 & 0xFF;
+                int g = c >> 8 & 0xFF;
+                int b = c & 0xFF;
+                Y[i] = 0.299f  *r + 0.587f *g + 0.114f  *b;
+                I[i] = 0.5957f *r - 0.2744f*g - 0.3212f *b;
+                Q[i] = 0.2114f *r - 0.5226f*g + 0.3111f *b;
+            }
+        }
+        
+        final Grid grid = new Grid(Y, I, Q, width, height, radius, colorDistance, this.grid);
+        final int step = seedStep;
+        final int seedRows = (height + step - 1) / step;
+        final int seedCols = (width + step - 1) / step;
+        final float[] modes = step > 1 ? new float[3 * seedRows * seedCols] : null;
+        
+        // Blocks of rows of seeds, then blocks of rows of pixels to propagate the modes of the seeds.
+        final int seedBlocks = (seedRows + BLOCK - 1) / BLOCK;
+        final int blocks = step > 1 ? seedBlocks + (height + BLOCK - 1) / BLOCK : seedBlocks;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                Shifter shifter = new Shifter(grid, modeCache);
+                float[] mode = new float[3];
+                int k;
+                while ((k = next.getAndIncrement()) < blocks) {
+                    if (k < seedBlocks){
+                        int start = k * BLOCK;
+                        int end = Math.min(seedRows, start + BLOCK);
+                        shifter.Reset(start * step, Math.min(height, end * step));
+                        for (int i = start; i < end; i++) {
+                            for (int j = 0; j < seedCols; j++) {
+                                shifter.Shift(i * step, j * step, mode);
+                                if (modes == null){
+                                    Write(gray, rgb, i * width + j, mode);
+                                }
+                                else{
+                                    int s = 3 * (i * seedCols + j);
+                                    modes[s] = mode[0];
+                                    modes[s + 1] = mode[1];
+                                    modes[s + 2] = mode[2];
                                 }
+                            }
                         }
-                        float num_ = 1f/num;
-                        Yc = mY*num_;
-                        Ic = mI*num_;
-                        Qc = mQ*num_;
-                        xc = (int) (mx*num_+0.5);
-                        yc = (int) (my*num_+0.5);
-                        int dx = xc-xcOld;
-                        int dy = yc-ycOld;
-                        float dY = Yc-YcOld;
-                        float dI = Ic-IcOld;
-                        float dQ = Qc-QcOld;
-
-                        shift = dx*dx+dy*dy+dY*dY+dI*dI+dQ*dQ; 
-                        iters++;
+                        done.incrementAndGet();
+                    }
+                    else{
+                        // The seeds are ready before the propagation starts.
+                        while (done.get() < seedBlocks) Thread.yield();
+                        int start = (k - seedBlocks) * BLOCK;
+                        int end = Math.min(height, start + BLOCK);
+                        Propagate(grid, modes, seedRows, seedCols, step, start, end, gray, rgb);
                     }
-                    while (shift > 3 && iters < 100);
-
-                    int r_ = (int)(Yc + 0.9563f*Ic + 0.6210f*Qc);
-                    int g_ = (int)(Yc - 0.2721f*Ic - 0.6473f*Qc);
-                    int b_ = (int)(Yc - 1.1070f*Ic + 1.7046f*Qc);
-
-                    fastBitmap.setRGB(x, y, r_, g_, b_);
                 }
             }
+        };
+        
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), blocks));
+        if (cores == 1){
+            task.run();
+            return;
         }
-        if (fastBitmap.isGrayscale()) {
-            float shift;
-            int iters;
-
+        
+        Thread[] t = new Thread[cores];
+        for (int i = 0; i < cores; i++) {
+            t[i] = new Thread(task);
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Each pixel takes the mode of the near seed with the most similar color.
+     */
+    private void Propagate(Grid grid, float[] modes, int seedRows, int seedCols, int step, int start, int end, byte[] gray, int[] rgb){
+        int width = grid.width;
+        float[] mode = new float[3];
+        for (int x = start; x < end; x++) {
+            int si = x / step;
+            for (int y = 0; y < width; y++) {
+                int sj = y / step;
+                int p = x * width + y;
+                float Yp = grid.Y[p], Ip = grid.I[p], Qp = grid.Q[p];
+                
+                int best = -1;
+                float min = Float.MAX_VALUE;
+                for (int a = si; a <= Math.min(si + 1, seedRows - 1); a++) {
+                    for (int b = sj; b <= Math.min(sj + 1, seedCols - 1); b++) {
+                        int s = 3 * (a * seedCols + b);
+                        float dY = modes[s] - Yp;
+                        float dI = modes[s + 1] - Ip;
+                        float dQ = modes[s + 2] - Qp;
+                        float d = dY * dY + dI * dI + dQ * dQ;
+                        if (d < min){
+                            min = d;
+                            best = s;
+                        }
+                    }
+                }
+                
+                mode[0] = modes[best];
+                mode[1] = modes[best + 1];
+                mode[2] = modes[best + 2];
+                Write(gray, rgb, p, mode);
+            }
+        }
+    }
+    
+    private static void Write(byte[] gray, int[] rgb, int p, float[] mode){
+        if (gray != null){
+            gray[p] = (byte)Clamp((int)mode[0]);
+        }
+        else{
+            float Yc = mode[0], Ic = mode[1], Qc = mode[2];
+            int r = Clamp((int)(Yc + 0.9563f*Ic + 0.6210f*Qc));
+            int g = Clamp((int)(Yc - 0.2721f*Ic - 0.6473f*Qc));
+            int b = Clamp((int)(Yc - 1.1070f*Ic + 1.7046f*Qc));
+            rgb[p] = (rgb[p] & 0xFF000000) | r << 16 | g << 8 | b;
+        }
+    }
+    
+    /**
+     * Distance from the value to the interval.
+     */
+    private static float Near(float v, float min, float max){
+        return v < min ? min - v : v > max ? v - max : 0;
+    }
+    
+    private static int Clamp(int v){
+        return v < 0 ? 0 : v > 255 ? 255 : v;
+    }
+    
+    /**
+     * Pixels sorted by spatial cell and color bin, with the sums and the bounds of the colors of each bin.
+     * The bins inside the window and inside the color distance are added without visit their pixels.
+     * Without the grid, or for small windows, the pixels are scanned directly.
+     */
+    private static class Grid {
+        final int width, height, radius;
+        final float colorDistance;
+        final float[] Y, I, Q;
+        final boolean direct;
+        
+        // Half width of the rows of the disc.
+        final int[] span;
+        
+        int cell, cellRows, cellCols;
+        float binWidth;
+        int side;
+        int[] cellStart;
+        
+        // Bins of each cell, sorted by color with the luminance as major key, and the range of their pixels.
+        int[] bin, binStart, count, sx, sy;
+        float[] sY, sI, sQ;
+        float[] minY, maxY, minI, maxI, minQ, maxQ;
+        
+        int[] px, py;
+        float[] pY, pI, pQ;
+        
+        Grid(float[] Y, float[] I, float[] Q, int width, int height, int radius, float colorDistance, boolean grid){
+            this.Y = Y;
+            this.I = I;
+            this.Q = Q;
+            this.width = width;
+            this.height = height;
+            this.radius = radius;
+            this.colorDistance = colorDistance;
+            this.direct = !grid || radius < 8;
+            
+            span = new int[2 * radius + 1];
+            for (int rx = -radius; rx <= radius; rx++) {
+                int ry = radius;
+                while (rx*rx + ry*ry > radius * radius) ry--;
+                span[rx + radius] = ry;
+            }
+            if (direct) return;
+            
+            int size = width * height;
+            cell = Math.max(1, radius / 2);
+            cellRows = (height + cell - 1) / cell;
+            cellCols = (width + cell - 1) / cell;
+            binWidth = Math.max(1, colorDistance);
+            side = (int)(320 / binWidth) + 2;
+            
+            // Radix sort by the Q, I and Y bins, then by cell. Each pass is a stable counting sort.
+            int cells = cellRows * cellCols;
+            int[] order = new int[size];
+            int[] temp = new int[size];
+            int[] digit = new int[size];
+            int[] key = new int[size];
+            for (int p = 0; p < size; p++)
+                order[p] = p;
+            
+            for (int p = 0; p < size; p++)
+                digit[p] = (int)((Q[p] + 160) / binWidth);
+            Sort(order, temp, digit, side);
+            for (int p = 0; p < size; p++)
+                digit[p] = (int)((I[p] + 160) / binWidth);
+            Sort(temp, order, digit, side);
+            for (int p = 0; p < size; p++) {
+                digit[p] = (int)(Y[p] / binWidth);
+                key[p] = (digit[p] * side + (int)((I[p] + 160) / binWidth)) * side + (int)((Q[p] + 160) / binWidth);
+            }
+            Sort(order, temp, digit, side);
             for (int x = 0; x < height; x++) {
-                for (int y = 0; y < width; y++) {
-                    int yc = y;
-                    int xc = x;
-                    int xcOld, ycOld;
-                    float YcOld;
-                    float Yc = fastBitmap.getGray(x, y);
-
-                    iters = 0;
-                    do {
-                        xcOld = xc;
-                        ycOld = yc;
-                        YcOld = Yc;
-
-                        float mx = 0;
-                        float my = 0;
-                        float mY = 0;
-                        int num=0;
-
-                        int radius2 = radius * radius;
-                        float colorDistance2 = colorDistance * colorDistance;
-                        for (int rx=-radius; rx <= radius; rx++) {
-                                int x2 = xc + rx; 
-                                if (x2 >= 0 && x2 < height) {
-                                        for (int ry=-radius; ry <= radius; ry++) {
-                                                int y2 = yc + ry; 
-                                                if (y2 >= 0 && y2 < width) {
-                                                        if (rx*rx + ry*ry <= radius2) {
-
-                                                                float Y2 = fastBitmap.getGray(x2, y2);
-
-                                                                float dY = Yc - Y2;
-
-                                                                if (dY*dY <= colorDistance2) {
-                                                                        mx += x2;
-                                                                        my += y2;
-                                                                        mY += Y2;
-                                                                        num++;
-                                                                }
-                                                        }
-                                                }
-                                        }
+                for (int y = 0; y < width; y++)
+                    digit[x * width + y] = (x / cell) * cellCols + y / cell;
+            }
+            cellStart = Sort(temp, order, digit, cells);
+            
+            int[] bins = new int[size];
+            
+            px = new int[size];
+            py = new int[size];
+            pY = new float[size];
+            pI = new float[size];
+            pQ = new float[size];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int p = order[i];
+                px[i] = p / width;
+                py[i] = p % width;
+                pY[i] = Y[p];
+                pI[i] = I[p];
+                pQ[i] = Q[p];
+                bins[i] = key[p];
+            }
+            
+            // Runs of the same bin in each cell.
+            int[] first = new int[size + 1];
+            int[] cellFirst = new int[cells + 1];
+            for (int c = 0; c < cells; c++) {
+                cellFirst[c] = n;
+                for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+                    if (i == cellStart[c] || bins[i] != bins[i - 1])
+                        first[n++] = i;
+                }
+            }
+            cellFirst[cells] = n;
+            first[n] = size;
+            
+            bin = new int[n];
+            binStart = Arrays.copyOf(first, n + 1);
+            count = new int[n];
+            sx = new int[n];
+            sy = new int[n];
+            sY = new float[n];
+            sI = new float[n];
+            sQ = new float[n];
+            minY = new float[n]; maxY = new float[n];
+            minI = new float[n]; maxI = new float[n];
+            minQ = new float[n]; maxQ = new float[n];
+            for (int k = 0; k < n; k++) {
+                int lo = binStart[k], hi = binStart[k + 1];
+                bin[k] = bins[lo];
+                count[k] = hi - lo;
+                minY[k] = minI[k] = minQ[k] = Float.MAX_VALUE;
+                maxY[k] = maxI[k] = maxQ[k] = -Float.MAX_VALUE;
+                for (int i = lo; i < hi; i++) {
+                    sx[k] += px[i];
+                    sy[k] += py[i];
+                    sY[k] += pY[i];
+                    sI[k] += pI[i];
+                    sQ[k] += pQ[i];
+                    minY[k] = Math.min(minY[k], pY[i]); maxY[k] = Math.max(maxY[k], pY[i]);
+                    minI[k] = Math.min(minI[k], pI[i]); maxI[k] = Math.max(maxI[k], pI[i]);
+                    minQ[k] = Math.min(minQ[k], pQ[i]); maxQ[k] = Math.max(maxQ[k], pQ[i]);
+                }
+            }
+            
+            // The cells now point to their bins.
+            System.arraycopy(cellFirst, 0, cellStart, 0, cells + 1);
+        }
+        
+        int Bin(float v){
+            return (int)Math.floor(v / binWidth);
+        }
+        
+        /**
+         * Stable counting sort of the pixels by the digit.
+         * @return Start of each digit in the sorted pixels.
+         */
+        static int[] Sort(int[] src, int[] dst, int[] digit, int range){
+            int[] start = new int[range + 1];
+            for (int i = 0; i < src.length; i++)
+                start[digit[src[i]] + 1]++;
+            for (int i = 1; i <= range; i++)
+                start[i] += start[i - 1];
+            
+            int[] pos = Arrays.copyOf(start, range);
+            for (int i = 0; i < src.length; i++)
+                dst[pos[digit[src[i]]]++] = src[i];
+            return start;
+        }
+    }
+    
+    /**
+     * Mean shift of the pixels of a block of rows, with the cache of the modes around the block.
+     */
+    private static class Shifter {
+        private final Grid grid;
+        private final boolean useCache;
+        private final int margin;
+        private int top, bottom;
+        private int[] cache;
+        private float[] modes = new float[3 * 256];
+        private int count;
+        private int[] path = new int[128];
+        
+        Shifter(Grid grid, boolean useCache){
+            this.grid = grid;
+            this.useCache = useCache;
+            this.margin = 4 * Math.max(1, grid.radius);
+        }
+        
+        /**
+         * Start a block of rows, the cache covers the rows of the block and the margin.
+         */
+        void Reset(int startRow, int endRow){
+            if (!useCache) return;
+            top = Math.max(0, startRow - margin);
+            bottom = Math.min(grid.height, endRow + margin);
+            int size = (bottom - top) * grid.width;
+            if (cache == null || cache.length < size)
+                cache = new int[size];
+            Arrays.fill(cache, 0, size, -1);
+            count = 0;
+        }
+        
+        /**
+         * Mode cached at the position, if its color is within the half of the color distance.
+         */
+        private int Cached(int x, int y, float Yc, float Ic, float Qc){
+            if (x < top || x >= bottom) return -1;
+            int m = cache[(x - top) * grid.width + y];
+            if (m < 0) return -1;
+            float eY = modes[3*m] - Yc, eI = modes[3*m+1] - Ic, eQ = modes[3*m+2] - Qc;
+            float d = grid.colorDistance * 0.5f;
+            return eY*eY + eI*eI + eQ*eQ <= d * d ? m : -1;
+        }
+        
+        void Shift(int x, int y, float[] mode){
+            Grid g = grid;
+            int width = g.width, height = g.height, radius = g.radius;
+            int radius2 = radius * radius;
+            float colorDistance = g.colorDistance;
+            float colorDistance2 = colorDistance * colorDistance;
+            
+            int p = x * width + y;
+            int xc = x, yc = y;
+            float Yc = g.Y[p], Ic = g.I[p], Qc = g.Q[p];
+            int steps = 0;
+            int found = -1;
+            
+            if (useCache){
+                found = Cached(xc, yc, Yc, Ic, Qc);
+                path[steps++] = xc * width + yc;
+            }
+            
+            float shift;
+            int iters = 0;
+            while (found < 0) {
+                int xcOld = xc, ycOld = yc;
+                float YcOld = Yc, IcOld = Ic, QcOld = Qc;
+                
+                long mx = 0, my = 0;
+                double mY = 0, mI = 0, mQ = 0;
+                int num = 0;
+                
+                if (g.direct){
+                    for (int rx = -radius; rx <= radius; rx++) {
+                        int x2 = xc + rx;
+                        if (x2 < 0 || x2 >= height) continue;
+                        int y0 = Math.max(0, yc - g.span[rx + radius]);
+                        int y1 = Math.min(width - 1, yc + g.span[rx + radius]);
+                        for (int y2 = y0, q = x2 * width + y0; y2 <= y1; y2++, q++) {
+                            float dY = Yc - g.Y[q];
+                            float dI = Ic - g.I[q];
+                            float dQ = Qc - g.Q[q];
+                            if (dY*dY + dI*dI + dQ*dQ <= colorDistance2){
+                                mx += x2;
+                                my += y2;
+                                mY += g.Y[q];
+                                mI += g.I[q];
+                                mQ += g.Q[q];
+                                num++;
+                            }
+                        }
+                    }
+                }
+                else{
+                    int r0 = Math.max(0, xc - radius) / g.cell;
+                    int r1 = Math.min(height - 1, xc + radius) / g.cell;
+                    int c0 = Math.max(0, yc - radius) / g.cell;
+                    int c1 = Math.min(width - 1, yc + radius) / g.cell;
+                    int b0 = g.Bin(Yc - colorDistance) * g.side * g.side;
+                    int b1 = (g.Bin(Yc + colorDistance) + 1) * g.side * g.side;
+                
+                    for (int cr = r0; cr <= r1; cr++) {
+                        int x0 = cr * g.cell - xc;
+                        int x1 = Math.min(height - 1, (cr + 1) * g.cell - 1) - xc;
+                        int nx = x0 > 0 ? x0 : x1 < 0 ? x1 : 0;
+                        int fx = Math.max(-x0, x1);
+                        for (int cc = c0; cc <= c1; cc++) {
+                            int y0 = cc * g.cell - yc;
+                            int y1 = Math.min(width - 1, (cc + 1) * g.cell - 1) - yc;
+                            int ny = y0 > 0 ? y0 : y1 < 0 ? y1 : 0;
+                            if (nx*nx + ny*ny > radius2) continue;
+                            int fy = Math.max(-y0, y1);
+                            boolean inside = fx*fx + fy*fy <= radius2;
+                        
+                            int cell = cr * g.cellCols + cc;
+                            for (int k = g.cellStart[cell]; k < g.cellStart[cell + 1]; k++) {
+                                if (g.bin[k] < b0) continue;
+                                if (g.bin[k] >= b1) break;
+                            
+                                float nY = Near(Yc, g.minY[k], g.maxY[k]);
+                                float nI = Near(Ic, g.minI[k], g.maxI[k]);
+                                float nQ = Near(Qc, g.minQ[k], g.maxQ[k]);
+                                if (nY*nY + nI*nI + nQ*nQ > colorDistance2) continue;
+                            
+                                if (inside){
+                                    float fY = Math.max(Yc - g.minY[k], g.maxY[k] - Yc);
+                                    float fI = Math.max(Ic - g.minI[k], g.maxI[k] - Ic);
+                                    float fQ = Math.max(Qc - g.minQ[k], g.maxQ[k] - Qc);
+                                    if (fY*fY + fI*fI + fQ*fQ <= colorDistance2){
+                                        mx += g.sx[k];
+                                        my += g.sy[k];
+                                        mY += g.sY[k];
+                                        mI += g.sI[k];
+                                        mQ += g.sQ[k];
+                                        num += g.count[k];
+                                        continue;
+                                    }
                                 }
+                            
+                                for (int i = g.binStart[k]; i < g.binStart[k + 1]; i++) {
+                                    int rx = g.px[i] - xc;
+                                    int ry = g.py[i] - yc;
+                                    if (rx*rx + ry*ry > radius2) continue;
+                                
+                                    float dY = Yc - g.pY[i];
+                                    float dI = Ic - g.pI[i];
+                                    float dQ = Qc - g.pQ[i];
+                                    if (dY*dY + dI*dI + dQ*dQ <= colorDistance2){
+                                        mx += g.px[i];
+                                        my += g.py[i];
+                                        mY += g.pY[i];
+                                        mI += g.pI[i];
+                                        mQ += g.pQ[i];
+                                        num++;
+                                    }
+                                }
+                            }
                         }
-                        float num_ = 1f/num;
-                        Yc = mY*num_;
-                        xc = (int) (mx*num_+0.5);
-                        yc = (int) (my*num_+0.5);
-                        int dx = xc-xcOld;
-                        int dy = yc-ycOld;
-                        float dY = Yc-YcOld;
-
-                        shift = dx*dx+dy*dy+dY*dY;
-                        iters++;
                     }
-                    while (shift > 3 && iters < 100);
-
-                    fastBitmap.setGray(x, y, (int)Yc);
+                
+                }
+                
+                float num_ = 1f/num;
+                Yc = (float)(mY / num);
+                Ic = (float)(mI / num);
+                Qc = (float)(mQ / num);
+                xc = (int) (mx*num_+0.5);
+                yc = (int) (my*num_+0.5);
+                int dx = xc-xcOld;
+                int dy = yc-ycOld;
+                float dY = Yc-YcOld;
+                float dI = Ic-IcOld;
+                float dQ = Qc-QcOld;
+                
+                shift = dx*dx+dy*dy+dY*dY+dI*dI+dQ*dQ;
+                iters++;
+                
+                if (useCache){
+                    found = Cached(xc, yc, Yc, Ic, Qc);
+                    if (found >= 0) break;
+                    if (steps < path.length) path[steps++] = xc * width + yc;
+                }
+                
+                if (shift <= 3 || iters >= 100) break;
+            }
+            
+            if (found >= 0){
+                mode[0] = modes[3*found];
+                mode[1] = modes[3*found+1];
+                mode[2] = modes[3*found+2];
+            }
+            else{
+                mode[0] = Yc;
+                mode[1] = Ic;
+                mode[2] = Qc;
+            }
+            
+            if (useCache){
+                if (found < 0){
+                    if (3 * count == modes.length)
+                        modes = Arrays.copyOf(modes, 2 * modes.length);
+                    modes[3*count] = Yc;
+                    modes[3*count+1] = Ic;
+                    modes[3*count+2] = Qc;
+                    found = count++;
+                }
+                for (int i = 0; i < steps; i++) {
+                    int q = path[i];
+                    int qx = q / width;
+                    if (qx >= top && qx < bottom && cache[q - top * width] < 0)
+                        cache[q - top * width] = found;
                 }
             }
         }
@@ -25,6 +25,7 @@ package Catalano.Imaging.Filters;
 
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
+import Catalano.Imaging.Tools.ColorPalette;
 
 /**
  * Median Cut.
@@ -37,6 +38,7 @@ import Catalano.Imaging.IApplyInPlace;
 public class MedianCut implements IApplyInPlace{
     
     private static final int HSIZE = 32768;		// size of image histogram
+    private RgbHistogram histogram;	// histogram with the sums of the original colors
     private int[] hist;					// RGB histogram and reverse color lookup table
     private int[] histPtr;				// points to colors in "hist"
     private Cube[] list;				// list of cubes
@@ -78,129 +80,193 @@ public class MedianCut implements IApplyInPlace{
     public void applyInPlace(FastBitmap fastBitmap) {
         
         if (fastBitmap.isRGB()) {
-            FastBitmap copy = new FastBitmap(fastBitmap.getWidth(), fastBitmap.getHeight());
+            final int[] pixels = fastBitmap.getRGBData();
             
-            int[] pixels = fastBitmap.getRGBData();
+            int ncubes = Split(RgbHistogram.Compute(fastBitmap));
+            makeInverseMap(hist, ncubes);
             
-            hist = new int[HSIZE];
-            for (int i = 0; i < pixels.length; i++) {
-                int color16 = rgb(pixels[i]);
-                hist[color16]++;
-            }
+            final int[] colors = new int[ncubes];
+            for (int k = 0; k < ncubes; k++)
+                colors[k] = (rLUT[k] & 0xFF) << 16 | (gLUT[k] & 0xFF) << 8 | (bLUT[k] & 0xFF);
             
-            int lr, lg, lb;
-            int i, median, color;
-            int count;
-            int k, level, ncubes, splitpos;
-            int longdim = 0;	//longest dimension of cube
-            Cube cube, cubeA, cubeB;
-
-            // Create initial cube
-            list = new Cube[256];
-            histPtr = new int[HSIZE];
-            ncubes = 0;
-            cube = new Cube();
-            for (i = 0, color = 0; i <= HSIZE - 1; i++) {
-                if (hist[i] != 0) {
-                    histPtr[color++] = i;
-                    cube.count = cube.count + hist[i];
-                }
+            // The histogram holds the cube of each color, the strips are mapped in parallel.
+            int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), pixels.length / 65536));
+            if (cores == 1){
+                Map(pixels, colors, 0, pixels.length);
+                return;
             }
-            cube.lower = 0;
-            cube.upper = color - 1;
-            cube.level = 0;
-            Shrink(cube);
-            list[ncubes++] = cube;
-
-            //Main loop
-            while (ncubes < nCubes) {
-
-                // Search the list of cubes for next cube to split, the lowest level cube
-                level = 255;
-                splitpos = -1;                
-                for (k = 0; k <= ncubes - 1; k++) {
-                    if (list[k].lower == list[k].upper)  
-                                ; // single color; cannot be split
-                    else if (list[k].level < level) {
-                        level = list[k].level;
-                        splitpos = k;
+            
+            Thread[] t = new Thread[cores];
+            int part = pixels.length / cores;
+            for (int i = 0; i < cores; i++) {
+                final int start = i * part;
+                final int end = i == cores - 1 ? pixels.length : start + part;
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Map(pixels, colors, start, end);
                     }
+                });
+                t[i].start();
+            }
+            
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
                 }
-                if (splitpos == -1) // no more cubes to split
-                {
-                    break;
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        } else {
+            throw new IllegalArgumentException("Median cut only works in RGB images.");
+        }
+        
+    }
+    
+    private void Map(int[] pixels, int[] colors, int start, int end){
+        int[] cubes = hist;
+        for (int p = start; p < end; p++) {
+            pixels[p] = colors[cubes[rgb(pixels[p])]];
+        }
+    }
+    
+    /**
+     * Compute the palette of the image, without change it.
+     * The grayscale images are computed as rgb.
+     * @param fastBitmap Image.
+     * @return Palette with at most the number of cubes.
+     */
+    public ColorPalette ComputePalette(FastBitmap fastBitmap){
+        return ComputePalette(RgbHistogram.Compute(fastBitmap));
+    }
+    
+    /**
+     * Compute the palette of the pixels.
+     * @param pixels Pixels as rgb.
+     * @return Palette with at most the number of cubes.
+     */
+    public ColorPalette ComputePalette(int[] pixels){
+        return ComputePalette(RgbHistogram.Compute(pixels));
+    }
+    
+    /**
+     * Compute the palette of the histogram.
+     * @param histogram Histogram.
+     * @return Palette with at most the number of cubes.
+     */
+    ColorPalette ComputePalette(RgbHistogram histogram){
+        int ncubes = Split(histogram);
+        makeInverseMap(hist, ncubes);
+        
+        int[] colors = new int[ncubes];
+        for (int k = 0; k < ncubes; k++)
+            colors[k] = (rLUT[k] & 0xFF) << 16 | (gLUT[k] & 0xFF) << 8 | (bLUT[k] & 0xFF);
+        return new ColorPalette(colors);
+    }
+    
+    /**
+     * Split the histogram in cubes.
+     * @return Number of cubes.
+     */
+    private int Split(RgbHistogram histogram){
+        this.histogram = histogram;
+        hist = histogram.count.clone();
+        
+        int lr, lg, lb;
+        int i, median, color;
+        int count;
+        int k, level, ncubes, splitpos;
+        int longdim = 0;	//longest dimension of cube
+        Cube cube, cubeA, cubeB;
+
+        // Create initial cube
+        list = new Cube[256];
+        histPtr = new int[HSIZE];
+        ncubes = 0;
+        cube = new Cube();
+        for (i = 0, color = 0; i <= HSIZE - 1; i++) {
+            if (hist[i] != 0) {
+                histPtr[color++] = i;
+                cube.count = cube.count + hist[i];
+            }
+        }
+        cube.lower = 0;
+        cube.upper = color - 1;
+        cube.level = 0;
+        Shrink(cube);
+        list[ncubes++] = cube;
+
+        //Main loop
+        while (ncubes < nCubes) {
+
+            // Search the list of cubes for next cube to split, the lowest level cube
+            level = 255;
+            splitpos = -1;                
+            for (k = 0; k <= ncubes - 1; k++) {
+                if (list[k].lower == list[k].upper)  
+                            ; // single color; cannot be split
+                else if (list[k].level < level) {
+                    level = list[k].level;
+                    splitpos = k;
                 }
+            }
+            if (splitpos == -1) // no more cubes to split
+            {
+                break;
+            }
 
-                // Find longest dimension of this cube
-                cube = list[splitpos];
-                lr = cube.rmax - cube.rmin;
-                lg = cube.gmax - cube.gmin;
-                lb = cube.bmax - cube.bmin;
-                if (lr >= lg && lr >= lb) {
-                    longdim = 0;
-                }
-                if (lg >= lr && lg >= lb) {
-                    longdim = 1;
-                }
-                if (lb >= lr && lb >= lg) {
-                    longdim = 2;
-                }
+            // Find longest dimension of this cube
+            cube = list[splitpos];
+            lr = cube.rmax - cube.rmin;
+            lg = cube.gmax - cube.gmin;
+            lb = cube.bmax - cube.bmin;
+            if (lr >= lg && lr >= lb) {
+                longdim = 0;
+            }
+            if (lg >= lr && lg >= lb) {
+                longdim = 1;
+            }
+            if (lb >= lr && lb >= lg) {
+                longdim = 2;
+            }
 
-                // Sort along "longdim"
-                reorderColors(histPtr, cube.lower, cube.upper, longdim);
-                quickSort(histPtr, cube.lower, cube.upper);
-                restoreColorOrder(histPtr, cube.lower, cube.upper, longdim);
+            // Sort along "longdim"
+            reorderColors(histPtr, cube.lower, cube.upper, longdim);
+            quickSort(histPtr, cube.lower, cube.upper);
+            restoreColorOrder(histPtr, cube.lower, cube.upper, longdim);
 
-                // Find median
-                count = 0;
-                for (i = cube.lower; i <= cube.upper - 1; i++) {
-                    if (count >= cube.count / 2) {
-                        break;
-                    }
-                    color = histPtr[i];
-                    count = count + hist[color];
+            // Find median
+            count = 0;
+            for (i = cube.lower; i <= cube.upper - 1; i++) {
+                if (count >= cube.count / 2) {
+                    break;
                 }
-                median = i;
-
-                // Now split "cube" at the median and add the two new
-                // cubes to the list of cubes.
-                cubeA = new Cube();
-                cubeA.lower = cube.lower;                
-                cubeA.upper = median - 1;
-                cubeA.count = count;
-                cubeA.level = cube.level + 1;
-                Shrink(cubeA);
-                list[splitpos] = cubeA;				// add in old slot
-
-                cubeB = new Cube();
-                cubeB.lower = median;                
-                cubeB.upper = cube.upper;                
-                cubeB.count = cube.count - count;
-                cubeB.level = cube.level + 1;
-                Shrink(cubeB);
-                list[ncubes++] = cubeB;				// add in new slot */
-
-            }
-            
-            makeInverseMap(hist, ncubes);
-            
-            int[] temp = copy.getRGBData();
-            
-            for (int p = 0; p < pixels.length; p++) {
-                int color16 = rgb(pixels[p]);
-                
-                int r = rLUT[hist[color16]] & 0xFF;
-                int g = gLUT[hist[color16]] & 0xFF;
-                int b = bLUT[hist[color16]] & 0xFF;
-                
-                temp[p] = r << 16 | g << 8 | b;
+                color = histPtr[i];
+                count = count + hist[color];
             }
-            
-            fastBitmap.setImage(copy);
-        } else {
-            throw new IllegalArgumentException("Median cut only works in RGB images.");
+            median = i;
+
+            // Now split "cube" at the median and add the two new
+            // cubes to the list of cubes.
+            cubeA = new Cube();
+            cubeA.lower = cube.lower;                
+            cubeA.upper = median - 1;
+            cubeA.count = count;
+            cubeA.level = cube.level + 1;
+            Shrink(cubeA);
+            list[splitpos] = cubeA;				// add in old slot
+
+            cubeB = new Cube();
+            cubeB.lower = median;                
+            cubeB.upper = cube.upper;                
+            cubeB.count = cube.count - count;
+            cubeB.level = cube.level + 1;
+            Shrink(cubeB);
+            list[ncubes++] = cubeB;				// add in new slot */
+
         }
         
+        return ncubes;
     }
     
     // Convert from 24-bit to 15-bit color
@@ -262,7 +328,6 @@ public class MedianCut implements IApplyInPlace{
 
         int r, g, b;
         int color;
-        float rsum, gsum, bsum;
         Cube cube;
         rLUT = new byte[256];
         gLUT = new byte[256];
@@ -270,23 +335,18 @@ public class MedianCut implements IApplyInPlace{
 
         for (int k=0; k<=ncubes-1; k++) {
                 cube = list[k];
-                rsum = gsum = bsum = (float)0.0;
+                long rsum = 0, gsum = 0, bsum = 0;
                 for (int i=cube.lower; i<=cube.upper; i++) {
                         color = histPtr[i];
-                        r = red(color);
-                        rsum += (float)r*(float)hist[color];
-                        g = green(color);
-                        gsum += (float)g*(float)hist[color];
-                        b = blue(color);
-                        bsum += (float)b*(float)hist[color];
+                        rsum += histogram.red[color];
+                        gsum += histogram.green[color];
+                        bsum += histogram.blue[color];
                 }
 
-                // Update the color map
-                r = (int)(rsum/(float)cube.count);
-                g = (int)(gsum/(float)cube.count);
-                b = (int)(bsum/(float)cube.count);
-                if (r==248 && g==248 && b==248)
-                        r=g=b=255;  // Restore white (255,255,255)
+                // Update the color map with the mean of the original colors
+                r = (int)((rsum + cube.count / 2) / cube.count);
+                g = (int)((gsum + cube.count / 2) / cube.count);
+                b = (int)((bsum + cube.count / 2) / cube.count);
                 rLUT[k] = (byte)r;
                 gLUT[k] = (byte)g;
                 bLUT[k] = (byte)b;
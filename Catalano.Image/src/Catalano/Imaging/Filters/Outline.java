@@ -24,6 +24,7 @@ package Catalano.Imaging.Filters;
 
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
+import Catalano.Imaging.Tools.BinaryLookupTable;
 
 /**
  * Outline operation fr extracting the boundary pixels.
@@ -46,13 +47,8 @@ public class Outline implements IApplyInPlace{
     public void applyInPlace(FastBitmap fastBitmap) {
         
         if(fastBitmap.isGrayscale()){
-            FastBitmap copy = new FastBitmap(fastBitmap);
-            
-            BinaryErosion be = new BinaryErosion(kernel);
-            be.applyInPlace(copy);
-            
-            Subtract sub = new Subtract(copy);
-            sub.applyInPlace(fastBitmap);
+            // Foreground pixels removed by the erosion, pixels outside of the image are foreground.
+            BinaryLookupTable.FromErosion(kernel).apply(fastBitmap, true, true, 255, 0);
         }
         else{
             throw new IllegalArgumentException("Outline only works in grayscale images.");
@@ -26,7 +26,6 @@ package Catalano.Imaging.Filters;
 
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.IApplyInPlace;
-import Catalano.Math.Matrix;
 
 /**
  * Perona-Malik Anisotropic diffusion.
@@ -35,6 +34,13 @@ import Catalano.Math.Matrix;
  * of the image content, typically edges, lines or other details that
  * are important for the interpretation of the image. </p>
  * 
+ * <p> The image is diffused between two float buffers with no flux across the borders.
+ * The explicit scheme computes the four fluxes of a pixel in a single pass, each flux is shared by the two pixels of the edge.
+ * The semi-implicit scheme (additive operator splitting) solves the rows and the columns with the Thomas algorithm
+ * and is stable for any lambda, so fewer iterations with a larger lambda are needed.
+ * The rows and the columns are processed in parallel. The iterations stop when the mean absolute change of a pixel
+ * is lower than the tolerance. </p>
+ * 
  * @author Diego Catalano
  */
 public class PeronaMalikAnisotropicDiffusion implements IApplyInPlace{
@@ -54,10 +60,27 @@ public class PeronaMalikAnisotropicDiffusion implements IApplyInPlace{
         WideRegions
     };
     
+    /**
+     * Numerical scheme.
+     */
+    public static enum Scheme {
+        /**
+         * Explicit, stable for lambda up to 0.25.
+         */
+        Explicit,
+        
+        /**
+         * Semi-implicit additive operator splitting, stable for any lambda.
+         */
+        AdditiveOperatorSplitting
+    };
+    
     private int iterations;
     private double kappa;
     private double lambda;
     private Diffusion diffusion;
+    private Scheme scheme = Scheme.Explicit;
+    private double tolerance = 0;
 
     /**
      * Get number of iterations.
@@ -123,6 +146,38 @@ public class PeronaMalikAnisotropicDiffusion implements IApplyInPlace{
         this.diffusion = diffusion;
     }
 
+    /**
+     * Get numerical scheme.
+     * @return Numerical scheme.
+     */
+    public Scheme getScheme() {
+        return scheme;
+    }
+
+    /**
+     * Set numerical scheme.
+     * @param scheme Numerical scheme.
+     */
+    public void setScheme(Scheme scheme) {
+        this.scheme = scheme;
+    }
+
+    /**
+     * Get the minimum mean absolute change of a pixel to continue the iterations.
+     * @return Tolerance, 0 runs all the iterations.
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Set the minimum mean absolute change of a pixel to continue the iterations.
+     * @param tolerance Tolerance, 0 runs all the iterations.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = Math.max(0, tolerance);
+    }
+
     /**
      * Initializes a new instance of the PeronaMalikAnisotropicDiffusion class.
      */
@@ -152,97 +207,262 @@ public class PeronaMalikAnisotropicDiffusion implements IApplyInPlace{
         this.diffusion = diffusion;
     }
     
+    /**
+     * Initializes a new instance of the PeronaMalikAnisotropicDiffusion class.
+     * @param iterations Number of iterations.
+     * @param kappa Controls conduction as a function of gradient.
+     * @param lambda Controls the speed of diffusion.
+     * @param diffusion Diffusion equation.
+     * @param scheme Numerical scheme.
+     */
+    public PeronaMalikAnisotropicDiffusion(int iterations, double kappa, double lambda, Diffusion diffusion, Scheme scheme) {
+        this(iterations, kappa, lambda, diffusion);
+        this.scheme = scheme;
+    }
+    
     @Override
     public void applyInPlace(FastBitmap fastBitmap) {
         
         if(fastBitmap.isGrayscale()){
             
-            double[][] diff = fastBitmap.toMatrixGrayAsDouble();
+            byte[] data = fastBitmap.getGrayData();
+            Solver solver = new Solver(fastBitmap.getWidth(), fastBitmap.getHeight());
+            for (int i = 0; i < data.length; i++)
+                solver.u[i] = data[i] & 0xFF;
             
-            int h = diff.length;
-            int w = diff[0].length;
+            solver.Run();
             
-            double[][] deltaN = new double[h][w];
-            double[][] deltaS = new double[h][w];
-            double[][] deltaE = new double[h][w];
-            double[][] deltaW = new double[h][w];
+            float[] u = solver.u;
+            for (int i = 0; i < data.length; i++)
+                data[i] = (byte)Math.max(0, Math.min(255, Math.round(u[i])));
+        }
+        else{
+            throw new IllegalArgumentException("Perona-Malik only works in grayscale images.");
+        }
+    }
+    
+    /**
+     * Buffers of the diffusion, the buffers are swapped after each iteration.
+     */
+    private class Solver {
+        
+        private static final int EXPLICIT = 0, ROWS = 1, COLUMNS = 2;
+        private static final int SAMPLES = 8;
+        
+        final int width, height;
+        final float[] table = new float[256 * SAMPLES + 2];
+        final float step = (float)lambda;
+        final int cores;
+        
+        float[] u, next, tmp, out;
+        final double[] change;
+        
+        Solver(int width, int height){
+            this.width = width;
+            this.height = height;
+            this.u = new float[width * height];
+            this.next = new float[width * height];
+            this.change = new double[Math.max(width, height)];
+            if (scheme == Scheme.AdditiveOperatorSplitting){
+                this.tmp = new float[width * height];
+                this.out = new float[width * height];
+            }
             
-            for (int i = 0; i < iterations; i++) {
-                //North diff
-                for (int y = 0; y < w; y++) {
-                    deltaN[0][y] = -diff[0][y];
+            // Conduction of the differences in steps of 1 / SAMPLES.
+            for (int i = 0; i < table.length; i++) {
+                double d = (double)i / SAMPLES;
+                double x = d * d / (kappa * kappa);
+                table[i] = (float)(diffusion == Diffusion.HighContrastEdges ? Math.exp(-x) : 1 / (1 + x));
+            }
+            this.cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), Math.min(width, height) / 16));
+        }
+        
+        void Run(){
+            for (int it = 0; it < iterations; it++) {
+                double sum = 0;
+                if (out == null){
+                    Parallel(EXPLICIT, height);
+                    float[] t = u; u = next; next = t;
+                    for (int i = 0; i < height; i++)
+                        sum += change[i];
                 }
-                for (int x = 1; x < h; x++) {
-                    for (int y = 0; y < w; y++) {
-                        deltaN[x][y] = diff[x-1][y] - diff[x][y];
-                    }
+                else{
+                    Parallel(ROWS, height);
+                    Parallel(COLUMNS, width);
+                    float[] t = u; u = out; out = t;
+                    for (int j = 0; j < width; j++)
+                        sum += change[j];
                 }
                 
-                //South diff
-                for (int x = 0; x < h - 1; x++) {
-                    for (int y = 0; y < w; y++) {
-                        deltaS[x][y] = diff[x+1][y] - diff[x][y];
-                    }
-                }
-                for (int y = 0; y < w; y++) {
-                    deltaS[h - 1][y] = -diff[h - 1][y];
+                if (sum / (width * height) < tolerance) break;
+            }
+        }
+        
+        private void Parallel(final int phase, final int n){
+            if (cores == 1){
+                Phase(phase, 0, n);
+            }
+            else{
+                Thread[] t = new Thread[cores];
+                int part = n / cores;
+                for (int i = 0; i < cores; i++) {
+                    final int start = i * part;
+                    final int end = i == cores - 1 ? n : start + part;
+                    t[i] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Phase(phase, start, end);
+                        }
+                    });
+                    t[i].start();
                 }
-                
-                //East diff
-                for (int x = 0; x < h; x++) {
-                    for (int y = 0; y < w - 1; y++) {
-                        deltaE[x][y] = diff[x][y+1] - diff[x][y];
+
+                try {
+                    for (int i = 0; i < cores; i++) {
+                        t[i].join();
                     }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
                 }
-                for (int x = 0; x < h; x++) {
-                    deltaE[x][w - 1] = -diff[x][w - 1];
+            }
+        }
+        
+        private void Phase(int phase, int start, int end){
+            switch(phase){
+                case EXPLICIT: Explicit(start, end); break;
+                case ROWS: Rows(start, end); break;
+                case COLUMNS: Columns(start, end); break;
+            }
+        }
+        
+        /**
+         * Conduction coefficient, linear interpolation of the table.
+         */
+        private float Conduction(float d){
+            float a = Math.abs(d) * SAMPLES;
+            if (a >= table.length - 1) return table[table.length - 1];
+            int i = (int)a;
+            return table[i] + (a - i) * (table[i + 1] - table[i]);
+        }
+        
+        /**
+         * One explicit step of the rows, the south flux of a row is the north flux of the next row.
+         */
+        private void Explicit(int start, int end){
+            float[] in = u;
+            float[] dst = next;
+            float[] south = new float[width];
+            
+            if (start > 0){
+                int row = start * width;
+                for (int j = 0; j < width; j++) {
+                    float d = in[row + j] - in[row - width + j];
+                    south[j] = d * Conduction(d);
                 }
-                
-                //West diff
-                for (int x = 0; x < h; x++) {
-                    for (int y = 1; y < w; y++) {
-                        deltaW[x][y] = diff[x][y-1] - diff[x][y];
+            }
+            
+            for (int i = start; i < end; i++) {
+                int row = i * width;
+                boolean last = i == height - 1;
+                double sum = 0;
+                float east = 0;
+                for (int j = 0; j < width; j++) {
+                    int p = row + j;
+                    float c = in[p];
+                    float flux = -south[j] - east;
+                    
+                    if (!last){
+                        float d = in[p + width] - c;
+                        south[j] = d * Conduction(d);
+                        flux += south[j];
+                    }
+                    if (j < width - 1){
+                        float d = in[p + 1] - c;
+                        east = d * Conduction(d);
+                        flux += east;
                     }
+                    
+                    float v = c + step * flux;
+                    dst[p] = v;
+                    sum += Math.abs(v - c);
                 }
-                for (int x = 0; x < h; x++) {
-                    deltaW[x][0] = -diff[x][0];
+                change[i] = sum;
+            }
+        }
+        
+        /**
+         * Solve the rows: (I - 2 lambda A) x = u, the result is in next.
+         */
+        private void Rows(int start, int end){
+            float[] in = u;
+            float[] x = next;
+            float[] cp = tmp;
+            float t2 = 2 * step;
+            
+            for (int i = start; i < end; i++) {
+                int row = i * width;
+                float gPrev = 0;
+                float cPrev = 0, dPrev = 0;
+                for (int j = 0; j < width; j++) {
+                    int p = row + j;
+                    float gNext = j < width - 1 ? t2 * Conduction(in[p + 1] - in[p]) : 0;
+                    float den = 1 + gPrev + gNext + gPrev * cPrev;
+                    cPrev = -gNext / den;
+                    dPrev = (in[p] + gPrev * dPrev) / den;
+                    cp[p] = cPrev;
+                    x[p] = dPrev;
+                    gPrev = gNext;
                 }
-                
-                if(diffusion == Diffusion.HighContrastEdges){
-                    for (int x = 0; x < h; x++) {
-                        for (int y = 0; y < w; y++) {
-                            double cN = Math.exp(-Math.pow(deltaN[x][y] / kappa, 2));
-                            double cS = Math.exp(-Math.pow(deltaS[x][y] / kappa, 2));
-                            double cE = Math.exp(-Math.pow(deltaE[x][y] / kappa, 2));
-                            double cW = Math.exp(-Math.pow(deltaW[x][y] / kappa, 2));
-                            diff[x][y] = diff[x][y] + lambda * (deltaN[x][y]*cN + deltaS[x][y]*cS + deltaE[x][y]*cE + deltaW[x][y]*cW);
-                        }
-                    }
+                for (int j = width - 2; j >= 0; j--) {
+                    int p = row + j;
+                    x[p] -= cp[p] * x[p + 1];
                 }
-                else{
-                    for (int x = 0; x < h; x++) {
-                        for (int y = 0; y < w; y++) {
-                            double cN = 1 / (1 + Math.pow((deltaN[x][y] / kappa),2));
-                            double cS = 1 / (1 + Math.pow((deltaS[x][y] / kappa),2));
-                            double cE = 1 / (1 + Math.pow((deltaE[x][y] / kappa),2));
-                            double cW = 1 / (1 + Math.pow((deltaW[x][y] / kappa),2));
-                            diff[x][y] = diff[x][y] + lambda * (deltaN[x][y]*cN + deltaS[x][y]*cS + deltaE[x][y]*cE + deltaW[x][y]*cW);
-                        }
-                    }
+            }
+        }
+        
+        /**
+         * Solve the columns and average with the rows, the result is in out.
+         * The columns of the strip are solved together, row by row.
+         */
+        private void Columns(int start, int end){
+            float[] in = u;
+            float[] rows = next;
+            float[] cp = tmp;
+            float[] dst = out;
+            float t2 = 2 * step;
+            int n = end - start;
+            float[] gPrev = new float[n];
+            
+            for (int i = 0; i < height; i++) {
+                int row = i * width;
+                boolean last = i == height - 1;
+                for (int j = start; j < end; j++) {
+                    int p = row + j;
+                    float gp = gPrev[j - start];
+                    float gNext = last ? 0 : t2 * Conduction(in[p + width] - in[p]);
+                    float cPrev = i > 0 ? cp[p - width] : 0;
+                    float dPrev = i > 0 ? dst[p - width] : 0;
+                    float den = 1 + gp + gNext + gp * cPrev;
+                    cp[p] = -gNext / den;
+                    dst[p] = (in[p] + gp * dPrev) / den;
+                    gPrev[j - start] = gNext;
                 }
             }
             
-            //Just clamp the values [0..255]
-            double min = Matrix.Min(diff);
-            double max = Matrix.Max(diff);
-            for (int i = 0; i < h; i++) {
-                for (int j = 0; j < w; j++) {
-                    fastBitmap.setGray(i, j, (int)Catalano.Math.Tools.Scale(min, max, 0, 255, diff[i][j]));
+            // The solution of the row below is kept in tmp.
+            for (int j = start; j < end; j++)
+                change[j] = 0;
+            for (int i = height - 1; i >= 0; i--) {
+                int row = i * width;
+                for (int j = start; j < end; j++) {
+                    int p = row + j;
+                    float v = i < height - 1 ? dst[p] - cp[p] * cp[p + width] : dst[p];
+                    cp[p] = v;
+                    v = 0.5f * (rows[p] + v);
+                    dst[p] = v;
+                    change[j] += Math.abs(v - in[p]);
                 }
             }
         }
-        else{
-            throw new IllegalArgumentException("Perona-Malik only works in grayscale images.");
-        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Filters;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Imaging.IApplyInPlace;
+import Catalano.Imaging.Tools.BinaryLookupTable;
+
+/**
+ * Pruning.
+ * Remove the spurs of a skeleton, each iteration removes the end points of the branches.
+ * Usually applied after the thinning, like Zhang-Suen Thinning.
+ *
+ * <p><li>Supported types: Grayscale (binary).
+ * <br><li>Coordinate System: Matrix.
+ *
+ * @author Diego Catalano
+ */
+public class Pruning implements IApplyInPlace{
+
+    private static final BinaryLookupTable endPoints = EndPoints();
+    private int iterations = 1;
+
+    /**
+     * Get number of iterations.
+     * @return Number of iterations.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Set number of iterations.
+     * @param iterations Number of iterations.
+     */
+    public void setIterations(int iterations) {
+        this.iterations = Math.max(1, iterations);
+    }
+
+    /**
+     * Initialize a new instance of the Pruning class.
+     */
+    public Pruning() {}
+
+    /**
+     * Initialize a new instance of the Pruning class.
+     * @param iterations Number of iterations.
+     */
+    public Pruning(int iterations) {
+        setIterations(iterations);
+    }
+
+    @Override
+    public void applyInPlace(FastBitmap fastBitmap) {
+        if (fastBitmap.isGrayscale()) {
+            endPoints.iterate(fastBitmap, new int[] {1}, iterations);
+        }
+        else{
+            throw new IllegalArgumentException("Pruning only works with grayscale image.");
+        }
+    }
+
+    /**
+     * End point: only one neighbor or two consecutive neighbors.
+     */
+    private static BinaryLookupTable EndPoints(){
+        int[] table = new int[256];
+        for (int k = 0; k < 8; k++) {
+            table[1 << k] = 1;
+            table[(1 << k) | (1 << ((k + 1) % 8))] = 1;
+        }
+        return new BinaryLookupTable(table);
+    }
+}
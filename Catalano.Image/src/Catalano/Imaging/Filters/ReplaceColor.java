@@ -21,6 +21,7 @@
 
 package Catalano.Imaging.Filters;
 
+import Catalano.Core.IntPoint;
 import Catalano.Core.IntRange;
 import Catalano.Imaging.FastBitmap;
 
@@ -67,38 +68,67 @@ public class ReplaceColor {
      * @param blue New blue.
      */
     public void ApplyInPlace(FastBitmap fastBitmap, int red, int green, int blue){
-        int size = fastBitmap.getSize();
+        int[] rgb = fastBitmap.getRGBData();
+        int color = red << 16 | green << 8 | blue;
         
-        int r,g,b;
-        if (isRange == false) {
-            for (int i = 0; i < size; i++) {
-                r = fastBitmap.getRed(i);
-                g = fastBitmap.getGreen(i);
-                b = fastBitmap.getBlue(i);
-
-                if ((r == oldRed) && (g == oldGreen) && (b == oldBlue)) {
-                    fastBitmap.setRed(i, red);
-                    fastBitmap.setGreen(i, green);
-                    fastBitmap.setBlue(i, blue);
-                }
-            }
+        IntRange r = Red();
+        IntRange g = Green();
+        IntRange b = Blue();
+        int minR = r.getMin(), maxR = r.getMax();
+        int minG = g.getMin(), maxG = g.getMax();
+        int minB = b.getMin(), maxB = b.getMax();
+        
+        for (int i = 0; i < rgb.length; i++) {
+            int c = rgb[i];
+            int cr = c >> 16 & 0xFF;
+            int cg = c >> 8 & 0xFF;
+            int cb = c & 0xFF;
+            if (cr >= minR && cr <= maxR && cg >= minG && cg <= maxG && cb >= minB && cb <= maxB)
+                rgb[i] = (c & 0xFF000000) | color;
         }
-        else{
-            for (int i = 0; i < size; i++) {
-                r = fastBitmap.getRed(i);
-                g = fastBitmap.getGreen(i);
-                b = fastBitmap.getBlue(i);
-
-                if (
-                    (r >= oldRedRange.getMin()) && (r <= oldRedRange.getMax()) && 
-                    (g >= oldGreenRange.getMin()) && (g <= oldGreenRange.getMax()) && 
-                    (b >= oldBlueRange.getMin()) && (b <= oldBlueRange.getMax())
-                ) {
-                    fastBitmap.setRed(i, red);
-                    fastBitmap.setGreen(i, green);
-                    fastBitmap.setBlue(i, blue);
-                }
-            }
+    }
+    
+    /**
+     * Apply filter to the areas of the old color connected to the points.
+     * The areas are flood filled with 4 neighbors and the points are filled in parallel.
+     * @param fastBitmap FastBitmap.
+     * @param red New red.
+     * @param green New green.
+     * @param blue New blue.
+     * @param points Points (x,y) inside the areas.
+     */
+    public void ApplyInPlace(FastBitmap fastBitmap, int red, int green, int blue, IntPoint... points){
+        int width = fastBitmap.getWidth();
+        int height = fastBitmap.getHeight();
+        int[] seeds = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            IntPoint p = points[i];
+            if (p.x < 0 || p.x >= height || p.y < 0 || p.y >= width)
+                throw new IllegalArgumentException("The point must be inside the image.");
+            seeds[i] = p.x * width + p.y;
         }
+        
+        ScanlineFill fill = new ScanlineFill(fastBitmap, Red(), Green(), Blue(), false);
+        fill.Fill(seeds);
+        
+        int[] rgb = fastBitmap.getRGBData();
+        byte[] mask = fill.mask;
+        int color = red << 16 | green << 8 | blue;
+        for (int i = 0; i < rgb.length; i++) {
+            if (mask[i] != 0)
+                rgb[i] = (rgb[i] & 0xFF000000) | color;
+        }
+    }
+    
+    private IntRange Red(){
+        return isRange ? oldRedRange : new IntRange(oldRed, oldRed);
+    }
+    
+    private IntRange Green(){
+        return isRange ? oldGreenRange : new IntRange(oldGreen, oldGreen);
+    }
+    
+    private IntRange Blue(){
+        return isRange ? oldBlueRange : new IntRange(oldBlue, oldBlue);
     }
 }
\ No newline at end of file
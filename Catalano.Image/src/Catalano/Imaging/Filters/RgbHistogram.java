@@ -0,0 +1,151 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+package Catalano.Imaging.Filters;
+
+import Catalano.Imaging.FastBitmap;
+
+/**
+ * Histogram of the colors with 5 bits per channel, with the sum of the original colors of each bin.
+ * The strips of the image are counted in parallel and merged.
+ * @author Diego Catalano
+ */
+final class RgbHistogram {
+    
+    static final int SIZE = 32768;
+    
+    int[] count = new int[SIZE];
+    long[] red = new long[SIZE];
+    long[] green = new long[SIZE];
+    long[] blue = new long[SIZE];
+    
+    private RgbHistogram() {}
+    
+    /**
+     * Bin of the color, red in the lowest bits.
+     * @param c Color as rgb.
+     * @return Bin.
+     */
+    static int Bin(int c){
+        return (c & 0xf80000) >> 19 | (c & 0xf800) >> 6 | (c & 0xf8) << 7;
+    }
+    
+    /**
+     * Compute the histogram of the image.
+     * @param fastBitmap Grayscale, rgb or argb image.
+     * @return Histogram.
+     */
+    static RgbHistogram Compute(FastBitmap fastBitmap){
+        if (fastBitmap.isGrayscale())
+            return Compute(fastBitmap.getGrayData(), null, fastBitmap.getSize());
+        return Compute(null, fastBitmap.getRGBData(), fastBitmap.getSize());
+    }
+    
+    /**
+     * Compute the histogram of the pixels.
+     * @param pixels Pixels as rgb.
+     * @return Histogram.
+     */
+    static RgbHistogram Compute(int[] pixels){
+        return Compute(null, pixels, pixels.length);
+    }
+    
+    private static RgbHistogram Compute(final byte[] gray, final int[] rgb, final int size){
+        
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), size / 65536));
+        if (cores == 1){
+            RgbHistogram h = new RgbHistogram();
+            h.Add(gray, rgb, 0, size);
+            return h;
+        }
+        
+        final RgbHistogram[] parts = new RgbHistogram[cores];
+        Thread[] t = new Thread[cores];
+        int part = size / cores;
+        for (int i = 0; i < cores; i++) {
+            final int k = i;
+            final int start = i * part;
+            final int end = i == cores - 1 ? size : start + part;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    parts[k] = new RgbHistogram();
+                    parts[k].Add(gray, rgb, start, end);
+                }
+            });
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        
+        RgbHistogram h = parts[0];
+        for (int i = 1; i < cores; i++) {
+            RgbHistogram p = parts[i];
+            for (int j = 0; j < SIZE; j++) {
+                if (p.count[j] != 0){
+                    h.count[j] += p.count[j];
+                    h.red[j] += p.red[j];
+                    h.green[j] += p.green[j];
+                    h.blue[j] += p.blue[j];
+                }
+            }
+        }
+        return h;
+    }
+    
+    private void Add(byte[] gray, int[] rgb, int start, int end){
+        for (int i = start; i < end; i++) {
+            int r, g, b;
+            if (gray != null){
+                r = g = b = gray[i] & 0xFF;
+            }
+            else{
+                int c = rgb[i];
+                r = c >> 16 & 0xFF;
+                g = c >> 8 & 0xFF;
+                b = c & 0xFF;
+            }
+            int bin = (r >> 3) | (g >> 3) << 5 | (b >> 3) << 10;
+            count[bin]++;
+            red[bin] += r;
+            green[bin] += g;
+            blue[bin] += b;
+        }
+    }
+    
+    /**
+     * Mean color of the bin.
+     * @param bin Bin.
+     * @return Color as rgb.
+     */
+    int Mean(int bin){
+        int n = count[bin];
+        int r = (int)((red[bin] + n / 2) / n);
+        int g = (int)((green[bin] + n / 2) / n);
+        int b = (int)((blue[bin] + n / 2) / n);
+        return r << 16 | g << 8 | b;
+    }
+}
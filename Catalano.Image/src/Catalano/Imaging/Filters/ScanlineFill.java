@@ -0,0 +1,249 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+package Catalano.Imaging.Filters;
+
+import Catalano.Core.IntRange;
+import Catalano.Imaging.FastBitmap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scanline flood fill.
+ *
+ * <p>The pixels inside the range are filled span by span into a mask, the image is not modified.
+ * Each span of the stack remembers the direction it came from, so only the parts of the parent row that are
+ * not covered by the previous span are scanned again (Heckbert). Several seeds are filled in parallel,
+ * the regions are the connected components of the range, so the mask does not depend on the order of the seeds.</p>
+ *
+ * @author Diego Catalano
+ */
+final class ScanlineFill {
+
+    private final int width;
+    private final int height;
+    private final byte[] gray;
+    private final int[] rgb;
+    private final int extra;
+    private final int minR, maxR, minG, maxG, minB, maxB;
+
+    /**
+     * Filled pixels, 1 if the pixel is filled.
+     */
+    final byte[] mask;
+
+    /**
+     * Initialize a new instance of the ScanlineFill class for grayscale images.
+     * @param fastBitmap Grayscale image.
+     * @param gray Range of the gray values to fill.
+     * @param eightWay True for 8 neighbors, false for 4 neighbors.
+     */
+    ScanlineFill(FastBitmap fastBitmap, IntRange gray, boolean eightWay){
+        this(fastBitmap, eightWay, gray, null, null);
+    }
+
+    /**
+     * Initialize a new instance of the ScanlineFill class for rgb images.
+     * @param fastBitmap RGB image.
+     * @param red Range of the red channel.
+     * @param green Range of the green channel.
+     * @param blue Range of the blue channel.
+     * @param eightWay True for 8 neighbors, false for 4 neighbors.
+     */
+    ScanlineFill(FastBitmap fastBitmap, IntRange red, IntRange green, IntRange blue, boolean eightWay){
+        this(fastBitmap, eightWay, red, green, blue);
+    }
+
+    private ScanlineFill(FastBitmap fastBitmap, boolean eightWay, IntRange red, IntRange green, IntRange blue){
+        this.width = fastBitmap.getWidth();
+        this.height = fastBitmap.getHeight();
+        this.extra = eightWay ? 1 : 0;
+        this.mask = new byte[width * height];
+        this.minR = red.getMin();
+        this.maxR = red.getMax();
+
+        if (green == null){
+            this.gray = fastBitmap.getGrayData();
+            this.rgb = null;
+            this.minG = minB = 0;
+            this.maxG = maxB = 255;
+        }
+        else{
+            this.gray = null;
+            this.rgb = fastBitmap.getRGBData();
+            this.minG = green.getMin();
+            this.maxG = green.getMax();
+            this.minB = blue.getMin();
+            this.maxB = blue.getMax();
+        }
+    }
+
+    /**
+     * Fill the regions of the seeds, the seeds are filled in parallel.
+     * @param seeds Index of the seeds, row * width + column.
+     */
+    void Fill(final int[] seeds){
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), seeds.length));
+        if (cores == 1){
+            IntStack stack = new IntStack();
+            for (int i = 0; i < seeds.length; i++)
+                Fill(seeds[i], stack, null);
+        }
+        else{
+            // The mask is shared, a span filled twice by two threads is harmless.
+            final AtomicInteger next = new AtomicInteger();
+            Thread[] t = new Thread[cores];
+            for (int i = 0; i < cores; i++) {
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        IntStack stack = new IntStack();
+                        int i;
+                        while ((i = next.getAndIncrement()) < seeds.length)
+                            Fill(seeds[i], stack, null);
+                    }
+                });
+                t[i].start();
+            }
+
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Fill the region of the seed.
+     * @param seed Index of the seed, row * width + column.
+     * @param spans If not null, receives the filled spans as (row, left, right).
+     * @return Number of filled pixels.
+     */
+    int Fill(int seed, IntStack spans){
+        return Fill(seed, new IntStack(), spans);
+    }
+
+    private int Fill(int seed, IntStack stack, IntStack spans){
+        if (!Inside(seed)) return 0;
+
+        int row = seed / width;
+        int offset = row * width;
+        int l = seed - offset;
+        int r = l;
+        while (l > 0 && Inside(offset + l - 1)) l--;
+        while (r < width - 1 && Inside(offset + r + 1)) r++;
+        int count = Mark(row, l, r, spans);
+
+        stack.Push(row + 1, l - extra, r + extra, 1);
+        stack.Push(row - 1, l - extra, r + extra, -1);
+
+        int[] s;
+        while (stack.size > 0) {
+            stack.size -= 4;
+            s = stack.data;
+            row = s[stack.size];
+            int a = s[stack.size + 1];
+            int b = s[stack.size + 2];
+            int dir = s[stack.size + 3];
+            if (row < 0 || row >= height) continue;
+
+            offset = row * width;
+            int end = Math.min(b, width - 1);
+            int y = Math.max(a, 0);
+            while (y <= end) {
+                if (!Inside(offset + y)){
+                    y++;
+                    continue;
+                }
+
+                l = y;
+                r = y;
+                while (l > 0 && Inside(offset + l - 1)) l--;
+                while (r < width - 1 && Inside(offset + r + 1)) r++;
+                count += Mark(row, l, r, spans);
+
+                // The parent row is scanned again only where the span leaks out of the parent span.
+                stack.Push(row + dir, l - extra, r + extra, dir);
+                if (l - extra < a)
+                    stack.Push(row - dir, l - extra, a - 1, -dir);
+                if (r + extra > b)
+                    stack.Push(row - dir, b + 1, r + extra, -dir);
+
+                y = r + 2;
+            }
+        }
+
+        return count;
+    }
+
+    private int Mark(int row, int l, int r, IntStack spans){
+        int offset = row * width;
+        for (int i = offset + l; i <= offset + r; i++)
+            mask[i] = 1;
+        if (spans != null)
+            spans.Push(row, l, r);
+        return r - l + 1;
+    }
+
+    private boolean Inside(int i){
+        if (mask[i] != 0) return false;
+        if (gray != null){
+            int g = gray[i] & 0xFF;
+            return g >= minR && g <= maxR;
+        }
+
+        int c = rgb[i];
+        int r = c >> 16 & 0xFF;
+        int g = c >> 8 & 0xFF;
+        int b = c & 0xFF;
+        return r >= minR && r <= maxR && g >= minG && g <= maxG && b >= minB && b <= maxB;
+    }
+
+    /**
+     * Growable stack of integers.
+     */
+    static final class IntStack {
+        int[] data = new int[64];
+        int size;
+
+        void Push(int a, int b, int c){
+            Ensure(3);
+            data[size++] = a;
+            data[size++] = b;
+            data[size++] = c;
+        }
+
+        void Push(int a, int b, int c, int d){
+            Ensure(4);
+            data[size++] = a;
+            data[size++] = b;
+            data[size++] = c;
+            data[size++] = d;
+        }
+
+        private void Ensure(int n){
+            if (size + n > data.length)
+                data = Arrays.copyOf(data, Math.max(2 * data.length, size + n));
+        }
+    }
+}
@@ -42,30 +42,135 @@
 package Catalano.Imaging.Parsers;
 
 import Catalano.Imaging.FastBitmap;
-import java.io.File;
+import Catalano.Imaging.Filters.MedianCut;
+import Catalano.Imaging.Tools.ColorPalette;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageTypeSpecifier;
-import javax.imageio.ImageWriter;
-import javax.imageio.metadata.IIOInvalidTreeException;
-import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.metadata.IIOMetadataNode;
 
 /**
  * GIF Animated Encoder.
+ *
+ * <p>The frames are quantized and compressed with LZW as they are added, and streamed to the output.
+ * The palette is computed by median cut on the first frame and reused by the next frames, or computed
+ * again every some frames as local color table. The pixels are mapped to the palette in parallel with a
+ * k-d tree of the palette and a cache of the recent colors.</p>
+ *
+ * <p>When the delta is enabled, only the rectangle changed from the previous frame is written and the
+ * unchanged pixels inside the rectangle are transparent, so the static regions of a video cost nothing.</p>
+ *
  * @author Diego Catalano
  */
 public class GifEncoder {
     
     private int milliseconds;
     private final String saveFile;
+    private OutputStream out;
+    
+    private int colors = 256;
+    private ColorPalette fixedPalette;
+    private int paletteRefresh = 0;
+    private boolean delta = true;
+    private int repeat = 0;
     
     private boolean firstFrame = true;
-    private ImageTypeSpecifier spec;
-    private ImageWriter wr;
+    private boolean finished;
+    private int width;
+    private int height;
+    private int frames;
+    private ColorPalette palette;
+    private ColorPalette global;
+    private int[] canvas;
+    private byte[] indexes;
+    private byte[] rectangle;
+    private final LzwEncoder lzw = new LzwEncoder();
+
+    /**
+     * Get the maximum number of colors of the palette.
+     * @return Number of colors.
+     */
+    public int getColors() {
+        return colors;
+    }
+
+    /**
+     * Set the maximum number of colors of the palette.
+     * With delta, one color is reserved to the transparency.
+     * @param colors Number of colors, between 2 and 256.
+     */
+    public void setColors(int colors) {
+        this.colors = Math.max(2, Math.min(256, colors));
+    }
+
+    /**
+     * Get the palette used by all the frames.
+     * @return Palette, null if the palette is computed from the frames.
+     */
+    public ColorPalette getPalette() {
+        return fixedPalette;
+    }
+
+    /**
+     * Set the palette used by all the frames.
+     * @param palette Palette with at most 256 colors, null to compute the palette from the frames.
+     */
+    public void setPalette(ColorPalette palette) {
+        if (palette != null && palette.getSize() > 256)
+            throw new IllegalArgumentException("GIF supports up to 256 colors.");
+        this.fixedPalette = palette;
+    }
+
+    /**
+     * Get the number of frames between two palettes.
+     * @return Number of frames, 0 means that the palette of the first frame is used by all the frames.
+     */
+    public int getPaletteRefresh() {
+        return paletteRefresh;
+    }
+
+    /**
+     * Set the number of frames between two palettes.
+     * @param paletteRefresh Number of frames, 0 means that the palette of the first frame is used by all the frames.
+     */
+    public void setPaletteRefresh(int paletteRefresh) {
+        this.paletteRefresh = Math.max(0, paletteRefresh);
+    }
+
+    /**
+     * Check if only the changed rectangle of the frames is written.
+     * @return True if the delta is enabled.
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Set if only the changed rectangle of the frames is written.
+     * @param delta True to enable the delta.
+     */
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * Get the number of repetitions of the animation.
+     * @return Repetitions, 0 means forever and -1 plays the animation once.
+     */
+    public int getRepeat() {
+        return repeat;
+    }
+
+    /**
+     * Set the number of repetitions of the animation.
+     * @param repeat Repetitions, 0 means forever and -1 plays the animation once.
+     */
+    public void setRepeat(int repeat) {
+        this.repeat = Math.max(-1, Math.min(65535, repeat));
+    }
 
     /**
      * Initializes a new instance of the GifEncoder class.
@@ -85,24 +190,64 @@ public class GifEncoder {
         this.milliseconds = milliseconds / 10;
     }
     
+    /**
+     * Initializes a new instance of the GifEncoder class.
+     * @param out Output stream, it isn't closed by the encoder.
+     */
+    public GifEncoder(OutputStream out) {
+        this(out, 100);
+    }
+    
+    /**
+     * Initializes a new instance of the GifEncoder class.
+     * @param out Output stream, it isn't closed by the encoder.
+     * @param milliseconds Milliseconds between the frames.
+     */
+    public GifEncoder(OutputStream out, int milliseconds) {
+        this.saveFile = null;
+        this.out = out;
+        this.milliseconds = milliseconds / 10;
+    }
+    
     /**
      * Add frame in the sequence.
      * @param fastBitmap Image.
+     * @throws IllegalStateException If the sequence was finished.
      */
     public void addFrame(FastBitmap fastBitmap){
+        if (finished)
+            throw new IllegalStateException("The sequence is finished, use a new encoder.");
+        
         try {
             if(firstFrame){
-                firstFrame = false;
-                spec = new ImageTypeSpecifier(fastBitmap.toBufferedImage());
+                width = fastBitmap.getWidth();
+                height = fastBitmap.getHeight();
+                if (width > 65535 || height > 65535)
+                    throw new IllegalArgumentException("GIF supports up to 65535x65535 pixels.");
                 
-                wr = ImageIO.getImageWriters(spec, "GIF").next();
-                wr.setOutput(ImageIO.createImageOutputStream(new File(saveFile)));
+                if (saveFile != null)
+                    out = new BufferedOutputStream(new FileOutputStream(saveFile), 1 << 16);
                 
-                IIOMetadata metadata = getMetadata(wr, fastBitmap.toBufferedImage().getType(), milliseconds);
-                wr.prepareWriteSequence(metadata);
-                wr.writeToSequence(new IIOImage(fastBitmap.toBufferedImage(), null, metadata), null);
+                palette = fixedPalette != null ? fixedPalette : ComputePalette(fastBitmap);
+                global = palette;
+                canvas = new int[width * height];
+                indexes = new byte[width * height];
+                rectangle = new byte[width * height];
+                frames = 0;
+                
+                WriteHeader();
+                firstFrame = false;
             }
-            wr.writeToSequence(new IIOImage(fastBitmap.toBufferedImage(), null, null), null);
+            else{
+                if (fastBitmap.getWidth() != width || fastBitmap.getHeight() != height)
+                    throw new IllegalArgumentException("All the frames must have the same size.");
+                if (fixedPalette == null && paletteRefresh > 0 && frames % paletteRefresh == 0)
+                    palette = ComputePalette(fastBitmap);
+            }
+            
+            Quantize(fastBitmap);
+            WriteFrame();
+            frames++;
         } catch (IOException ex) {
             Logger.getLogger(GifEncoder.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -110,49 +255,203 @@ public class GifEncoder {
     
     /**
      * End the sequence and save the animated gif.
+     * No frames can be added after.
      */
     public void finish(){
+        if (finished) return;
+        finished = true;
+        
         try {
-            firstFrame = true;
-            wr.endWriteSequence();
-            wr.dispose();
+            if (!firstFrame){
+                out.write(0x3B);
+                out.flush();
+                if (saveFile != null){
+                    out.close();
+                    out = null;
+                }
+            }
+            canvas = null;
+            indexes = null;
+            rectangle = null;
         } catch (IOException ex) {
             Logger.getLogger(GifEncoder.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
     
-    private IIOMetadata getMetadata(ImageWriter writer, int type, int delay)
-        throws IIOInvalidTreeException{
+    private ColorPalette ComputePalette(FastBitmap fastBitmap){
+        // One color is reserved to the transparency of the delta.
+        int n = delta ? Math.min(colors, 255) : colors;
+        return new MedianCut(n).ComputePalette(fastBitmap);
+    }
+    
+    /**
+     * Bits of the color table of the palette, with the transparent color of the delta.
+     */
+    private int TableBits(ColorPalette p){
+        int size = p.getSize() + (delta && p.getSize() < 256 ? 1 : 0);
+        int bits = 1;
+        while ((1 << bits) < size) bits++;
+        return bits;
+    }
+    
+    private void WriteHeader() throws IOException {
+        int bits = TableBits(global);
+        
+        out.write(new byte[] {'G', 'I', 'F', '8', '9', 'a'});
+        Short(width);
+        Short(height);
+        out.write(0x80 | 0x70 | (bits - 1));
+        out.write(0);
+        out.write(0);
+        ColorTable(global, bits);
+        
+        if (repeat >= 0){
+            out.write(new byte[] {0x21, (byte)0xFF, 0x0B, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 0x03, 0x01});
+            Short(repeat);
+            out.write(0);
+        }
+    }
+    
+    private void WriteFrame() throws IOException {
+        int top = 0, left = 0, bottom = height - 1, right = width - 1;
+        int transparent = -1;
         
-        // Type of the image
-        ImageTypeSpecifier img_type = ImageTypeSpecifier.createFromBufferedImageType(type);
+        if (delta && frames > 0){
+            // Bounding box of the pixels changed from the displayed image.
+            top = height; left = width; bottom = -1; right = -1;
+            for (int i = 0; i < height; i++) {
+                int row = i * width;
+                for (int j = 0; j < width; j++) {
+                    if (canvas[row + j] != palette.getColor(indexes[row + j] & 0xFF)){
+                        if (i < top) top = i;
+                        bottom = i;
+                        if (j < left) left = j;
+                        if (j > right) right = j;
+                    }
+                }
+            }
+            if (bottom < 0){
+                top = left = bottom = right = 0;
+            }
+            if (palette.getSize() < 256)
+                transparent = palette.getSize();
+        }
         
-        // Get the metadata of type of image.
-        IIOMetadata metadata = writer.getDefaultImageMetadata(img_type, null);
-        String native_format = metadata.getNativeMetadataFormatName();
-        IIOMetadataNode node_tree = (IIOMetadataNode)metadata.getAsTree(native_format);
-
-        // Set the delay time you can see the format specification on this page
-        // https://docs.oracle.com/javase/7/docs/api/javax/imageio/metadata/doc-files/gif_metadata.html
-        IIOMetadataNode graphics_node = getNode(node_tree, "GraphicControlExtension");
-        graphics_node.setAttribute("delayTime", String.valueOf(delay));
-        graphics_node.setAttribute("disposalMethod", "none");
-        graphics_node.setAttribute("userInputFlag", "FALSE");
-
-        metadata.setFromTree(native_format, node_tree);
-
-        return metadata;
+        int w = right - left + 1;
+        int h = bottom - top + 1;
+        int n = 0;
+        for (int i = top; i <= bottom; i++) {
+            int row = i * width;
+            for (int j = left; j <= right; j++) {
+                int p = row + j;
+                int c = palette.getColor(indexes[p] & 0xFF);
+                if (transparent >= 0 && canvas[p] == c){
+                    rectangle[n++] = (byte)transparent;
+                }
+                else{
+                    rectangle[n++] = indexes[p];
+                    canvas[p] = c;
+                }
+            }
+        }
+        
+        // Graphic control extension, the frames are not disposed.
+        out.write(new byte[] {0x21, (byte)0xF9, 0x04, (byte)(1 << 2 | (transparent >= 0 ? 1 : 0))});
+        Short(milliseconds);
+        out.write(Math.max(0, transparent));
+        out.write(0);
+        
+        // Image descriptor.
+        boolean local = palette != global;
+        int bits = TableBits(palette);
+        out.write(0x2C);
+        Short(left);
+        Short(top);
+        Short(w);
+        Short(h);
+        out.write(local ? 0x80 | (bits - 1) : 0);
+        if (local)
+            ColorTable(palette, bits);
+        
+        lzw.Encode(rectangle, n, Math.max(2, bits), out);
+    }
+    
+    private void ColorTable(ColorPalette p, int bits) throws IOException {
+        byte[] table = new byte[3 << bits];
+        for (int i = 0; i < p.getSize(); i++) {
+            int c = p.getColor(i);
+            table[3 * i] = (byte)(c >> 16);
+            table[3 * i + 1] = (byte)(c >> 8);
+            table[3 * i + 2] = (byte)c;
+        }
+        out.write(table);
+    }
+    
+    private void Short(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write(value >> 8 & 0xFF);
+    }
+    
+    /**
+     * Map the pixels to the palette, in parallel strips.
+     */
+    private void Quantize(final FastBitmap fastBitmap){
+        final ColorPalette p = palette;
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 32));
+        
+        if (cores == 1){
+            Quantize(fastBitmap, p, 0, width * height);
+            return;
+        }
+        
+        Thread[] t = new Thread[cores];
+        int part = height / cores;
+        for (int i = 0; i < cores; i++) {
+            final int start = i * part * width;
+            final int end = i == cores - 1 ? width * height : start + part * width;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Quantize(fastBitmap, p, start, end);
+                }
+            });
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
     }
     
-    private IIOMetadataNode getNode(IIOMetadataNode rootNode, String nodeName) {
-        int nNodes = rootNode.getLength();
-        for (int i = 0; i < nNodes; i++) {
-            if (rootNode.item(i).getNodeName().compareToIgnoreCase(nodeName)== 0) {
-            return((IIOMetadataNode) rootNode.item(i));
+    private void Quantize(FastBitmap fastBitmap, ColorPalette p, int start, int end){
+        byte[] gray = fastBitmap.isGrayscale() ? fastBitmap.getGrayData() : null;
+        int[] rgb = gray == null ? fastBitmap.getRGBData() : null;
+        
+        // Direct mapped cache of the recent colors.
+        int[] keys = new int[4096];
+        byte[] values = new byte[4096];
+        Arrays.fill(keys, -1);
+        
+        for (int i = start; i < end; i++) {
+            int c;
+            if (gray != null){
+                int g = gray[i] & 0xFF;
+                c = g << 16 | g << 8 | g;
+            }
+            else{
+                c = rgb[i] & 0xFFFFFF;
             }
-       }
-        IIOMetadataNode node = new IIOMetadataNode(nodeName);
-        rootNode.appendChild(node);
-        return(node);
-   }
-}
\ No newline at end of file
+            
+            int h = (c * 0x9E3779B1) >>> 20;
+            if (keys[h] != c){
+                keys[h] = c;
+                values[h] = (byte)p.Nearest(c);
+            }
+            indexes[i] = values[h];
+        }
+    }
+}
@@ -0,0 +1,158 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Parsers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * LZW compression of the GIF images, with variable code size up to 12 bits.
+ * The dictionary is an open addressing hash table of (prefix, pixel) pairs, reused between the images.
+ * @author Diego Catalano
+ */
+final class LzwEncoder {
+
+    private static final int MAX_BITS = 12;
+    private static final int MAX_CODE = 1 << MAX_BITS;
+    private static final int HSIZE = 5003;
+
+    private final int[] keys = new int[HSIZE];
+    private final int[] codes = new int[HSIZE];
+
+    private OutputStream out;
+    private final byte[] block = new byte[256];
+    private int blockSize;
+    private int accumulator;
+    private int bits;
+
+    private int initBits;
+    private int codeSize;
+    private int clearCode;
+    private int nextCode;
+    private boolean clear;
+
+    LzwEncoder() {}
+
+    /**
+     * Compress the pixels in data sub-blocks.
+     * @param pixels Indexes of the colors.
+     * @param length Number of pixels.
+     * @param minCodeSize Bits of the color table, at least 2.
+     * @param out Output stream.
+     */
+    void Encode(byte[] pixels, int length, int minCodeSize, OutputStream out) throws IOException {
+        this.out = out;
+        out.write(minCodeSize);
+
+        initBits = minCodeSize + 1;
+        clearCode = 1 << minCodeSize;
+        blockSize = 0;
+        accumulator = 0;
+        bits = 0;
+
+        Reset();
+        codeSize = initBits;
+        clear = false;
+        Output(clearCode);
+
+        int prefix = pixels[0] & 0xFF;
+        for (int i = 1; i < length; i++) {
+            int c = pixels[i] & 0xFF;
+            int key = (c << MAX_BITS) | prefix;
+            int h = ((c << 4) ^ prefix) % HSIZE;
+            int step = h == 0 ? 1 : HSIZE - h;
+
+            // Probe until the pair or an empty slot.
+            while (keys[h] >= 0 && keys[h] != key) {
+                h -= step;
+                if (h < 0) h += HSIZE;
+            }
+
+            if (keys[h] == key){
+                prefix = codes[h];
+                continue;
+            }
+
+            Output(prefix);
+            prefix = c;
+            if (nextCode < MAX_CODE){
+                codes[h] = nextCode++;
+                keys[h] = key;
+            }
+            else{
+                Reset();
+                clear = true;
+                Output(clearCode);
+            }
+        }
+
+        Output(prefix);
+        Output(clearCode + 1);
+
+        while (bits > 0) {
+            Add(accumulator & 0xFF);
+            accumulator >>>= 8;
+            bits = Math.max(0, bits - 8);
+        }
+        Flush();
+        out.write(0);
+        this.out = null;
+    }
+
+    private void Reset(){
+        Arrays.fill(keys, -1);
+        nextCode = clearCode + 2;
+    }
+
+    private void Output(int code) throws IOException {
+        accumulator |= code << bits;
+        bits += codeSize;
+        while (bits >= 8) {
+            Add(accumulator & 0xFF);
+            accumulator >>>= 8;
+            bits -= 8;
+        }
+
+        // The decoder grows the code size one code later than the dictionary.
+        if (clear){
+            codeSize = initBits;
+            clear = false;
+        }
+        else if (nextCode > (1 << codeSize) - 1 && codeSize < MAX_BITS){
+            codeSize++;
+        }
+    }
+
+    private void Add(int b) throws IOException {
+        block[blockSize++] = (byte)b;
+        if (blockSize == 255) Flush();
+    }
+
+    private void Flush() throws IOException {
+        if (blockSize > 0){
+            out.write(blockSize);
+            out.write(block, 0, blockSize);
+            blockSize = 0;
+        }
+    }
+}
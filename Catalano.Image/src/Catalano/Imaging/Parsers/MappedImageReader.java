@@ -0,0 +1,315 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Parsers;
+
+import Catalano.Imaging.FastBitmap;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Base of the memory-mapped readers of uncompressed images.
+ *
+ * <p>The pixels are decoded from the mapped file straight into the arrays of the FastBitmap.
+ * The file is mapped in windows of rows, so the rows can be read one by one or in bands
+ * for images that don't fit in memory.</p>
+ *
+ * <pre>
+ * PortableAnymapReader reader = new PortableAnymapReader("scan.pgm");
+ * byte[] row = new byte[reader.getWidth()];
+ * while (reader.hasNextRow()) {
+ *     reader.ReadRow(row, 0);
+ *     ...
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * @author Diego Catalano
+ */
+public abstract class MappedImageReader implements Closeable {
+
+    // Maximum size of the mapped window.
+    private static final long WINDOW = 1L << 26;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    private int width;
+    private int height;
+    private int channels;
+    private int maxValue;
+    private int bytesPerSample;
+    private long dataOffset;
+    private int rowBytes;
+    private byte[] scale;
+
+    private MappedByteBuffer buffer;
+    private int windowStart;
+    private int windowEnd;
+    private int row;
+    private byte[] scratch;
+
+    /**
+     * Get the width of the image.
+     * @return Width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the image.
+     * @return Height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the number of samples per pixel in the file.
+     * @return Channels.
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Get the maximum value of the samples in the file.
+     * @return Maximum value.
+     */
+    public int getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Get the color space of the decoded image.
+     * One or two channels are decoded as grayscale (the alpha is discarded), three as rgb and four as argb.
+     * @return Color space.
+     */
+    public FastBitmap.ColorSpace getColorSpace() {
+        if (channels <= 2) return FastBitmap.ColorSpace.Grayscale;
+        if (channels == 3) return FastBitmap.ColorSpace.RGB;
+        return FastBitmap.ColorSpace.ARGB;
+    }
+
+    /**
+     * Get the index of the next row.
+     * @return Row.
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * Check if there are rows to read.
+     * @return True if there are rows to read.
+     */
+    public boolean hasNextRow() {
+        return row < height;
+    }
+
+    MappedImageReader(String filename) throws IOException {
+        this.file = new RandomAccessFile(filename, "r");
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * Get the size of the file.
+     */
+    long Size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Map a region of the file.
+     */
+    MappedByteBuffer Map(long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Set the layout of the pixels, called by the readers after the header.
+     */
+    void Initialize(int width, int height, int channels, int maxValue, long dataOffset) throws IOException {
+        if (width < 1 || height < 1)
+            throw new IOException("Invalid size of the image: " + width + "x" + height + ".");
+        if (channels < 1 || channels > 4)
+            throw new IOException("Unsupported number of channels: " + channels + ".");
+        if (maxValue < 1 || maxValue > 65535)
+            throw new IOException("Invalid maximum value: " + maxValue + ".");
+
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.maxValue = maxValue;
+        this.bytesPerSample = maxValue > 255 ? 2 : 1;
+        this.dataOffset = dataOffset;
+
+        long length = (long)width * channels * bytesPerSample;
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("The rows are too large.");
+        this.rowBytes = (int)length;
+
+        if (dataOffset + length * height > channel.size())
+            throw new IOException("The file is truncated.");
+
+        if (bytesPerSample == 1 && maxValue != 255){
+            scale = new byte[256];
+            for (int i = 0; i < 256; i++)
+                scale[i] = (byte)Math.min(255, (i * 255 + maxValue / 2) / maxValue);
+        }
+
+        this.scratch = new byte[rowBytes];
+    }
+
+    /**
+     * Move to the row.
+     * @param row Row.
+     */
+    public void Seek(int row){
+        if (row < 0 || row > height)
+            throw new IllegalArgumentException("Row out of the image.");
+        this.row = row;
+    }
+
+    /**
+     * Read the image from the first row.
+     * @return Image.
+     * @throws IOException If an I/O error occurs.
+     */
+    public FastBitmap Read() throws IOException {
+        Seek(0);
+        return ReadRows(height);
+    }
+
+    /**
+     * Read the next rows in a band.
+     * @param count Maximum number of rows.
+     * @return Image with the rows, null if there are no rows to read.
+     * @throws IOException If an I/O error occurs.
+     */
+    public FastBitmap ReadRows(int count) throws IOException {
+        count = Math.min(count, height - row);
+        if (count <= 0) return null;
+
+        FastBitmap fb = new FastBitmap(width, count, getColorSpace());
+        if (fb.isGrayscale()){
+            byte[] gray = fb.getGrayData();
+            for (int i = 0; i < count; i++)
+                ReadRow(gray, i * width);
+        }
+        else{
+            int[] rgb = fb.getRGBData();
+            for (int i = 0; i < count; i++)
+                ReadRow(rgb, i * width);
+        }
+        return fb;
+    }
+
+    /**
+     * Read the next row of a grayscale image.
+     * @param gray Destination.
+     * @param offset Offset of the row in the destination.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void ReadRow(byte[] gray, int offset) throws IOException {
+        if (channels > 2)
+            throw new IllegalArgumentException("The image isn't grayscale, use the rgb row.");
+
+        MappedByteBuffer b = Next();
+        if (channels == 1 && bytesPerSample == 1){
+            b.get(gray, offset, width);
+            if (scale != null){
+                for (int j = offset; j < offset + width; j++)
+                    gray[j] = scale[gray[j] & 0xFF];
+            }
+            return;
+        }
+
+        b.get(scratch, 0, rowBytes);
+        for (int j = 0, k = 0; j < width; j++, k += channels * bytesPerSample)
+            gray[offset + j] = (byte)Sample(k);
+    }
+
+    /**
+     * Read the next row of a rgb or argb image.
+     * @param rgb Destination of the packed pixels.
+     * @param offset Offset of the row in the destination.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void ReadRow(int[] rgb, int offset) throws IOException {
+        if (channels < 3)
+            throw new IllegalArgumentException("The image is grayscale, use the gray row.");
+
+        Next().get(scratch, 0, rowBytes);
+        int step = bytesPerSample;
+        if (channels == 3 && step == 1 && scale == null){
+            for (int j = 0, k = 0; j < width; j++, k += 3)
+                rgb[offset + j] = 0xFF << 24 | (scratch[k] & 0xFF) << 16 | (scratch[k + 1] & 0xFF) << 8 | (scratch[k + 2] & 0xFF);
+            return;
+        }
+
+        for (int j = 0, k = 0; j < width; j++, k += channels * step) {
+            int a = channels == 4 ? Sample(k + 3 * step) : 255;
+            rgb[offset + j] = a << 24 | Sample(k) << 16 | Sample(k + step) << 8 | Sample(k + 2 * step);
+        }
+    }
+
+    /**
+     * Sample of the scratch row scaled to 8 bits.
+     */
+    private int Sample(int k){
+        if (bytesPerSample == 2){
+            int v = (scratch[k] & 0xFF) << 8 | (scratch[k + 1] & 0xFF);
+            return Math.min(255, (v * 255 + maxValue / 2) / maxValue);
+        }
+        return scale == null ? scratch[k] & 0xFF : scale[scratch[k] & 0xFF] & 0xFF;
+    }
+
+    /**
+     * Position the mapped window at the next row.
+     */
+    private MappedByteBuffer Next() throws IOException {
+        if (row >= height)
+            throw new IOException("There are no rows to read.");
+
+        if (buffer == null || row < windowStart || row >= windowEnd){
+            int rows = (int)Math.max(1, WINDOW / rowBytes);
+            windowStart = row;
+            windowEnd = (int)Math.min(height, (long)row + rows);
+            buffer = Map(dataOffset + (long)row * rowBytes, (long)(windowEnd - windowStart) * rowBytes);
+        }
+
+        buffer.position((row - windowStart) * rowBytes);
+        row++;
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,226 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Parsers;
+
+import Catalano.Imaging.FastBitmap;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Base of the memory-mapped writers of uncompressed images, 8 bits per sample.
+ *
+ * <p>The file is allocated with the size of the image and mapped in windows of rows, the pixels are encoded
+ * straight from the arrays of the FastBitmap. The rows can be written one by one or in bands.</p>
+ *
+ * @author Diego Catalano
+ */
+public abstract class MappedImageWriter implements Closeable {
+
+    // Maximum size of the mapped window.
+    private static final long WINDOW = 1L << 26;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    private int width;
+    private int height;
+    private int channels;
+    private long dataOffset;
+    private int rowBytes;
+
+    private MappedByteBuffer buffer;
+    private int windowStart;
+    private int windowEnd;
+    private int row;
+    private byte[] scratch;
+
+    /**
+     * Get the width of the image.
+     * @return Width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the image.
+     * @return Height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the color space of the image.
+     * @return Color space.
+     */
+    public FastBitmap.ColorSpace getColorSpace() {
+        if (channels == 1) return FastBitmap.ColorSpace.Grayscale;
+        if (channels == 3) return FastBitmap.ColorSpace.RGB;
+        return FastBitmap.ColorSpace.ARGB;
+    }
+
+    /**
+     * Get the index of the next row.
+     * @return Row.
+     */
+    public int getRow() {
+        return row;
+    }
+
+    MappedImageWriter(String filename, int width, int height, FastBitmap.ColorSpace colorSpace) throws IOException {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Invalid size of the image: " + width + "x" + height + ".");
+
+        this.width = width;
+        this.height = height;
+        this.channels = colorSpace == FastBitmap.ColorSpace.Grayscale ? 1 : colorSpace == FastBitmap.ColorSpace.RGB ? 3 : 4;
+
+        long length = (long)width * channels;
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The rows are too large.");
+        this.rowBytes = (int)length;
+        this.scratch = new byte[rowBytes];
+
+        this.file = new RandomAccessFile(filename, "rw");
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * Write the header and allocate the file, called by the writers.
+     */
+    void Initialize(byte[] header) throws IOException {
+        try {
+            file.setLength(0);
+            channel.write(ByteBuffer.wrap(header), 0);
+            dataOffset = header.length;
+            file.setLength(dataOffset + (long)rowBytes * height);
+        } catch (IOException e) {
+            channel.close();
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write all the rows of the image, or of a band of rows.
+     * The grayscale images can be written only in grayscale files.
+     * @param fastBitmap Image.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void Write(FastBitmap fastBitmap) throws IOException {
+        if (fastBitmap.getWidth() != width)
+            throw new IllegalArgumentException("The image must have the width of the file.");
+        if (fastBitmap.getHeight() > height - row)
+            throw new IllegalArgumentException("The image has more rows than the file.");
+
+        int rows = fastBitmap.getHeight();
+        if (fastBitmap.isGrayscale()){
+            byte[] gray = fastBitmap.getGrayData();
+            for (int i = 0; i < rows; i++)
+                WriteRow(gray, i * width);
+        }
+        else{
+            int[] rgb = fastBitmap.getRGBData();
+            for (int i = 0; i < rows; i++)
+                WriteRow(rgb, i * width);
+        }
+    }
+
+    /**
+     * Write the next row of a grayscale image.
+     * @param gray Source.
+     * @param offset Offset of the row in the source.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void WriteRow(byte[] gray, int offset) throws IOException {
+        if (channels != 1)
+            throw new IllegalArgumentException("The file isn't grayscale, use the rgb row.");
+        Next().put(gray, offset, width);
+    }
+
+    /**
+     * Write the next row of a rgb or argb image.
+     * @param rgb Packed pixels.
+     * @param offset Offset of the row in the source.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void WriteRow(int[] rgb, int offset) throws IOException {
+        if (channels == 1)
+            throw new IllegalArgumentException("The file is grayscale, use the gray row.");
+
+        if (channels == 3){
+            for (int j = 0, k = 0; j < width; j++, k += 3) {
+                int c = rgb[offset + j];
+                scratch[k] = (byte)(c >> 16);
+                scratch[k + 1] = (byte)(c >> 8);
+                scratch[k + 2] = (byte)c;
+            }
+        }
+        else{
+            for (int j = 0, k = 0; j < width; j++, k += 4) {
+                int c = rgb[offset + j];
+                scratch[k] = (byte)(c >> 16);
+                scratch[k + 1] = (byte)(c >> 8);
+                scratch[k + 2] = (byte)c;
+                scratch[k + 3] = (byte)(c >>> 24);
+            }
+        }
+        Next().put(scratch, 0, rowBytes);
+    }
+
+    /**
+     * Position the mapped window at the next row.
+     */
+    private MappedByteBuffer Next() throws IOException {
+        if (row >= height)
+            throw new IOException("All the rows are written.");
+
+        if (buffer == null || row >= windowEnd){
+            int rows = (int)Math.max(1, WINDOW / rowBytes);
+            windowStart = row;
+            windowEnd = (int)Math.min(height, (long)row + rows);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + (long)row * rowBytes, (long)(windowEnd - windowStart) * rowBytes);
+        }
+
+        buffer.position((row - windowStart) * rowBytes);
+        row++;
+        return buffer;
+    }
+
+    /**
+     * Close the file.
+     * @throws IOException If an I/O error occurs or not all the rows are written.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+        file.close();
+        if (row < height)
+            throw new IOException("Only " + row + " of " + height + " rows were written.");
+    }
+}
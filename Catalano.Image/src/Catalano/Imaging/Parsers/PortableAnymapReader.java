@@ -0,0 +1,152 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Parsers;
+
+import Catalano.Imaging.FastBitmap;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Memory-mapped reader of the binary Netpbm formats: PGM (P5), PPM (P6) and PAM (P7).
+ * The samples of 16 bits are scaled to 8 bits.
+ * @author Diego Catalano
+ */
+public class PortableAnymapReader extends MappedImageReader {
+
+    private MappedByteBuffer header;
+
+    /**
+     * Initializes a new instance of the PortableAnymapReader class.
+     * @param filename Filename.
+     * @throws IOException If the file can't be read or the header is invalid.
+     */
+    public PortableAnymapReader(String filename) throws IOException {
+        super(filename);
+        boolean parsed = false;
+        try {
+            header = Map(0, Math.min(Size(), 1 << 16));
+            ParseHeader();
+            header = null;
+            parsed = true;
+        } finally {
+            if (!parsed) close();
+        }
+    }
+
+    /**
+     * Read the image.
+     * @param filename Filename.
+     * @return Image.
+     * @throws IOException If the file can't be read or the header is invalid.
+     */
+    public static FastBitmap Load(String filename) throws IOException {
+        PortableAnymapReader reader = new PortableAnymapReader(filename);
+        try {
+            return reader.Read();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void ParseHeader() throws IOException {
+        if (header.remaining() < 3 || header.get() != 'P')
+            throw new IOException("The file isn't a Netpbm image.");
+
+        char type = (char)header.get();
+        if (type == '5' || type == '6'){
+            int width = Number();
+            int height = Number();
+            int maxValue = Number();
+
+            // A single whitespace before the pixels.
+            if (!header.hasRemaining())
+                throw new IOException("The header is truncated.");
+            header.get();
+            Initialize(width, height, type == '5' ? 1 : 3, maxValue, header.position());
+        }
+        else if (type == '7'){
+            int width = 0, height = 0, depth = 0, maxValue = 0;
+            while (true) {
+                String key = Token();
+                if (key.equals("ENDHDR")) break;
+                else if (key.equals("WIDTH")) width = Number();
+                else if (key.equals("HEIGHT")) height = Number();
+                else if (key.equals("DEPTH")) depth = Number();
+                else if (key.equals("MAXVAL")) maxValue = Number();
+                else if (key.equals("TUPLTYPE")) Line();
+                else throw new IOException("Unknown field of the PAM header: " + key + ".");
+            }
+
+            // The header ends with a newline.
+            Line();
+            Initialize(width, height, depth, maxValue, header.position());
+        }
+        else{
+            throw new IOException("Only the binary PGM (P5), PPM (P6) and PAM (P7) formats are supported.");
+        }
+    }
+
+    /**
+     * Next token of the header, the comments are skipped.
+     */
+    private String Token() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (header.hasRemaining()) {
+            char c = (char)header.get();
+            if (c == '#'){
+                Line();
+            }
+            else if (Character.isWhitespace(c)){
+                if (sb.length() > 0){
+                    header.position(header.position() - 1);
+                    return sb.toString();
+                }
+            }
+            else{
+                sb.append(c);
+            }
+        }
+        throw new IOException("The header is truncated.");
+    }
+
+    /**
+     * Next token of the header as a number.
+     */
+    private int Number() throws IOException {
+        String token = Token();
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in the header: " + token + ".");
+        }
+    }
+
+    /**
+     * Skip the rest of the line.
+     */
+    private void Line() throws IOException {
+        while (header.hasRemaining()) {
+            if (header.get() == '\n') return;
+        }
+        throw new IOException("The header is truncated.");
+    }
+}
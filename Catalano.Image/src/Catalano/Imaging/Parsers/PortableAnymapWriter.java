@@ -0,0 +1,71 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Parsers;
+
+import Catalano.Imaging.FastBitmap;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Memory-mapped writer of the binary Netpbm formats.
+ * The grayscale images are written as PGM (P5), the rgb images as PPM (P6) and the argb images as PAM (P7).
+ * @author Diego Catalano
+ */
+public class PortableAnymapWriter extends MappedImageWriter {
+
+    /**
+     * Initializes a new instance of the PortableAnymapWriter class.
+     * @param filename Filename.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param colorSpace Color space of the image.
+     * @throws IOException If the file can't be written.
+     */
+    public PortableAnymapWriter(String filename, int width, int height, FastBitmap.ColorSpace colorSpace) throws IOException {
+        super(filename, width, height, colorSpace);
+
+        String header;
+        if (colorSpace == FastBitmap.ColorSpace.Grayscale)
+            header = "P5\n" + width + " " + height + "\n255\n";
+        else if (colorSpace == FastBitmap.ColorSpace.RGB)
+            header = "P6\n" + width + " " + height + "\n255\n";
+        else
+            header = "P7\nWIDTH " + width + "\nHEIGHT " + height + "\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n";
+
+        Initialize(header.getBytes(Charset.forName("US-ASCII")));
+    }
+
+    /**
+     * Write the image.
+     * @param fastBitmap Image.
+     * @param filename Filename.
+     * @throws IOException If the file can't be written.
+     */
+    public static void Save(FastBitmap fastBitmap, String filename) throws IOException {
+        PortableAnymapWriter writer = new PortableAnymapWriter(filename, fastBitmap.getWidth(), fastBitmap.getHeight(), fastBitmap.getColorSpace());
+        try {
+            writer.Write(fastBitmap);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Parsers;
+
+import Catalano.Imaging.FastBitmap;
+import java.io.IOException;
+
+/**
+ * Memory-mapped reader of headerless raw images, 8 bits per sample.
+ * The grayscale images have one byte per pixel and the rgb images three bytes (R, G, B).
+ * @author Diego Catalano
+ */
+public class RawImageReader extends MappedImageReader {
+
+    /**
+     * Initializes a new instance of the RawImageReader class.
+     * @param filename Filename.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param colorSpace Grayscale or RGB.
+     * @throws IOException If the file can't be read or it's smaller than the image.
+     */
+    public RawImageReader(String filename, int width, int height, FastBitmap.ColorSpace colorSpace) throws IOException {
+        this(filename, width, height, colorSpace, 0);
+    }
+
+    /**
+     * Initializes a new instance of the RawImageReader class.
+     * @param filename Filename.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param colorSpace Grayscale or RGB.
+     * @param offset Bytes before the pixels.
+     * @throws IOException If the file can't be read or it's smaller than the image.
+     */
+    public RawImageReader(String filename, int width, int height, FastBitmap.ColorSpace colorSpace, long offset) throws IOException {
+        super(filename);
+        if (colorSpace == FastBitmap.ColorSpace.ARGB){
+            close();
+            throw new IllegalArgumentException("Raw images can be grayscale or rgb.");
+        }
+
+        try {
+            Initialize(width, height, colorSpace == FastBitmap.ColorSpace.Grayscale ? 1 : 3, 255, offset);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the image.
+     * @param filename Filename.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param colorSpace Grayscale or RGB.
+     * @return Image.
+     * @throws IOException If the file can't be read or it's smaller than the image.
+     */
+    public static FastBitmap Load(String filename, int width, int height, FastBitmap.ColorSpace colorSpace) throws IOException {
+        RawImageReader reader = new RawImageReader(filename, width, height, colorSpace);
+        try {
+            return reader.Read();
+        } finally {
+            reader.close();
+        }
+    }
+}
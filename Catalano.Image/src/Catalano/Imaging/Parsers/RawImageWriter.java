@@ -0,0 +1,67 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Parsers;
+
+import Catalano.Imaging.FastBitmap;
+import java.io.IOException;
+
+/**
+ * Memory-mapped writer of headerless raw images, 8 bits per sample.
+ * The grayscale images have one byte per pixel and the rgb images three bytes (R, G, B).
+ * @author Diego Catalano
+ */
+public class RawImageWriter extends MappedImageWriter {
+
+    /**
+     * Initializes a new instance of the RawImageWriter class.
+     * @param filename Filename.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param colorSpace Grayscale or RGB.
+     * @throws IOException If the file can't be written.
+     */
+    public RawImageWriter(String filename, int width, int height, FastBitmap.ColorSpace colorSpace) throws IOException {
+        super(filename, width, height, Check(colorSpace));
+        Initialize(new byte[0]);
+    }
+
+    private static FastBitmap.ColorSpace Check(FastBitmap.ColorSpace colorSpace){
+        if (colorSpace == FastBitmap.ColorSpace.ARGB)
+            throw new IllegalArgumentException("Raw images can be grayscale or rgb.");
+        return colorSpace;
+    }
+
+    /**
+     * Write the image.
+     * @param fastBitmap Grayscale or rgb image.
+     * @param filename Filename.
+     * @throws IOException If the file can't be written.
+     */
+    public static void Save(FastBitmap fastBitmap, String filename) throws IOException {
+        RawImageWriter writer = new RawImageWriter(filename, fastBitmap.getWidth(), fastBitmap.getHeight(), fastBitmap.getColorSpace());
+        try {
+            writer.Write(fastBitmap);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Texture.BinaryPattern;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Imaging.Tools.ImageHistogram;
+
+/**
+ * Binary pattern extractor.
+ *
+ * <p>Computes several binary patterns in the same pass: each 3x3 neighbourhood is loaded once,
+ * the LBP code is computed once and mapped to the uniform and rotation invariant labels by look-up tables.
+ * The histograms of the blocks of a spatial histogram are accumulated directly, without cropping the blocks.
+ * The rows are processed in parallel.</p>
+ *
+ * <p>The codes are the same of {@link LocalBinaryPattern}, {@link UniformLocalBinaryPattern}
+ * and {@link CenterSymmetricLocalBinaryPattern}.</p>
+ *
+ * @author Diego Catalano
+ */
+public class BinaryPatternExtractor {
+
+    /**
+     * Binary pattern.
+     */
+    public static enum Pattern {
+
+        /**
+         * Local binary pattern, 256 labels.
+         */
+        LBP(256),
+
+        /**
+         * Uniform local binary pattern, 58 uniform labels and one non uniform label.
+         */
+        Uniform(59),
+
+        /**
+         * Rotation invariant local binary pattern, 36 labels.
+         */
+        RotationInvariant(36),
+
+        /**
+         * Rotation invariant uniform local binary pattern, number of ones of the uniform patterns and one non uniform label.
+         */
+        UniformRotationInvariant(10),
+
+        /**
+         * Center-symmetric local binary pattern, 16 labels.
+         */
+        CenterSymmetric(16);
+
+        private final int labels;
+
+        private Pattern(int labels) {
+            this.labels = labels;
+        }
+
+        /**
+         * Get the number of labels.
+         * @return Number of labels.
+         */
+        public int getLabels() {
+            return labels;
+        }
+    };
+
+    /**
+     * Uniform label of each LBP code, 58 for non uniform codes.
+     */
+    static final int[] UNIFORM = new int[256];
+
+    /**
+     * Rotation invariant label of each LBP code.
+     */
+    static final int[] ROTATION_INVARIANT = new int[256];
+
+    /**
+     * Rotation invariant uniform label of each LBP code, 9 for non uniform codes.
+     */
+    static final int[] UNIFORM_ROTATION_INVARIANT = new int[256];
+
+    static {
+        int uniform = 0;
+        int[] minimum = new int[256];
+        boolean[] used = new boolean[256];
+        for (int code = 0; code < 256; code++) {
+            int transitions = Integer.bitCount((code ^ ((code >> 1) | ((code & 1) << 7))) & 0xFF);
+            UNIFORM[code] = transitions <= 2 ? uniform++ : 58;
+            UNIFORM_ROTATION_INVARIANT[code] = transitions <= 2 ? Integer.bitCount(code) : 9;
+
+            int min = code;
+            for (int r = 1; r < 8; r++)
+                min = Math.min(min, ((code >> r) | (code << (8 - r))) & 0xFF);
+            minimum[code] = min;
+            used[min] = true;
+        }
+
+        int[] label = new int[256];
+        int n = 0;
+        for (int i = 0; i < 256; i++)
+            if (used[i]) label[i] = n++;
+        for (int code = 0; code < 256; code++)
+            ROTATION_INVARIANT[code] = label[minimum[code]];
+    }
+
+    private Pattern[] patterns;
+    private boolean nonUniform = true;
+
+    /**
+     * Get the patterns.
+     * @return Patterns.
+     */
+    public Pattern[] getPatterns() {
+        return patterns.clone();
+    }
+
+    /**
+     * Check if needs the non uniform label.
+     * @return True if needs the non uniform label, otherwise return false.
+     */
+    public boolean isNonUniform() {
+        return nonUniform;
+    }
+
+    /**
+     * Set if needs the non uniform label of the uniform pattern.
+     * @param nonUniform True if needs the non uniform label.
+     */
+    public void setNonUniform(boolean nonUniform) {
+        this.nonUniform = nonUniform;
+    }
+
+    /**
+     * Initialize a new instance of the BinaryPatternExtractor class.
+     * @param patterns Patterns to be computed.
+     */
+    public BinaryPatternExtractor(Pattern... patterns) {
+        if (patterns.length == 0)
+            throw new IllegalArgumentException("At least one pattern is needed.");
+        this.patterns = patterns.clone();
+    }
+
+    /**
+     * Get the number of labels of the pattern.
+     * @param pattern Pattern.
+     * @return Number of labels.
+     */
+    public int getLabels(Pattern pattern){
+        if (pattern == Pattern.Uniform && !nonUniform) return 58;
+        return pattern.getLabels();
+    }
+
+    /**
+     * Get the look-up table from the LBP code to the label of the pattern.
+     * @param pattern Pattern based on the LBP code.
+     * @return Look-up table with 256 entries.
+     */
+    public static int[] getTable(Pattern pattern){
+        switch (pattern){
+            case LBP:
+                int[] table = new int[256];
+                for (int i = 0; i < 256; i++) table[i] = i;
+                return table;
+            case Uniform:
+                return UNIFORM.clone();
+            case RotationInvariant:
+                return ROTATION_INVARIANT.clone();
+            case UniformRotationInvariant:
+                return UNIFORM_ROTATION_INVARIANT.clone();
+            default:
+                throw new IllegalArgumentException("The pattern is not based on the LBP code.");
+        }
+    }
+
+    /**
+     * Compute the histograms of the patterns.
+     * @param fastBitmap Image to be processed.
+     * @return Histogram of each pattern.
+     */
+    public ImageHistogram[] ComputeFeatures(FastBitmap fastBitmap){
+        int height = fastBitmap.getHeight();
+        int width = fastBitmap.getWidth();
+
+        // The whole image is one block, without the borders.
+        int[] rowBlock = new int[height];
+        int[] colBlock = new int[width];
+        for (int i = 0; i < height; i++)
+            rowBlock[i] = i > 0 && i < height - 1 ? 0 : -1;
+        for (int j = 0; j < width; j++)
+            colBlock[j] = j > 0 && j < width - 1 ? 0 : -1;
+
+        int[][] h = Compute(fastBitmap, rowBlock, colBlock, 1);
+
+        ImageHistogram[] histograms = new ImageHistogram[patterns.length];
+        for (int p = 0; p < patterns.length; p++)
+            histograms[p] = new ImageHistogram(h[p]);
+        return histograms;
+    }
+
+    /**
+     * Compute the spatial histograms of the patterns.
+     * The blocks are the same of the {@link Catalano.Imaging.Tools.SpatialHistogram}, the pattern of each block
+     * is computed inside the block, without its border.
+     * @param fastBitmap Image to be processed.
+     * @param wBlock Number of width blocks.
+     * @param hBlock Number of height blocks.
+     * @return Concatenated block histograms of each pattern.
+     */
+    public int[][] ComputeSpatialHistograms(FastBitmap fastBitmap, int wBlock, int hBlock){
+        int height = fastBitmap.getHeight();
+        int width = fastBitmap.getWidth();
+
+        int wDiv = (int)Math.round((double)width / (double)wBlock) - 1;
+        int hDiv = (int)Math.round((double)height / (double)hBlock) - 1;
+        if (wDiv < 1 || hDiv < 1 || hBlock * hDiv > height || wBlock * wDiv > width)
+            throw new IllegalArgumentException("The size is higher than original image.");
+
+        int[] rowBlock = new int[height];
+        int[] colBlock = new int[width];
+        for (int i = 0; i < height; i++) {
+            int b = i / hDiv;
+            int o = i % hDiv;
+            rowBlock[i] = b < hBlock && o > 0 && o < hDiv - 1 ? b * wBlock : -1;
+        }
+        for (int j = 0; j < width; j++) {
+            int b = j / wDiv;
+            int o = j % wDiv;
+            colBlock[j] = b < wBlock && o > 0 && o < wDiv - 1 ? b : -1;
+        }
+
+        return Compute(fastBitmap, rowBlock, colBlock, wBlock * hBlock);
+    }
+
+    /**
+     * Compute the histograms of the blocks.
+     * @param rowBlock Index of the first block of the row, -1 if the row is outside.
+     * @param colBlock Block offset of the column, -1 if the column is outside.
+     */
+    private int[][] Compute(FastBitmap fastBitmap, final int[] rowBlock, final int[] colBlock, final int blocks){
+
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("Binary patterns only works in grayscale images.");
+
+        final byte[] pixels = fastBitmap.getGrayData();
+        final int width = fastBitmap.getWidth();
+        final int height = fastBitmap.getHeight();
+
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 32));
+        final int[][][] partial = new int[cores][][];
+
+        Thread[] t = new Thread[cores];
+        int part = height / cores;
+        for (int i = 0; i < cores; i++) {
+            final int index = i;
+            final int start = i * part;
+            final int end = i == cores - 1 ? height : start + part;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    partial[index] = Compute(pixels, width, height, rowBlock, colBlock, blocks, start, end);
+                }
+            });
+        }
+
+        if (cores == 1){
+            t[0].run();
+        }
+        else{
+            for (int i = 0; i < cores; i++)
+                t[i].start();
+
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Merge the histograms of the strips
+        int[][] h = partial[0];
+        for (int i = 1; i < cores; i++)
+            for (int p = 0; p < h.length; p++)
+                for (int k = 0; k < h[p].length; k++)
+                    h[p][k] += partial[i][p][k];
+
+        return h;
+    }
+
+    private int[][] Compute(byte[] pixels, int width, int height, int[] rowBlock, int[] colBlock, int blocks, int start, int end){
+
+        int n = patterns.length;
+        int[][] h = new int[n][];
+        int[][] tables = new int[n][];
+        int[] labels = new int[n];
+        boolean cs = false;
+        for (int p = 0; p < n; p++) {
+            labels[p] = getLabels(patterns[p]);
+            h[p] = new int[blocks * labels[p]];
+            if (patterns[p] == Pattern.CenterSymmetric) cs = true;
+            else if (patterns[p] != Pattern.LBP) tables[p] = getTable(patterns[p]);
+        }
+
+        // Non uniform codes are discarded.
+        if (!nonUniform){
+            for (int p = 0; p < n; p++) {
+                if (patterns[p] != Pattern.Uniform) continue;
+                for (int c = 0; c < 256; c++)
+                    if (tables[p][c] == 58) tables[p][c] = -1;
+            }
+        }
+
+        for (int x = Math.max(1, start); x < Math.min(height - 1, end); x++) {
+            if (rowBlock[x] < 0) continue;
+            int up = (x - 1) * width;
+            int center = x * width;
+            int down = (x + 1) * width;
+
+            for (int y = 1; y < width - 1; y++) {
+                if (colBlock[y] < 0) continue;
+                int block = rowBlock[x] + colBlock[y];
+
+                // Neighbourhood
+                int nw = pixels[up + y - 1] & 0xFF;
+                int no = pixels[up + y] & 0xFF;
+                int ne = pixels[up + y + 1] & 0xFF;
+                int w = pixels[center + y - 1] & 0xFF;
+                int g = pixels[center + y] & 0xFF;
+                int e = pixels[center + y + 1] & 0xFF;
+                int sw = pixels[down + y - 1] & 0xFF;
+                int so = pixels[down + y] & 0xFF;
+                int se = pixels[down + y + 1] & 0xFF;
+
+                int code = 0;
+                if (nw >= g) code += 128;
+                if (no >= g) code += 64;
+                if (ne >= g) code += 32;
+                if (e >= g) code += 16;
+                if (se >= g) code += 8;
+                if (so >= g) code += 4;
+                if (sw >= g) code += 2;
+                if (w >= g) code += 1;
+
+                int csCode = 0;
+                if (cs){
+                    if (Math.abs(nw - se) >= g) csCode += 8;
+                    if (Math.abs(no - so) >= g) csCode += 4;
+                    if (Math.abs(ne - sw) >= g) csCode += 2;
+                    if (Math.abs(e - w) >= g) csCode += 1;
+                }
+
+                for (int p = 0; p < n; p++) {
+                    int label;
+                    if (patterns[p] == Pattern.LBP) label = code;
+                    else if (patterns[p] == Pattern.CenterSymmetric) label = csCode;
+                    else label = tables[p][code];
+
+                    if (label >= 0) h[p][block * labels[p] + label]++;
+                }
+            }
+        }
+
+        return h;
+    }
+}
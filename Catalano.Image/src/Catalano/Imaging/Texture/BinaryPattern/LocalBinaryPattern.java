@@ -42,28 +42,7 @@ public class LocalBinaryPattern implements IBinaryPattern{
         if (!fastBitmap.isGrayscale())
             throw new IllegalArgumentException("LBP works only with grayscale images.");
         
-        int width = fastBitmap.getWidth() - 1;
-        int height = fastBitmap.getHeight() - 1;
-        
-        int sum;
-        int[] g = new int[256];
-        int gray;
-        for (int x = 1; x < height; x++) {
-            for (int y = 1; y < width; y++) {
-                gray = fastBitmap.getGray(x, y);
-                sum = 0;
-                if (fastBitmap.getGray(x - 1, y - 1) - gray >= 0)    sum += 128;
-                if (fastBitmap.getGray(x - 1, y) - gray >= 0)        sum += 64;
-                if (fastBitmap.getGray(x - 1, y + 1) - gray >= 0)    sum += 32;
-                if (fastBitmap.getGray(x, y + 1) - gray >= 0)        sum += 16;
-                if (fastBitmap.getGray(x + 1, y + 1) - gray >= 0)    sum += 8;
-                if (fastBitmap.getGray(x + 1, y) - gray >= 0)        sum += 4;
-                if (fastBitmap.getGray(x + 1, y - 1) - gray >= 0)    sum += 2;
-                if (fastBitmap.getGray(x, y - 1) - gray >= 0)        sum += 1;
-                g[sum]++;
-            }
-        }
-        return new ImageHistogram(g);
+        return new BinaryPatternExtractor(BinaryPatternExtractor.Pattern.LBP).ComputeFeatures(fastBitmap)[0];
     }
     
     /**
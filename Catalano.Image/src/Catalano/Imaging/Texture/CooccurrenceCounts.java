@@ -0,0 +1,192 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Texture;
+
+/**
+ * Sparse co-occurrence counts.
+ * Only the pairs of levels present are stored, in an open addressing hash table,
+ * so a window with 256 levels doesn't need a 256 x 256 matrix.
+ * @see SlidingCooccurrenceMatrix
+ * @author Diego Catalano
+ */
+public class CooccurrenceCounts {
+
+    private int levels;
+    private int numPairs;
+    private int size;
+
+    // Key is (level1 * levels + level2), count 0 means an empty slot.
+    int[] keys;
+    int[] counts;
+
+    /**
+     * Get the number of levels.
+     * @return Number of levels.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Get the number of pairs.
+     * @return Number of pairs.
+     */
+    public int getNumPairs() {
+        return numPairs;
+    }
+
+    /**
+     * Get the number of different pairs of levels.
+     * @return Number of non-zero elements.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Initialize a new instance of the CooccurrenceCounts class.
+     * @param levels Number of levels.
+     */
+    public CooccurrenceCounts(int levels) {
+        this.levels = levels;
+        this.keys = new int[16];
+        this.counts = new int[16];
+    }
+
+    /**
+     * Remove all the pairs.
+     */
+    public void Clear(){
+        java.util.Arrays.fill(counts, 0);
+        size = 0;
+        numPairs = 0;
+    }
+
+    /**
+     * Get the count of a pair of levels.
+     * @param level1 First level.
+     * @param level2 Second level.
+     * @return Count.
+     */
+    public int get(int level1, int level2){
+        int key = level1 * levels + level2;
+        int mask = keys.length - 1;
+        for (int i = Hash(key, mask); counts[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) return counts[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Add to the count of a pair of levels.
+     * @param level1 First level.
+     * @param level2 Second level.
+     * @param delta Value to add, negative to remove pairs.
+     */
+    public void add(int level1, int level2, int delta){
+        add(level1 * levels + level2, delta);
+    }
+
+    void add(int key, int delta){
+        int mask = keys.length - 1;
+        int i = Hash(key, mask);
+        while (counts[i] != 0) {
+            if (keys[i] == key){
+                if (counts[i] + delta < 0)
+                    throw new IllegalArgumentException("The count of a pair can't be negative.");
+                numPairs += delta;
+                counts[i] += delta;
+                if (counts[i] == 0) Remove(i);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (delta < 0)
+            throw new IllegalArgumentException("The count of a pair can't be negative.");
+        if (delta == 0) return;
+
+        numPairs += delta;
+        keys[i] = key;
+        counts[i] = delta;
+        if (++size * 2 > keys.length) Grow();
+    }
+
+    /**
+     * Convert to a dense matrix.
+     * @param normalize Divides each element per number of pairs.
+     * @return GLCM.
+     */
+    public double[][] toMatrix(boolean normalize){
+        double[][] matrix = new double[levels][levels];
+        double div = normalize && numPairs > 0 ? numPairs : 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0)
+                matrix[keys[i] / levels][keys[i] % levels] = counts[i] / div;
+        }
+        return matrix;
+    }
+
+    /**
+     * Backward shift deletion, keeps the probe sequences without tombstones.
+     */
+    private void Remove(int hole){
+        size--;
+        int mask = keys.length - 1;
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (counts[i] == 0) break;
+
+            // Move the entry back if its home is not between the hole and it.
+            int home = Hash(keys[i], mask);
+            if (((i - home) & mask) >= ((i - hole) & mask)){
+                keys[hole] = keys[i];
+                counts[hole] = counts[i];
+                counts[i] = 0;
+                hole = i;
+            }
+        }
+        counts[hole] = 0;
+    }
+
+    private void Grow(){
+        int[] k = keys;
+        int[] c = counts;
+        keys = new int[k.length * 2];
+        counts = new int[k.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < k.length; i++) {
+            if (c[i] != 0){
+                int j = Hash(k[i], mask);
+                while (counts[j] != 0) j = (j + 1) & mask;
+                keys[j] = k[i];
+                counts[j] = c[i];
+            }
+        }
+    }
+
+    private static int Hash(int key, int mask){
+        int h = key * 0x9E3779B1;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -21,6 +21,9 @@
 
 package Catalano.Imaging.Texture;
 
+import Catalano.Imaging.FastBitmap;
+import Catalano.Imaging.Texture.GrayLevelCooccurrenceMatrix.Degree;
+
 /**
  * Haralick's texture classification metrics.
  * @author Diego Catalano
@@ -51,6 +54,142 @@ public final class HaralickDescriptors {
         
     }
     
+    /**
+     * Compute the features of the normalized co-occurrence counts.
+     * The same features of {@link #getFeatures(double[][])}, iterating only the non-zero elements.
+     * @param counts Co-occurrence counts.
+     * @return Features.
+     */
+    public double[] getFeatures(CooccurrenceCounts counts){
+        
+        int levels = counts.getLevels();
+        double n = counts.getNumPairs() == 0 ? 1 : counts.getNumPairs();
+        int[] keys = counts.keys;
+        int[] values = counts.counts;
+        
+        double[] rowSum = new double[levels];
+        double[] colSum = new double[levels];
+        double[] lower = new double[levels];
+        
+        double contrast = 0, energy = 0, entropy = 0, inertia = 0, homogeneity = 0, idm = 0, ij = 0;
+        for (int k = 0; k < keys.length; k++) {
+            if (values[k] == 0) continue;
+            int i = keys[k] / levels;
+            int j = keys[k] % levels;
+            double p = values[k] / n;
+            
+            rowSum[i] += p;
+            colSum[j] += p;
+            if (j <= i) lower[i] += p;
+            
+            contrast += Math.abs(i - j) * p;
+            energy += p * p;
+            entropy += p * Catalano.Math.Tools.Log(p + 1, 2);
+            inertia += (i - j) * (i - j) * p;
+            homogeneity += p / (1 + Math.abs(i - j));
+            idm += p / (1 + (i - j) * (i - j));
+            ij += i * j * p;
+        }
+        
+        // Means of the cluster metrics
+        double[] meanI = new double[levels];
+        double[] meanJ = new double[levels];
+        for (int i = 0; i < levels; i++) {
+            meanI[i] = rowSum[i] / levels;
+            meanJ[i] = lower[i] / levels + (rowSum[i] - lower[i]);
+        }
+        
+        double tendency = 0, shade = 0, prominence = 0;
+        for (int k = 0; k < keys.length; k++) {
+            if (values[k] == 0) continue;
+            int i = keys[k] / levels;
+            int j = keys[k] % levels;
+            double p = values[k] / n;
+            
+            double d = (i - meanI[i]) + (j - meanJ[j]);
+            tendency += d * d * p;
+            shade += d * d * d * p;
+            prominence += d * d * d * d * p;
+        }
+        
+        // Correlation
+        double mI = 0, stdI = 0, mJ = 0, stdJ = 0;
+        for (int i = 0; i < levels; i++) {
+            mI += rowSum[i];
+            stdI += (i - mI) * (i - mI) * rowSum[i];
+            mJ += colSum[i];
+            stdJ += (i - mJ) * (i - mJ) * colSum[i];
+        }
+        double correlation = (ij - (double)levels * levels * mI * mJ) / stdI * stdJ;
+        
+        return new double[] {prominence, shade, tendency, contrast, correlation, energy, -entropy, inertia, homogeneity, idm, homogeneity};
+    }
+    
+    /**
+     * Compute the features of all the windows of the image.
+     * Each row of windows is computed in parallel, sliding the co-occurrence counts incrementally.
+     * @param fastBitmap Image to be processed.
+     * @param distance Specifies the scale at which the texture is analysed.
+     * @param levels Number of levels.
+     * @param windowSize Size of the window.
+     * @param step Distance between the windows.
+     * @param degrees Directions, the features of each direction are concatenated.
+     * @return Features of the windows in row-major order.
+     */
+    public double[][] getFeatures(FastBitmap fastBitmap, final int distance, final int levels, final int windowSize, final int step, final Degree... degrees){
+        
+        if (step < 1)
+            throw new IllegalArgumentException("Step must be greater than zero.");
+        if (degrees.length == 0)
+            throw new IllegalArgumentException("At least one degree is needed.");
+        
+        final int[] image = SlidingCooccurrenceMatrix.Quantize(fastBitmap, levels);
+        final int width = fastBitmap.getWidth();
+        final int height = fastBitmap.getHeight();
+        
+        final int rows = height < windowSize ? 0 : (height - windowSize) / step + 1;
+        final int cols = width < windowSize ? 0 : (width - windowSize) / step + 1;
+        final double[][] features = new double[rows * cols][];
+        
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), rows));
+        Thread[] t = new Thread[cores];
+        int part = rows / cores;
+        for (int i = 0; i < cores; i++) {
+            final int start = i * part;
+            final int end = i == cores - 1 ? rows : start + part;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (start == end) return;
+                    SlidingCooccurrenceMatrix glcm = new SlidingCooccurrenceMatrix(image, width, height, distance, levels, windowSize, windowSize);
+                    for (int r = start; r < end; r++) {
+                        glcm.setPosition(r * step, 0);
+                        for (int c = 0; c < cols; c++) {
+                            if (c > 0)
+                                for (int s = 0; s < step; s++) glcm.SlideRight();
+                            
+                            double[] f = new double[11 * degrees.length];
+                            for (int d = 0; d < degrees.length; d++)
+                                System.arraycopy(getFeatures(glcm.getCounts(degrees[d])), 0, f, d * 11, 11);
+                            features[r * cols + c] = f;
+                        }
+                    }
+                }
+            });
+            t[i].start();
+        }
+        
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        
+        return features;
+    }
+    
     /**
      * Compute energy.
      * @param coocurrenceMatrix Coocurrence matrix.
@@ -0,0 +1,224 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Texture;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Imaging.Texture.GrayLevelCooccurrenceMatrix.Degree;
+
+/**
+ * Gray Level Coocurrence Matrix (GLCM) of a sliding window.
+ *
+ * <p>The counts of the four directions are kept together in sparse storage and updated in one pass:
+ * sliding the window one column to the right only removes the pairs of the leaving column and adds
+ * the pairs of the entering column, instead of recomputing the whole window.</p>
+ *
+ * <p>The pairs and the quantization of the levels are the same of {@link GrayLevelCooccurrenceMatrix},
+ * with the maximum gray of the whole image.</p>
+ *
+ * @author Diego Catalano
+ */
+public class SlidingCooccurrenceMatrix {
+
+    // Offset (rows, columns) from the first to the second pixel of the pair, per degree.
+    private final int[] dx;
+    private final int[] dy;
+
+    private int[] image;
+    private int width;
+    private int height;
+
+    private int levels;
+    private int distance;
+    private int windowHeight;
+    private int windowWidth;
+
+    private int row;
+    private int col;
+    private CooccurrenceCounts[] counts = new CooccurrenceCounts[4];
+
+    /**
+     * Get the number of levels.
+     * @return Number of levels.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Get distance.
+     * @return Distance.
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    /**
+     * Get the top row of the window.
+     * @return Row.
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * Get the left column of the window.
+     * @return Column.
+     */
+    public int getCol() {
+        return col;
+    }
+
+    /**
+     * Initialize a new instance of the SlidingCooccurrenceMatrix class.
+     * @param fastBitmap Image to be processed.
+     * @param distance Specifies the scale at which the texture is analysed.
+     * @param levels Number of levels.
+     * @param windowHeight Height of the window.
+     * @param windowWidth Width of the window.
+     */
+    public SlidingCooccurrenceMatrix(FastBitmap fastBitmap, int distance, int levels, int windowHeight, int windowWidth){
+        this(Quantize(fastBitmap, levels), fastBitmap.getWidth(), fastBitmap.getHeight(), distance, levels, windowHeight, windowWidth);
+    }
+
+    /**
+     * Initialize a new instance of the SlidingCooccurrenceMatrix class sharing the quantized image.
+     */
+    SlidingCooccurrenceMatrix(int[] image, int width, int height, int distance, int levels, int windowHeight, int windowWidth){
+        if (windowHeight > height || windowWidth > width)
+            throw new IllegalArgumentException("The window must be inside the image.");
+        if (distance < 1)
+            throw new IllegalArgumentException("Distance must be greater than zero.");
+
+        this.image = image;
+        this.width = width;
+        this.height = height;
+        this.distance = distance;
+        this.levels = levels;
+        this.windowHeight = windowHeight;
+        this.windowWidth = windowWidth;
+
+        this.dx = new int[] {0, -distance, distance, -distance};
+        this.dy = new int[] {distance, distance, 0, -distance};
+
+        for (int i = 0; i < 4; i++)
+            counts[i] = new CooccurrenceCounts(levels);
+
+        setPosition(0, 0);
+    }
+
+    /**
+     * Get the counts of the current window.
+     * @param degree Degree.
+     * @return Co-occurrence counts.
+     */
+    public CooccurrenceCounts getCounts(Degree degree){
+        return counts[degree.ordinal()];
+    }
+
+    /**
+     * Get the GLCM of the current window.
+     * @param degree Degree.
+     * @param normalize Divides each element per number of pairs.
+     * @return GLCM.
+     */
+    public double[][] getMatrix(Degree degree, boolean normalize){
+        return counts[degree.ordinal()].toMatrix(normalize);
+    }
+
+    /**
+     * Move the window and compute all the pairs.
+     * @param row Top row of the window.
+     * @param col Left column of the window.
+     */
+    public void setPosition(int row, int col){
+        if (row < 0 || col < 0 || row + windowHeight > height || col + windowWidth > width)
+            throw new IllegalArgumentException("The window must be inside the image.");
+
+        this.row = row;
+        this.col = col;
+
+        for (int d = 0; d < 4; d++) {
+            counts[d].Clear();
+            for (int j = col; j < col + windowWidth; j++)
+                if (j + dy[d] >= col && j + dy[d] < col + windowWidth)
+                    Pairs(d, j, 1);
+        }
+    }
+
+    /**
+     * Slide the window one column to the right.
+     * Only the pairs of the leaving and entering columns are updated.
+     */
+    public void SlideRight(){
+        if (col + windowWidth >= width)
+            throw new IllegalArgumentException("The window can't slide outside the image.");
+
+        int last = col + windowWidth;
+        for (int d = 0; d < 4; d++) {
+            if (Math.abs(dy[d]) >= windowWidth) continue;
+
+            // Pairs which the left pixel is in the leaving column
+            Pairs(d, dy[d] >= 0 ? col : col - dy[d], -1);
+
+            // Pairs which the right pixel is in the entering column
+            Pairs(d, dy[d] >= 0 ? last - dy[d] : last, 1);
+        }
+        col++;
+    }
+
+    /**
+     * Add the pairs which the first pixel is in the column, inside the rows of the window.
+     */
+    private void Pairs(int d, int firstCol, int delta){
+        int secondCol = firstCol + dy[d];
+        CooccurrenceCounts c = counts[d];
+        int start = Math.max(row, row - dx[d]);
+        int end = Math.min(row + windowHeight, row + windowHeight - dx[d]);
+        for (int i = start; i < end; i++) {
+            c.add(image[i * width + firstCol] * levels + image[(i + dx[d]) * width + secondCol], delta);
+        }
+    }
+
+    /**
+     * Quantize the image in levels, the same way of the GrayLevelCooccurrenceMatrix.
+     * @param fastBitmap Image to be processed.
+     * @param levels Number of levels.
+     * @return Levels.
+     */
+    static int[] Quantize(FastBitmap fastBitmap, int levels){
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("SlidingCooccurrenceMatrix only works in grayscale images.");
+
+        byte[] pixels = fastBitmap.getGrayData();
+        int max = 0;
+        for (int i = 0; i < pixels.length; i++)
+            max = Math.max(max, pixels[i] & 0xFF);
+
+        if (max < levels) max = levels;
+        int div = max / (levels - 1);
+
+        int[] image = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++)
+            image[i] = Math.min(levels - 1, (pixels[i] & 0xFF) / div);
+        return image;
+    }
+}
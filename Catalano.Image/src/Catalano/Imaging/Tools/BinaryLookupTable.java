@@ -0,0 +1,372 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Tools;
+
+import Catalano.Imaging.FastBitmap;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary 3x3 neighborhood look-up table.
+ *
+ * The 8 neighbors of a pixel are packed in a code, clockwise from the top-left corner:
+ * <pre>
+ *   1   2   4
+ * 128   x   8
+ *  64  32  16
+ * </pre>
+ * Any decision over a binary 3x3 neighborhood can be precomputed in a 256-entry table and evaluated with a single lookup.
+ * Iterative operations keep a queue with the pixels whose neighborhood has changed, so after the first pass only the border candidates are visited.
+ *
+ * <p><li>Supported types: Grayscale (binary).
+ * <br><li>Coordinate System: Matrix.
+ *
+ * @author Diego Catalano
+ */
+public class BinaryLookupTable {
+
+    private int[] table;
+
+    /**
+     * Initializes a new instance of the BinaryLookupTable class.
+     * @param table Table with 256 entries.
+     */
+    public BinaryLookupTable(int[] table) {
+        if (table.length != 256)
+            throw new IllegalArgumentException("The table must have 256 entries.");
+        this.table = table;
+    }
+
+    /**
+     * Get the table.
+     * @return Table.
+     */
+    public int[] getTable() {
+        return table;
+    }
+
+    /**
+     * Get the value of the table.
+     * @param code Neighborhood code.
+     * @return Value.
+     */
+    public int get(int code){
+        return table[code];
+    }
+
+    /**
+     * Build a table from a 3x3 structuring element.
+     *
+     * 1  - Foreground
+     * 0  - Background
+     * -1 - Don't care
+     *
+     * The center of the structuring element is ignored, it must be tested by the caller.
+     *
+     * @param kernel Structuring element.
+     * @return Look-up table where 1 means match.
+     */
+    public static BinaryLookupTable FromKernel(int[][] kernel){
+        int[] table = new int[256];
+        for (int code = 0; code < 256; code++) {
+            table[code] = Matches(kernel, code) ? 1 : 0;
+        }
+        return new BinaryLookupTable(table);
+    }
+
+    /**
+     * Build a table from a list of 3x3 structuring elements.
+     * @param kernels Structuring elements.
+     * @param all True if all the structuring elements must match, otherwise at least one.
+     * @return Look-up table where 1 means match.
+     */
+    public static BinaryLookupTable FromKernels(List<int[][]> kernels, boolean all){
+        int[] table = new int[256];
+        for (int code = 0; code < 256; code++) {
+            boolean match = all;
+            for (int[][] se : kernels) {
+                if (Matches(se, code) != all){
+                    match = !all;
+                    break;
+                }
+            }
+            table[code] = match ? 1 : 0;
+        }
+        return new BinaryLookupTable(table);
+    }
+
+    /**
+     * Build a table that marks the foreground pixels removed by a binary erosion.
+     * @param se 3x3 structuring element: 1 - to process the neighbor, 0 - to skip it.
+     * @return Look-up table where 1 means at least one processed neighbor is background.
+     */
+    public static BinaryLookupTable FromErosion(int[][] se){
+        int mask = Mask(se);
+        int[] table = new int[256];
+        for (int code = 0; code < 256; code++) {
+            table[code] = (code & mask) != mask ? 1 : 0;
+        }
+        return new BinaryLookupTable(table);
+    }
+
+    /**
+     * Build a table that marks the background pixels added by a binary dilatation.
+     * @param se 3x3 structuring element: 1 - to process the neighbor, 0 - to skip it.
+     * @return Look-up table where 1 means at least one processed neighbor is foreground.
+     */
+    public static BinaryLookupTable FromDilatation(int[][] se){
+        int mask = Mask(se);
+        int[] table = new int[256];
+        for (int code = 0; code < 256; code++) {
+            table[code] = (code & mask) != 0 ? 1 : 0;
+        }
+        return new BinaryLookupTable(table);
+    }
+
+    private static int Mask(int[][] se){
+        int[] v = Neighbors(se);
+        int mask = 0;
+        for (int k = 0; k < 8; k++) {
+            if (v[k] == 1) mask |= 1 << k;
+        }
+        return mask;
+    }
+
+    /**
+     * Verify if the structuring element can be handled by the look-up table.
+     * @param kernel Structuring element.
+     * @return True if the structuring element is 3x3, otherwise false.
+     */
+    public static boolean isSupported(int[][] kernel){
+        return kernel.length == 3 && kernel[0].length == 3 && kernel[1].length == 3 && kernel[2].length == 3;
+    }
+
+    private static int[] Neighbors(int[][] kernel){
+        if (!isSupported(kernel))
+            throw new IllegalArgumentException("The structuring element must be 3x3.");
+
+        // Same order of the bits in the neighborhood code.
+        return new int[] {kernel[0][0], kernel[0][1], kernel[0][2], kernel[1][2], kernel[2][2], kernel[2][1], kernel[2][0], kernel[1][0]};
+    }
+
+    private static boolean Matches(int[][] kernel, int code){
+        int[] v = Neighbors(kernel);
+        for (int k = 0; k < 8; k++) {
+            int bit = (code >> k) & 1;
+            if (v[k] >= 0 && v[k] != bit) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compute the neighborhood code of an interior pixel.
+     * @param pixels Gray data.
+     * @param offset Offset of the pixel.
+     * @param width Width of the image.
+     * @return Neighborhood code.
+     */
+    public static int getCode(byte[] pixels, int offset, int width){
+        int code = 0;
+        if (pixels[offset - width - 1] != 0) code |= 1;
+        if (pixels[offset - width]     != 0) code |= 2;
+        if (pixels[offset - width + 1] != 0) code |= 4;
+        if (pixels[offset + 1]         != 0) code |= 8;
+        if (pixels[offset + width + 1] != 0) code |= 16;
+        if (pixels[offset + width]     != 0) code |= 32;
+        if (pixels[offset + width - 1] != 0) code |= 64;
+        if (pixels[offset - 1]         != 0) code |= 128;
+        return code;
+    }
+
+    /**
+     * Compute the neighborhood code of any pixel.
+     * @param pixels Gray data.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param i Row.
+     * @param j Column.
+     * @param outside Value assumed for the pixels outside of the image, true means foreground.
+     * @return Neighborhood code.
+     */
+    public static int getCode(byte[] pixels, int width, int height, int i, int j, boolean outside){
+        if (i > 0 && j > 0 && i < height - 1 && j < width - 1)
+            return getCode(pixels, i * width + j, width);
+
+        int code = 0;
+        if (isSet(pixels, width, height, i - 1, j - 1, outside)) code |= 1;
+        if (isSet(pixels, width, height, i - 1, j,     outside)) code |= 2;
+        if (isSet(pixels, width, height, i - 1, j + 1, outside)) code |= 4;
+        if (isSet(pixels, width, height, i,     j + 1, outside)) code |= 8;
+        if (isSet(pixels, width, height, i + 1, j + 1, outside)) code |= 16;
+        if (isSet(pixels, width, height, i + 1, j,     outside)) code |= 32;
+        if (isSet(pixels, width, height, i + 1, j - 1, outside)) code |= 64;
+        if (isSet(pixels, width, height, i,     j - 1, outside)) code |= 128;
+        return code;
+    }
+
+    private static boolean isSet(byte[] pixels, int width, int height, int i, int j, boolean outside){
+        if (i < 0 || j < 0 || i >= height || j >= width) return outside;
+        return pixels[i * width + j] != 0;
+    }
+
+    /**
+     * Apply the table in a single pass.
+     * The codes are computed from the original image, so the result does not depend on the scan order.
+     * @param fastBitmap Image to be processed.
+     * @param center Pixels to be tested, true means foreground pixels.
+     * @param outside Value assumed for the pixels outside of the image, true means foreground.
+     * @param hit Value of the tested pixels when the table entry is not zero, -1 to keep the pixel.
+     * @param miss Value of the remaining pixels, -1 to keep the pixel.
+     * @return Number of hits.
+     */
+    public int apply(FastBitmap fastBitmap, boolean center, boolean outside, int hit, int miss){
+
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("The image must be in grayscale.");
+
+        int width = fastBitmap.getWidth();
+        int height = fastBitmap.getHeight();
+        byte[] pixels = fastBitmap.getGrayData();
+        byte[] copy = Arrays.copyOf(pixels, pixels.length);
+
+        int hits = 0;
+        for (int i = 0; i < height; i++) {
+            int offset = i * width;
+            for (int j = 0; j < width; j++, offset++) {
+                if ((copy[offset] != 0) == center && table[getCode(copy, width, height, i, j, outside)] != 0){
+                    if (hit >= 0) pixels[offset] = (byte)hit;
+                    hits++;
+                }
+                else if (miss >= 0){
+                    pixels[offset] = (byte)miss;
+                }
+            }
+        }
+
+        return hits;
+    }
+
+    /**
+     * Iteratively remove foreground pixels.
+     *
+     * Each iteration is composed by one sub-iteration per mask, a foreground pixel is removed when
+     * the table entry of its neighborhood has any bit of the mask. All the decisions of a sub-iteration
+     * are taken before removing any pixel. The pixels in the border of the image are not processed.
+     *
+     * @param fastBitmap Image to be processed.
+     * @param masks Masks of each sub-iteration (max. 8).
+     * @param maxIterations Maximum number of iterations, 0 until convergence.
+     * @return Number of removed pixels.
+     */
+    public int iterate(FastBitmap fastBitmap, int[] masks, int maxIterations){
+
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("The image must be in grayscale.");
+        if (masks.length < 1 || masks.length > 8)
+            throw new IllegalArgumentException("The number of masks must be between 1 and 8.");
+
+        int width = fastBitmap.getWidth();
+        int height = fastBitmap.getHeight();
+        if (width < 3 || height < 3) return 0;
+
+        byte[] pixels = fastBitmap.getGrayData();
+        int all = (1 << masks.length) - 1;
+
+        // Bit k of dirty means that the pixel must be tested with the mask k.
+        // A pixel is in the queue while its dirty flags are not zero.
+        byte[] dirty = new byte[pixels.length];
+        int[] queue = new int[1024];
+        int size = 0;
+
+        // Only the border candidates, interior pixels (code 255) can't be removed.
+        for (int i = 1; i < height - 1; i++) {
+            int offset = i * width + 1;
+            for (int j = 1; j < width - 1; j++, offset++) {
+                if (pixels[offset] != 0 && getCode(pixels, offset, width) != 255){
+                    if (size == queue.length) queue = Arrays.copyOf(queue, size * 2);
+                    queue[size++] = offset;
+                    dirty[offset] = (byte)all;
+                }
+            }
+        }
+
+        int[] removed = new int[1024];
+        int total = 0;
+        int iteration = 0;
+        while (size > 0 && (maxIterations <= 0 || iteration < maxIterations)) {
+
+            for (int k = 0; k < masks.length; k++) {
+                int bit = 1 << k;
+                int mask = masks[k];
+
+                // Decide.
+                int r = 0;
+                for (int q = 0; q < size; q++) {
+                    int offset = queue[q];
+                    if ((dirty[offset] & bit) != 0){
+                        dirty[offset] &= ~bit;
+                        if ((table[getCode(pixels, offset, width)] & mask) != 0){
+                            if (r == removed.length) removed = Arrays.copyOf(removed, r * 2);
+                            removed[r++] = offset;
+                        }
+                    }
+                }
+
+                // Remove.
+                for (int q = 0; q < r; q++) {
+                    pixels[removed[q]] = 0;
+                    dirty[removed[q]] = 0;
+                }
+                total += r;
+
+                // Keep the pending pixels.
+                int n = 0;
+                for (int q = 0; q < size; q++) {
+                    if (dirty[queue[q]] != 0) queue[n++] = queue[q];
+                }
+                size = n;
+
+                // Enqueue the neighbors of the removed pixels.
+                for (int q = 0; q < r; q++) {
+                    int offset = removed[q];
+                    int i = offset / width;
+                    int j = offset % width;
+                    for (int y = Math.max(1, i - 1); y <= Math.min(height - 2, i + 1); y++) {
+                        for (int x = Math.max(1, j - 1); x <= Math.min(width - 2, j + 1); x++) {
+                            int o = y * width + x;
+                            if (pixels[o] != 0){
+                                if (dirty[o] == 0){
+                                    if (size == queue.length) queue = Arrays.copyOf(queue, size * 2);
+                                    queue[size++] = o;
+                                }
+                                dirty[o] = (byte)all;
+                            }
+                        }
+                    }
+                }
+            }
+            iteration++;
+        }
+
+        return total;
+    }
+}
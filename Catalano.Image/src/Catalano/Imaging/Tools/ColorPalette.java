@@ -0,0 +1,217 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Tools;
+
+/**
+ * Palette of rgb colors.
+ *
+ * <p>The nearest color is searched in a k-d tree of the palette, the branches farther than the best color
+ * are pruned, so the search visits few colors also for palettes of 256 colors. The palette is immutable
+ * and can be shared by several threads.</p>
+ *
+ * <p>The lookup uses an inverse colormap of 32x32x32 cells, built on the first use, with the nearest color
+ * of the center of each cell. It costs one memory access per pixel, the error is at most the half of a cell.</p>
+ *
+ * @author Diego Catalano
+ */
+public class ColorPalette {
+
+    private int[] colors;
+
+    // k-d tree: node i holds the color index[i] and splits on axis[i], the children are in the ranges of the median.
+    private int[] index;
+    private int[] axis;
+    private int[] r;
+    private int[] g;
+    private int[] b;
+
+    // Inverse colormap, nearest color of each cell of 5 bits per channel.
+    private volatile short[] inverse;
+
+    /**
+     * Get the number of colors.
+     * @return Number of colors.
+     */
+    public int getSize() {
+        return colors.length;
+    }
+
+    /**
+     * Get the color.
+     * @param i Index of the color.
+     * @return Color as rgb.
+     */
+    public int getColor(int i) {
+        return colors[i];
+    }
+
+    /**
+     * Get a copy of the colors.
+     * @return Colors as rgb.
+     */
+    public int[] getColors() {
+        return colors.clone();
+    }
+
+    /**
+     * Initializes a new instance of the ColorPalette class.
+     * @param colors Colors as rgb, the alpha is discarded.
+     */
+    public ColorPalette(int[] colors) {
+        if (colors.length == 0)
+            throw new IllegalArgumentException("The palette must have at least one color.");
+
+        int n = colors.length;
+        this.colors = new int[n];
+        this.index = new int[n];
+        this.axis = new int[n];
+        this.r = new int[n];
+        this.g = new int[n];
+        this.b = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.colors[i] = colors[i] & 0xFFFFFF;
+            this.index[i] = i;
+        }
+
+        Build(0, n);
+        for (int i = 0; i < n; i++) {
+            int c = this.colors[index[i]];
+            r[i] = c >> 16 & 0xFF;
+            g[i] = c >> 8 & 0xFF;
+            b[i] = c & 0xFF;
+        }
+    }
+
+    /**
+     * Index of the nearest color.
+     * @param rgb Color as rgb.
+     * @return Index of the color in the palette.
+     */
+    public int Nearest(int rgb) {
+        return Nearest(rgb >> 16 & 0xFF, rgb >> 8 & 0xFF, rgb & 0xFF);
+    }
+
+    /**
+     * Index of the nearest color, in the euclidean distance.
+     * @param red Red.
+     * @param green Green.
+     * @param blue Blue.
+     * @return Index of the color in the palette.
+     */
+    public int Nearest(int red, int green, int blue) {
+        int[] best = {Integer.MAX_VALUE, 0};
+        Search(0, colors.length, red, green, blue, best);
+        return index[best[1]];
+    }
+
+    /**
+     * Index of the nearest color of the cell of the color, in the inverse colormap.
+     * @param rgb Color as rgb.
+     * @return Index of the color in the palette.
+     */
+    public int Lookup(int rgb) {
+        short[] map = inverse;
+        if (map == null)
+            map = BuildInverse();
+        return map[(rgb & 0xf80000) >> 9 | (rgb & 0xf800) >> 6 | (rgb & 0xf8) >> 3] & 0xFFFF;
+    }
+
+    private synchronized short[] BuildInverse(){
+        if (inverse == null){
+            if (colors.length > 65536)
+                throw new IllegalArgumentException("The inverse colormap supports up to 65536 colors.");
+            short[] map = new short[32768];
+            for (int i = 0; i < 32768; i++)
+                map[i] = (short)Nearest((i >> 10) << 3 | 4, (i >> 5 & 31) << 3 | 4, (i & 31) << 3 | 4);
+            inverse = map;
+        }
+        return inverse;
+    }
+
+    private void Search(int lo, int hi, int red, int green, int blue, int[] best){
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int dr = red - r[mid];
+            int dg = green - g[mid];
+            int db = blue - b[mid];
+            int d = dr * dr + dg * dg + db * db;
+            if (d < best[0] || (d == best[0] && index[mid] < index[best[1]])){
+                best[0] = d;
+                best[1] = mid;
+            }
+            if (hi - lo == 1) return;
+
+            int diff = axis[mid] == 0 ? dr : axis[mid] == 1 ? dg : db;
+            if (diff < 0){
+                Search(lo, mid, red, green, blue, best);
+                if (diff * diff > best[0]) return;
+                lo = mid + 1;
+            }
+            else{
+                Search(mid + 1, hi, red, green, blue, best);
+                if (diff * diff > best[0]) return;
+                hi = mid;
+            }
+        }
+    }
+
+    /**
+     * Sort the range around the median of the axis with the largest spread.
+     */
+    private void Build(int lo, int hi){
+        if (hi - lo < 2){
+            return;
+        }
+
+        int[] min = {255, 255, 255};
+        int[] max = {0, 0, 0};
+        for (int i = lo; i < hi; i++) {
+            int c = colors[index[i]];
+            for (int k = 0; k < 3; k++) {
+                int v = c >> (16 - 8 * k) & 0xFF;
+                if (v < min[k]) min[k] = v;
+                if (v > max[k]) max[k] = v;
+            }
+        }
+        int a = 0;
+        for (int k = 1; k < 3; k++)
+            if (max[k] - min[k] > max[a] - min[a]) a = k;
+
+        // Insertion sort, the palettes are small.
+        int shift = 16 - 8 * a;
+        for (int i = lo + 1; i < hi; i++) {
+            int v = index[i];
+            int key = colors[v] >> shift & 0xFF;
+            int j = i - 1;
+            while (j >= lo && (colors[index[j]] >> shift & 0xFF) > key) {
+                index[j + 1] = index[j];
+                j--;
+            }
+            index[j + 1] = v;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        axis[mid] = a;
+        Build(lo, mid);
+        Build(mid + 1, hi);
+    }
+}
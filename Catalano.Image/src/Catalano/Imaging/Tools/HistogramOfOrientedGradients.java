@@ -48,7 +48,7 @@ public class HistogramOfOrientedGradients {
     private int blockSize = 3; // size of the block, in number of cells
     
     private double epsilon = 1e-10;
-    private double binWidth = 0.69813170079773183076947630739545;
+    private double binWidth = 0.69813170079773183076947630739545; // 2 * PI / numberOfBins
 
     /**
      * Gets the number of histogram bins.
@@ -93,131 +93,122 @@ public class HistogramOfOrientedGradients {
     }
     
     /**
-     * Process image looking for corners.
+     * Process image.
+     * The blocks don't overlap.
      * @param fastBitmap Image to be processed.
-     * @return Returns list of found corners (X-Y coordinates).
+     * @return Returns list of normalized blocks.
      */
     public ArrayList<double[]> ProcessImage(FastBitmap fastBitmap){
         
-        if (fastBitmap.isGrayscale()){
-            
-            int width = fastBitmap.getWidth();
-            int height = fastBitmap.getHeight();
-            
-            // 1. Calculate partial differences
-            float[][] direction = new float[height][width];
-            float[][] magnitude = new float[height][width];
-            
-            for (int i = 1; i < height - 1; i++) {
-                for (int j = 1; j < width - 1; j++) {
-                    
-                    int p1 = fastBitmap.getGray(i - 1, j + 1);
-                    int p2 = fastBitmap.getGray(i, j + 1);
-                    int p3 = fastBitmap.getGray(i + 1, j + 1);
-                    int p4 = fastBitmap.getGray(i - 1, j - 1);
-                    int p5 = fastBitmap.getGray(i, j - 1);
-                    int p6 = fastBitmap.getGray(i + 1, j - 1);
-                    int p7 = fastBitmap.getGray(i + 1, j);
-                    int p8 = fastBitmap.getGray(i - 1, j);
-                    
-                    float h = ((p1 + p2 + p3) - (p4 + p5 + p6)) * 0.166666667f;
-                    float v = ((p6 + p7 + p3) - (p4 + p8 + p1)) * 0.166666667f;
-                    
-                    direction[i][j] = (float)Math.atan2(v, h);
-                    magnitude[i][j] = (float)Math.sqrt(h * h + v * v);
-                }
+        HistogramOfOrientedGradientsMap map = ComputeMap(fastBitmap);
+        
+        // Group the cells into larger, normalized blocks
+        int blocksCountX = map.getCellRows() / blockSize;
+        int blocksCountY = map.getCellCols() / blockSize;
+        
+        float[] v = new float[map.getBlockLength()];
+        ArrayList<double[]> blocks = new ArrayList<double[]>();
+        
+        for (int i = 0; i < blocksCountX; i++) {
+            for (int j = 0; j < blocksCountY; j++) {
+                map.getBlock(i * blockSize, j * blockSize, v, 0);
+                double[] block = new double[v.length];
+                for (int k = 0; k < v.length; k++)
+                    block[k] = v[k];
+                blocks.add(block);
             }
-            
-            // 2. Compute cell histograms
-            int cellCountX = (int)Math.floor(height / (double)cellSize);
-            int cellCountY = (int)Math.floor(width / (double)cellSize);
-            double[][][] histograms = new double[cellCountX][cellCountY][];
-            
-            for (int i = 0; i < cellCountX; i++){
-                for (int j = 0; j < cellCountY; j++){
-                    // Compute the histogram
-                    double[] histogram = new double[numberOfBins];
-
-                    int startCellX = i * cellSize;
-                    int startCellY = j * cellSize;
-
-                    // for each pixel in the cell
-                    for (int x = 0; x < cellSize; x++)
-                    {
-                        for (int y = 0; y < cellSize; y++)
-                        {
-                            double ang = direction[startCellX + x][startCellY + y];
-                            double mag = magnitude[startCellX + x][startCellY + y];
-
-                            // Get its angular bin
-                            int bin = (int)Math.floor((ang + Math.PI) * binWidth);
-
-                            histogram[bin] += mag;
-                        }
+        }
+        
+        return blocks;
+    }
+    
+    /**
+     * Compute the histograms of all the cells of the image.
+     * The cells are computed in parallel, the map extracts the descriptors of any window without recomputing them.
+     * @param fastBitmap Image to be processed.
+     * @return Map of the cell histograms.
+     */
+    public HistogramOfOrientedGradientsMap ComputeMap(FastBitmap fastBitmap){
+        
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("HistogramOfOrientedGradients only works in grayscale images.");
+        
+        final byte[] pixels = fastBitmap.getGrayData();
+        final int width = fastBitmap.getWidth();
+        final int height = fastBitmap.getHeight();
+        
+        final int cellRows = height / cellSize;
+        final int cellCols = width / cellSize;
+        final float[] cells = new float[cellRows * cellCols * numberOfBins];
+        
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), cellRows));
+        if (cores == 1){
+            ComputeCells(pixels, width, height, cells, cellCols, 0, cellRows);
+        }
+        else{
+            Thread[] t = new Thread[cores];
+            int part = cellRows / cores;
+            for (int i = 0; i < cores; i++) {
+                final int start = i * part;
+                final int end = i == cores - 1 ? cellRows : start + part;
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ComputeCells(pixels, width, height, cells, cellCols, start, end);
                     }
-
-                    histograms[i][j] = histogram;
-                }
+                });
+                t[i].start();
             }
             
-            // 3. Group the cells into larger, normalized blocks
-            int blocksCountX = (int)Math.floor(cellCountX / (double)blockSize);
-            int blocksCountY = (int)Math.floor(cellCountY / (double)blockSize);
-
-            ArrayList<double[]> blocks = new ArrayList<double[]>();
-
-            for (int i = 0; i < blocksCountX; i++)
-            {
-                for (int j = 0; j < blocksCountY; j++)
-                {
-                    double[] v = new double[blockSize * blockSize * numberOfBins];
-
-                    int startBlockX = i * blockSize;
-                    int startBlockY = j * blockSize;
-                    int c = 0;
-
-                    // for each cell in the block
-                    for (int x = 0; x < blockSize; x++)
-                    {
-                        for (int y = 0; y < blockSize; y++)
-                        {
-                            double[] histogram =
-                                histograms[startBlockX + x][startBlockY + y];
-
-                            // Copy all histograms to the block vector
-                            for (int k = 0; k < histogram.length; k++)
-                                v[c++] = histogram[k];
-                        }
-                    }
-
-                    double[] block = Divide(v, Euclidean(v) + epsilon);
-
-                    blocks.add(block);
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
                 }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
-
-            return blocks;
         }
-        else{
-            throw new IllegalArgumentException("HistogramOfOrientedGradients only works in grayscale images.");
-        }
-    }
-    
-    private double Euclidean(double[] a){
-        double sum = 0.0;
-        for (int i = 0; i < a.length; i++)
-            sum += a[i] * a[i];
-        return Math.sqrt(sum);
+        
+        return new HistogramOfOrientedGradientsMap(cells, cellRows, cellCols, numberOfBins, blockSize, epsilon);
     }
     
-    private double[] Divide(double[] vector, double x){
-        
-        double[] r = new double[vector.length];
+    /**
+     * Histograms of the cells in the rows [startRow, endRow).
+     */
+    private void ComputeCells(byte[] pixels, int width, int height, float[] cells, int cellCols, int startRow, int endRow){
         
-        for (int i = 0; i < vector.length; i++) {
-            r[i] = vector[i] / x;
+        for (int i = startRow * cellSize; i < endRow * cellSize; i++) {
+            if (i == 0 || i == height - 1) continue;
+            int cellRow = i / cellSize;
+            
+            for (int j = 1; j < Math.min(width - 1, cellCols * cellSize); j++) {
+                
+                // Partial differences
+                int up = (i - 1) * width + j;
+                int center = up + width;
+                int down = center + width;
+                
+                int p1 = pixels[up + 1] & 0xFF;
+                int p2 = pixels[center + 1] & 0xFF;
+                int p3 = pixels[down + 1] & 0xFF;
+                int p4 = pixels[up - 1] & 0xFF;
+                int p5 = pixels[center - 1] & 0xFF;
+                int p6 = pixels[down - 1] & 0xFF;
+                int p7 = pixels[down] & 0xFF;
+                int p8 = pixels[up] & 0xFF;
+                
+                float h = ((p1 + p2 + p3) - (p4 + p5 + p6)) * 0.166666667f;
+                float v = ((p6 + p7 + p3) - (p4 + p8 + p1)) * 0.166666667f;
+                
+                double ang = Math.atan2(v, h);
+                double mag = Math.sqrt(h * h + v * v);
+                
+                // Get its angular bin
+                int bin = (int)((ang + Math.PI) / binWidth);
+                if (bin >= numberOfBins) bin = 0;
+                
+                cells[(cellRow * cellCols + j / cellSize) * numberOfBins + bin] += mag;
+            }
         }
-        
-        return r;
     }
-}
\ No newline at end of file
+}
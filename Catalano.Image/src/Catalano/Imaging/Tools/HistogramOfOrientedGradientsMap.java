@@ -0,0 +1,321 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Tools;
+
+/**
+ * Dense map of Histograms of Oriented Gradients.
+ *
+ * <p>The cell histograms are computed once by {@link HistogramOfOrientedGradients#ComputeMap(Catalano.Imaging.FastBitmap)}.
+ * The norm of any block comes from an integral image of the cell energies, and the histogram of any region of cells
+ * comes from orientation-binned integral images, so the descriptors of every window position in a sliding-window
+ * detector are extracted without recomputing gradients or histograms.</p>
+ *
+ * <p>All the data is stored in flat float buffers: cell (row, col) bin k is at ((row * cellCols) + col) * bins + k.</p>
+ *
+ * @author Diego Catalano
+ */
+public class HistogramOfOrientedGradientsMap {
+
+    private float[] cells;
+    private int cellRows;
+    private int cellCols;
+    private int bins;
+    private int blockSize;
+    private double epsilon;
+
+    // Integral image of the squared norm of the cells.
+    private double[] energy;
+
+    // Inverse of the norm of the block at each cell position.
+    private float[] blockNorm;
+
+    // Orientation-binned integral images, computed on demand.
+    private volatile double[] integral;
+
+    /**
+     * Initializes a new instance of the HistogramOfOrientedGradientsMap class.
+     * @param cells Cell histograms.
+     * @param cellRows Number of rows of cells.
+     * @param cellCols Number of columns of cells.
+     * @param bins Number of bins.
+     * @param blockSize Size of the block, in cells.
+     * @param epsilon Regularization of the block normalization.
+     */
+    public HistogramOfOrientedGradientsMap(float[] cells, int cellRows, int cellCols, int bins, int blockSize, double epsilon) {
+        if (cells.length != cellRows * cellCols * bins)
+            throw new IllegalArgumentException("The size of the cells must be cellRows * cellCols * bins.");
+
+        this.cells = cells;
+        this.cellRows = cellRows;
+        this.cellCols = cellCols;
+        this.bins = bins;
+        this.blockSize = blockSize;
+        this.epsilon = epsilon;
+
+        // Energy of the cells
+        int stride = cellCols + 1;
+        energy = new double[(cellRows + 1) * stride];
+        for (int i = 0; i < cellRows; i++) {
+            double row = 0;
+            for (int j = 0; j < cellCols; j++) {
+                int c = (i * cellCols + j) * bins;
+                for (int k = 0; k < bins; k++)
+                    row += (double)cells[c + k] * cells[c + k];
+                energy[(i + 1) * stride + j + 1] = energy[i * stride + j + 1] + row;
+            }
+        }
+
+        // Norm of the blocks
+        int blockRows = Math.max(0, cellRows - blockSize + 1);
+        int blockCols = Math.max(0, cellCols - blockSize + 1);
+        blockNorm = new float[blockRows * blockCols];
+        for (int i = 0; i < blockRows; i++) {
+            for (int j = 0; j < blockCols; j++) {
+                double sum = energy[(i + blockSize) * stride + j + blockSize] - energy[i * stride + j + blockSize]
+                        - energy[(i + blockSize) * stride + j] + energy[i * stride + j];
+                blockNorm[i * blockCols + j] = (float)(1.0 / (Math.sqrt(Math.max(0, sum)) + epsilon));
+            }
+        }
+    }
+
+    /**
+     * Get the cell histograms.
+     * @return Cell histograms.
+     */
+    public float[] getCells() {
+        return cells;
+    }
+
+    /**
+     * Get the number of rows of cells.
+     * @return Number of rows.
+     */
+    public int getCellRows() {
+        return cellRows;
+    }
+
+    /**
+     * Get the number of columns of cells.
+     * @return Number of columns.
+     */
+    public int getCellCols() {
+        return cellCols;
+    }
+
+    /**
+     * Get the number of bins.
+     * @return Number of bins.
+     */
+    public int getNumberOfBins() {
+        return bins;
+    }
+
+    /**
+     * Get the size of the block, in cells.
+     * @return Size of the block.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Get the length of a normalized block.
+     * @return Length of the block.
+     */
+    public int getBlockLength(){
+        return blockSize * blockSize * bins;
+    }
+
+    /**
+     * Get the normalized block.
+     * @param row Row of the top-left cell.
+     * @param col Column of the top-left cell.
+     * @param buffer Buffer.
+     * @param offset Offset in the buffer.
+     */
+    public void getBlock(int row, int col, float[] buffer, int offset){
+        float norm = blockNorm[row * (cellCols - blockSize + 1) + col];
+        for (int x = 0; x < blockSize; x++) {
+            int c = ((row + x) * cellCols + col) * bins;
+            int length = blockSize * bins;
+            for (int k = 0; k < length; k++)
+                buffer[offset++] = cells[c + k] * norm;
+        }
+    }
+
+    /**
+     * Get the histogram of a region of cells.
+     * Computed in O(bins) by the orientation-binned integral images.
+     * @param row Row of the top-left cell.
+     * @param col Column of the top-left cell.
+     * @param rows Number of rows of cells.
+     * @param cols Number of columns of cells.
+     * @return Histogram.
+     */
+    public double[] getRegionHistogram(int row, int col, int rows, int cols){
+        double[] integral = this.integral;
+        if (integral == null) integral = ComputeIntegral();
+
+        int stride = (cellCols + 1) * bins;
+        int a = row * stride + col * bins;
+        int b = row * stride + (col + cols) * bins;
+        int c = (row + rows) * stride + col * bins;
+        int d = (row + rows) * stride + (col + cols) * bins;
+
+        double[] histogram = new double[bins];
+        for (int k = 0; k < bins; k++)
+            histogram[k] = integral[d + k] - integral[b + k] - integral[c + k] + integral[a + k];
+        return histogram;
+    }
+
+    private synchronized double[] ComputeIntegral(){
+        if (integral != null) return integral;
+
+        int stride = (cellCols + 1) * bins;
+        double[] sum = new double[(cellRows + 1) * stride];
+        double[] row = new double[bins];
+        for (int i = 0; i < cellRows; i++) {
+            java.util.Arrays.fill(row, 0);
+            for (int j = 0; j < cellCols; j++) {
+                int c = (i * cellCols + j) * bins;
+                int o = (i + 1) * stride + (j + 1) * bins;
+                for (int k = 0; k < bins; k++) {
+                    row[k] += cells[c + k];
+                    sum[o + k] = sum[o - stride + k] + row[k];
+                }
+            }
+        }
+        integral = sum;
+        return sum;
+    }
+
+    /**
+     * Get the length of the descriptor of a window.
+     * @param windowRows Height of the window, in cells.
+     * @param windowCols Width of the window, in cells.
+     * @param blockStride Distance between the blocks, in cells.
+     * @return Length of the descriptor.
+     */
+    public int getDescriptorLength(int windowRows, int windowCols, int blockStride){
+        int blocksY = (windowRows - blockSize) / blockStride + 1;
+        int blocksX = (windowCols - blockSize) / blockStride + 1;
+        return blocksY * blocksX * getBlockLength();
+    }
+
+    /**
+     * Get the number of windows.
+     * @param windowRows Height of the window, in cells.
+     * @param windowCols Width of the window, in cells.
+     * @param windowStride Distance between the windows, in cells.
+     * @return Number of windows, rows x columns.
+     */
+    public int[] getWindowCount(int windowRows, int windowCols, int windowStride){
+        int rows = cellRows < windowRows ? 0 : (cellRows - windowRows) / windowStride + 1;
+        int cols = cellCols < windowCols ? 0 : (cellCols - windowCols) / windowStride + 1;
+        return new int[] {rows, cols};
+    }
+
+    /**
+     * Extract the descriptors of all the windows.
+     * @param windowRows Height of the window, in cells.
+     * @param windowCols Width of the window, in cells.
+     * @param blockStride Distance between the blocks, in cells.
+     * @param windowStride Distance between the windows, in cells.
+     * @return Descriptors of the windows in row-major order, one after the other.
+     */
+    public float[] ExtractWindows(int windowRows, int windowCols, int blockStride, int windowStride){
+        int[] count = getWindowCount(windowRows, windowCols, windowStride);
+        float[] buffer = new float[count[0] * count[1] * getDescriptorLength(windowRows, windowCols, blockStride)];
+        ExtractWindows(windowRows, windowCols, blockStride, windowStride, buffer);
+        return buffer;
+    }
+
+    /**
+     * Extract the descriptors of all the windows.
+     * The windows rows are extracted in parallel.
+     * @param windowRows Height of the window, in cells.
+     * @param windowCols Width of the window, in cells.
+     * @param blockStride Distance between the blocks, in cells.
+     * @param windowStride Distance between the windows, in cells.
+     * @param buffer Buffer that receives the descriptors in row-major order, it can be reused between calls.
+     */
+    public void ExtractWindows(final int windowRows, final int windowCols, final int blockStride, final int windowStride, final float[] buffer){
+
+        if (windowRows < blockSize || windowCols < blockSize)
+            throw new IllegalArgumentException("The window must be greater or equal than the block.");
+        if (blockStride < 1 || windowStride < 1)
+            throw new IllegalArgumentException("The strides must be greater than zero.");
+
+        final int[] count = getWindowCount(windowRows, windowCols, windowStride);
+        final int length = getDescriptorLength(windowRows, windowCols, blockStride);
+        if (buffer.length < count[0] * count[1] * length)
+            throw new IllegalArgumentException("The buffer is too small.");
+
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), count[0]));
+        if (cores == 1){
+            ExtractWindows(windowRows, windowCols, blockStride, windowStride, buffer, 0, count[0], count[1], length);
+            return;
+        }
+
+        Thread[] t = new Thread[cores];
+        int part = count[0] / cores;
+        for (int i = 0; i < cores; i++) {
+            final int start = i * part;
+            final int end = i == cores - 1 ? count[0] : start + part;
+            t[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ExtractWindows(windowRows, windowCols, blockStride, windowStride, buffer, start, end, count[1], length);
+                }
+            });
+            t[i].start();
+        }
+
+        try {
+            for (int i = 0; i < cores; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void ExtractWindows(int windowRows, int windowCols, int blockStride, int windowStride, float[] buffer, int startRow, int endRow, int cols, int length){
+        int blocksY = (windowRows - blockSize) / blockStride + 1;
+        int blocksX = (windowCols - blockSize) / blockStride + 1;
+        int blockLength = getBlockLength();
+
+        for (int i = startRow; i < endRow; i++) {
+            for (int j = 0; j < cols; j++) {
+                int offset = (i * cols + j) * length;
+                int row = i * windowStride;
+                int col = j * windowStride;
+                for (int a = 0; a < blocksY; a++) {
+                    for (int b = 0; b < blocksX; b++) {
+                        getBlock(row + a * blockStride, col + b * blockStride, buffer, offset);
+                        offset += blockLength;
+                    }
+                }
+            }
+        }
+    }
+}
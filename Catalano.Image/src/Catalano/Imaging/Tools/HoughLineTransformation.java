@@ -28,11 +28,24 @@ package Catalano.Imaging.Tools;
 import Catalano.Core.IntPoint;
 import Catalano.Imaging.FastBitmap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Hough line transfomation.
+ * 
+ * <p>The votes are computed in parallel, each thread owns a range of angles of the accumulator,
+ * so no synchronization or merge is needed. The sine and cosine tables are cached per configuration.
+ * Edge points can be given directly as a list, skipping the scan of the image.</p>
+ * 
+ * <p>In the probabilistic mode (progressive probabilistic Hough transform), the edge points vote in random order.
+ * When a bin reaches the threshold, the line is followed from the last point in both directions until a gap
+ * longer than the line gap, the points of the line are removed and their votes are subtracted from the accumulator.
+ * The voting stops when the maximum number of lines is found or when the fraction of the points has voted.
+ * The random order depends only on the seed.</p>
+ * 
  * @author Diego Catalano
  */
 public class HoughLineTransformation {
@@ -41,7 +54,7 @@ public class HoughLineTransformation {
     int radius = 4;
  
     // How many discrete values of theta shall we check? 
-    final int maxTheta = 180;
+    int maxTheta = 180;
  
     // Using maxTheta, work out the step 
     double thetaStep = Math.PI / maxTheta;
@@ -53,6 +66,21 @@ public class HoughLineTransformation {
     int maxIntensity = Integer.MAX_VALUE;
     
     boolean sort = true;
+    
+    boolean probabilistic = false;
+    
+    double fraction = 1;
+    
+    int maxLines = 0;
+    
+    int threshold = 50;
+    
+    int lineGap = 5;
+    
+    long seed = 0;
+    
+    // lines found in the probabilistic mode
+    private List<HoughLine> found = new ArrayList<HoughLine>();
  
     // the width and height of the image 
     protected int width, height;
@@ -143,26 +171,122 @@ public class HoughLineTransformation {
         this.minIntensity = Math.max(1,intensity);
     }
 
+    /**
+     * Get steps per degree.
+     * @return Steps per degree.
+     */
     public int getStepsPerDegree() {
         return stepsPerDegree;
     }
 
+    /**
+     * Set steps per degree.
+     * Resolution of the angles of the accumulator, between 1 and 10.
+     * @param stepsPerDegree Steps per degree.
+     */
     public void setStepsPerDegree(int stepsPerDegree) {
-        this.stepsPerDegree = stepsPerDegree;
-        
-        stepsPerDegree = Math.max( 1, Math.min( 10, stepsPerDegree ) );
-        houghHeight = 180 * stepsPerDegree;
-        thetaStep = Math.PI / houghHeight;
+        this.stepsPerDegree = Math.max( 1, Math.min( 10, stepsPerDegree ) );
+        this.maxTheta = 180 * this.stepsPerDegree;
+        this.thetaStep = Math.PI / maxTheta;
+        this.sinCache = null;
+        this.cosCache = null;
+    }
+
+    /**
+     * Check if the probabilistic mode is enabled.
+     * @return True if the probabilistic mode is enabled, otherwise false.
+     */
+    public boolean isProbabilistic() {
+        return probabilistic;
+    }
 
-        // precalculate Sine and Cosine values
-        sinCache = new double[houghHeight];
-        cosCache = new double[houghHeight];
+    /**
+     * Enable or disable the probabilistic mode.
+     * @param probabilistic True to enable the probabilistic mode.
+     */
+    public void setProbabilistic(boolean probabilistic) {
+        this.probabilistic = probabilistic;
+    }
 
-        for ( int i = 0; i < houghHeight; i++ )
-        {
-            sinCache[i] = Math.sin( i * thetaStep );
-            cosCache[i] = Math.cos( i * thetaStep );
-        }
+    /**
+     * Get the fraction of the edge points that vote in the probabilistic mode.
+     * @return Fraction.
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Set the fraction of the edge points that vote in the probabilistic mode.
+     * @param fraction Fraction, between 0 and 1.
+     */
+    public void setFraction(double fraction) {
+        this.fraction = Math.max(0, Math.min(1, fraction));
+    }
+
+    /**
+     * Get the maximum number of lines in the probabilistic mode.
+     * @return Maximum number of lines, 0 means no limit.
+     */
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Set the maximum number of lines in the probabilistic mode.
+     * The voting stops when the number of lines is reached.
+     * @param maxLines Maximum number of lines, 0 means no limit.
+     */
+    public void setMaxLines(int maxLines) {
+        this.maxLines = Math.max(0, maxLines);
+    }
+
+    /**
+     * Get the number of votes of a bin to detect a line in the probabilistic mode.
+     * @return Threshold.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Set the number of votes of a bin to detect a line in the probabilistic mode.
+     * @param threshold Threshold.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = Math.max(2, threshold);
+    }
+
+    /**
+     * Get the maximum gap between the points of a line in the probabilistic mode.
+     * @return Line gap.
+     */
+    public int getLineGap() {
+        return lineGap;
+    }
+
+    /**
+     * Set the maximum gap between the points of a line in the probabilistic mode.
+     * @param lineGap Line gap.
+     */
+    public void setLineGap(int lineGap) {
+        this.lineGap = Math.max(0, lineGap);
+    }
+
+    /**
+     * Get the seed of the random order in the probabilistic mode.
+     * @return Seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed of the random order in the probabilistic mode.
+     * @param seed Seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
     }
     
     private void init(){
@@ -181,14 +305,19 @@ public class HoughLineTransformation {
  
         // Count how many points there are 
         numPoints = 0;
+        found = new ArrayList<HoughLine>();
  
         // cache the values of sin and cos for faster processing 
-        sinCache = new double[maxTheta];
-        cosCache = sinCache.clone();
-        for (int t = 0; t < maxTheta; t++) {
-            double realTheta = t * thetaStep;
-            sinCache[t] = Math.sin(realTheta);
-            cosCache[t] = Math.cos(realTheta);
+        if (sinCache == null || sinCache.length != maxTheta){
+            double[] sin = new double[maxTheta];
+            double[] cos = new double[maxTheta];
+            for (int t = 0; t < maxTheta; t++) {
+                double realTheta = t * thetaStep;
+                sin[t] = Math.sin(realTheta);
+                cos[t] = Math.cos(realTheta);
+            }
+            sinCache = sin;
+            cosCache = cos;
         }
     }
     
@@ -203,15 +332,24 @@ public class HoughLineTransformation {
             this.height = fastBitmap.getHeight();
 
             init();
-            // Now find edge points and update the hough array 
-            for (int x = 0; x < height; x++) {
-                for (int y = 0; y < width; y++) {
+            
+            // Find the edge points
+            byte[] pixels = fastBitmap.getGrayData();
+            int[] points = new int[256];
+            int count = 0;
+            for (int x = 0, p = 0; x < height; x++) {
+                for (int y = 0; y < width; y++, p++) {
                     // Find non-black pixels
-                    if (fastBitmap.getGray(x, y) == 255) {
-                        addPoint(x, y);
+                    if ((pixels[p] & 0xFF) == 255) {
+                        if (2 * count == points.length) points = Arrays.copyOf(points, points.length * 2);
+                        points[2 * count] = x;
+                        points[2 * count + 1] = y;
+                        count++;
                     }
                 }
             }
+            
+            vote(points, count);
         }
         else{
             try {
@@ -222,41 +360,234 @@ public class HoughLineTransformation {
         }
     }
     
-    public void addEdgePoints(ArrayList<IntPoint> edgePoints){
+    /**
+     * Process a list of edge points.
+     * @param edgePoints Edge points.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     */
+    public void ProcessImage(List<IntPoint> edgePoints, int width, int height){
+        this.width = width;
+        this.height = height;
+        init();
+        addEdgePoints(edgePoints);
+    }
+    
+    /**
+     * Process a list of edge points.
+     * @param points Edge points, stored as pairs of coordinates (x0, y0, x1, y1, ...).
+     * @param count Number of points.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     */
+    public void ProcessImage(int[] points, int count, int width, int height){
+        this.width = width;
+        this.height = height;
+        init();
+        vote(points, count);
+    }
+    
+    /**
+     * Add edge points to the current accumulator.
+     * @param edgePoints Edge points.
+     */
+    public void addEdgePoints(List<IntPoint> edgePoints){
+        int[] points = new int[edgePoints.size() * 2];
+        int count = 0;
         for (IntPoint point : edgePoints) {
-            addPoint(point.x, point.y);
+            points[2 * count] = point.x;
+            points[2 * count + 1] = point.y;
+            count++;
         }
+        vote(points, count);
     }
     
-    private void addPoint(int x, int y) {
+    private void vote(final int[] points, final int count){
+        
+        if (probabilistic){
+            voteProbabilistic(points, count);
+            return;
+        }
+        
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), count / 1024));
+        if (cores == 1){
+            vote(points, count, 0, maxTheta);
+        }
+        else{
+            // Each thread owns a range of angles.
+            Thread[] t = new Thread[cores];
+            int part = maxTheta / cores;
+            for (int i = 0; i < cores; i++) {
+                final int start = i * part;
+                final int end = i == cores - 1 ? maxTheta : start + part;
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        vote(points, count, start, end);
+                    }
+                });
+                t[i].start();
+            }
+            
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
  
+        numPoints += count;
+    }
+    
+    private void vote(int[] points, int count, int startTheta, int endTheta){
+        
         // Go through each value of theta
+        for (int t = startTheta; t < endTheta; t++) {
+            double cos = cosCache[t];
+            double sin = sinCache[t];
+            int[] accumulator = houghArray[t];
+            
+            for (int i = 0, p = 0; i < count; i++) {
+                int x = points[p++];
+                int y = points[p++];
+                
+                //Work out the r values for each theta step
+                int r = (int) (((x - centerX) * cos) + ((y - centerY) * sin));
+                
+                // this copes with negative values of r
+                r += houghHeight;
+                
+                if (r < 0 || r >= doubleHeight) continue;
+                
+                // Increment the hough array
+                accumulator[r]++;
+            }
+        }
+    }
+    
+    private void voteProbabilistic(int[] points, int count){
+        
+        // Random order of the points.
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        Random rand = new Random(seed);
+        for (int i = count - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int temp = order[i]; order[i] = order[j]; order[j] = temp;
+        }
+        
+        // Index + 1 of the point not yet removed in each pixel.
+        int[] mask = new int[width * height];
+        for (int i = 0; i < count; i++) {
+            int x = points[2 * i];
+            int y = points[2 * i + 1];
+            if (x >= 0 && x < height && y >= 0 && y < width)
+                mask[x * width + y] = i + 1;
+        }
+        boolean[] removed = new boolean[count];
+        boolean[] voted = new boolean[count];
+        int[] line = new int[16];
+        
+        int limit = (int)Math.ceil(count * fraction);
+        for (int i = 0; i < limit; i++) {
+            int n = order[i];
+            if (removed[n]) continue;
+            
+            int x = points[2 * n];
+            int y = points[2 * n + 1];
+            
+            // Vote and keep the biggest bin of the point.
+            int best = 0, bt = 0, br = 0;
+            for (int t = 0; t < maxTheta; t++) {
+                int r = (int) (((x - centerX) * cosCache[t]) + ((y - centerY) * sinCache[t]));
+                r += houghHeight;
+                if (r < 0 || r >= doubleHeight) continue;
+                
+                int v = ++houghArray[t][r];
+                if (v > best){
+                    best = v;
+                    bt = t;
+                    br = r;
+                }
+            }
+            voted[n] = true;
+            numPoints++;
+            
+            if (best < threshold) continue;
+            
+            // Follow the line from the point in both directions.
+            int size = 0;
+            line[size++] = n;
+            double dx = -sinCache[bt];
+            double dy = cosCache[bt];
+            double step = 1 / Math.max(Math.abs(dx), Math.abs(dy));
+            dx *= step;
+            dy *= step;
+            for (int dir = -1; dir <= 1; dir += 2) {
+                int gap = 0;
+                for (int k = 1; gap <= lineGap; k++) {
+                    int px = (int)Math.round(x + dir * k * dx);
+                    int py = (int)Math.round(y + dir * k * dy);
+                    if (px < 0 || px >= height || py < 0 || py >= width) break;
+                    
+                    int m = mask[px * width + py] - 1;
+                    if (m >= 0 && !removed[m] && m != n){
+                        if (size == line.length) line = Arrays.copyOf(line, line.length * 2);
+                        line[size++] = m;
+                        gap = 0;
+                    }
+                    else{
+                        gap++;
+                    }
+                }
+            }
+            
+            // Remove the points of the line and their votes.
+            for (int k = 0; k < size; k++) {
+                int m = line[k];
+                removed[m] = true;
+                mask[points[2 * m] * width + points[2 * m + 1]] = 0;
+                if (voted[m]) Unvote(points[2 * m], points[2 * m + 1]);
+            }
+            
+            found.add(new HoughLine(bt * thetaStep, br, size, 0));
+            if (maxLines > 0 && found.size() >= maxLines) break;
+        }
+    }
+    
+    private void Unvote(int x, int y){
         for (int t = 0; t < maxTheta; t++) {
- 
-            //Work out the r values for each theta step
             int r = (int) (((x - centerX) * cosCache[t]) + ((y - centerY) * sinCache[t]));
- 
-            // this copes with negative values of r
             r += houghHeight;
- 
             if (r < 0 || r >= doubleHeight) continue;
- 
-            // Increment the hough array
-            houghArray[t][r]++;
- 
+            houghArray[t][r]--;
         }
- 
-        numPoints++;
     }
     
+    /**
+     * Get the lines.
+     * @return List of lines.
+     */
     public List<HoughLine> getLines() {
- 
         // Initialise the vector of lines that we'll return 
         List<HoughLine> lines = new ArrayList<HoughLine>(); 
  
         // Only proceed if the hough array is not empty 
         if (numPoints == 0) return lines;
         
+        // The votes of the lines found by the probabilistic mode were removed.
+        if (probabilistic){
+            int max = 0;
+            for (HoughLine line : found)
+                max = Math.max(max, line.getIntensity());
+            for (HoughLine line : found)
+                lines.add(new HoughLine(line.getTheta(), line.getRadius(), line.getIntensity(), (double)line.getIntensity() / max));
+            if (sort) Collections.sort(lines);
+            return lines;
+        }
+        
         // Used for set relative intensity.
         double max = getMaximumValue();
         
@@ -313,6 +644,10 @@ public class HoughLineTransformation {
         return max;
     }
     
+    /**
+     * Get the accumulator as an image.
+     * @return Hough array image.
+     */
     public FastBitmap getHoughArrayImage() {
         int max = getMaximumValue();
         FastBitmap fastBitmap = new FastBitmap(maxTheta, doubleHeight);
@@ -84,13 +84,14 @@ public class HuMoments {
         double m00 = ImageMoments.getRawMoment(fastBitmap, 0, 0);
         DoublePoint centroid = ImageMoments.getCentroid(fastBitmap, m00);
 
-        double n20 = ImageMoments.getNormalizedCentralMoment(fastBitmap, 2, 0, centroid, m00);
-        double n02 = ImageMoments.getNormalizedCentralMoment(fastBitmap, 0, 2, centroid, m00);
-        double n30 = ImageMoments.getNormalizedCentralMoment(fastBitmap, 3, 0, centroid, m00);
-        double n12 = ImageMoments.getNormalizedCentralMoment(fastBitmap, 1, 2, centroid, m00);
-        double n21 = ImageMoments.getNormalizedCentralMoment(fastBitmap, 2, 1, centroid, m00);
-        double n03 = ImageMoments.getNormalizedCentralMoment(fastBitmap, 0, 3, centroid, m00);
-        double n11 = ImageMoments.getNormalizedCentralMoment(fastBitmap, 1, 1, centroid, m00);
+        double[][] n = ImageMoments.getNormalizedCentralMoments(fastBitmap, 3, centroid, m00);
+        double n20 = n[2][0];
+        double n02 = n[0][2];
+        double n30 = n[3][0];
+        double n12 = n[1][2];
+        double n21 = n[2][1];
+        double n03 = n[0][3];
+        double n11 = n[1][1];
         
         //First moment
         moments[0] = n20 + n02;
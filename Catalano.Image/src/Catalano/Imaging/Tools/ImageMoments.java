@@ -99,6 +99,74 @@ public final class ImageMoments {
         return mc;
     }
     
+    /**
+     * Compute all the central moments up to the order in one pass over the image.
+     * @param fastBitmap Image.
+     * @param order Maximum order p + q.
+     * @param centroid Centroid.
+     * @return Central moments, mc[p][q] for p + q &lt;= order.
+     */
+    public static double[][] getCentralMoments(FastBitmap fastBitmap, int order, DoublePoint centroid) {
+        
+        int width = fastBitmap.getWidth();
+        int height = fastBitmap.getHeight();
+        
+        // Powers of the columns.
+        double[][] pj = new double[order + 1][width];
+        for (int j = 0; j < width; j++) {
+            double v = 1;
+            for (int q = 0; q <= order; q++) {
+                pj[q][j] = v;
+                v *= j - centroid.y;
+            }
+        }
+        
+        double[][] mc = new double[order + 1][];
+        for (int p = 0; p <= order; p++)
+            mc[p] = new double[order + 1 - p];
+        
+        double[] pi = new double[order + 1];
+        for (int i = 0; i < height; i++) {
+            double v = 1;
+            for (int p = 0; p <= order; p++) {
+                pi[p] = v;
+                v *= i - centroid.x;
+            }
+            
+            for (int j = 0; j < width; j++) {
+                int gray = fastBitmap.getGray(i, j);
+                if (gray == 0) continue;
+                for (int p = 0; p <= order; p++) {
+                    double a = pi[p] * gray;
+                    double[] row = mc[p];
+                    for (int q = 0; q < row.length; q++)
+                        row[q] += a * pj[q][j];
+                }
+            }
+        }
+        return mc;
+    }
+    
+    /**
+     * Compute all the normalized central moments up to the order in one pass over the image.
+     * @param fastBitmap Image.
+     * @param order Maximum order p + q.
+     * @param centroid Centroid.
+     * @param m00 M00 moment value.
+     * @return Normalized central moments, n[p][q] for p + q &lt;= order.
+     */
+    public static double[][] getNormalizedCentralMoments(FastBitmap fastBitmap, int order, DoublePoint centroid, double m00) {
+        double[][] mc = getCentralMoments(fastBitmap, order, centroid);
+        for (int p = 0; p < mc.length; p++) {
+            for (int q = 0; q < mc[p].length; q++) {
+                double gama = ((p + q) / 2) + 1;
+                double m00gama = Math.pow(m00, gama);
+                mc[p][q] = m00gama == 0 ? 0 : mc[p][q] / m00gama;
+            }
+        }
+        return mc;
+    }
+    
     /**
      * Compute centroid components.
      * @param fastBitmap Image.
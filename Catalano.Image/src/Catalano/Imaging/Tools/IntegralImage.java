@@ -189,7 +189,7 @@ public class IntegralImage {
         if ( x2 > height )  x2 = height;
         if ( y2 > width ) y2 = width;
 
-        return integralImage[x2][y2] + integralImage[x1][y1] - integralImage[x1][y2] - integralImage[x2][y2];
+        return integralImage[x2][y2] + integralImage[x1][y1] - integralImage[x1][y2] - integralImage[x2][y1];
     }
     
     /**
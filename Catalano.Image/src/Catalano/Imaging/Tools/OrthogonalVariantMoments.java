@@ -22,7 +22,6 @@
 package Catalano.Imaging.Tools;
 
 import Catalano.Imaging.FastBitmap;
-import Catalano.Math.Matrix;
 
 /**
  * Orthogonal Variant Moments.
@@ -50,72 +49,45 @@ public class OrthogonalVariantMoments {
         // 5 moments: A, Lx, Ly, Px, Py
         double[] moments = new double[5];
         
-        // Moment: Area
-        moments[0] = ImageMoments.getRawMoment(fastBitmap, 0, 0);
-        
         int width = fastBitmap.getWidth();
         int height = fastBitmap.getHeight();
         double box = width * height;
         
-        // Moment: Ly
-        double[][] diff = new double[height - 1][width];
-        for (int i = 0; i < height - 1; i++) {
+        // All the sums in one pass, without the difference matrices.
+        double area = 0;
+        double my = 0, ly = 0, dsumY = 1;
+        double mx = 0, lx = 0, dsumX = 1;
+        for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
-                diff[i][j] = fastBitmap.getGray(i + 1, j) - fastBitmap.getGray(i, j);
-            }
-        }
-        
-        double m = Matrix.SumAbs(diff);
-        
-        double ly = 0;
-        for (int i = 0; i < diff.length; i++) {
-            for (int j = 0; j < diff[0].length; j++) {
-                ly += Math.sqrt((diff[i][j] * diff[i][j]) + 1);
+                int gray = fastBitmap.getGray(i, j);
+                area += gray;
+                
+                if (i < height - 1){
+                    double d = fastBitmap.getGray(i + 1, j) - gray;
+                    my += Math.abs(d);
+                    ly += Math.sqrt((d * d) + 1);
+                    dsumY += Math.abs(d) * (i+1);
+                }
+                
+                if (j < width - 1){
+                    double d = fastBitmap.getGray(i, j + 1) - gray;
+                    mx += Math.abs(d);
+                    lx += Math.sqrt((d * d) + 1);
+                    dsumX += Math.abs(d) * (j+1);
+                }
             }
         }
         
-        moments[2] = (ly + 3) / box;
-        
-        // Moment: Py
-        double den = (m / 8.0) + 0.1;
-        double dsum = 1;
-        for (int i = 0; i < diff.length; i++) {
-            for (int j = 0; j < diff[0].length; j++) {
-                dsum += Math.abs(diff[i][j]) * (i+1);
-            }
-        }
-        
-        moments[4] = (dsum + 1) / den;
-       
-        // Moment: Lx
-        diff = new double[height][width - 1];
-         for (int i = 0; i < diff.length; i++) {
-             for (int j = 0; j < diff[0].length; j++) {
-                 diff[i][j] = fastBitmap.getGray(i, j + 1) - fastBitmap.getGray(i, j);
-             }
-         }
-       
-         m = Matrix.SumAbs(diff);
-        
-        double lx = 0;
-        for (int i = 0; i < diff.length; i++) {
-            for (int j = 0; j < diff[0].length; j++) {
-                lx += Math.sqrt((diff[i][j] * diff[i][j]) + 1);
-            }
-        }
+        // Moment: Area
+        moments[0] = area;
         
+        // Moment: Lx, Ly
         moments[1] = (lx + 3) / box;
+        moments[2] = (ly + 3) / box;
         
-        // Moment: Px
-        den = (m / 4.5) + 0.1;
-        dsum = 1;
-        for (int i = 0; i < diff.length; i++) {
-            for (int j = 0; j < diff[0].length; j++) {
-                dsum += Math.abs(diff[i][j]) * (j+1);
-            }
-        }
-        
-       moments[3] = (dsum + 1) / den;
+        // Moment: Px, Py
+        moments[3] = (dsumX + 1) / ((mx / 4.5) + 0.1);
+        moments[4] = (dsumY + 1) / ((my / 8.0) + 0.1);
         
        return moments;
         
@@ -24,7 +24,11 @@ package Catalano.Imaging.Tools;
 import Catalano.Core.ArraysUtil;
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.Filters.Crop;
+import Catalano.Imaging.Texture.BinaryPattern.BinaryPatternExtractor;
+import Catalano.Imaging.Texture.BinaryPattern.CenterSymmetricLocalBinaryPattern;
 import Catalano.Imaging.Texture.BinaryPattern.IBinaryPattern;
+import Catalano.Imaging.Texture.BinaryPattern.LocalBinaryPattern;
+import Catalano.Imaging.Texture.BinaryPattern.UniformLocalBinaryPattern;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -62,6 +66,11 @@ public class SpatialHistogram {
      */
     public int[] Compute(FastBitmap fastBitmap, IBinaryPattern pattern){
         
+        //The block histograms of the LBP codes are computed in one pass, without crop the blocks
+        BinaryPatternExtractor extractor = getExtractor(fastBitmap, pattern);
+        if (extractor != null)
+            return extractor.ComputeSpatialHistograms(fastBitmap, wBlock, hBlock)[0];
+        
         int width = fastBitmap.getWidth();
         int height = fastBitmap.getHeight();
         
@@ -121,6 +130,26 @@ public class SpatialHistogram {
         
     }
     
+    private BinaryPatternExtractor getExtractor(FastBitmap fastBitmap, IBinaryPattern pattern){
+        if (!fastBitmap.isGrayscale() || fastBitmap.getCoordinateSystem() != FastBitmap.CoordinateSystem.Matrix)
+            return null;
+        
+        // Exact classes only, subclasses may override the pattern.
+        if (pattern.getClass() == LocalBinaryPattern.class)
+            return new BinaryPatternExtractor(BinaryPatternExtractor.Pattern.LBP);
+        
+        if (pattern.getClass() == UniformLocalBinaryPattern.class){
+            BinaryPatternExtractor extractor = new BinaryPatternExtractor(BinaryPatternExtractor.Pattern.Uniform);
+            extractor.setNonUniform(((UniformLocalBinaryPattern)pattern).isNonUniform());
+            return extractor;
+        }
+        
+        if (pattern.getClass() == CenterSymmetricLocalBinaryPattern.class)
+            return new BinaryPatternExtractor(BinaryPatternExtractor.Pattern.CenterSymmetric);
+        
+        return null;
+    }
+    
     private FastBitmap getSubimage(FastBitmap fastBitmap, int x, int y, int width, int height){
         FastBitmap copy = new FastBitmap(fastBitmap);
         
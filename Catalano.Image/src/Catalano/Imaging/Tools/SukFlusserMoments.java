@@ -81,41 +81,44 @@ public class SukFlusserMoments {
             double m00 = ImageMoments.getRawMoment(fastBitmap, 0, 0);
             DoublePoint centroid = ImageMoments.getCentroid(fastBitmap, m00);
 
+            // All the central moments in one pass
+            double[][] mc = ImageMoments.getCentralMoments(fastBitmap, 7, centroid);
+
             // Second order central moments
-            double m20 = ImageMoments.getCentralMoment(fastBitmap, 2, 0, centroid);
-            double m02 = ImageMoments.getCentralMoment(fastBitmap, 0, 2, centroid);
-            double m11 = ImageMoments.getCentralMoment(fastBitmap, 1, 1, centroid);
+            double m20 = mc[2][0];
+            double m02 = mc[0][2];
+            double m11 = mc[1][1];
 
             // Third order central moments
-            double m30 = ImageMoments.getCentralMoment(fastBitmap, 3, 0, centroid);
-            double m03 = ImageMoments.getCentralMoment(fastBitmap, 0, 3, centroid);
-            double m21 = ImageMoments.getCentralMoment(fastBitmap, 2, 1, centroid);
-            double m12 = ImageMoments.getCentralMoment(fastBitmap, 1, 2, centroid);
+            double m30 = mc[3][0];
+            double m03 = mc[0][3];
+            double m21 = mc[2][1];
+            double m12 = mc[1][2];
 
             // Fouth order central moments
-            double m40 = ImageMoments.getCentralMoment(fastBitmap, 4, 0, centroid);
-            double m04 = ImageMoments.getCentralMoment(fastBitmap, 0, 4, centroid);
-            double m31 = ImageMoments.getCentralMoment(fastBitmap, 3, 1, centroid);
-            double m13 = ImageMoments.getCentralMoment(fastBitmap, 1, 3, centroid);
-            double m22 = ImageMoments.getCentralMoment(fastBitmap, 2, 2, centroid);
+            double m40 = mc[4][0];
+            double m04 = mc[0][4];
+            double m31 = mc[3][1];
+            double m13 = mc[1][3];
+            double m22 = mc[2][2];
 
             // Fifth order central moments
-            double m50 = ImageMoments.getCentralMoment(fastBitmap, 5, 0, centroid);
-            double m05 = ImageMoments.getCentralMoment(fastBitmap, 0, 5, centroid);
-            double m41 = ImageMoments.getCentralMoment(fastBitmap, 4, 1, centroid);
-            double m14 = ImageMoments.getCentralMoment(fastBitmap, 1, 4, centroid);
-            double m32 = ImageMoments.getCentralMoment(fastBitmap, 3, 2, centroid);
-            double m23 = ImageMoments.getCentralMoment(fastBitmap, 2, 3, centroid);
+            double m50 = mc[5][0];
+            double m05 = mc[0][5];
+            double m41 = mc[4][1];
+            double m14 = mc[1][4];
+            double m32 = mc[3][2];
+            double m23 = mc[2][3];
 
             // Seventh order central moments
-            double m70 = ImageMoments.getCentralMoment(fastBitmap, 7, 0, centroid);
-            double m07 = ImageMoments.getCentralMoment(fastBitmap, 0, 7, centroid);
-            double m16 = ImageMoments.getCentralMoment(fastBitmap, 1, 6, centroid);
-            double m61 = ImageMoments.getCentralMoment(fastBitmap, 6, 1, centroid);
-            double m52 = ImageMoments.getCentralMoment(fastBitmap, 5, 2, centroid);
-            double m25 = ImageMoments.getCentralMoment(fastBitmap, 2, 5, centroid);
-            double m43 = ImageMoments.getCentralMoment(fastBitmap, 4, 3, centroid);
-            double m34 = ImageMoments.getCentralMoment(fastBitmap, 3, 4, centroid);
+            double m70 = mc[7][0];
+            double m07 = mc[0][7];
+            double m16 = mc[1][6];
+            double m61 = mc[6][1];
+            double m52 = mc[5][2];
+            double m25 = mc[2][5];
+            double m43 = mc[4][3];
+            double m34 = mc[3][4];
 
             // For blur invariance we recompute certain values
             m50 = m50 - (10*m30*m20/m00);
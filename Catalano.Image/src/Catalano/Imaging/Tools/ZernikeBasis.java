@@ -0,0 +1,386 @@
+// Catalano Imaging Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2012-2016
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Imaging.Tools;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Math.ComplexNumber;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Zernike basis images.
+ *
+ * <p>The basis functions V(n,m) of all the moments up to the order are evaluated once for each pixel
+ * of an image size, with the radial polynomials computed by the Kintner recurrence, and kept in memory.
+ * The moments of an image are the dot products of the pixels with the basis images, computed in parallel
+ * across the moments.</p>
+ *
+ * <p>The image is mapped in the unit circle the same way of {@link ZernikeMoments}, with the pixels as points:
+ * x is the column and y is the row. The moments are in the same order of {@link ZernikeMoments},
+ * n from 0 to order and m from n % 2 to n, step 2.</p>
+ *
+ * <p>The basis needs width * height * moments * 16 bytes, the images should be normalized to a small size.
+ * The instances returned by {@link #getInstance(int, int, int)} are shared.</p>
+ *
+ * @author Diego Catalano
+ */
+public class ZernikeBasis {
+
+    private static final int CACHE_SIZE = 8;
+
+    private static final Map<String, ZernikeBasis> cache = new LinkedHashMap<String, ZernikeBasis>(16, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ZernikeBasis> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private int width;
+    private int height;
+    private int order;
+    private int[] n;
+    private int[] m;
+
+    // Basis images, one row per moment.
+    private double[][] real;
+    private double[][] imaginary;
+
+    /**
+     * Get width.
+     * @return Width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get height.
+     * @return Height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get order.
+     * @return Order.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * Get the number of moments.
+     * @return Number of moments.
+     */
+    public int getCount() {
+        return n.length;
+    }
+
+    /**
+     * Get the order n of the moment.
+     * @param index Index of the moment.
+     * @return Order n.
+     */
+    public int getN(int index){
+        return n[index];
+    }
+
+    /**
+     * Get the repetition m of the moment.
+     * @param index Index of the moment.
+     * @return Repetition m.
+     */
+    public int getM(int index){
+        return m[index];
+    }
+
+    /**
+     * Get the basis image of the moment.
+     * @param index Index of the moment.
+     * @return Basis image, real and imaginary parts.
+     */
+    public ComplexNumber[] getBasis(int index){
+        ComplexNumber[] basis = new ComplexNumber[width * height];
+        for (int i = 0; i < basis.length; i++)
+            basis[i] = new ComplexNumber(real[index][i], imaginary[index][i]);
+        return basis;
+    }
+
+    /**
+     * Get the basis of the size and order, shared with the other calls.
+     * @param width Width.
+     * @param height Height.
+     * @param order Order.
+     * @return Zernike basis.
+     */
+    public static ZernikeBasis getInstance(int width, int height, int order){
+        String key = width + "x" + height + "x" + order;
+        synchronized (cache) {
+            ZernikeBasis basis = cache.get(key);
+            if (basis == null){
+                basis = new ZernikeBasis(width, height, order);
+                cache.put(key, basis);
+            }
+            return basis;
+        }
+    }
+
+    /**
+     * Remove all the shared basis.
+     */
+    public static void ClearCache(){
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Initialize a new instance of the ZernikeBasis class.
+     * @param width Width.
+     * @param height Height.
+     * @param order Order.
+     */
+    public ZernikeBasis(final int width, final int height, final int order) {
+        if (width < 2 || height < 2)
+            throw new IllegalArgumentException("Width and height must be at least 2.");
+        if (order < 0)
+            throw new IllegalArgumentException("Order must be at least 0.");
+
+        this.width = width;
+        this.height = height;
+        this.order = order;
+
+        int count = Count(order);
+        this.n = new int[count];
+        this.m = new int[count];
+        int idx = 0;
+        for (int p = 0; p <= order; p++) {
+            for (int q = p % 2; q <= p; q += 2) {
+                n[idx] = p;
+                m[idx] = q;
+                idx++;
+            }
+        }
+
+        this.real = new double[count][width * height];
+        this.imaginary = new double[count][width * height];
+
+        // Same mapping of the bounding box of all the pixels in the unit circle.
+        final double cx = (width - 1) / 2.0;
+        final double cy = (height - 1) / 2.0;
+        final double xScale = Math.sqrt(2) * ((width - 1) / 2.0);
+        final double yScale = Math.sqrt(2) * ((height - 1) / 2.0);
+
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 16));
+        Thread[] t = new Thread[cores];
+        int part = height / cores;
+        for (int c = 0; c < cores; c++) {
+            final int start = c * part;
+            final int end = c == cores - 1 ? height : start + part;
+            t[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    double[] re = new double[n.length];
+                    double[] im = new double[n.length];
+                    double[] radial = new double[order + 1];
+                    for (int i = start; i < end; i++) {
+                        double Y = (i - cy) / yScale;
+                        for (int j = 0; j < width; j++) {
+                            double X = (j - cx) / xScale;
+                            Evaluate(order, X, Y, re, im, radial);
+                            int k = i * width + j;
+                            for (int b = 0; b < re.length; b++) {
+                                real[b][k] = re[b];
+                                imaginary[b][k] = im[b];
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        Run(t);
+    }
+
+    /**
+     * Compute the Zernike moments of the image.
+     * @param fastBitmap Image to be processed.
+     * @return Zernike moments.
+     */
+    public ComplexNumber[] Compute(FastBitmap fastBitmap){
+        double[] re = new double[n.length];
+        double[] im = new double[n.length];
+        Compute(fastBitmap, re, im);
+
+        ComplexNumber[] moments = new ComplexNumber[n.length];
+        for (int i = 0; i < moments.length; i++)
+            moments[i] = new ComplexNumber(re[i], im[i]);
+        return moments;
+    }
+
+    /**
+     * Compute the magnitudes of the Zernike moments of the image, invariant to rotation.
+     * @param fastBitmap Image to be processed.
+     * @return Magnitudes of the Zernike moments.
+     */
+    public double[] ComputeMagnitudes(FastBitmap fastBitmap){
+        double[] re = new double[n.length];
+        double[] im = new double[n.length];
+        Compute(fastBitmap, re, im);
+
+        for (int i = 0; i < re.length; i++)
+            re[i] = Math.sqrt(re[i] * re[i] + im[i] * im[i]);
+        return re;
+    }
+
+    private void Compute(FastBitmap fastBitmap, final double[] re, final double[] im){
+        if (!fastBitmap.isGrayscale())
+            throw new IllegalArgumentException("Zernike moments only works in grayscale images.");
+        if (fastBitmap.getWidth() != width || fastBitmap.getHeight() != height)
+            throw new IllegalArgumentException("The image must have the same size of the basis.");
+
+        byte[] data = fastBitmap.getGrayData();
+        final double[] pixels = new double[data.length];
+        for (int i = 0; i < data.length; i++)
+            pixels[i] = data[i] & 0xFF;
+
+        final int count = n.length;
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), count));
+        Thread[] t = new Thread[cores];
+        for (int c = 0; c < cores; c++) {
+            final int start = c * count / cores;
+            final int end = (c + 1) * count / cores;
+            t[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int b = start; b < end; b++) {
+                        double[] vr = real[b];
+                        double[] vi = imaginary[b];
+                        double sr = 0;
+                        double si = 0;
+                        for (int k = 0; k < pixels.length; k++) {
+                            sr += pixels[k] * vr[k];
+                            si += pixels[k] * vi[k];
+                        }
+                        re[b] = sr * (n[b] + 1) / Math.PI;
+                        im[b] = si * (n[b] + 1) / Math.PI;
+                    }
+                }
+            });
+        }
+
+        Run(t);
+    }
+
+    /**
+     * Number of moments up to the order.
+     * @param order Order.
+     * @return Number of moments.
+     */
+    public static int Count(int order){
+        return (order / 2 + 1) * ((order + 1) / 2 + 1);
+    }
+
+    /**
+     * Evaluate all the basis functions V(n,m,x,y) up to the order, in the order of the moments.
+     * The radial polynomials are computed by the Kintner recurrence for each m and the
+     * angular part by the powers of (x + iy) / r. Points outside the unit circle are zero.
+     * @param order Order.
+     * @param x X axis coordinate.
+     * @param y Y axis coordinate.
+     * @param re Real part of the basis functions.
+     * @param im Imaginary part of the basis functions.
+     * @param radial Buffer with order + 1 elements.
+     */
+    static void Evaluate(int order, double x, double y, double[] re, double[] im, double[] radial){
+        double r2 = x * x + y * y;
+        if (r2 > 1.0){
+            java.util.Arrays.fill(re, 0, Count(order), 0);
+            java.util.Arrays.fill(im, 0, Count(order), 0);
+            return;
+        }
+
+        double r = Math.sqrt(r2);
+        double c1 = 1;
+        double s1 = 0;
+        if (r > 0){
+            c1 = x / r;
+            s1 = y / r;
+        }
+
+        // (cos(m*theta), sin(m*theta)) and r^m
+        double cm = 1;
+        double sm = 0;
+        double rm = 1;
+        for (int q = 0; q <= order; q++) {
+
+            // R(q,q) = r^q, R(q+2,q) = (q+2) r^(q+2) - (q+1) r^q
+            radial[q] = rm;
+            if (q + 2 <= order)
+                radial[q + 2] = (q + 2) * rm * r2 - (q + 1) * rm;
+            for (int p = q + 4; p <= order; p += 2) {
+                double k1 = (p + q) * (p - q) * (p - 2) / 2.0;
+                double k2 = 2.0 * p * (p - 1) * (p - 2);
+                double k3 = -q * q * (p - 1) - p * (p - 1) * (p - 2);
+                double k4 = -p * (p + q - 2) * (p - q - 2) / 2.0;
+                radial[p] = ((k2 * r2 + k3) * radial[p - 2] + k4 * radial[p - 4]) / k1;
+            }
+
+            for (int p = q; p <= order; p += 2) {
+                int idx = Index(p, q);
+                re[idx] = radial[p] * cm;
+                im[idx] = radial[p] * sm;
+            }
+
+            double c = cm * c1 - sm * s1;
+            sm = sm * c1 + cm * s1;
+            cm = c;
+            rm *= r;
+        }
+    }
+
+    /**
+     * Index of the moment (n,m) in the order of the moments.
+     */
+    private static int Index(int n, int m){
+        return n == 0 ? 0 : Count(n - 1) + m / 2;
+    }
+
+    private static void Run(Thread[] t){
+        if (t.length == 1){
+            t[0].run();
+            return;
+        }
+
+        for (int i = 0; i < t.length; i++)
+            t[i].start();
+
+        try {
+            for (int i = 0; i < t.length; i++) {
+                t[i].join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
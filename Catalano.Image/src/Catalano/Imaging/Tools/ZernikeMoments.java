@@ -26,8 +26,8 @@
 
 package Catalano.Imaging.Tools;
 
+import Catalano.Imaging.FastBitmap;
 import Catalano.Math.ComplexNumber;
-import java.util.ArrayList;
 
 /**
  * Compute Zernike moments.
@@ -56,44 +56,33 @@ public final class ZernikeMoments {
      */
     public static double RadialPolynomial(int n, int m_in, double x, double y){
         
-        int a; // (n-s)! 
-        int b; //   s!   
-        int c; // [(n+|m|)/2-s]! 
-        int d; // [(n-|m|)/2-s]! 
-        int sign;
-
         int m = Math.abs(m_in);
 
         if ((n - m) % 2 != 0){
             return 0;
         }
-
-        double res = 0;
-        if ((x * x + y * y) <= 1.0) {
-            
-            sign = 1;
-            a = Factorial(n);
-            b=1;
-            c = Factorial((n + m) / 2);
-            d = Factorial((n - m) / 2);
-            
-            // Before the loop is entered, all the integer variables
-            // (sign, a, b, c, d) have their correct values for the
-            // s=0 case.
-            for(int s = 0; s <= (n - m) / 2; s++){
-                res += sign*(a * 1.0 / (b * c * d)) * Math.pow((x * x + y * y),(n / 2.0) -s);
-                // Now update the integer variables before the next
-                // iteration of the loop.
-                if (s < (n - m) / 2){
-                    sign = -sign;
-                    a /= (n - s);
-                    b *= (s + 1);
-                    c /= ((n + m) / 2 - s);
-                    d /= ((n - m) / 2 - s);
-                }
-            }
+        
+        double r2 = x * x + y * y;
+        if (r2 > 1.0){
+            return 0;
         }
-        return res;
+        
+        // Kintner recurrence, without the factorials.
+        double rm = Math.pow(r2, m / 2.0);
+        if (n == m) return rm;
+        
+        double r0 = rm;
+        double r1 = (m + 2) * rm * r2 - (m + 1) * rm;
+        for (int p = m + 4; p <= n; p += 2) {
+            double k1 = (p + m) * (p - m) * (p - 2) / 2.0;
+            double k2 = 2.0 * p * (p - 1) * (p - 2);
+            double k3 = -m * m * (p - 1) - p * (p - 1) * (p - 2);
+            double k4 = -p * (p + m - 2) * (p - m - 2) / 2.0;
+            double r = ((k2 * r2 + k3) * r1 + k4 * r0) / k1;
+            r0 = r1;
+            r1 = r;
+        }
+        return r1;
     }
     
     /**
@@ -168,7 +157,6 @@ public final class ZernikeMoments {
         double i_0, j_0;
         double i_scale, j_scale;
         double X,Y;
-        ComplexNumber v;
         //double isize, jsize;
 
         int diff = n-Math.abs(m);
@@ -188,9 +176,10 @@ public final class ZernikeMoments {
             X = (x[i]-i_0)/i_scale;
             Y = (y[i]-j_0)/j_scale;
             if (((X*X + Y*Y) <= 1.0)){// we ignore (x,y) not in the unit circle
-                v = ZernikeBasisFunction(n,m,X,Y);
-                res.real = res.real+v.real;
-                res.imaginary = res.imaginary+v.imaginary;
+                double r = RadialPolynomial(n,m,X,Y);
+                double arg = m * Math.atan2(Y,X);
+                res.real = res.real+r*Math.cos(arg);
+                res.imaginary = res.imaginary+r*Math.sin(arg);
             }
         }
         res.real = res.real*(n+1)/Math.PI;
@@ -238,35 +227,48 @@ public final class ZernikeMoments {
      * @return Set of Zernike's moments.
      */
     public static ComplexNumber[] ZernikeMoments(int order, double[] x, double[] y, int npoints, double w, double h, double cx, double cy){
-        ArrayList list = new ArrayList(order);
-        int ct=0;
-        for(int n=0; n<=order; n++){
-            for(int m=0; m<=n; m++){
-                if((n-Math.abs(m))%2 == 0){
-                    ComplexNumber v = ZernikeMoments(x,y,npoints,w,h,cx,cy,n,m);
-                    list.add(ct, v);
-                    list.add(v);
-                    ct++;
+        
+        // All the moments are accumulated in one pass over the points.
+        int count = ZernikeBasis.Count(order);
+        double[] re = new double[count];
+        double[] im = new double[count];
+        double[] sumRe = new double[count];
+        double[] sumIm = new double[count];
+        double[] radial = new double[order + 1];
+        
+        double i_scale = Math.sqrt(2)*(w/2);
+        double j_scale = Math.sqrt(2)*(h/2);
+        for(int i=0; i<npoints; i++){
+            double X = (x[i]-cx)/i_scale;
+            double Y = (y[i]-cy)/j_scale;
+            if ((X*X + Y*Y) <= 1.0){
+                ZernikeBasis.Evaluate(order, X, Y, re, im, radial);
+                for (int k = 0; k < count; k++) {
+                    sumRe[k] += re[k];
+                    sumIm[k] += im[k];
                 }
             }
         }
-        ComplexNumber[] mmts = new ComplexNumber[ct];
-        for(int i=0; i<ct; i++){
-            mmts[i]=(ComplexNumber)list.get(i);
+        
+        ComplexNumber[] mmts = new ComplexNumber[count];
+        int ct=0;
+        for(int n=0; n<=order; n++){
+            for(int m=n%2; m<=n; m+=2){
+                mmts[ct] = new ComplexNumber(sumRe[ct]*(n+1)/Math.PI, sumIm[ct]*(n+1)/Math.PI);
+                ct++;
+            }
         }
         return mmts;
     }
     
     /**
-     * Computes factorial order n.
-     * @param n Order.
-     * @return Result.
+     * Compute the set of Zernike's moments up to the specified order of the image.
+     * Each pixel is a point weighted by its gray level, using the shared {@link ZernikeBasis} of the image size.
+     * @param fastBitmap Image to be processed.
+     * @param order Order.
+     * @return Set of Zernike's moments.
      */
-    private static int Factorial(int n){
-        int x = 1;
-        for (int i = 2; i <= n; i++){
-            x *= i;
-        }
-        return x;
+    public static ComplexNumber[] ZernikeMoments(FastBitmap fastBitmap, int order){
+        return ZernikeBasis.getInstance(fastBitmap.getWidth(), fastBitmap.getHeight(), order).Compute(fastBitmap);
     }
 }
\ No newline at end of file
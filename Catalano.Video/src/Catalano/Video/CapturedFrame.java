@@ -0,0 +1,85 @@
+// Catalano Video Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2015
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Video;
+
+import Catalano.Imaging.FastBitmap;
+
+/**
+ * Slot of the ring buffer of the {@link FrameCapture}.
+ * The frame and the bitmap are allocated once and reused, they are valid until the slot is released.
+ * @author Diego Catalano
+ */
+public class CapturedFrame {
+
+    final FrameCapture owner;
+    final VideoFrame frame;
+    private FastBitmap fastBitmap;
+    long timestamp;
+    long sequence;
+
+    CapturedFrame(FrameCapture owner, int width, int height) {
+        this.owner = owner;
+        this.frame = new VideoFrame(width, height);
+    }
+
+    /**
+     * Get the frame.
+     * @return Video frame.
+     */
+    public VideoFrame getFrame() {
+        return frame;
+    }
+
+    /**
+     * Get the time when the frame was captured, from System.nanoTime().
+     * @return Timestamp in nanoseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the sequence number of the frame, counting the dropped frames.
+     * @return Sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Convert the frame to the bitmap of the slot.
+     * @return RGB image.
+     */
+    public FastBitmap toFastBitmap(){
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (fastBitmap == null)
+            fastBitmap = new FastBitmap(width, height, FastBitmap.ColorSpace.RGB);
+
+        byte[] d = frame.getRawData();
+        int[] pixels = fastBitmap.getRGBData();
+        for (int i = 0, j = 0; j < pixels.length; i += 3, j++) {
+            pixels[j] = 0xFF << 24 | (d[i] & 0xFF) << 16 | (d[i + 1] & 0xFF) << 8 | (d[i + 2] & 0xFF);
+        }
+        return fastBitmap;
+    }
+}
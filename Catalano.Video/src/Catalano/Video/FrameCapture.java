@@ -0,0 +1,492 @@
+// Catalano Video Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2015
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Video;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous frame capture.
+ *
+ * <p>A dedicated thread grabs the frames of the source into a ring buffer of pre-allocated slots,
+ * so the capture runs while the consumer processes the previous frames. The consumer takes a slot,
+ * processes it and releases it to the capture.</p>
+ *
+ * <p>When the buffer is full, the capture drops the oldest frame ({@link Backpressure#DropOldest})
+ * or waits the consumer ({@link Backpressure#Block}).</p>
+ *
+ * <p>After a failed grab the capture waits before the next one, from 1 ms doubling up to 100 ms while
+ * the grabs keep failing, so a disconnected source doesn't keep a core busy. The capture can also stop
+ * after a number of consecutive failures, the last exception of the source is kept.</p>
+ *
+ * <pre>
+ * FrameCapture capture = new FrameCapture(new Webcam(640, 480));
+ * capture.Start();
+ * CapturedFrame f = capture.Take();
+ * FastBitmap fb = f.toFastBitmap();
+ * ...
+ * capture.Release(f);
+ * capture.Stop();
+ * </pre>
+ *
+ * @author Diego Catalano
+ */
+public class FrameCapture {
+
+    /**
+     * Behavior when the buffer is full.
+     */
+    public static enum Backpressure {
+
+        /**
+         * Drop the oldest frame of the buffer, the capture never waits the consumer.
+         */
+        DropOldest,
+
+        /**
+         * Wait until the consumer takes a frame.
+         */
+        Block
+    };
+
+    private IFrameSource source;
+    private Backpressure backpressure;
+    private int capacity;
+
+    private ArrayDeque<CapturedFrame> free;
+    private ArrayDeque<CapturedFrame> ready;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition slotFree = lock.newCondition();
+
+    private final Condition stopped = lock.newCondition();
+
+    private Thread thread;
+    private volatile boolean running;
+    private int maxFailures = 0;
+    private volatile RuntimeException error;
+
+    private long sequence;
+    private long captured;
+    private long dropped;
+    private long delivered;
+    private long failed;
+
+    /**
+     * Get the source.
+     * @return Frame source.
+     */
+    public IFrameSource getSource() {
+        return source;
+    }
+
+    /**
+     * Get the backpressure.
+     * @return Backpressure.
+     */
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * Get the maximum number of frames waiting the consumer.
+     * @return Capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Check if the capture is running.
+     * @return True if the capture is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Get the number of captured frames.
+     * @return Captured frames.
+     */
+    public long getCaptured() {
+        lock.lock();
+        try {
+            return captured;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of frames dropped before the consumer takes them.
+     * @return Dropped frames.
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of frames taken by the consumer.
+     * @return Delivered frames.
+     */
+    public long getDelivered() {
+        lock.lock();
+        try {
+            return delivered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of grabs without data.
+     * @return Failed grabs.
+     */
+    public long getFailed() {
+        lock.lock();
+        try {
+            return failed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the maximum number of consecutive failed grabs before the capture stops.
+     * @return Maximum number of consecutive failures, 0 never stops.
+     */
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    /**
+     * Set the maximum number of consecutive failed grabs before the capture stops.
+     * @param maxFailures Maximum number of consecutive failures, 0 never stops.
+     */
+    public void setMaxFailures(int maxFailures) {
+        this.maxFailures = Math.max(0, maxFailures);
+    }
+
+    /**
+     * Get the last exception thrown by the source.
+     * @return Exception, null if the source never failed since the start.
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * Get the number of frames waiting the consumer.
+     * @return Queued frames.
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return ready.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Initializes a new instance of the FrameCapture class.
+     * Double buffered, the oldest frame is dropped.
+     * @param source Frame source.
+     */
+    public FrameCapture(IFrameSource source) {
+        this(source, 1, Backpressure.DropOldest);
+    }
+
+    /**
+     * Initializes a new instance of the FrameCapture class.
+     * @param source Frame source.
+     * @param capacity Maximum number of frames waiting the consumer.
+     * @param backpressure Behavior when the buffer is full.
+     */
+    public FrameCapture(IFrameSource source, int capacity, Backpressure backpressure) {
+        this(source, capacity, backpressure, 1);
+    }
+
+    /**
+     * Initializes a new instance of the FrameCapture class.
+     * @param source Frame source.
+     * @param capacity Maximum number of frames waiting the consumer.
+     * @param backpressure Behavior when the buffer is full.
+     * @param held Number of frames that the consumer can hold without release.
+     */
+    public FrameCapture(IFrameSource source, int capacity, Backpressure backpressure, int held) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        if (held < 0)
+            throw new IllegalArgumentException("Held frames can't be negative.");
+
+        this.source = source;
+        this.capacity = capacity;
+        this.backpressure = backpressure;
+
+        // One slot being captured, the queued frames and the frames held by the consumer.
+        int slots = capacity + held + 1;
+        this.free = new ArrayDeque<CapturedFrame>(slots);
+        this.ready = new ArrayDeque<CapturedFrame>(slots);
+        for (int i = 0; i < slots; i++)
+            free.add(new CapturedFrame(this, source.getWidth(), source.getHeight()));
+    }
+
+    /**
+     * Start the capture thread.
+     * @throws IllegalStateException If the capture is already running.
+     */
+    public void Start(){
+        lock.lock();
+        try {
+            if (running)
+                throw new IllegalStateException("The capture is already running.");
+            running = true;
+            error = null;
+        } finally {
+            lock.unlock();
+        }
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Capture();
+            }
+        }, "FrameCapture");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the capture thread.
+     * The queued frames can still be taken.
+     */
+    public void Stop(){
+        lock.lock();
+        try {
+            running = false;
+            slotFree.signalAll();
+            notEmpty.signalAll();
+            stopped.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (thread != null && thread != Thread.currentThread()){
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        thread = null;
+    }
+
+    /**
+     * Take the oldest frame, waits until a frame is captured.
+     * The frame must be released after use.
+     * @return Frame, null if the capture is stopped and there are no frames.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public CapturedFrame Take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (ready.isEmpty()) {
+                if (!running) return null;
+                notEmpty.await();
+            }
+            return Deliver();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the oldest frame, waits until a frame is captured or the timeout.
+     * The frame must be released after use.
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of the timeout.
+     * @return Frame, null if there are no frames.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public CapturedFrame Poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (ready.isEmpty()) {
+                if (!running || nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return Deliver();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the newest frame, the older frames are dropped. Waits until a frame is captured.
+     * The frame must be released after use.
+     * @return Frame, null if the capture is stopped and there are no frames.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public CapturedFrame TakeLatest() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (ready.isEmpty()) {
+                if (!running) return null;
+                notEmpty.await();
+            }
+            while (ready.size() > 1) {
+                free.add(ready.poll());
+                dropped++;
+            }
+            return Deliver();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release the frame to the capture.
+     * @param frame Frame taken from this capture.
+     */
+    public void Release(CapturedFrame frame){
+        if (frame.owner != this)
+            throw new IllegalArgumentException("The frame doesn't belong to this capture.");
+
+        lock.lock();
+        try {
+            free.add(frame);
+            slotFree.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CapturedFrame Deliver(){
+        CapturedFrame frame = ready.poll();
+        delivered++;
+        slotFree.signal();
+        return frame;
+    }
+
+    /**
+     * Get a slot to be filled, null if the capture is stopped.
+     */
+    private CapturedFrame Acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (running) {
+                if (ready.size() < capacity && !free.isEmpty())
+                    return free.poll();
+
+                if (backpressure == Backpressure.DropOldest && !ready.isEmpty()){
+                    dropped++;
+                    return ready.poll();
+                }
+
+                slotFree.await();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait before the next grab, the delay doubles with the consecutive failures.
+     */
+    private void Backoff(int failures) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(Math.min(100, 1L << Math.min(failures - 1, 7)));
+        lock.lockInterruptibly();
+        try {
+            while (running && nanos > 0)
+                nanos = stopped.awaitNanos(nanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void Capture(){
+        int failures = 0;
+        try {
+            while (running) {
+                CapturedFrame slot = Acquire();
+                if (slot == null) break;
+
+                // The frame is grabbed without the lock, the consumer works on the other slots.
+                boolean grabbed = false;
+                try {
+                    grabbed = source.Grab(slot.frame);
+                } catch (RuntimeException e) {
+                    // Only the first exception of a run of failures is printed.
+                    if (failures == 0) e.printStackTrace();
+                    error = e;
+                }
+
+                lock.lock();
+                try {
+                    if (grabbed){
+                        slot.timestamp = System.nanoTime();
+                        slot.sequence = sequence++;
+                        captured++;
+                        ready.add(slot);
+                        notEmpty.signal();
+                    }
+                    else{
+                        failed++;
+                        free.add(slot);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (grabbed){
+                    failures = 0;
+                }
+                else{
+                    failures++;
+                    if (maxFailures > 0 && failures >= maxFailures) break;
+                    Backoff(failures);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } finally {
+            lock.lock();
+            try {
+                running = false;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
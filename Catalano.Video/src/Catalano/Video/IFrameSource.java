@@ -0,0 +1,48 @@
+// Catalano Video Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2015
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Video;
+
+/**
+ * Source of video frames.
+ * @author Diego Catalano
+ */
+public interface IFrameSource {
+
+    /**
+     * Get the width of the frames.
+     * @return Width.
+     */
+    int getWidth();
+
+    /**
+     * Get the height of the frames.
+     * @return Height.
+     */
+    int getHeight();
+
+    /**
+     * Grab the next frame, blocks until the frame is available.
+     * @param frame Frame to be filled, with the size of the source.
+     * @return True if the frame was filled, false if there is no data.
+     */
+    boolean Grab(VideoFrame frame);
+}
@@ -0,0 +1,121 @@
+// Catalano Video Library
+// The Catalano Framework
+//
+// Copyright © Diego Catalano, 2015
+// diego.catalano at live.com
+//
+//    This library is free software; you can redistribute it and/or
+//    modify it under the terms of the GNU Lesser General Public
+//    License as published by the Free Software Foundation; either
+//    version 2.1 of the License, or (at your option) any later version.
+//
+//    This library is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//    Lesser General Public License for more details.
+//
+//    You should have received a copy of the GNU Lesser General Public
+//    License along with this library; if not, write to the Free Software
+//    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+//
+
+package Catalano.Video;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic frame source.
+ * Generates a moving RGB gradient at a fixed frame rate, without a camera.
+ * The index of the frame is written in the first 4 bytes of the frame.
+ * @author Diego Catalano
+ */
+public class SyntheticFrameSource implements IFrameSource {
+
+    private int width;
+    private int height;
+    private long interval;
+    private long frames;
+    private long next;
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the number of generated frames.
+     * @return Number of frames.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Initializes a new instance of the SyntheticFrameSource class.
+     * @param width Width.
+     * @param height Height.
+     */
+    public SyntheticFrameSource(int width, int height) {
+        this(width, height, 0);
+    }
+
+    /**
+     * Initializes a new instance of the SyntheticFrameSource class.
+     * @param width Width.
+     * @param height Height.
+     * @param fps Frames per second, 0 generates the frames without wait.
+     */
+    public SyntheticFrameSource(int width, int height, int fps) {
+        if (width < 2 || height < 1)
+            throw new IllegalArgumentException("The frame must have at least 2 x 1 pixels.");
+        if (fps < 0)
+            throw new IllegalArgumentException("FPS can't be negative.");
+        this.width = width;
+        this.height = height;
+        this.interval = fps == 0 ? 0 : 1000000000L / fps;
+    }
+
+    /**
+     * Decode the index of the frame written by this source.
+     * @param frame Frame.
+     * @return Index of the frame.
+     */
+    public static int getIndex(VideoFrame frame){
+        byte[] d = frame.getRawData();
+        return (d[0] & 0xFF) << 24 | (d[1] & 0xFF) << 16 | (d[2] & 0xFF) << 8 | (d[3] & 0xFF);
+    }
+
+    @Override
+    public synchronized boolean Grab(VideoFrame frame) {
+        if (interval > 0){
+            long now = System.nanoTime();
+            if (next == 0) next = now;
+            if (next > now) LockSupport.parkNanos(next - now);
+            next += interval;
+        }
+
+        int t = (int)frames;
+        byte[] d = frame.getRawData();
+        int idx = 0;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                d[idx++] = (byte)(j + t);
+                d[idx++] = (byte)(i + t);
+                d[idx++] = (byte)(i + j);
+            }
+        }
+
+        d[0] = (byte)(t >>> 24);
+        d[1] = (byte)(t >>> 16);
+        d[2] = (byte)(t >>> 8);
+        d[3] = (byte)t;
+
+        frames++;
+        return true;
+    }
+}
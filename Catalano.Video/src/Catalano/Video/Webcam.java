@@ -54,7 +54,7 @@ import java.util.List;
 
 import org.bridj.Pointer;
 
-public class Webcam {
+public class Webcam implements IFrameSource {
 
 	public final static int DEFAULT_REQUESTED_FPS = 25;
 
@@ -154,6 +154,24 @@ public class Webcam {
 		return false;
 	}
 
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Grab the next frame into the frame, used by {@link FrameCapture}.
+	 */
+	@Override
+	public boolean Grab(VideoFrame frame) {
+		return getNextFrame(frame) != null;
+	}
+
 	public synchronized VideoFrame getNextFrame(VideoFrame frame) {
 
 		grabber.nextFrame();
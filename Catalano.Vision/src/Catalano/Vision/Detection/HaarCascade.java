@@ -0,0 +1,180 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.Detection;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Boosted cascade of Haar-like features.
+ *
+ * <p>The stages are evaluated in order and the window is rejected by the first stage that fails,
+ * so most of the windows are discarded by the first few features.</p>
+ *
+ * <p>The cascades trained by OpenCV in the old format (haarcascade_*.xml) with decision stumps can be loaded with {@link #FromXml(String)}.</p>
+ *
+ * @author Diego Catalano
+ */
+public class HaarCascade {
+
+    private int width;
+    private int height;
+    List<HaarCascadeStage> stages = new ArrayList<HaarCascadeStage>();
+
+    /**
+     * Get the width of the detection window.
+     * @return Width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the detection window.
+     * @return Height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the stages.
+     * @return Stages.
+     */
+    public List<HaarCascadeStage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Initializes a new instance of the HaarCascade class.
+     * @param width Width of the detection window.
+     * @param height Height of the detection window.
+     */
+    public HaarCascade(int width, int height) {
+        if (width < 3 || height < 3)
+            throw new IllegalArgumentException("The detection window must be at least 3x3.");
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Add a stage to the cascade.
+     * @param stage Stage.
+     * @return This cascade.
+     */
+    public HaarCascade Add(HaarCascadeStage stage){
+        for (HaarFeature f : stage.features) {
+            for (int i = 0; i < f.count; i++) {
+                if (f.x[i] + f.height[i] > height || f.y[i] + f.width[i] > width)
+                    throw new IllegalArgumentException("The Haar feature is out of the detection window.");
+            }
+        }
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Load a cascade in the OpenCV haar classifier format.
+     * @param filename Filename.
+     * @return Haar cascade.
+     */
+    public static HaarCascade FromXml(String filename){
+        try {
+            return FromXml(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(filename)));
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Can't read the cascade: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load a cascade in the OpenCV haar classifier format.
+     * @param stream Input stream.
+     * @return Haar cascade.
+     */
+    public static HaarCascade FromXml(InputStream stream){
+        try {
+            return FromXml(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(stream));
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Can't read the cascade: " + e.getMessage());
+        }
+    }
+
+    private static HaarCascade FromXml(Document document){
+        Element size = Find(document.getDocumentElement(), "size");
+        Element stagesNode = Find(document.getDocumentElement(), "stages");
+        if (size == null || stagesNode == null)
+            throw new IllegalArgumentException("The cascade isn't in the OpenCV haar classifier format.");
+
+        String[] s = size.getTextContent().trim().split("\\s+");
+        HaarCascade cascade = new HaarCascade(Integer.parseInt(s[0]), Integer.parseInt(s[1]));
+
+        for (Element stageNode : Children(stagesNode)) {
+            HaarCascadeStage stage = new HaarCascadeStage(Double.parseDouble(Child(stageNode, "stage_threshold").getTextContent().trim()));
+            for (Element tree : Children(Child(stageNode, "trees"))) {
+                List<Element> nodes = Children(tree);
+                if (nodes.size() != 1 || Child(nodes.get(0), "left_val") == null || Child(nodes.get(0), "right_val") == null)
+                    throw new IllegalArgumentException("Only cascades of decision stumps are supported.");
+
+                Element node = nodes.get(0);
+                Element featureNode = Child(node, "feature");
+                Element tilted = Child(featureNode, "tilted");
+                if (tilted != null && Integer.parseInt(tilted.getTextContent().trim()) != 0)
+                    throw new IllegalArgumentException("Tilted Haar features are not supported.");
+
+                // OpenCV rectangles are "x y width height weight" with x as column.
+                HaarFeature feature = new HaarFeature();
+                for (Element rect : Children(Child(featureNode, "rects"))) {
+                    String[] r = rect.getTextContent().trim().split("\\s+");
+                    feature.Add(Integer.parseInt(r[1]), Integer.parseInt(r[0]),
+                            Integer.parseInt(r[2]), Integer.parseInt(r[3]), Double.parseDouble(r[4]));
+                }
+
+                stage.Add(feature,
+                        Double.parseDouble(Child(node, "threshold").getTextContent().trim()),
+                        Double.parseDouble(Child(node, "left_val").getTextContent().trim()),
+                        Double.parseDouble(Child(node, "right_val").getTextContent().trim()));
+            }
+            cascade.Add(stage);
+        }
+
+        return cascade;
+    }
+
+    private static List<Element> Children(Element element){
+        List<Element> lst = new ArrayList<Element>();
+        for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element) lst.add((Element)n);
+        }
+        return lst;
+    }
+
+    private static Element Child(Element element, String name){
+        for (Element e : Children(element)) {
+            if (e.getTagName().equals(name)) return e;
+        }
+        return null;
+    }
+
+    private static Element Find(Element element, String name){
+        if (element.getTagName().equals(name)) return element;
+        for (Element e : Children(element)) {
+            Element r = Find(e, name);
+            if (r != null) return r;
+        }
+        return null;
+    }
+}
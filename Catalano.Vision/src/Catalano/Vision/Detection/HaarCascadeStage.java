@@ -0,0 +1,72 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.Detection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stage of the Haar cascade.
+ * Boosted set of decision stumps, the window is rejected when the sum of the stumps is below the threshold of the stage.
+ * @author Diego Catalano
+ */
+public class HaarCascadeStage {
+
+    private double threshold;
+    List<HaarFeature> features = new ArrayList<HaarFeature>();
+    List<double[]> nodes = new ArrayList<double[]>();
+
+    /**
+     * Get the threshold of the stage.
+     * @return Threshold.
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Set the threshold of the stage.
+     * @param threshold Threshold.
+     */
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the number of weak classifiers.
+     * @return Number of weak classifiers.
+     */
+    public int getCount() {
+        return features.size();
+    }
+
+    /**
+     * Initializes a new instance of the HaarCascadeStage class.
+     * @param threshold Threshold of the stage.
+     */
+    public HaarCascadeStage(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Add a weak classifier.
+     * The feature is normalized by the area and the standard deviation of the window,
+     * the stump gives the left value when the feature is less than the threshold, otherwise the right value.
+     * @param feature Haar feature.
+     * @param threshold Threshold of the feature.
+     * @param leftValue Value when the feature is less than the threshold.
+     * @param rightValue Value when the feature is greater or equal than the threshold.
+     * @return This stage.
+     */
+    public HaarCascadeStage Add(HaarFeature feature, double threshold, double leftValue, double rightValue){
+        if (feature.count == 0)
+            throw new IllegalArgumentException("Haar feature without rectangles.");
+        features.add(feature);
+        nodes.add(new double[] {threshold, leftValue, rightValue});
+        return this;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.Detection;
+
+/**
+ * Haar-like feature.
+ * Weighted sum of up to three rectangles of the detection window, computed with the integral image.
+ * @author Diego Catalano
+ */
+public class HaarFeature {
+
+    /**
+     * Maximum number of rectangles of the feature.
+     */
+    public static final int MAX_RECTANGLES = 3;
+
+    int count;
+    int[] x = new int[MAX_RECTANGLES];
+    int[] y = new int[MAX_RECTANGLES];
+    int[] width = new int[MAX_RECTANGLES];
+    int[] height = new int[MAX_RECTANGLES];
+    double[] weight = new double[MAX_RECTANGLES];
+
+    /**
+     * Get the number of rectangles.
+     * @return Number of rectangles.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Initializes a new instance of the HaarFeature class.
+     */
+    public HaarFeature() {}
+
+    /**
+     * Add a rectangle to the feature.
+     * @param x X axis coordinate of the top-left corner in the window.
+     * @param y Y axis coordinate of the top-left corner in the window.
+     * @param width Width of the rectangle.
+     * @param height Height of the rectangle.
+     * @param weight Weight of the rectangle.
+     * @return This feature.
+     */
+    public HaarFeature Add(int x, int y, int width, int height, double weight){
+        if (count == MAX_RECTANGLES)
+            throw new IllegalArgumentException("Haar feature supports up to " + MAX_RECTANGLES + " rectangles.");
+        if (x < 0 || y < 0 || width < 1 || height < 1)
+            throw new IllegalArgumentException("Invalid rectangle of the Haar feature.");
+
+        this.x[count] = x;
+        this.y[count] = y;
+        this.width[count] = width;
+        this.height[count] = height;
+        this.weight[count] = weight;
+        count++;
+        return this;
+    }
+}
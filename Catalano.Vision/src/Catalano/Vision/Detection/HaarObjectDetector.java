@@ -0,0 +1,534 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.Detection;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Imaging.Shapes.IntRectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sliding window object detector with a boosted cascade of Haar-like features (Viola-Jones).
+ *
+ * <p>The features are scaled instead of the image, so the integral image is computed once per frame.
+ * For each scale the rectangles of the cascade are compiled in offsets of the integral image, the
+ * windows are normalized by the standard deviation and rejected by the first stage that fails.
+ * The scales are split in bands of rows and scanned in parallel.</p>
+ *
+ * <p>The overlapping windows are merged by non-maximum suppression, the detections supported by
+ * less than the minimum number of neighbors are discarded.</p>
+ *
+ * <pre>
+ * HaarObjectDetector detector = new HaarObjectDetector(HaarCascade.FromXml("haarcascade_frontalface_default.xml"));
+ * List&lt;IntRectangle&gt; faces = detector.ProcessFrame(fastBitmap);
+ * </pre>
+ *
+ * @author Diego Catalano
+ */
+public class HaarObjectDetector implements IObjectDetector {
+
+    private HaarCascade cascade;
+    private int minSize;
+    private int maxSize;
+    private double scaleFactor = 1.2;
+    private double stepRate = 0.08;
+    private int minNeighbors = 3;
+    private double overlap = 0.3;
+
+    private List<IntRectangle> objects = new ArrayList<IntRectangle>();
+
+    // Cascade flattened in arrays.
+    private int[] stageEnd;
+    private double[] stageThreshold;
+    private int[] rectangles;
+    private double[] threshold;
+    private double[] left;
+    private double[] right;
+
+    // Integral images of the last frame.
+    private int width;
+    private int height;
+    private int[] sum;
+    private long[] sqsum;
+    private Scale[] scales;
+
+    /**
+     * Get the cascade.
+     * @return Haar cascade.
+     */
+    public HaarCascade getCascade() {
+        return cascade;
+    }
+
+    /**
+     * Get the minimum width of the objects.
+     * @return Minimum size.
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Set the minimum width of the objects.
+     * @param minSize Minimum size.
+     */
+    public void setMinSize(int minSize) {
+        this.minSize = Math.max(cascade.getWidth(), minSize);
+        this.scales = null;
+    }
+
+    /**
+     * Get the maximum width of the objects.
+     * @return Maximum size, 0 means the size of the image.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum width of the objects.
+     * @param maxSize Maximum size, 0 means the size of the image.
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.scales = null;
+    }
+
+    /**
+     * Get the factor between two consecutive scales.
+     * @return Scale factor.
+     */
+    public double getScaleFactor() {
+        return scaleFactor;
+    }
+
+    /**
+     * Set the factor between two consecutive scales.
+     * @param scaleFactor Scale factor, must be greater than 1.
+     */
+    public void setScaleFactor(double scaleFactor) {
+        if (scaleFactor <= 1)
+            throw new IllegalArgumentException("Scale factor must be greater than 1.");
+        this.scaleFactor = scaleFactor;
+        this.scales = null;
+    }
+
+    /**
+     * Get the step of the window relative to the width of the window.
+     * @return Step rate.
+     */
+    public double getStepRate() {
+        return stepRate;
+    }
+
+    /**
+     * Set the step of the window relative to the width of the window.
+     * @param stepRate Step rate, at least one pixel is used.
+     */
+    public void setStepRate(double stepRate) {
+        this.stepRate = Math.max(0, stepRate);
+        this.scales = null;
+    }
+
+    /**
+     * Get the minimum number of overlapping windows merged in a detection.
+     * @return Minimum neighbors.
+     */
+    public int getMinNeighbors() {
+        return minNeighbors;
+    }
+
+    /**
+     * Set the minimum number of overlapping windows merged in a detection.
+     * @param minNeighbors Minimum neighbors, 0 keeps all the windows.
+     */
+    public void setMinNeighbors(int minNeighbors) {
+        this.minNeighbors = Math.max(0, minNeighbors);
+    }
+
+    /**
+     * Get the intersection over union above which two windows are merged.
+     * @return Overlap.
+     */
+    public double getOverlap() {
+        return overlap;
+    }
+
+    /**
+     * Set the intersection over union above which two windows are merged.
+     * @param overlap Overlap.
+     */
+    public void setOverlap(double overlap) {
+        this.overlap = overlap;
+    }
+
+    /**
+     * Initializes a new instance of the HaarObjectDetector class.
+     * @param cascade Haar cascade.
+     */
+    public HaarObjectDetector(HaarCascade cascade) {
+        this(cascade, cascade.getWidth(), 0);
+    }
+
+    /**
+     * Initializes a new instance of the HaarObjectDetector class.
+     * @param cascade Haar cascade.
+     * @param minSize Minimum width of the objects.
+     * @param maxSize Maximum width of the objects, 0 means the size of the image.
+     */
+    public HaarObjectDetector(HaarCascade cascade, int minSize, int maxSize) {
+        this(cascade, minSize, maxSize, 1.2);
+    }
+
+    /**
+     * Initializes a new instance of the HaarObjectDetector class.
+     * @param cascade Haar cascade.
+     * @param minSize Minimum width of the objects.
+     * @param maxSize Maximum width of the objects, 0 means the size of the image.
+     * @param scaleFactor Factor between two consecutive scales.
+     */
+    public HaarObjectDetector(HaarCascade cascade, int minSize, int maxSize, double scaleFactor) {
+        if (cascade.stages.isEmpty())
+            throw new IllegalArgumentException("The cascade has no stages.");
+
+        this.cascade = cascade;
+        setMinSize(minSize);
+        setMaxSize(maxSize);
+        setScaleFactor(scaleFactor);
+        Flatten();
+    }
+
+    @Override
+    public List<IntRectangle> DetectedObjects() {
+        return objects;
+    }
+
+    @Override
+    public List<IntRectangle> ProcessFrame(FastBitmap fastBitmap) {
+        if (!fastBitmap.isGrayscale() && !fastBitmap.isRGB())
+            throw new IllegalArgumentException("Haar Object Detector only works with grayscale or rgb images.");
+
+        if (fastBitmap.getWidth() != width || fastBitmap.getHeight() != height || sum == null){
+            width = fastBitmap.getWidth();
+            height = fastBitmap.getHeight();
+            sum = new int[(width + 1) * (height + 1)];
+            sqsum = new long[(width + 1) * (height + 1)];
+            scales = null;
+        }
+        if (scales == null)
+            scales = Compile();
+
+        Integral(fastBitmap);
+
+        objects = Merge(Scan());
+        return objects;
+    }
+
+    /**
+     * Flatten the cascade, three rectangles per weak classifier.
+     */
+    private void Flatten(){
+        List<HaarCascadeStage> stages = cascade.stages;
+        int n = 0;
+        for (HaarCascadeStage s : stages) n += s.features.size();
+
+        stageEnd = new int[stages.size()];
+        stageThreshold = new double[stages.size()];
+        rectangles = new int[n];
+        threshold = new double[n];
+        left = new double[n];
+        right = new double[n];
+
+        int k = 0;
+        for (int i = 0; i < stages.size(); i++) {
+            HaarCascadeStage s = stages.get(i);
+            for (int j = 0; j < s.features.size(); j++) {
+                double[] node = s.nodes.get(j);
+                rectangles[k] = s.features.get(j).count;
+                threshold[k] = node[0];
+                left[k] = node[1];
+                right[k] = node[2];
+                k++;
+            }
+            stageEnd[i] = k;
+            stageThreshold[i] = s.getThreshold() - 0.0001;
+        }
+    }
+
+    /**
+     * Compile the cascade for each scale in offsets of the integral image.
+     */
+    private Scale[] Compile(){
+        int stride = width + 1;
+        int cw = cascade.getWidth();
+        int ch = cascade.getHeight();
+        int max = maxSize == 0 ? width : Math.min(maxSize, width);
+
+        List<Scale> lst = new ArrayList<Scale>();
+        for (double factor = (double)minSize / cw; ; factor *= scaleFactor) {
+            int winW = (int)Math.round(cw * factor);
+            int winH = (int)Math.round(ch * factor);
+            if (winW > max || winW > width || winH > height) break;
+
+            Scale s = new Scale();
+            s.winW = winW;
+            s.winH = winH;
+            s.step = Math.max(1, (int)Math.round(winW * stepRate));
+
+            // Window of the normalization, without the border.
+            int ex = (int)Math.round(factor);
+            int ew = (int)Math.round((cw - 2) * factor);
+            int eh = (int)Math.round((ch - 2) * factor);
+            s.norm = Offsets(ex, ex, ew, eh, stride);
+            s.invArea = 1.0 / (ew * eh);
+
+            s.offsets = new int[rectangles.length * 12];
+            s.weights = new double[rectangles.length * 3];
+            int k = 0;
+            for (HaarCascadeStage stage : cascade.stages) {
+                for (HaarFeature f : stage.features) {
+                    double area0 = 0;
+                    double sum0 = 0;
+                    for (int i = 0; i < f.count; i++) {
+                        int x = (int)Math.round(f.x[i] * factor);
+                        int y = (int)Math.round(f.y[i] * factor);
+                        int w = Math.max(1, (int)Math.round(f.width[i] * factor));
+                        int h = Math.max(1, (int)Math.round(f.height[i] * factor));
+                        if (x + h > winH) h = winH - x;
+                        if (y + w > winW) w = winW - y;
+
+                        System.arraycopy(Offsets(x, y, w, h, stride), 0, s.offsets, k * 12 + i * 4, 4);
+                        s.weights[k * 3 + i] = f.weight[i] * s.invArea;
+                        if (i == 0) area0 = w * h;
+                        else sum0 += s.weights[k * 3 + i] * w * h;
+                    }
+
+                    // Keep the feature zero on flat regions after the rounding of the rectangles.
+                    if (f.count > 1)
+                        s.weights[k * 3] = -sum0 / area0;
+                    k++;
+                }
+            }
+            lst.add(s);
+        }
+
+        return lst.toArray(new Scale[lst.size()]);
+    }
+
+    private static int[] Offsets(int x, int y, int w, int h, int stride){
+        int a = x * stride + y;
+        return new int[] {a, a + w, a + h * stride, a + h * stride + w};
+    }
+
+    /**
+     * Compute the integral image and the integral of the squares.
+     */
+    private void Integral(FastBitmap fastBitmap){
+        int stride = width + 1;
+        byte[] gray = fastBitmap.isGrayscale() ? fastBitmap.getGrayData() : null;
+        int[] rgb = gray == null ? fastBitmap.getRGBData() : null;
+
+        for (int i = 0; i < height; i++) {
+            int rowSum = 0;
+            long rowSq = 0;
+            int p = i * width;
+            int o = (i + 1) * stride + 1;
+            for (int j = 0; j < width; j++, p++, o++) {
+                int g;
+                if (gray != null){
+                    g = gray[p] & 0xFF;
+                }
+                else{
+                    int c = rgb[p];
+                    g = (int)((c >> 16 & 0xFF) * 0.2125 + (c >> 8 & 0xFF) * 0.7154 + (c & 0xFF) * 0.0721);
+                }
+                rowSum += g;
+                rowSq += g * g;
+                sum[o] = sum[o - stride] + rowSum;
+                sqsum[o] = sqsum[o - stride] + rowSq;
+            }
+        }
+    }
+
+    /**
+     * Scan all the scales, each scale is split in bands of rows.
+     */
+    private List<Candidate> Scan(){
+        final int bands = Math.max(1, Runtime.getRuntime().availableProcessors());
+        final int tasks = scales.length * bands;
+        final AtomicInteger next = new AtomicInteger();
+
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), tasks));
+        final List<List<Candidate>> found = new ArrayList<List<Candidate>>();
+        for (int i = 0; i < cores; i++)
+            found.add(new ArrayList<Candidate>());
+
+        if (cores == 1){
+            for (int t = 0; t < tasks; t++)
+                Scan(t / bands, t % bands, bands, found.get(0));
+        }
+        else{
+            Thread[] t = new Thread[cores];
+            for (int i = 0; i < cores; i++) {
+                final List<Candidate> lst = found.get(i);
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The smallest scales have more windows, they are taken first.
+                        for (int task = next.getAndIncrement(); task < tasks; task = next.getAndIncrement())
+                            Scan(task / bands, task % bands, bands, lst);
+                    }
+                });
+                t[i].start();
+            }
+
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        List<Candidate> all = new ArrayList<Candidate>();
+        for (List<Candidate> lst : found)
+            all.addAll(lst);
+        return all;
+    }
+
+    private void Scan(int index, int band, int bands, List<Candidate> found){
+        Scale s = scales[index];
+        int stride = width + 1;
+        int[] sum = this.sum;
+        long[] sqsum = this.sqsum;
+        int[] off = s.offsets;
+        double[] wt = s.weights;
+        int n0 = s.norm[0], n1 = s.norm[1], n2 = s.norm[2], n3 = s.norm[3];
+        double invArea = s.invArea;
+        int nStages = stageEnd.length;
+
+        int rows = (height - s.winH) / s.step + 1;
+        int cols = width - s.winW;
+        int start = band * rows / bands;
+        int end = (band + 1) * rows / bands;
+
+        for (int r = start; r < end; r++) {
+            int row = r * s.step * stride;
+            for (int c = 0; c <= cols; c += s.step) {
+                int o = row + c;
+
+                double mean = (sum[o + n3] - sum[o + n1] - sum[o + n2] + sum[o + n0]) * invArea;
+                double var = (sqsum[o + n3] - sqsum[o + n1] - sqsum[o + n2] + sqsum[o + n0]) * invArea - mean * mean;
+                double std = var > 0 ? Math.sqrt(var) : 1;
+
+                double stageSum = 0;
+                int k = 0;
+                int st = 0;
+                for (; st < nStages; st++) {
+                    stageSum = 0;
+                    for (int e = stageEnd[st]; k < e; k++) {
+                        int q = k * 12;
+                        int w = k * 3;
+                        double f = wt[w] * (sum[o + off[q + 3]] - sum[o + off[q + 1]] - sum[o + off[q + 2]] + sum[o + off[q]])
+                                 + wt[w + 1] * (sum[o + off[q + 7]] - sum[o + off[q + 5]] - sum[o + off[q + 6]] + sum[o + off[q + 4]]);
+                        if (rectangles[k] == 3)
+                            f += wt[w + 2] * (sum[o + off[q + 11]] - sum[o + off[q + 9]] - sum[o + off[q + 10]] + sum[o + off[q + 8]]);
+
+                        stageSum += f < threshold[k] * std ? left[k] : right[k];
+                    }
+                    if (stageSum < stageThreshold[st]) break;
+                }
+
+                if (st == nStages)
+                    found.add(new Candidate(r * s.step, c, s.winW, s.winH, stageSum - stageThreshold[nStages - 1]));
+            }
+        }
+    }
+
+    /**
+     * Non-maximum suppression, the windows overlapping the best window are merged in its average.
+     */
+    private List<IntRectangle> Merge(List<Candidate> candidates){
+        List<IntRectangle> lst = new ArrayList<IntRectangle>();
+        int n = candidates.size();
+        if (n == 0) return lst;
+
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                // The ties are broken by the position, the result doesn't depend on the order of the threads.
+                int c = Double.compare(b.score, a.score);
+                if (c == 0) c = a.width - b.width;
+                if (c == 0) c = a.x - b.x;
+                if (c == 0) c = a.y - b.y;
+                return c;
+            }
+        });
+
+        boolean[] merged = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (merged[i]) continue;
+            Candidate a = candidates.get(i);
+            double x = a.x, y = a.y, w = a.width, h = a.height;
+            int count = 1;
+
+            for (int j = i + 1; j < n; j++) {
+                if (merged[j]) continue;
+                Candidate b = candidates.get(j);
+
+                int ih = Math.min(a.x + a.height, b.x + b.height) - Math.max(a.x, b.x);
+                if (ih <= 0) continue;
+                int iw = Math.min(a.y + a.width, b.y + b.width) - Math.max(a.y, b.y);
+                if (iw <= 0) continue;
+
+                double inter = (double)ih * iw;
+                if (inter > overlap * (a.area + b.area - inter)){
+                    merged[j] = true;
+                    x += b.x; y += b.y; w += b.width; h += b.height;
+                    count++;
+                }
+            }
+
+            if (count > minNeighbors)
+                lst.add(new IntRectangle((int)Math.round(x / count), (int)Math.round(y / count), (int)Math.round(w / count), (int)Math.round(h / count)));
+        }
+
+        return lst;
+    }
+
+    private static class Scale {
+        int winW;
+        int winH;
+        int step;
+        int[] norm;
+        double invArea;
+        int[] offsets;
+        double[] weights;
+    }
+
+    private static class Candidate {
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final int area;
+        final double score;
+
+        Candidate(int x, int y, int width, int height, double score) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.area = width * height;
+            this.score = score;
+        }
+    }
+}
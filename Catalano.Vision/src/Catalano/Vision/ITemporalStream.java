@@ -0,0 +1,40 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision;
+
+import Catalano.Imaging.FastBitmap;
+
+/**
+ * Temporal process over a stream of frames.
+ * The frames are pushed one at a time and only running accumulators are kept.
+ * @author Diego Catalano
+ */
+public interface ITemporalStream {
+
+    /**
+     * Add the next frame of the stream.
+     * @param frame Frame.
+     */
+    void Push(FastBitmap frame);
+
+    /**
+     * Get the result of the frames pushed so far.
+     * @return Image.
+     */
+    FastBitmap Current();
+
+    /**
+     * Get the number of frames in the result.
+     * @return Number of frames.
+     */
+    int getCount();
+
+    /**
+     * Discard all the frames.
+     */
+    void Reset();
+}
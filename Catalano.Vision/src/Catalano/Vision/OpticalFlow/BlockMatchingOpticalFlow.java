@@ -0,0 +1,237 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.OpticalFlow;
+
+import Catalano.Imaging.FastBitmap;
+
+/**
+ * Dense optical flow by block matching.
+ *
+ * <p>Each block of the previous frame is searched in the next frame within the search radius, minimizing
+ * the sum of absolute differences. The search starts from the zero displacement and each candidate stops as
+ * soon as its sum exceeds the best one. The minimum is refined to sub-pixel with the equiangular line fitting along each axis.
+ * The rows of blocks are matched in parallel.</p>
+ *
+ * @author Diego Catalano
+ */
+public class BlockMatchingOpticalFlow {
+
+    private int blockSize = 16;
+    private int searchRadius = 8;
+
+    private FloatImage previous = new FloatImage();
+    private FloatImage current = new FloatImage();
+    private int frames;
+
+    /**
+     * Get the size of the blocks.
+     * @return Block size.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Set the size of the blocks.
+     * @param blockSize Block size.
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 2)
+            throw new IllegalArgumentException("Block size must be at least 2.");
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Get the maximum displacement searched along each axis.
+     * @return Search radius.
+     */
+    public int getSearchRadius() {
+        return searchRadius;
+    }
+
+    /**
+     * Set the maximum displacement searched along each axis.
+     * @param searchRadius Search radius.
+     */
+    public void setSearchRadius(int searchRadius) {
+        if (searchRadius < 1)
+            throw new IllegalArgumentException("Search radius must be at least 1.");
+        this.searchRadius = searchRadius;
+    }
+
+    /**
+     * Initializes a new instance of the BlockMatchingOpticalFlow class.
+     */
+    public BlockMatchingOpticalFlow() {}
+
+    /**
+     * Initializes a new instance of the BlockMatchingOpticalFlow class.
+     * @param blockSize Size of the blocks.
+     * @param searchRadius Maximum displacement searched along each axis.
+     */
+    public BlockMatchingOpticalFlow(int blockSize, int searchRadius) {
+        setBlockSize(blockSize);
+        setSearchRadius(searchRadius);
+    }
+
+    /**
+     * Add the next frame.
+     * @param frame Grayscale or rgb image.
+     */
+    public void Push(FastBitmap frame){
+        FloatImage p = previous;
+        previous = current;
+        current = p;
+        current.Load(frame);
+
+        if (frames > 0 && (current.width != previous.width || current.height != previous.height)){
+            frames = 0;
+            throw new IllegalArgumentException("All the frames must have the same size.");
+        }
+        frames++;
+    }
+
+    /**
+     * Discard the frames.
+     */
+    public void Reset(){
+        frames = 0;
+    }
+
+    /**
+     * Compute the flow from the previous frame to the next frame.
+     * @param previous Previous frame.
+     * @param next Next frame.
+     * @return Flow field.
+     */
+    public OpticalFlowField Compute(FastBitmap previous, FastBitmap next){
+        Reset();
+        Push(previous);
+        Push(next);
+        return Compute();
+    }
+
+    /**
+     * Compute the flow from the previous frame to the last pushed frame.
+     * @return Flow field.
+     */
+    public OpticalFlowField Compute(){
+        if (frames < 2)
+            throw new IllegalArgumentException("Two frames are needed to compute the flow.");
+
+        final OpticalFlowField field = new OpticalFlowField(current.width, current.height, blockSize);
+        final int rows = field.getRows();
+
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), rows));
+        if (cores == 1){
+            Match(field, 0, rows);
+        }
+        else{
+            Thread[] t = new Thread[cores];
+            int part = rows / cores;
+            for (int i = 0; i < cores; i++) {
+                final int start = i * part;
+                final int end = i == cores - 1 ? rows : start + part;
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Match(field, start, end);
+                    }
+                });
+                t[i].start();
+            }
+
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return field;
+    }
+
+    private void Match(OpticalFlowField field, int start, int end){
+        int width = current.width;
+        int height = current.height;
+        int bw = Math.min(blockSize, width);
+        int bh = Math.min(blockSize, height);
+        int cols = field.getCols();
+        int r = searchRadius;
+
+        for (int bi = start; bi < end; bi++) {
+            int x0 = bi * blockSize;
+            for (int bj = 0; bj < cols; bj++) {
+                int y0 = bj * blockSize;
+
+                float best = Sad(x0, y0, x0, y0, Float.MAX_VALUE);
+                int bu = 0, bv = 0;
+
+                for (int u = -r; u <= r; u++) {
+                    int x1 = x0 + u;
+                    if (x1 < 0 || x1 + bh > height) continue;
+                    for (int v = -r; v <= r; v++) {
+                        int y1 = y0 + v;
+                        if ((u == 0 && v == 0) || y1 < 0 || y1 + bw > width) continue;
+
+                        float sad = Sad(x0, y0, x1, y1, best);
+                        if (sad < best || (sad == best && Math.abs(u) + Math.abs(v) < Math.abs(bu) + Math.abs(bv))){
+                            best = sad;
+                            bu = u;
+                            bv = v;
+                        }
+                    }
+                }
+
+                // The costs of the neighbors are computed again, the candidates stopped early have partial sums.
+                int x1 = x0 + bu;
+                int y1 = y0 + bv;
+                int k = bi * cols + bj;
+                field.dx[k] = bu;
+                field.dy[k] = bv;
+                if (Math.abs(bu) < r && x1 > 0 && x1 + bh < height)
+                    field.dx[k] += Equiangular(Sad(x0, y0, x1 - 1, y1, Float.MAX_VALUE), best, Sad(x0, y0, x1 + 1, y1, Float.MAX_VALUE));
+                if (Math.abs(bv) < r && y1 > 0 && y1 + bw < width)
+                    field.dy[k] += Equiangular(Sad(x0, y0, x1, y1 - 1, Float.MAX_VALUE), best, Sad(x0, y0, x1, y1 + 1, Float.MAX_VALUE));
+            }
+        }
+    }
+
+    /**
+     * Sum of absolute differences of two blocks, stops when the sum exceeds the limit.
+     */
+    private float Sad(int x0, int y0, int x1, int y1, float limit){
+        int width = current.width;
+        int bw = Math.min(blockSize, width);
+        int bh = Math.min(blockSize, current.height);
+        float[] a = previous.data;
+        float[] b = current.data;
+
+        float sum = 0;
+        for (int i = 0; i < bh; i++) {
+            int p = (x0 + i) * width + y0;
+            int q = (x1 + i) * width + y1;
+            for (int j = 0; j < bw; j++)
+                sum += Math.abs(a[p + j] - b[q + j]);
+            if (sum > limit) return sum;
+        }
+        return sum;
+    }
+
+    /**
+     * Sub-pixel offset of the minimum from the costs of the neighbors.
+     * The sum of absolute differences grows linearly, so the equiangular line fitting is used.
+     */
+    private static float Equiangular(float prev, float center, float next){
+        float den = 2 * (Math.max(prev, next) - center);
+        if (den <= 0) return 0;
+        float offset = (prev - next) / den;
+        return Math.max(-0.5f, Math.min(0.5f, offset));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.OpticalFlow;
+
+import Catalano.Imaging.FastBitmap;
+
+/**
+ * Planar float image used by the optical flow.
+ * The buffers are reallocated only when the size changes.
+ * @author Diego Catalano
+ */
+final class FloatImage {
+
+    int width;
+    int height;
+    float[] data = new float[0];
+
+    FloatImage() {}
+
+    private void Resize(int width, int height){
+        this.width = width;
+        this.height = height;
+        if (data.length != width * height)
+            data = new float[width * height];
+    }
+
+    /**
+     * Load the intensity of the image, rgb images are converted by luminosity.
+     * @param fastBitmap Grayscale or rgb image.
+     */
+    void Load(FastBitmap fastBitmap){
+        if (!fastBitmap.isGrayscale() && !fastBitmap.isRGB())
+            throw new IllegalArgumentException("Optical flow only works with grayscale or rgb images.");
+
+        Resize(fastBitmap.getWidth(), fastBitmap.getHeight());
+        if (fastBitmap.isGrayscale()){
+            byte[] gray = fastBitmap.getGrayData();
+            for (int i = 0; i < gray.length; i++)
+                data[i] = gray[i] & 0xFF;
+        }
+        else{
+            int[] rgb = fastBitmap.getRGBData();
+            for (int i = 0; i < rgb.length; i++) {
+                int c = rgb[i];
+                data[i] = (float)((c >> 16 & 0xFF) * 0.2125 + (c >> 8 & 0xFF) * 0.7154 + (c & 0xFF) * 0.0721);
+            }
+        }
+    }
+
+    /**
+     * Smooth the source with the binomial kernel [1 4 6 4 1] and keep one pixel of two.
+     * @param src Source image.
+     * @param tmp Buffer of the horizontal pass, at least height * width / 2 of the source.
+     * @return Buffer of the horizontal pass.
+     */
+    float[] Downsample(FloatImage src, float[] tmp){
+        int sw = src.width;
+        int sh = src.height;
+        Resize((sw + 1) / 2, (sh + 1) / 2);
+
+        if (tmp == null || tmp.length < sh * width)
+            tmp = new float[sh * width];
+
+        float[] s = src.data;
+        for (int i = 0; i < sh; i++) {
+            int row = i * sw;
+            for (int j = 0; j < width; j++) {
+                int c = 2 * j;
+                float a = s[row + Math.max(c - 2, 0)];
+                float b = s[row + Math.max(c - 1, 0)];
+                float d = s[row + Math.min(c + 1, sw - 1)];
+                float e = s[row + Math.min(c + 2, sw - 1)];
+                tmp[i * width + j] = (a + e + 4 * (b + d) + 6 * s[row + c]) * 0.0625f;
+            }
+        }
+
+        for (int i = 0; i < height; i++) {
+            int r = 2 * i;
+            int a = Math.max(r - 2, 0) * width;
+            int b = Math.max(r - 1, 0) * width;
+            int c = r * width;
+            int d = Math.min(r + 1, sh - 1) * width;
+            int e = Math.min(r + 2, sh - 1) * width;
+            for (int j = 0; j < width; j++) {
+                data[i * width + j] = (tmp[a + j] + tmp[e + j] + 4 * (tmp[b + j] + tmp[d + j]) + 6 * tmp[c + j]) * 0.0625f;
+            }
+        }
+
+        return tmp;
+    }
+
+    /**
+     * Compute the Scharr derivatives.
+     * @param dx Derivative along the X axis (rows).
+     * @param dy Derivative along the Y axis (columns).
+     */
+    void Gradients(float[] dx, float[] dy){
+        for (int i = 0; i < height; i++) {
+            int up = Math.max(i - 1, 0) * width;
+            int row = i * width;
+            int down = Math.min(i + 1, height - 1) * width;
+            for (int j = 0; j < width; j++) {
+                int l = Math.max(j - 1, 0);
+                int r = Math.min(j + 1, width - 1);
+                dx[row + j] = (3 * (data[down + l] + data[down + r] - data[up + l] - data[up + r]) + 10 * (data[down + j] - data[up + j])) * 0.03125f;
+                dy[row + j] = (3 * (data[up + r] + data[down + r] - data[up + l] - data[down + l]) + 10 * (data[row + r] - data[row + l])) * 0.03125f;
+            }
+        }
+    }
+
+    /**
+     * Sample a square window with bilinear interpolation, the coordinates out of the image are clamped.
+     * @param buffer Plane of the same size of the image.
+     * @param x X axis coordinate of the center.
+     * @param y Y axis coordinate of the center.
+     * @param radius Radius of the window.
+     * @param window Samples, row by row.
+     */
+    void Window(float[] buffer, float x, float y, int radius, float[] window){
+        int ix = (int)Math.floor(x);
+        int iy = (int)Math.floor(y);
+        float fx = x - ix;
+        float fy = y - iy;
+        float w00 = (1 - fx) * (1 - fy);
+        float w01 = (1 - fx) * fy;
+        float w10 = fx * (1 - fy);
+        float w11 = fx * fy;
+
+        int k = 0;
+        if (ix - radius >= 0 && iy - radius >= 0 && ix + radius + 1 < height && iy + radius + 1 < width){
+            // The same weights for all the window.
+            for (int i = -radius; i <= radius; i++) {
+                int p = (ix + i) * width + iy - radius;
+                for (int j = -radius; j <= radius; j++, p++) {
+                    window[k++] = w00 * buffer[p] + w01 * buffer[p + 1] + w10 * buffer[p + width] + w11 * buffer[p + width + 1];
+                }
+            }
+        }
+        else{
+            for (int i = -radius; i <= radius; i++) {
+                int r0 = Math.min(Math.max(ix + i, 0), height - 1) * width;
+                int r1 = Math.min(Math.max(ix + i + 1, 0), height - 1) * width;
+                for (int j = -radius; j <= radius; j++) {
+                    int c0 = Math.min(Math.max(iy + j, 0), width - 1);
+                    int c1 = Math.min(Math.max(iy + j + 1, 0), width - 1);
+                    window[k++] = w00 * buffer[r0 + c0] + w01 * buffer[r0 + c1] + w10 * buffer[r1 + c0] + w11 * buffer[r1 + c1];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.OpticalFlow;
+
+import Catalano.Imaging.Corners.FeaturePoint;
+import Catalano.Imaging.FastBitmap;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pyramidal Lucas-Kanade sparse optical flow.
+ *
+ * <p>The frames are pushed one at a time, the pyramid and the Scharr gradients of each frame are computed
+ * once and the buffers are reused by the next frames. The points of the previous frame are tracked from the
+ * coarsest level of the pyramid to the finest, refining the displacement with the iterative Lucas-Kanade step.
+ * The points are tracked in parallel.</p>
+ *
+ * <pre>
+ * LucasKanadeOpticalFlow lk = new LucasKanadeOpticalFlow();
+ * lk.Push(previous);
+ * lk.Push(next);
+ * List&lt;OpticalFlowPoint&gt; flow = lk.Track(new FastCornersDetector().ProcessImage(previous));
+ * </pre>
+ *
+ * @author Diego Catalano
+ */
+public class LucasKanadeOpticalFlow {
+
+    private int radius = 7;
+    private int levels = 3;
+    private int maxIterations = 20;
+    private float epsilon = 0.01f;
+    private float minEigenvalue = 1e-4f;
+
+    private Pyramid previous = new Pyramid();
+    private Pyramid current = new Pyramid();
+    private int frames;
+
+    /**
+     * Get the radius of the window.
+     * @return Radius.
+     */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Set the radius of the window.
+     * @param radius Radius.
+     */
+    public void setRadius(int radius) {
+        if (radius < 1)
+            throw new IllegalArgumentException("Radius must be at least 1.");
+        this.radius = radius;
+    }
+
+    /**
+     * Get the number of levels of the pyramid, after the original image.
+     * @return Levels.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Set the number of levels of the pyramid, after the original image.
+     * @param levels Levels.
+     */
+    public void setLevels(int levels) {
+        this.levels = Math.max(0, levels);
+    }
+
+    /**
+     * Get the maximum number of iterations per level.
+     * @return Maximum iterations.
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Set the maximum number of iterations per level.
+     * @param maxIterations Maximum iterations.
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = Math.max(1, maxIterations);
+    }
+
+    /**
+     * Get the minimum update of the displacement to continue the iterations.
+     * @return Epsilon.
+     */
+    public float getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * Set the minimum update of the displacement to continue the iterations.
+     * @param epsilon Epsilon.
+     */
+    public void setEpsilon(float epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Get the minimum eigenvalue of the gradient matrix, normalized by the window area.
+     * The points with a lower eigenvalue are not tracked.
+     * @return Minimum eigenvalue.
+     */
+    public float getMinEigenvalue() {
+        return minEigenvalue;
+    }
+
+    /**
+     * Set the minimum eigenvalue of the gradient matrix, normalized by the window area.
+     * The points with a lower eigenvalue are not tracked.
+     * @param minEigenvalue Minimum eigenvalue.
+     */
+    public void setMinEigenvalue(float minEigenvalue) {
+        this.minEigenvalue = minEigenvalue;
+    }
+
+    /**
+     * Initializes a new instance of the LucasKanadeOpticalFlow class.
+     */
+    public LucasKanadeOpticalFlow() {}
+
+    /**
+     * Initializes a new instance of the LucasKanadeOpticalFlow class.
+     * @param radius Radius of the window.
+     * @param levels Number of levels of the pyramid, after the original image.
+     */
+    public LucasKanadeOpticalFlow(int radius, int levels) {
+        setRadius(radius);
+        setLevels(levels);
+    }
+
+    /**
+     * Add the next frame.
+     * @param frame Grayscale or rgb image.
+     */
+    public void Push(FastBitmap frame){
+        Pyramid p = previous;
+        previous = current;
+        current = p;
+        current.Build(frame, levels, 2 * radius + 1);
+
+        if (frames > 0 && (current.levels[0].width != previous.levels[0].width || current.levels[0].height != previous.levels[0].height)){
+            frames = 0;
+            throw new IllegalArgumentException("All the frames must have the same size.");
+        }
+        frames++;
+    }
+
+    /**
+     * Discard the frames.
+     */
+    public void Reset(){
+        frames = 0;
+    }
+
+    /**
+     * Track the points from the previous frame to the next frame.
+     * @param previous Previous frame.
+     * @param next Next frame.
+     * @param points Points of the previous frame.
+     * @return Tracked points.
+     */
+    public List<OpticalFlowPoint> Compute(FastBitmap previous, FastBitmap next, List<FeaturePoint> points){
+        Reset();
+        Push(previous);
+        Push(next);
+        return Track(points);
+    }
+
+    /**
+     * Track the points of the previous frame to the last pushed frame.
+     * @param points Points of the previous frame.
+     * @return Tracked points.
+     */
+    public List<OpticalFlowPoint> Track(List<FeaturePoint> points){
+        float[] x = new float[points.size()];
+        float[] y = new float[points.size()];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = points.get(i).x;
+            y[i] = points.get(i).y;
+        }
+        return Track(x, y);
+    }
+
+    /**
+     * Track the points of the previous frame to the last pushed frame.
+     * @param x X axis coordinates of the points in the previous frame.
+     * @param y Y axis coordinates of the points in the previous frame.
+     * @return Tracked points.
+     */
+    public List<OpticalFlowPoint> Track(float[] x, float[] y){
+        if (frames < 2)
+            throw new IllegalArgumentException("Two frames are needed to track the points.");
+        if (x.length != y.length)
+            throw new IllegalArgumentException("The coordinates must have the same length.");
+
+        final OpticalFlowPoint[] points = new OpticalFlowPoint[x.length];
+        for (int i = 0; i < points.length; i++)
+            points[i] = new OpticalFlowPoint(x[i], y[i]);
+
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), points.length / 16));
+        if (cores == 1){
+            Track(points, 0, points.length);
+        }
+        else{
+            Thread[] t = new Thread[cores];
+            int part = points.length / cores;
+            for (int i = 0; i < cores; i++) {
+                final int start = i * part;
+                final int end = i == cores - 1 ? points.length : start + part;
+                t[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Track(points, start, end);
+                    }
+                });
+                t[i].start();
+            }
+
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        List<OpticalFlowPoint> lst = new ArrayList<OpticalFlowPoint>(points.length);
+        for (OpticalFlowPoint p : points)
+            lst.add(p);
+        return lst;
+    }
+
+    private void Track(OpticalFlowPoint[] points, int start, int end){
+        int size = 2 * radius + 1;
+        int area = size * size;
+        float[] wi = new float[area];
+        float[] wdx = new float[area];
+        float[] wdy = new float[area];
+        float[] wj = new float[area];
+        int top = Math.min(previous.count, current.count) - 1;
+
+        for (int n = start; n < end; n++) {
+            OpticalFlowPoint p = points[n];
+            float gx = 0, gy = 0;
+            boolean tracked = true;
+
+            for (int level = top; level >= 0 && tracked; level--) {
+                FloatImage I = previous.levels[level];
+                FloatImage J = current.levels[level];
+                float scale = 1f / (1 << level);
+                float px = p.x * scale;
+                float py = p.y * scale;
+
+                if (px < 0 || py < 0 || px > I.height - 1 || py > I.width - 1){
+                    tracked = false;
+                    break;
+                }
+
+                // Spatial gradient matrix of the window in the previous frame.
+                I.Window(I.data, px, py, radius, wi);
+                I.Window(previous.dx[level], px, py, radius, wdx);
+                I.Window(previous.dy[level], px, py, radius, wdy);
+
+                float gxx = 0, gxy = 0, gyy = 0;
+                for (int k = 0; k < area; k++) {
+                    gxx += wdx[k] * wdx[k];
+                    gxy += wdx[k] * wdy[k];
+                    gyy += wdy[k] * wdy[k];
+                }
+
+                float det = gxx * gyy - gxy * gxy;
+                float eig = (gxx + gyy - (float)Math.sqrt((gxx - gyy) * (gxx - gyy) + 4 * gxy * gxy)) / (2 * area);
+                if (eig < minEigenvalue || det == 0){
+                    tracked = false;
+                    break;
+                }
+
+                float vx = 0, vy = 0;
+                for (int it = 0; it < maxIterations; it++) {
+                    float qx = px + gx + vx;
+                    float qy = py + gy + vy;
+                    if (qx < -radius || qy < -radius || qx > J.height - 1 + radius || qy > J.width - 1 + radius){
+                        tracked = false;
+                        break;
+                    }
+
+                    J.Window(J.data, qx, qy, radius, wj);
+
+                    float bx = 0, by = 0;
+                    for (int k = 0; k < area; k++) {
+                        float diff = wi[k] - wj[k];
+                        bx += diff * wdx[k];
+                        by += diff * wdy[k];
+                    }
+
+                    float ux = (gyy * bx - gxy * by) / det;
+                    float uy = (gxx * by - gxy * bx) / det;
+                    vx += ux;
+                    vy += uy;
+                    if (ux * ux + uy * uy < epsilon * epsilon) break;
+                }
+
+                if (!tracked) break;
+
+                if (level > 0){
+                    gx = 2 * (gx + vx);
+                    gy = 2 * (gy + vy);
+                }
+                else{
+                    p.dx = gx + vx;
+                    p.dy = gy + vy;
+                    float qx = p.x + p.dx;
+                    float qy = p.y + p.dy;
+                    if (qx < 0 || qy < 0 || qx > J.height - 1 || qy > J.width - 1){
+                        tracked = false;
+                        break;
+                    }
+
+                    J.Window(J.data, qx, qy, radius, wj);
+                    float error = 0;
+                    for (int k = 0; k < area; k++)
+                        error += Math.abs(wi[k] - wj[k]);
+                    p.error = error / area;
+                }
+            }
+
+            p.tracked = tracked;
+        }
+    }
+
+    /**
+     * Gaussian pyramid with the gradients of each level.
+     */
+    private static class Pyramid {
+        FloatImage[] levels = new FloatImage[0];
+        float[][] dx = new float[0][];
+        float[][] dy = new float[0][];
+        float[] tmp;
+        int count;
+
+        void Build(FastBitmap frame, int maxLevels, int window){
+            if (levels.length < maxLevels + 1){
+                FloatImage[] l = new FloatImage[maxLevels + 1];
+                float[][] x = new float[maxLevels + 1][];
+                float[][] y = new float[maxLevels + 1][];
+                for (int i = 0; i < l.length; i++) {
+                    l[i] = i < levels.length ? levels[i] : new FloatImage();
+                    x[i] = i < dx.length ? dx[i] : new float[0];
+                    y[i] = i < dy.length ? dy[i] : new float[0];
+                }
+                levels = l;
+                dx = x;
+                dy = y;
+            }
+
+            levels[0].Load(frame);
+            count = 1;
+            while (count <= maxLevels && (levels[count - 1].width + 1) / 2 >= window && (levels[count - 1].height + 1) / 2 >= window) {
+                tmp = levels[count].Downsample(levels[count - 1], tmp);
+                count++;
+            }
+
+            for (int i = 0; i < count; i++) {
+                int size = levels[i].width * levels[i].height;
+                if (dx[i].length != size){
+                    dx[i] = new float[size];
+                    dy[i] = new float[size];
+                }
+                levels[i].Gradients(dx[i], dy[i]);
+            }
+        }
+    }
+}
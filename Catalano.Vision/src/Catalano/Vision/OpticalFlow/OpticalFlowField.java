@@ -0,0 +1,118 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.OpticalFlow;
+
+import Catalano.Core.FloatPoint;
+
+/**
+ * Dense optical flow, one displacement per block of pixels.
+ * @author Diego Catalano
+ */
+public class OpticalFlowField {
+
+    private int width;
+    private int height;
+    private int blockSize;
+    private int rows;
+    private int cols;
+    float[] dx;
+    float[] dy;
+
+    /**
+     * Get the width of the frames.
+     * @return Width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the frames.
+     * @return Height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the size of the blocks.
+     * @return Block size.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Get the number of rows of blocks.
+     * @return Rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Get the number of columns of blocks.
+     * @return Columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Get the displacements along the X axis, row by row of blocks.
+     * @return Displacements.
+     */
+    public float[] getDx() {
+        return dx;
+    }
+
+    /**
+     * Get the displacements along the Y axis, row by row of blocks.
+     * @return Displacements.
+     */
+    public float[] getDy() {
+        return dy;
+    }
+
+    OpticalFlowField(int width, int height, int blockSize) {
+        this.width = width;
+        this.height = height;
+        this.blockSize = blockSize;
+        this.rows = Math.max(1, height / blockSize);
+        this.cols = Math.max(1, width / blockSize);
+        this.dx = new float[rows * cols];
+        this.dy = new float[rows * cols];
+    }
+
+    /**
+     * Get the displacement of the pixel.
+     * @param x X axis coordinate.
+     * @param y Y axis coordinate.
+     * @return Displacement.
+     */
+    public FloatPoint getDisplacement(int x, int y){
+        int k = Block(x, y);
+        return new FloatPoint(dx[k], dy[k]);
+    }
+
+    /**
+     * Get the magnitude of the displacement of the pixel.
+     * @param x X axis coordinate.
+     * @param y Y axis coordinate.
+     * @return Magnitude.
+     */
+    public float getMagnitude(int x, int y){
+        int k = Block(x, y);
+        return (float)Math.sqrt(dx[k] * dx[k] + dy[k] * dy[k]);
+    }
+
+    private int Block(int x, int y){
+        int r = Math.min(x / blockSize, rows - 1);
+        int c = Math.min(y / blockSize, cols - 1);
+        return r * cols + c;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.OpticalFlow;
+
+import Catalano.Core.FloatPoint;
+
+/**
+ * Point tracked by the sparse optical flow.
+ * @author Diego Catalano
+ */
+public class OpticalFlowPoint {
+
+    /**
+     * X axis coordinate in the previous frame.
+     */
+    public float x;
+
+    /**
+     * Y axis coordinate in the previous frame.
+     */
+    public float y;
+
+    /**
+     * Displacement along the X axis.
+     */
+    public float dx;
+
+    /**
+     * Displacement along the Y axis.
+     */
+    public float dy;
+
+    /**
+     * Mean absolute difference between the windows of the two frames.
+     */
+    public float error;
+
+    /**
+     * True if the point was tracked.
+     */
+    public boolean tracked;
+
+    /**
+     * Initializes a new instance of the OpticalFlowPoint class.
+     * @param x X axis coordinate in the previous frame.
+     * @param y Y axis coordinate in the previous frame.
+     */
+    public OpticalFlowPoint(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * Get the position in the next frame.
+     * @return Position.
+     */
+    public FloatPoint getNextPoint(){
+        return new FloatPoint(x + dx, y + dy);
+    }
+
+    /**
+     * Get the magnitude of the displacement.
+     * @return Magnitude.
+     */
+    public float getMagnitude(){
+        return (float)Math.sqrt(dx * dx + dy * dy);
+    }
+}
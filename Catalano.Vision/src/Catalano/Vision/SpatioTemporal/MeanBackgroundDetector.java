@@ -8,14 +8,14 @@ package Catalano.Vision.SpatioTemporal;
 
 import Catalano.Imaging.FastBitmap;
 import Catalano.Imaging.Filters.Mean;
-import Catalano.Vision.ITemporal;
-import java.util.List;
 
 /**
- *
+ * Spatio-temporal mean background detector.
+ * Each frame is smoothed by the mean filter before the temporal mean.
+ * The frames can be pushed one at a time, the frames are not modified.
  * @author Diego
  */
-public class MeanBackgroundDetector implements ITemporal{
+public class MeanBackgroundDetector extends Catalano.Vision.Temporal.MeanBackgroundDetector{
     
     private int radius;
 
@@ -32,20 +32,22 @@ public class MeanBackgroundDetector implements ITemporal{
     public MeanBackgroundDetector(int radius) {
         setRadius(radius);
     }
+    
+    /**
+     * Initialize a new instance of the MeanBackgroundDetector class.
+     * @param radius Radius of the mean filter.
+     * @param window Number of frames in the mean, 0 for all the frames.
+     */
+    public MeanBackgroundDetector(int radius, int window) {
+        super(window);
+        setRadius(radius);
+    }
 
     @Override
-    public FastBitmap Process(List<FastBitmap> sequenceImage) {
-        
-        Mean m = new Mean(radius);
-        for (FastBitmap fb : sequenceImage) {
-            m.applyInPlace(fb);
-        }
-        
-        Catalano.Vision.Temporal.MeanBackgroundDetector mbd = new Catalano.Vision.Temporal.MeanBackgroundDetector();
-        
-        return mbd.Process(sequenceImage);
+    public void Push(FastBitmap frame) {
+        FastBitmap fb = new FastBitmap(frame);
+        new Mean(radius).applyInPlace(fb);
+        super.Push(fb);
     }
     
-    
-    
 }
@@ -0,0 +1,87 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.Temporal;
+
+/**
+ * Exponential moving average background detector.
+ * The background is B = B + alpha * (frame - B), one value per pixel.
+ * @author Diego Catalano
+ */
+public class ExponentialBackgroundDetector extends TemporalStream{
+    
+    private float alpha;
+    private float[] average;
+
+    /**
+     * Get the learning rate.
+     * @return Alpha.
+     */
+    public float getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Set the learning rate.
+     * @param alpha Alpha, between 0 and 1.
+     */
+    public void setAlpha(float alpha) {
+        if (alpha <= 0 || alpha > 1)
+            throw new IllegalArgumentException("Alpha must be between 0 and 1.");
+        this.alpha = alpha;
+    }
+
+    /**
+     * Initialize a new instance of the ExponentialBackgroundDetector class.
+     */
+    public ExponentialBackgroundDetector() {
+        this(0.05f);
+    }
+    
+    /**
+     * Initialize a new instance of the ExponentialBackgroundDetector class.
+     * @param alpha Learning rate, between 0 and 1.
+     */
+    public ExponentialBackgroundDetector(float alpha) {
+        super("Exponential Background Detector");
+        setAlpha(alpha);
+    }
+
+    @Override
+    public int getCount() {
+        return frames;
+    }
+
+    @Override
+    public void Reset() {
+        super.Reset();
+        average = null;
+    }
+
+    @Override
+    void Initialize(int length) {
+        average = new float[length];
+    }
+
+    @Override
+    void Update(int[] values, boolean first) {
+        if (first){
+            for (int i = 0; i < values.length; i++)
+                average[i] = values[i];
+            return;
+        }
+        
+        for (int i = 0; i < values.length; i++)
+            average[i] += alpha * (values[i] - average[i]);
+    }
+
+    @Override
+    void Estimate(int[] values) {
+        for (int i = 0; i < values.length; i++)
+            values[i] = Math.min(255, Math.round(average[i]));
+    }
+    
+}
@@ -0,0 +1,504 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.Temporal;
+
+import Catalano.Imaging.FastBitmap;
+
+/**
+ * Gaussian mixture background detector.
+ *
+ * <p>Each pixel is modeled by an adaptive mixture of up to K gaussians with isotropic variance,
+ * the number of components of each pixel is selected automatically (Zivkovic). The components with the
+ * highest weights that sum the background ratio are the background. Optionally, the pixels darker than the
+ * background with the same chromaticity are marked as shadows (Prati).</p>
+ *
+ * <p>The model is kept in flat arrays of K components per pixel and the pixels are updated in parallel by rows.
+ * The foreground mask is grayscale: 255 foreground, shadow value for the shadows and 0 background,
+ * so it can be used directly by the BlobDetection.</p>
+ *
+ * References: Z. Zivkovic, "Improved adaptive Gausian mixture model for background subtraction", ICPR 2004.
+ * C. Stauffer and W. Grimson, "Adaptive background mixture models for real-time tracking", CVPR 1999.
+ *
+ * @author Diego Catalano
+ */
+public class GaussianMixtureBackgroundDetector extends TemporalStream{
+
+    private int components = 5;
+    private int history = 500;
+    private float learningRate = -1;
+    private float varThreshold = 16;
+    private float varThresholdGen = 9;
+    private float backgroundRatio = 0.9f;
+    private float varInit = 15;
+    private float varMin = 4;
+    private float varMax = 75;
+    private float complexityReduction = 0.05f;
+    private boolean detectShadows = true;
+    private int shadowValue = 127;
+    private float shadowThreshold = 0.5f;
+
+    private int channels;
+    private float[] weight;
+    private float[] mean;
+    private float[] variance;
+    private byte[] modes;
+    private FastBitmap foreground;
+
+    /**
+     * Get the maximum number of components per pixel.
+     * @return Number of components.
+     */
+    public int getComponents() {
+        return components;
+    }
+
+    /**
+     * Set the maximum number of components per pixel, discard the model.
+     * @param components Number of components.
+     */
+    public void setComponents(int components) {
+        if (components < 1 || components > 127)
+            throw new IllegalArgumentException("Components must be between 1 and 127.");
+        this.components = components;
+        Reset();
+    }
+
+    /**
+     * Get the number of frames of the history.
+     * @return History.
+     */
+    public int getHistory() {
+        return history;
+    }
+
+    /**
+     * Set the number of frames of the history, the learning rate is 1 / min(2 * frames, history).
+     * @param history History.
+     */
+    public void setHistory(int history) {
+        if (history < 1)
+            throw new IllegalArgumentException("History must be at least 1.");
+        this.history = history;
+    }
+
+    /**
+     * Get the learning rate.
+     * @return Learning rate, negative if it is computed from the history.
+     */
+    public float getLearningRate() {
+        return learningRate;
+    }
+
+    /**
+     * Set the learning rate.
+     * @param learningRate Learning rate between 0 and 1, negative to compute from the history.
+     */
+    public void setLearningRate(float learningRate) {
+        if (learningRate > 1)
+            throw new IllegalArgumentException("Learning rate can't be higher than 1.");
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * Get the threshold of the squared Mahalanobis distance to be background.
+     * @return Threshold.
+     */
+    public float getVarThreshold() {
+        return varThreshold;
+    }
+
+    /**
+     * Set the threshold of the squared Mahalanobis distance to be background.
+     * @param varThreshold Threshold.
+     */
+    public void setVarThreshold(float varThreshold) {
+        this.varThreshold = varThreshold;
+    }
+
+    /**
+     * Get the threshold of the squared Mahalanobis distance to update a component.
+     * @return Threshold.
+     */
+    public float getVarThresholdGen() {
+        return varThresholdGen;
+    }
+
+    /**
+     * Set the threshold of the squared Mahalanobis distance to update a component.
+     * @param varThresholdGen Threshold.
+     */
+    public void setVarThresholdGen(float varThresholdGen) {
+        this.varThresholdGen = varThresholdGen;
+    }
+
+    /**
+     * Get the background ratio.
+     * @return Background ratio.
+     */
+    public float getBackgroundRatio() {
+        return backgroundRatio;
+    }
+
+    /**
+     * Set the background ratio, sum of the weights of the background components.
+     * @param backgroundRatio Background ratio.
+     */
+    public void setBackgroundRatio(float backgroundRatio) {
+        this.backgroundRatio = backgroundRatio;
+    }
+
+    /**
+     * Get the variance of a new component.
+     * @return Initial variance.
+     */
+    public float getVarInit() {
+        return varInit;
+    }
+
+    /**
+     * Set the variance of a new component, inside the variance limits.
+     * @param varInit Initial variance.
+     * @param varMin Minimum variance.
+     * @param varMax Maximum variance.
+     */
+    public void setVariance(float varInit, float varMin, float varMax) {
+        if (varMin <= 0 || varMin > varInit || varInit > varMax)
+            throw new IllegalArgumentException("The variances must be 0 < min <= init <= max.");
+        this.varInit = varInit;
+        this.varMin = varMin;
+        this.varMax = varMax;
+    }
+
+    /**
+     * Get the complexity reduction prior.
+     * @return Complexity reduction.
+     */
+    public float getComplexityReduction() {
+        return complexityReduction;
+    }
+
+    /**
+     * Set the complexity reduction prior, the components without support are removed faster.
+     * @param complexityReduction Complexity reduction.
+     */
+    public void setComplexityReduction(float complexityReduction) {
+        this.complexityReduction = complexityReduction;
+    }
+
+    /**
+     * Check if the shadows are detected.
+     * @return True if the shadows are detected.
+     */
+    public boolean isDetectShadows() {
+        return detectShadows;
+    }
+
+    /**
+     * Set if the shadows are detected.
+     * @param detectShadows True if the shadows are detected.
+     */
+    public void setDetectShadows(boolean detectShadows) {
+        this.detectShadows = detectShadows;
+    }
+
+    /**
+     * Get the value of the shadows in the foreground.
+     * @return Shadow value.
+     */
+    public int getShadowValue() {
+        return shadowValue;
+    }
+
+    /**
+     * Set the value of the shadows in the foreground.
+     * @param shadowValue Shadow value.
+     */
+    public void setShadowValue(int shadowValue) {
+        this.shadowValue = shadowValue;
+    }
+
+    /**
+     * Get the shadow threshold.
+     * @return Shadow threshold.
+     */
+    public float getShadowThreshold() {
+        return shadowThreshold;
+    }
+
+    /**
+     * Set the shadow threshold, how much darker than the background a shadow can be.
+     * @param shadowThreshold Shadow threshold between 0 and 1.
+     */
+    public void setShadowThreshold(float shadowThreshold) {
+        this.shadowThreshold = shadowThreshold;
+    }
+
+    /**
+     * Initialize a new instance of the GaussianMixtureBackgroundDetector class.
+     */
+    public GaussianMixtureBackgroundDetector() {
+        this(500, 16, true);
+    }
+
+    /**
+     * Initialize a new instance of the GaussianMixtureBackgroundDetector class.
+     * @param history Number of frames of the history.
+     * @param varThreshold Threshold of the squared Mahalanobis distance to be background.
+     * @param detectShadows True if the shadows are detected.
+     */
+    public GaussianMixtureBackgroundDetector(int history, float varThreshold, boolean detectShadows) {
+        super("Gaussian Mixture Background Detector");
+        setHistory(history);
+        this.varThreshold = varThreshold;
+        this.detectShadows = detectShadows;
+    }
+
+    /**
+     * Update the model with the frame and get the foreground.
+     * @param frame Frame.
+     * @return Foreground mask, reused by the next frames.
+     */
+    public FastBitmap ProcessFrame(FastBitmap frame){
+        Push(frame);
+        return foreground;
+    }
+
+    /**
+     * Get the foreground mask of the last frame.
+     * @return Foreground mask, reused by the next frames.
+     */
+    public FastBitmap getForeground() {
+        return foreground;
+    }
+
+    @Override
+    public int getCount() {
+        return frames;
+    }
+
+    @Override
+    public void Reset() {
+        super.Reset();
+        weight = null;
+        mean = null;
+        variance = null;
+        modes = null;
+        foreground = null;
+    }
+
+    @Override
+    void Initialize(int length) {
+        int pixels = width * height;
+        channels = length / pixels;
+        weight = new float[components * pixels];
+        mean = new float[components * length];
+        variance = new float[components * pixels];
+        modes = new byte[pixels];
+        foreground = new FastBitmap(width, height, FastBitmap.ColorSpace.Grayscale);
+    }
+
+    @Override
+    void Update(final int[] values, boolean first) {
+        final float alpha = learningRate >= 0 ? learningRate : 1f / Math.min(2 * (frames + 1), history);
+        final byte[] mask = foreground.getGrayData();
+
+        int cores = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / 16));
+        Thread[] t = new Thread[cores];
+        int part = height / cores;
+        for (int c = 0; c < cores; c++) {
+            final int start = c * part * width;
+            final int end = (c == cores - 1 ? height : (c + 1) * part) * width;
+            t[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    float[] x = new float[channels];
+                    for (int p = start; p < end; p++) {
+                        for (int ch = 0; ch < channels; ch++)
+                            x[ch] = values[p * channels + ch];
+                        mask[p] = (byte)Update(p, x, alpha);
+                    }
+                }
+            });
+        }
+
+        if (cores == 1){
+            t[0].run();
+        }
+        else{
+            for (int i = 0; i < cores; i++)
+                t[i].start();
+
+            try {
+                for (int i = 0; i < cores; i++) {
+                    t[i].join();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Update the mixture of the pixel.
+     * @return Value of the foreground.
+     */
+    private int Update(int p, float[] x, float alpha){
+        int K = components;
+        int wb = p * K;
+        int mb = wb * channels;
+        int n = modes[p];
+
+        float alpha1 = 1f - alpha;
+        float prune = -alpha * complexityReduction;
+
+        boolean fits = false;
+        boolean background = false;
+        float total = 0;
+
+        for (int k = 0; k < n; k++) {
+            float w = alpha1 * weight[wb + k] + prune;
+            int swaps = 0;
+
+            if (!fits){
+                float var = variance[wb + k];
+                float dist2 = 0;
+                for (int c = 0; c < channels; c++) {
+                    float d = mean[mb + k * channels + c] - x[c];
+                    dist2 += d * d;
+                }
+
+                // Background if it fits one of the first components that sum the background ratio
+                if (total < backgroundRatio && dist2 < varThreshold * var)
+                    background = true;
+
+                if (dist2 < varThresholdGen * var){
+                    fits = true;
+                    w += alpha;
+                    float r = alpha / w;
+                    for (int c = 0; c < channels; c++) {
+                        int idx = mb + k * channels + c;
+                        mean[idx] -= r * (mean[idx] - x[c]);
+                    }
+                    float v = var + r * (dist2 - var);
+                    variance[wb + k] = Math.max(varMin, Math.min(varMax, v));
+
+                    // Keep the components sorted by weight
+                    for (int i = k; i > 0; i--) {
+                        if (w < weight[wb + i - 1]) break;
+                        swaps++;
+                        Swap(wb, mb, i, i - 1);
+                    }
+                }
+            }
+
+            if (w < -prune){
+                w = 0;
+                n--;
+            }
+
+            weight[wb + k - swaps] = w;
+            total += w;
+        }
+
+        // Normalize
+        if (total > 0){
+            float inv = 1f / total;
+            for (int k = 0; k < n; k++)
+                weight[wb + k] *= inv;
+        }
+
+        if (!fits){
+            // New component from the pixel, replaces the weakest
+            int k = n == K ? K - 1 : n++;
+            if (n == 1){
+                weight[wb + k] = 1;
+            }
+            else{
+                weight[wb + k] = alpha;
+                for (int i = 0; i < n - 1; i++)
+                    weight[wb + i] *= alpha1;
+            }
+            for (int c = 0; c < channels; c++)
+                mean[mb + k * channels + c] = x[c];
+            variance[wb + k] = varInit;
+
+            for (int i = k; i > 0; i--) {
+                if (alpha < weight[wb + i - 1]) break;
+                Swap(wb, mb, i, i - 1);
+            }
+        }
+
+        modes[p] = (byte)n;
+
+        if (background) return 0;
+        if (detectShadows && Shadow(wb, mb, n, x)) return shadowValue;
+        return 255;
+    }
+
+    /**
+     * Check if the pixel is a darker version of a background component.
+     */
+    private boolean Shadow(int wb, int mb, int n, float[] x){
+        float total = 0;
+        for (int k = 0; k < n; k++) {
+            float numerator = 0;
+            float denominator = 0;
+            for (int c = 0; c < channels; c++) {
+                float m = mean[mb + k * channels + c];
+                numerator += m * x[c];
+                denominator += m * m;
+            }
+
+            if (denominator == 0) return false;
+
+            float a = numerator / denominator;
+            if (a <= 1 && a >= shadowThreshold){
+                float dist2a = 0;
+                for (int c = 0; c < channels; c++) {
+                    float d = a * mean[mb + k * channels + c] - x[c];
+                    dist2a += d * d;
+                }
+                if (dist2a < varThreshold * variance[wb + k] * a * a)
+                    return true;
+            }
+
+            total += weight[wb + k];
+            if (total > backgroundRatio) return false;
+        }
+        return false;
+    }
+
+    private void Swap(int wb, int mb, int i, int j){
+        float w = weight[wb + i];
+        weight[wb + i] = weight[wb + j];
+        weight[wb + j] = w;
+
+        float v = variance[wb + i];
+        variance[wb + i] = variance[wb + j];
+        variance[wb + j] = v;
+
+        for (int c = 0; c < channels; c++) {
+            float m = mean[mb + i * channels + c];
+            mean[mb + i * channels + c] = mean[mb + j * channels + c];
+            mean[mb + j * channels + c] = m;
+        }
+    }
+
+    /**
+     * The background is the mean of the component with the highest weight.
+     */
+    @Override
+    void Estimate(int[] values) {
+        int pixels = width * height;
+        for (int p = 0; p < pixels; p++) {
+            int mb = p * components * channels;
+            for (int c = 0; c < channels; c++)
+                values[p * channels + c] = Math.max(0, Math.min(255, Math.round(mean[mb + c])));
+        }
+    }
+
+}
@@ -6,62 +6,91 @@
 
 package Catalano.Vision.Temporal;
 
-import Catalano.Imaging.FastBitmap;
-import Catalano.Vision.ITemporal;
-import java.util.List;
-
 /**
- *
+ * Mean background detector.
+ * The frames can be pushed one at a time, only the running sums are kept.
+ * With a window, the mean is computed over the last frames.
  * @author Diego
  */
-public class MeanBackgroundDetector implements ITemporal{
+public class MeanBackgroundDetector extends TemporalStream{
+    
+    private int window;
+    private long[] sum;
+    private byte[][] ring;
+
+    /**
+     * Get the window.
+     * @return Number of frames in the mean, 0 for all the frames.
+     */
+    public int getWindow() {
+        return window;
+    }
 
-    public MeanBackgroundDetector() {}
+    /**
+     * Set the window, discard all the frames.
+     * @param window Number of frames in the mean, 0 for all the frames.
+     */
+    public void setWindow(int window) {
+        if (window < 0)
+            throw new IllegalArgumentException("Window can't be negative.");
+        this.window = window;
+        Reset();
+    }
+
+    public MeanBackgroundDetector() {
+        this(0);
+    }
+    
+    /**
+     * Initialize a new instance of the MeanBackgroundDetector class.
+     * @param window Number of frames in the mean, 0 for all the frames.
+     */
+    public MeanBackgroundDetector(int window) {
+        super("Mean Background Detector");
+        setWindow(window);
+    }
 
     @Override
-    public FastBitmap Process(List<FastBitmap> sequenceImage) {
-        
-        int width = sequenceImage.get(0).getWidth();
-        int height = sequenceImage.get(0).getHeight();
-        
-        FastBitmap background = new FastBitmap(width, height, sequenceImage.get(0).getColorSpace());
-        
-        if (background.isGrayscale()){
-            
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    int mean = 0;
-                    for (FastBitmap fb : sequenceImage) {
-                        mean += fb.getGray(i, j);
-                    }
-                    background.setGray(i, j, mean / sequenceImage.size());
-                }
-            }
-        }
-        else if (background.isRGB()){
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    int meanR = 0;
-                    int meanG = 0;
-                    int meanB = 0;
-                    for (FastBitmap fb : sequenceImage) {
-                        meanR += fb.getRed(i, j);
-                        meanG += fb.getGreen(i, j);
-                        meanB += fb.getBlue(i, j);
-                    }
-                    meanR /= sequenceImage.size();
-                    meanG /= sequenceImage.size();
-                    meanB /= sequenceImage.size();
-                    background.setRGB(i, j, meanR, meanG, meanB);
-                }
+    public int getCount() {
+        return window == 0 ? frames : Math.min(frames, window);
+    }
+
+    @Override
+    public void Reset() {
+        super.Reset();
+        sum = null;
+        ring = null;
+    }
+
+    @Override
+    void Initialize(int length) {
+        sum = new long[length];
+        if (window > 0)
+            ring = new byte[window][length];
+    }
+
+    @Override
+    void Update(int[] values, boolean first) {
+        if (window > 0){
+            // The oldest frame of the window leaves the sum
+            byte[] slot = ring[frames % window];
+            if (frames >= window){
+                for (int i = 0; i < values.length; i++)
+                    sum[i] -= slot[i] & 0xFF;
             }
+            for (int i = 0; i < values.length; i++)
+                slot[i] = (byte)values[i];
         }
-        else{
-            throw new IllegalArgumentException("Mean Background Detector only works with grayscale or rgb images.");
-        }
-        
-        return background;
         
+        for (int i = 0; i < values.length; i++)
+            sum[i] += values[i];
+    }
+
+    @Override
+    void Estimate(int[] values) {
+        int count = getCount();
+        for (int i = 0; i < values.length; i++)
+            values[i] = (int)(sum[i] / count);
     }
     
-}
\ No newline at end of file
+}
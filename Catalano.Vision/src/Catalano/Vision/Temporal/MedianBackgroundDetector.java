@@ -7,65 +7,125 @@
 package Catalano.Vision.Temporal;
 
 import Catalano.Imaging.FastBitmap;
-import Catalano.Vision.ITemporal;
 import java.util.Arrays;
 import java.util.List;
 
 /**
- *
+ * Median background detector.
+ * Without a window, the frames pushed one at a time update an approximate running median by sigma-delta,
+ * one value per pixel: the estimate moves one level towards each frame.
+ * With a window, the exact median of the last frames is computed.
  * @author Diego
  */
-public class MedianBackgroundDetector implements ITemporal{
+public class MedianBackgroundDetector extends TemporalStream{
+    
+    private int window;
+    private int[] estimate;
+    private byte[][] ring;
 
-    public MedianBackgroundDetector() {}
+    /**
+     * Get the window.
+     * @return Number of frames in the median, 0 for the approximate running median.
+     */
+    public int getWindow() {
+        return window;
+    }
 
+    /**
+     * Set the window, discard all the frames.
+     * @param window Number of frames in the median, 0 for the approximate running median.
+     */
+    public void setWindow(int window) {
+        if (window < 0)
+            throw new IllegalArgumentException("Window can't be negative.");
+        this.window = window;
+        Reset();
+    }
+
+    public MedianBackgroundDetector() {
+        this(0);
+    }
+    
+    /**
+     * Initialize a new instance of the MedianBackgroundDetector class.
+     * @param window Number of frames in the median, 0 for the approximate running median.
+     */
+    public MedianBackgroundDetector(int window) {
+        super("Median Background Detector");
+        setWindow(window);
+    }
+
+    /**
+     * Compute the exact median of the sequence.
+     * @param sequenceImage Sequence of frames.
+     * @return Background.
+     */
     @Override
     public FastBitmap Process(List<FastBitmap> sequenceImage) {
-        
-        int width = sequenceImage.get(0).getWidth();
-        int height = sequenceImage.get(0).getHeight();
-        
-        FastBitmap background = new FastBitmap(width, height, sequenceImage.get(0).getColorSpace());
-        
-        if (background.isGrayscale()){
-            
-            int size = sequenceImage.size();
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    int[] values = new int[size];
-                    for (int k = 0; k < size; k++) {
-                        values[k] = sequenceImage.get(k).getGray(i, j);
-                    }
-                    Arrays.sort(values);
-                    background.setGray(i, j, values[size / 2]);
-                }
-            }
+        int w = window;
+        window = sequenceImage.size();
+        try {
+            return super.Process(sequenceImage);
+        } finally {
+            window = w;
+            Reset();
         }
-        else if (background.isRGB()){
-            int size = sequenceImage.size();
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    int[] valuesR = new int[size];
-                    int[] valuesG = new int[size];
-                    int[] valuesB = new int[size];
-                    for (int k = 0; k < size; k++) {
-                        valuesR[k] = sequenceImage.get(k).getRed(i, j);
-                        valuesG[k] = sequenceImage.get(k).getGreen(i, j);
-                        valuesB[k] = sequenceImage.get(k).getBlue(i, j);
-                    }
-                    Arrays.sort(valuesR);
-                    Arrays.sort(valuesG);
-                    Arrays.sort(valuesB);
-                    background.setRGB(i, j, valuesR[size/2], valuesG[size/2], valuesB[size/2]);
-                }
-            }
+    }
+
+    @Override
+    public int getCount() {
+        return window == 0 ? frames : Math.min(frames, window);
+    }
+
+    @Override
+    public void Reset() {
+        super.Reset();
+        estimate = null;
+        ring = null;
+    }
+
+    @Override
+    void Initialize(int length) {
+        if (window > 0)
+            ring = new byte[window][length];
+        else
+            estimate = new int[length];
+    }
+
+    @Override
+    void Update(int[] values, boolean first) {
+        if (window > 0){
+            byte[] slot = ring[frames % window];
+            for (int i = 0; i < values.length; i++)
+                slot[i] = (byte)values[i];
+        }
+        else if (first){
+            System.arraycopy(values, 0, estimate, 0, values.length);
         }
         else{
-            throw new IllegalArgumentException("Median Background Detector only works with grayscale or rgb images.");
+            // Sigma-delta
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] > estimate[i]) estimate[i]++;
+                else if (values[i] < estimate[i]) estimate[i]--;
+            }
+        }
+    }
+
+    @Override
+    void Estimate(int[] values) {
+        if (window == 0){
+            System.arraycopy(estimate, 0, values, 0, values.length);
+            return;
         }
         
-        return background;
-        
+        int count = getCount();
+        int[] v = new int[count];
+        for (int i = 0; i < values.length; i++) {
+            for (int k = 0; k < count; k++)
+                v[k] = ring[k][i] & 0xFF;
+            Arrays.sort(v);
+            values[i] = v[count / 2];
+        }
     }
     
-}
\ No newline at end of file
+}
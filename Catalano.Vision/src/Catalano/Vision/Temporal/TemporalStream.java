@@ -0,0 +1,132 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package Catalano.Vision.Temporal;
+
+import Catalano.Imaging.FastBitmap;
+import Catalano.Vision.ITemporal;
+import Catalano.Vision.ITemporalStream;
+import java.util.List;
+
+/**
+ * Base of the background detectors over a stream of grayscale or rgb frames.
+ * The channels of the frames are unpacked in one value per channel and pixel.
+ * @author Diego Catalano
+ */
+public abstract class TemporalStream implements ITemporal, ITemporalStream{
+
+    private String name;
+    private FastBitmap.ColorSpace colorSpace;
+    private int[] values;
+    
+    // Size of the frames
+    int width;
+    int height;
+
+    /**
+     * Number of frames pushed since the reset.
+     */
+    protected int frames;
+
+    TemporalStream(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public FastBitmap Process(List<FastBitmap> sequenceImage) {
+        Reset();
+        for (FastBitmap fb : sequenceImage) {
+            Push(fb);
+        }
+        return Current();
+    }
+
+    @Override
+    public void Push(FastBitmap frame) {
+        if (colorSpace == null){
+            if (!frame.isGrayscale() && !frame.isRGB())
+                throw new IllegalArgumentException(name + " only works with grayscale or rgb images.");
+            colorSpace = frame.getColorSpace();
+            width = frame.getWidth();
+            height = frame.getHeight();
+            values = new int[width * height * (frame.isGrayscale() ? 1 : 3)];
+            Initialize(values.length);
+        }
+        else if (frame.getColorSpace() != colorSpace || frame.getWidth() != width || frame.getHeight() != height){
+            throw new IllegalArgumentException("All the frames must have the same size and color space.");
+        }
+
+        Unpack(frame, values);
+        Update(values, frames == 0);
+        frames++;
+    }
+
+    @Override
+    public FastBitmap Current() {
+        if (colorSpace == null)
+            throw new IllegalArgumentException("No frames pushed.");
+
+        int[] v = new int[values.length];
+        Estimate(v);
+
+        FastBitmap fb = new FastBitmap(width, height, colorSpace);
+        if (colorSpace == FastBitmap.ColorSpace.Grayscale){
+            byte[] gray = fb.getGrayData();
+            for (int i = 0; i < gray.length; i++)
+                gray[i] = (byte)v[i];
+        }
+        else{
+            int[] rgb = fb.getRGBData();
+            for (int i = 0, k = 0; i < rgb.length; i++, k += 3) {
+                int a = rgb[i] >> 24 & 0xFF;
+                rgb[i] = a << 24 | v[k] << 16 | v[k + 1] << 8 | v[k + 2];
+            }
+        }
+        return fb;
+    }
+
+    @Override
+    public void Reset() {
+        colorSpace = null;
+        values = null;
+        frames = 0;
+    }
+
+    /**
+     * Allocate the accumulators.
+     * @param length Number of values per frame.
+     */
+    abstract void Initialize(int length);
+
+    /**
+     * Update the accumulators with the frame.
+     * @param values Values of the frame.
+     * @param first True if it is the first frame since the reset.
+     */
+    abstract void Update(int[] values, boolean first);
+
+    /**
+     * Compute the background from the accumulators.
+     * @param values Values of the background.
+     */
+    abstract void Estimate(int[] values);
+
+    private static void Unpack(FastBitmap frame, int[] values){
+        if (frame.isGrayscale()){
+            byte[] gray = frame.getGrayData();
+            for (int i = 0; i < gray.length; i++)
+                values[i] = gray[i] & 0xFF;
+        }
+        else{
+            int[] rgb = frame.getRGBData();
+            for (int i = 0, k = 0; i < rgb.length; i++, k += 3) {
+                values[k] = rgb[i] >> 16 & 0xFF;
+                values[k + 1] = rgb[i] >> 8 & 0xFF;
+                values[k + 2] = rgb[i] & 0xFF;
+            }
+        }
+    }
+}
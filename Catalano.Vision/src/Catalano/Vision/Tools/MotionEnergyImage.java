@@ -7,75 +7,117 @@
 package Catalano.Vision.Tools;
 
 import Catalano.Imaging.FastBitmap;
-import Catalano.Imaging.Filters.Subtract;
-import Catalano.Imaging.Filters.Threshold;
+import Catalano.Vision.ITemporalStream;
 import java.util.ArrayList;
 
 /**
- *
+ * Motion energy image.
+ * A pixel has motion when the frame minus the background is at least the threshold.
+ * The frames can be pushed one at a time, only the last frame with motion of each pixel is kept,
+ * so with a window the image shows the motion of the last frames.
  * @author Diego Catalano
  */
-public class MotionEnergyImage {
+public class MotionEnergyImage implements ITemporalStream{
     
     private FastBitmap background;
     private int threshold;
+    private int window;
+    
+    private int frames;
+    private int[] last;
 
     public MotionEnergyImage() {
     }
 
     public MotionEnergyImage(FastBitmap background, int threshold) {
+        this(background, threshold, 0);
+    }
+    
+    /**
+     * Initialize a new instance of the MotionEnergyImage class.
+     * @param background Grayscale background.
+     * @param threshold Threshold.
+     * @param window Number of frames, 0 for all the frames.
+     */
+    public MotionEnergyImage(FastBitmap background, int threshold, int window) {
+        if (window < 0)
+            throw new IllegalArgumentException("Window can't be negative.");
         this.background = background;
         this.threshold = threshold;
+        this.window = window;
     }
     
     public FastBitmap Process(ArrayList<FastBitmap> sequence){
+        Reset();
+        for (FastBitmap fb : sequence) {
+            Push(fb);
+        }
+        return Current();
+    }
+
+    @Override
+    public void Push(FastBitmap frame) {
+        if (!background.isGrayscale())
+            throw new IllegalArgumentException("Motion Energy Image needs a grayscale background.");
+        if (frame.getWidth() != background.getWidth() || frame.getHeight() != background.getHeight())
+            throw new IllegalArgumentException("The frame must have the same size of the background.");
         
-        int width = sequence.get(0).getWidth();
-        int height = sequence.get(0).getHeight();
-        
-        FastBitmap image = new FastBitmap(width, height, FastBitmap.ColorSpace.Grayscale);
+        if (!frame.isGrayscale()){
+            frame = new FastBitmap(frame);
+            frame.toGrayscale();
+        }
         
-        int size = sequence.size();
+        byte[] g = frame.getGrayData();
+        byte[] b = background.getGrayData();
+        if (last == null)
+            last = new int[g.length];
         
-        for (int i = 0; i < size; i++) {
-            
+        frames++;
+        for (int i = 0; i < g.length; i++) {
+            if (Math.max(0, (g[i] & 0xFF) - (b[i] & 0xFF)) >= threshold)
+                last[i] = frames;
         }
+    }
+
+    @Override
+    public FastBitmap Current() {
+        FastBitmap image = new FastBitmap(background.getWidth(), background.getHeight(), FastBitmap.ColorSpace.Grayscale);
+        if (last == null) return image;
         
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                for (int k = 0; k < size; k++) {
-                    
-                    FastBitmap fb = sequence.get(k);
-                    fb.toGrayscale();
-                    
-                    Subtract sub = new Subtract(background);
-                    sub.applyInPlace(fb);
-                    
-                    Threshold t = new Threshold(threshold);
-                    t.applyInPlace(fb);
-                    
-                    for (int l = 0; l < height; l++) {
-                        for (int m = 0; m < width; m++) {
-                            if(fb.getGray(l, m) == 255){
-                                image.setGray(l, m, 255);
-                            }
-                        }
-                    }
-                }
-            }
+        byte[] g = image.getGrayData();
+        for (int i = 0; i < g.length; i++) {
+            if (Motion(i)) g[i] = (byte)255;
         }
+        return image;
+    }
+    
+    /**
+     * Get the number of pixels with motion.
+     * @return Energy.
+     */
+    public int getEnergy(){
+        if (last == null) return 0;
         
         int energy = 0;
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                if(image.getGray(i, j) == 255)
-                    energy++;
-            }
+        for (int i = 0; i < last.length; i++) {
+            if (Motion(i)) energy++;
         }
-        
-        return image;
+        return energy;
+    }
+
+    @Override
+    public int getCount() {
+        return window == 0 ? frames : Math.min(frames, window);
+    }
+
+    @Override
+    public void Reset() {
+        frames = 0;
+        last = null;
     }
     
-    
+    private boolean Motion(int i){
+        return last[i] > 0 && (window == 0 || frames - last[i] < window);
+    }
     
 }